@@ -0,0 +1,26 @@
+package edu.udo.cs.dynabench;
+
+import edu.udo.cs.dynalysis.JDynObserver;
+import edu.udo.cs.dynalysis.JDynUtil;
+
+/**
+ * An observer which ignores all events so that benchmarks measure the cost 
+ * of recording and dispatching events only.<br>
+ * Supported args: <code>values</code>, false if parameters and returned 
+ * values should not be captured for this observer.<br>
+ */
+public class NoOpObserver implements JDynObserver {
+	
+	private boolean values = true;
+	
+	@Override
+	public void setArgs(String args) {
+		values = !"false".equalsIgnoreCase(JDynUtil.extractArg(args, "values"));
+	}
+	
+	@Override
+	public boolean usesValues() {
+		return values;
+	}
+	
+}
\ No newline at end of file
@@ -0,0 +1,31 @@
+package edu.udo.cs.dynabench;
+
+import edu.udo.cs.dynaliser.CallSequenceTree;
+import edu.udo.cs.dynalysis.JDynProcessor;
+import edu.udo.cs.dynalysis.JDynUtil;
+
+/**
+ * A processor which does nothing so that benchmarks measure the cost of 
+ * recording and handing over trees only.<br>
+ * Supported args: <code>values</code>, false if parameters and returned 
+ * values should not be captured for this processor.<br>
+ */
+public class NoOpProcessor implements JDynProcessor {
+	
+	private boolean values = true;
+	
+	@Override
+	public void setArgs(String args) {
+		values = !"false".equalsIgnoreCase(JDynUtil.extractArg(args, "values"));
+	}
+	
+	@Override
+	public void processSequence(CallSequenceTree sequence) {
+	}
+	
+	@Override
+	public boolean usesValues() {
+		return values;
+	}
+	
+}
\ No newline at end of file
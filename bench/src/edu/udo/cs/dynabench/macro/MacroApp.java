@@ -0,0 +1,160 @@
+package edu.udo.cs.dynabench.macro;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * The application which is started by the {@link MacroBenchmarkRunner} in 
+ * a JVM of its own, with or without the agent. It runs one workload on a 
+ * number of threads for some time and prints a single line with the 
+ * results, which starts with {@link #RESULT_PREFIX}.<br>
+ * Usage: <code>MacroApp workload threads warmupMillis measureMillis</code><br>
+ * Threads are platform threads unless the count starts with "v", for 
+ * example "v64"; virtual threads need Java 21 or newer.<br>
+ * The result line contains the number of operations per second, the 50th 
+ * and 99th percentile of the latency of an operation in nano seconds and 
+ * the growth of the used heap over the measurement in bytes, in this 
+ * order.<br>
+ */
+public class MacroApp {
+	
+	public static final String RESULT_PREFIX = "MACRO-RESULT ";
+	/**
+	 * The number of latencies each thread keeps. Later latencies replace 
+	 * earlier ones.<br>
+	 */
+	private static final int LATENCY_SAMPLES = 1 << 14;
+	
+	private static volatile boolean measuring;
+	private static volatile boolean running = true;
+	private static volatile long sink;
+	
+	public static void main(String[] args) throws Exception {
+		if (args.length != 4) {
+			System.err.println("Usage: MacroApp workload threads warmupMillis measureMillis");
+			System.exit(1);
+		}
+		Workload workload = Workload.parse(args[0]);
+		if (workload == null) {
+			System.err.println("JDyn Error: Unknown workload '"+args[0]+"'");
+			System.exit(1);
+		}
+		boolean virtual = args[1].startsWith("v");
+		int threadCount = Integer.parseInt(virtual ? args[1].substring(1) : args[1]);
+		long warmupMillis = Long.parseLong(args[2]);
+		long measureMillis = Long.parseLong(args[3]);
+		
+		Worker[] workers = new Worker[threadCount];
+		Thread[] threads = new Thread[threadCount];
+		CountDownLatch done = new CountDownLatch(threadCount);
+		for (int i = 0; i < threadCount; i++) {
+			workers[i] = new Worker(workload, i, done);
+			threads[i] = virtual ? newVirtualThread(workers[i]) : new Thread(workers[i], "MacroWorker-"+i);
+		}
+		for (Thread thread : threads) {
+			thread.start();
+		}
+		Thread.sleep(warmupMillis);
+		long heapBefore = usedHeap();
+		measuring = true;
+		long startNanos = System.nanoTime();
+		Thread.sleep(measureMillis);
+		measuring = false;
+		long endNanos = System.nanoTime();
+		running = false;
+		done.await();
+		long heapAfter = usedHeap();
+		
+		long operations = 0;
+		int sampleCount = 0;
+		for (Worker worker : workers) {
+			operations += worker.operations;
+			sampleCount += Math.min(worker.operations, LATENCY_SAMPLES);
+		}
+		long[] latencies = new long[sampleCount];
+		int offset = 0;
+		for (Worker worker : workers) {
+			int count = (int) Math.min(worker.operations, LATENCY_SAMPLES);
+			System.arraycopy(worker.latencies, 0, latencies, offset, count);
+			offset += count;
+		}
+		Arrays.sort(latencies);
+		double seconds = (endNanos - startNanos) / 1e9;
+		System.out.println(RESULT_PREFIX + (long) (operations / seconds)
+				+ " " + percentile(latencies, 0.5)
+				+ " " + percentile(latencies, 0.99)
+				+ " " + (heapAfter - heapBefore));
+		System.exit(0);
+	}
+	
+	private static Thread newVirtualThread(Runnable task) throws Exception {
+		Method ofVirtual;
+		try {
+			ofVirtual = Thread.class.getMethod("ofVirtual");
+		} catch (NoSuchMethodException e) {
+			System.err.println("JDyn Error: Virtual threads need Java 21 or newer");
+			System.exit(2);
+			return null;
+		}
+		Object builder = ofVirtual.invoke(null);
+		// The builder class is not public, the interface is
+		Method unstarted = Class.forName("java.lang.Thread$Builder")
+				.getMethod("unstarted", Runnable.class);
+		return (Thread) unstarted.invoke(builder, task);
+	}
+	
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		System.gc();
+		System.gc();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+	
+	private static long percentile(long[] sortedValues, double fraction) {
+		if (sortedValues.length == 0) {
+			return 0;
+		}
+		int index = (int) Math.ceil(fraction * sortedValues.length) - 1;
+		return sortedValues[Math.max(0, Math.min(index, sortedValues.length - 1))];
+	}
+	
+	private static class Worker implements Runnable {
+		
+		private final Workload workload;
+		private final int seed;
+		private final CountDownLatch done;
+		private final long[] latencies = new long[LATENCY_SAMPLES];
+		/**
+		 * The number of operations performed while measuring.<br>
+		 */
+		private long operations;
+		
+		Worker(Workload workload, int seed, CountDownLatch done) {
+			this.workload = workload;
+			this.seed = seed;
+			this.done = done;
+		}
+		
+		@Override
+		public void run() {
+			long sum = 0;
+			try {
+				while (running) {
+					long before = System.nanoTime();
+					sum += workload.operation(seed);
+					long after = System.nanoTime();
+					if (measuring) {
+						latencies[(int) (operations % LATENCY_SAMPLES)] = after - before;
+						operations++;
+					}
+				}
+			} finally {
+				sink += sum;
+				done.countDown();
+			}
+		}
+		
+	}
+	
+}
\ No newline at end of file
@@ -0,0 +1,278 @@
+package edu.udo.cs.dynabench.macro;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Runs each {@link Workload} of the {@link MacroApp} on a number of threads, 
+ * once without the agent and once for each settings profile, and compares 
+ * the runs with the agent to the run without it: the loss of throughput, 
+ * the inflation of the 99th percentile latency and the growth of the used 
+ * heap. At the end the loss of throughput is printed for each thread 
+ * count, which shows how the overhead scales under contention.<br>
+ * Usage: <code>MacroBenchmarkRunner [-jar=jdyn.jar] [-profiles=bench/profiles] 
+ * [-run=profile,...] [-workloads=name,...] [-threads=1,2,...,v256] 
+ * [-warmup=millis] [-time=millis] [-java=path]</code><br>
+ * Thread counts starting with "v" use virtual threads; those runs are 
+ * skipped if the JVM given with "-java" is older than Java 21. Every run 
+ * uses a fresh JVM in a temporary directory which receives the output 
+ * files of the observers and processors.<br>
+ */
+public class MacroBenchmarkRunner {
+	
+	public static final String NO_AGENT = "none";
+	public static final String DEFAULT_THREADS = "1,2,4,8,16,32,64,128,256,v256";
+	
+	public static void main(String[] args) throws IOException, InterruptedException {
+		String agentJar = "jdyn.jar";
+		String profileDir = "bench/profiles";
+		String javaPath = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		List<String> profiles = new ArrayList<>();
+		List<Workload> workloads = new ArrayList<>();
+		String[] threadCounts = DEFAULT_THREADS.split(",");
+		long warmupMillis = 2000;
+		long measureMillis = 5000;
+		for (String arg : args) {
+			if (arg.startsWith("-jar=")) {
+				agentJar = arg.substring("-jar=".length());
+			} else if (arg.startsWith("-profiles=")) {
+				profileDir = arg.substring("-profiles=".length());
+			} else if (arg.startsWith("-run=")) {
+				profiles.addAll(Arrays.asList(arg.substring("-run=".length()).split(",")));
+			} else if (arg.startsWith("-workloads=")) {
+				for (String name : arg.substring("-workloads=".length()).split(",")) {
+					Workload workload = Workload.parse(name);
+					if (workload == null) {
+						System.err.println("JDyn Error: Unknown workload '"+name+"'");
+					} else {
+						workloads.add(workload);
+					}
+				}
+			} else if (arg.startsWith("-threads=")) {
+				threadCounts = arg.substring("-threads=".length()).split(",");
+			} else if (arg.startsWith("-warmup=")) {
+				warmupMillis = Long.parseLong(arg.substring("-warmup=".length()));
+			} else if (arg.startsWith("-time=")) {
+				measureMillis = Long.parseLong(arg.substring("-time=".length()));
+			} else if (arg.startsWith("-java=")) {
+				javaPath = arg.substring("-java=".length());
+			} else {
+				System.err.println("JDyn Error: Illegal Argument '"+arg+"'");
+			}
+		}
+		if (profiles.isEmpty()) {
+			profiles.addAll(listProfiles(profileDir));
+		}
+		profiles.remove(NO_AGENT);
+		if (workloads.isEmpty()) {
+			workloads.addAll(Arrays.asList(Workload.values()));
+		}
+		
+		MacroBenchmarkRunner runner = new MacroBenchmarkRunner(javaPath, 
+				new File(agentJar).getAbsolutePath(), 
+				new File(profileDir).getAbsoluteFile(), 
+				warmupMillis, measureMillis);
+		System.out.println(String.format("%-16s %-8s %-16s %12s %8s %10s %10s %8s %10s", 
+				"Workload", "Threads", "Profile", "ops/s", "loss", "p50 us", "p99 us", "p99 x", "heap MB"));
+		for (Workload workload : workloads) {
+			for (String threads : threadCounts) {
+				Result baseline = runner.run(workload, threads, NO_AGENT);
+				runner.print(workload, threads, NO_AGENT, baseline, baseline);
+				if (baseline == null) {
+					// For example virtual threads on an older JVM
+					continue;
+				}
+				for (String profile : profiles) {
+					Result result = runner.run(workload, threads, profile);
+					runner.print(workload, threads, profile, result, baseline);
+				}
+			}
+		}
+		runner.printScaling(workloads, threadCounts, profiles);
+	}
+	
+	private static List<String> listProfiles(String profileDir) {
+		List<String> profiles = new ArrayList<>();
+		String[] fileNames = new File(profileDir).list((dir, name) -> name.endsWith(".xml"));
+		if (fileNames == null) {
+			System.err.println("JDyn Error: Profile directory '"+profileDir+"' not found");
+			return profiles;
+		}
+		Arrays.sort(fileNames);
+		for (String fileName : fileNames) {
+			profiles.add(fileName.substring(0, fileName.length() - ".xml".length()));
+		}
+		return profiles;
+	}
+	
+	private final String javaPath;
+	private final String agentJar;
+	private final File profileDir;
+	private final long warmupMillis;
+	private final long measureMillis;
+	private final String classPath;
+	/**
+	 * The loss of throughput by workload, thread count and profile.<br>
+	 */
+	private final Map<String, Double> losses = new HashMap<>();
+	
+	public MacroBenchmarkRunner(String javaPath, String agentJar, File profileDir, 
+			long warmupMillis, long measureMillis) 
+	{
+		this.javaPath = javaPath;
+		this.agentJar = agentJar;
+		this.profileDir = profileDir;
+		this.warmupMillis = warmupMillis;
+		this.measureMillis = measureMillis;
+		// The runs use a different working directory
+		StringBuilder sb = new StringBuilder();
+		for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+			if (sb.length() > 0) {
+				sb.append(File.pathSeparator);
+			}
+			sb.append(new File(entry).getAbsolutePath());
+		}
+		classPath = sb.toString();
+	}
+	
+	/**
+	 * Runs the workload in a new JVM and returns its result or null if the 
+	 * run failed.<br>
+	 */
+	public Result run(Workload workload, String threads, String profile) 
+			throws IOException, InterruptedException 
+	{
+		List<String> command = new ArrayList<>();
+		command.add(javaPath);
+		if (!NO_AGENT.equals(profile)) {
+			File settings = new File(profileDir, profile + ".xml");
+			command.add("-javaagent:" + agentJar + "=-f=" + settings.getPath());
+		}
+		command.add("-cp");
+		command.add(classPath);
+		command.add(MacroApp.class.getName());
+		command.add(workload.name());
+		command.add(threads);
+		command.add(Long.toString(warmupMillis));
+		command.add(Long.toString(measureMillis));
+		
+		Path workDir = Files.createTempDirectory("jdynmacro");
+		Process process = new ProcessBuilder(command)
+				.directory(workDir.toFile())
+				.redirectErrorStream(true)
+				.start();
+		Result result = null;
+		List<String> output = new ArrayList<>();
+		try (BufferedReader reader = new BufferedReader(
+				new InputStreamReader(process.getInputStream()))) 
+		{
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.startsWith(MacroApp.RESULT_PREFIX)) {
+					result = Result.parse(line.substring(MacroApp.RESULT_PREFIX.length()));
+				} else {
+					output.add(line);
+				}
+			}
+		}
+		int exitCode = process.waitFor();
+		deleteRecursively(workDir);
+		if (result == null || exitCode != 0) {
+			System.err.println("JDyn Error: Run of "+workload+" with "+threads
+					+" threads and profile '"+profile+"' failed with exit code "+exitCode);
+			for (String line : output) {
+				System.err.println("\t" + line);
+			}
+			return null;
+		}
+		return result;
+	}
+	
+	private void print(Workload workload, String threads, String profile, 
+			Result result, Result baseline) 
+	{
+		if (result == null) {
+			System.out.println(String.format("%-16s %-8s %-16s %12s", 
+					workload, threads, profile, "n/a"));
+			return;
+		}
+		String loss = "n/a";
+		String inflation = "n/a";
+		if (baseline != null) {
+			double lossFraction = 1.0 - (double) result.opsPerSecond / baseline.opsPerSecond;
+			losses.put(workload + "/" + threads + "/" + profile, lossFraction);
+			loss = String.format("%.1f%%", lossFraction * 100);
+			inflation = String.format("%.2f", (double) result.p99Nanos / baseline.p99Nanos);
+		}
+		System.out.println(String.format("%-16s %-8s %-16s %12d %8s %10.2f %10.2f %8s %10.2f", 
+				workload, threads, profile, result.opsPerSecond, loss, 
+				result.p50Nanos / 1e3, result.p99Nanos / 1e3, inflation, 
+				result.heapGrowthBytes / (1024.0 * 1024.0)));
+	}
+	
+	private void printScaling(List<Workload> workloads, String[] threadCounts, List<String> profiles) {
+		for (Workload workload : workloads) {
+			System.out.println();
+			System.out.println("Throughput loss of " + workload + " by thread count");
+			StringBuilder header = new StringBuilder(String.format("%-16s", "Profile"));
+			for (String threads : threadCounts) {
+				header.append(String.format(" %8s", threads));
+			}
+			System.out.println(header);
+			for (String profile : profiles) {
+				StringBuilder row = new StringBuilder(String.format("%-16s", profile));
+				for (String threads : threadCounts) {
+					Double loss = losses.get(workload + "/" + threads + "/" + profile);
+					row.append(loss == null ? String.format(" %8s", "n/a") 
+							: String.format(" %7.1f%%", loss * 100));
+				}
+				System.out.println(row);
+			}
+		}
+	}
+	
+	private static void deleteRecursively(Path dir) {
+		try (Stream<Path> paths = Files.walk(dir)) {
+			paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	public static class Result {
+		
+		public final long opsPerSecond;
+		public final long p50Nanos;
+		public final long p99Nanos;
+		public final long heapGrowthBytes;
+		
+		public Result(long opsPerSecond, long p50Nanos, long p99Nanos, long heapGrowthBytes) {
+			this.opsPerSecond = opsPerSecond;
+			this.p50Nanos = p50Nanos;
+			this.p99Nanos = p99Nanos;
+			this.heapGrowthBytes = heapGrowthBytes;
+		}
+		
+		/**
+		 * Parses the values of a result line of the {@link MacroApp}.<br>
+		 */
+		public static Result parse(String values) {
+			String[] parts = values.trim().split(" ");
+			return new Result(Long.parseLong(parts[0]), Long.parseLong(parts[1]), 
+					Long.parseLong(parts[2]), Long.parseLong(parts[3]));
+		}
+		
+	}
+	
+}
\ No newline at end of file
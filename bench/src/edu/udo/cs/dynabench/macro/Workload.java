@@ -0,0 +1,57 @@
+package edu.udo.cs.dynabench.macro;
+
+import edu.udo.cs.dynabench.macro.workload.Allocation;
+import edu.udo.cs.dynabench.macro.workload.ExceptionStorm;
+import edu.udo.cs.dynabench.macro.workload.FanOut;
+import edu.udo.cs.dynabench.macro.workload.Recursion;
+
+/**
+ * The workloads of the macro benchmarks. Each operation is the root of one 
+ * tree with roughly a hundred events.<br>
+ */
+public enum Workload {
+	
+	RECURSION {
+		int operation(int seed) {
+			return new Recursion(seed).descend(100);
+		}
+	},
+	FAN_OUT {
+		int operation(int seed) {
+			return FanOut.spread(100, seed);
+		}
+	},
+	EXCEPTION_STORM {
+		int operation(int seed) {
+			// Every throw records 5 methods, the exception and a constructor
+			return new ExceptionStorm().storm(15);
+		}
+	},
+	ALLOCATION {
+		int operation(int seed) {
+			return Allocation.allocate(50, seed);
+		}
+	},
+	;
+	
+	/**
+	 * Performs one operation and returns a value which depends on all of 
+	 * its work.<br>
+	 */
+	abstract int operation(int seed);
+	
+	/**
+	 * Returns the workload with the given name, ignoring case and allowing 
+	 * "-" for "_", or null if there is no such workload.<br>
+	 */
+	public static Workload parse(String name) {
+		String constantName = name.replace('-', '_').toUpperCase();
+		for (Workload workload : values()) {
+			if (workload.name().equals(constantName)) {
+				return workload;
+			}
+		}
+		return null;
+	}
+	
+}
\ No newline at end of file
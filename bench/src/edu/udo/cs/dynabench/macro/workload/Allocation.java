@@ -0,0 +1,46 @@
+package edu.udo.cs.dynabench.macro.workload;
+
+/**
+ * Instrumented by the macro benchmarks. Creates a linked list of nodes so 
+ * that most events are constructors, half of them super constructors.<br>
+ */
+public class Allocation {
+	
+	public static int allocate(int count, int seed) {
+		Node head = null;
+		for (int i = 0; i < count; i++) {
+			head = new Node(head, i ^ seed);
+		}
+		return head == null ? 0 : head.getValue();
+	}
+	
+	public static class Element {
+		
+		private final int value;
+		
+		public Element(int value) {
+			this.value = value;
+		}
+		
+		public int getValue() {
+			return value;
+		}
+		
+	}
+	
+	public static class Node extends Element {
+		
+		private final Node next;
+		
+		public Node(Node next, int value) {
+			super(value);
+			this.next = next;
+		}
+		
+		public Node getNext() {
+			return next;
+		}
+		
+	}
+	
+}
\ No newline at end of file
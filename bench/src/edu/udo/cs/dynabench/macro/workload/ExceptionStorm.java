@@ -0,0 +1,48 @@
+package edu.udo.cs.dynabench.macro.workload;
+
+/**
+ * Instrumented by the macro benchmarks. Throws a new exception through a 
+ * few frames over and over again, as a program does that uses exceptions 
+ * for control flow.<br>
+ */
+public class ExceptionStorm {
+	
+	private static final int FRAMES = 4;
+	
+	public int storm(int throwCount) {
+		int caught = 0;
+		for (int i = 0; i < throwCount; i++) {
+			try {
+				fail(FRAMES, i);
+			} catch (StormException e) {
+				caught += e.getNumber();
+			}
+		}
+		return caught;
+	}
+	
+	private void fail(int frames, int number) {
+		if (frames == 0) {
+			throw new StormException(number);
+		}
+		fail(frames - 1, number);
+	}
+	
+	public static class StormException extends RuntimeException {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final int number;
+		
+		public StormException(int number) {
+			super("storm");
+			this.number = number;
+		}
+		
+		public int getNumber() {
+			return number;
+		}
+		
+	}
+	
+}
\ No newline at end of file
@@ -0,0 +1,21 @@
+package edu.udo.cs.dynabench.macro.workload;
+
+/**
+ * Instrumented by the macro benchmarks. Builds flat trees whose root has a 
+ * large number of children.<br>
+ */
+public class FanOut {
+	
+	public static int spread(int width, int seed) {
+		int sum = 0;
+		for (int i = 0; i < width; i++) {
+			sum += leaf(i, seed);
+		}
+		return sum;
+	}
+	
+	private static int leaf(int index, int seed) {
+		return index ^ seed;
+	}
+	
+}
\ No newline at end of file
@@ -0,0 +1,22 @@
+package edu.udo.cs.dynabench.macro.workload;
+
+/**
+ * Instrumented by the macro benchmarks. Builds deep trees with a single 
+ * branch.<br>
+ */
+public class Recursion {
+	
+	private final int offset;
+	
+	public Recursion(int offset) {
+		this.offset = offset;
+	}
+	
+	public int descend(int depth) {
+		if (depth == 0) {
+			return offset;
+		}
+		return descend(depth - 1) + 1;
+	}
+	
+}
\ No newline at end of file
@@ -0,0 +1,105 @@
+package edu.udo.cs.dynabench.probe;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the {@link ProbeBenchmarks} once without the agent and once for 
+ * each settings profile, then prints the time and the allocated bytes per 
+ * operation of each benchmark side by side.<br>
+ * Usage: <code>ProbeBenchmarkRunner [-jar=jdyn.jar] [-profiles=bench/profiles] 
+ * [-run=profile,...] [JMH options]</code><br>
+ * A profile is the name of a settings file in the profiles directory 
+ * without the ".xml" suffix; all profiles are run if none is given. The 
+ * profile "none" runs without the agent and is always run first. All other 
+ * arguments are passed to JMH, for example <code>-wi 1 -i 3</code> for a 
+ * shorter run.<br>
+ */
+public class ProbeBenchmarkRunner {
+	
+	public static final String NO_AGENT = "none";
+	
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+		String agentJar = "jdyn.jar";
+		String profileDir = "bench/profiles";
+		List<String> profiles = new ArrayList<>();
+		List<String> jmhArgs = new ArrayList<>();
+		for (String arg : args) {
+			if (arg.startsWith("-jar=")) {
+				agentJar = arg.substring("-jar=".length());
+			} else if (arg.startsWith("-profiles=")) {
+				profileDir = arg.substring("-profiles=".length());
+			} else if (arg.startsWith("-run=")) {
+				profiles.addAll(Arrays.asList(arg.substring("-run=".length()).split(",")));
+			} else {
+				jmhArgs.add(arg);
+			}
+		}
+		CommandLineOptions jmhOptions = new CommandLineOptions(
+				jmhArgs.toArray(new String[jmhArgs.size()]));
+		if (profiles.isEmpty()) {
+			profiles.addAll(listProfiles(profileDir));
+		}
+		profiles.remove(NO_AGENT);
+		profiles.add(0, NO_AGENT);
+		
+		List<String> rows = new ArrayList<>();
+		for (String profile : profiles) {
+			ChainedOptionsBuilder options = new OptionsBuilder()
+					.parent(jmhOptions)
+					.include(ProbeBenchmarks.class.getName())
+					.addProfiler(GCProfiler.class);
+			if (!NO_AGENT.equals(profile)) {
+				File settings = new File(profileDir, profile + ".xml");
+				options.jvmArgsAppend("-javaagent:" + agentJar + "=-f=" + settings.getPath());
+			}
+			Collection<RunResult> results = new Runner(options.build()).run();
+			for (RunResult result : results) {
+				rows.add(formatRow(profile, result));
+			}
+		}
+		System.out.println();
+		System.out.println(String.format("%-24s %-16s %12s %12s", 
+				"Benchmark", "Profile", "ns/op", "B/op"));
+		for (String row : rows) {
+			System.out.println(row);
+		}
+	}
+	
+	private static List<String> listProfiles(String profileDir) {
+		List<String> profiles = new ArrayList<>();
+		String[] fileNames = new File(profileDir).list((dir, name) -> name.endsWith(".xml"));
+		if (fileNames == null) {
+			System.err.println("JDyn Error: Profile directory '"+profileDir+"' not found");
+			return profiles;
+		}
+		Arrays.sort(fileNames);
+		for (String fileName : fileNames) {
+			profiles.add(fileName.substring(0, fileName.length() - ".xml".length()));
+		}
+		return profiles;
+	}
+	
+	private static String formatRow(String profile, RunResult result) {
+		String label = result.getParams().getBenchmark();
+		label = label.substring(label.lastIndexOf('.') + 1);
+		double nanos = result.getPrimaryResult().getScore();
+		Result<?> alloc = result.getSecondaryResults().get("gc.alloc.rate.norm");
+		double bytes = alloc == null ? Double.NaN : alloc.getScore();
+		return String.format("%-24s %-16s %12.1f %12.1f", label, profile, nanos, bytes);
+	}
+	
+}
\ No newline at end of file
@@ -0,0 +1,88 @@
+package edu.udo.cs.dynabench.probe;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.udo.cs.dynabench.probe.target.Leaf;
+import edu.udo.cs.dynabench.probe.target.ProbeTarget;
+
+/**
+ * Measures the cost of the probes injected by the agent for each callback 
+ * path of the JDynEventDispatcher.<br>
+ * The benchmark methods themselves are not instrumented; each of them 
+ * invokes one instrumented behavior of the target package which is the 
+ * root of a call sequence tree. The numbers therefore include starting 
+ * and finishing a tree. {@link #fanOut()} records many events into the 
+ * same tree and shows the cost of a single nested probe.<br>
+ * Which agent settings are used is decided by the fork; see 
+ * {@link ProbeBenchmarkRunner}.<br>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProbeBenchmarks {
+	
+	private final ProbeTarget target = new ProbeTarget();
+	private final Object argument = new Object();
+	private int number;
+	
+	@Benchmark
+	public int methodNoParams() {
+		return target.noParams();
+	}
+	
+	@Benchmark
+	public int methodWithParams() {
+		return target.withParams(number++, argument);
+	}
+	
+	@Benchmark
+	public int staticMethodNoParams() {
+		return ProbeTarget.staticNoParams();
+	}
+	
+	@Benchmark
+	public int staticMethodWithParams() {
+		return ProbeTarget.staticWithParams(number++, argument);
+	}
+	
+	@Benchmark
+	public Object constructorNoParams() {
+		return new Leaf();
+	}
+	
+	@Benchmark
+	public Object constructorWithParams() {
+		return new Leaf(number++, "leaf");
+	}
+	
+	@Benchmark
+	public Object exception() {
+		try {
+			target.thrower();
+			return null;
+		} catch (ProbeTarget.ProbeException e) {
+			return e;
+		}
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(ProbeTarget.FAN_OUT + 1)
+	public int fanOut() {
+		return target.fanOut();
+	}
+	
+}
\ No newline at end of file
@@ -0,0 +1,31 @@
+package edu.udo.cs.dynabench.probe.target;
+
+/**
+ * Constructed by the probe benchmarks to measure the constructor 
+ * callbacks.<br>
+ */
+public class Leaf {
+	
+	private final int number;
+	private final String name;
+	
+	public Leaf() {
+		// Not delegating to the other constructor which would be a second event
+		number = 0;
+		name = null;
+	}
+	
+	public Leaf(int leafNumber, String leafName) {
+		number = leafNumber;
+		name = leafName;
+	}
+	
+	public int getNumber() {
+		return number;
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+}
\ No newline at end of file
@@ -0,0 +1,66 @@
+package edu.udo.cs.dynabench.probe.target;
+
+/**
+ * Instrumented by the agent in the probe benchmarks. Each method exercises 
+ * a single callback path of the JDynEventDispatcher and does as little 
+ * work as possible itself.<br>
+ */
+public class ProbeTarget {
+	
+	/**
+	 * The number of calls made by {@link #fanOut()}.<br>
+	 */
+	public static final int FAN_OUT = 16;
+	
+	/**
+	 * Thrown by {@link #thrower()}. Created once and without a stack trace 
+	 * so that the benchmark measures the exception callback and not the 
+	 * JVM filling in stack traces.<br>
+	 */
+	private static final ProbeException EXCEPTION = new ProbeException();
+	
+	private int value;
+	
+	public int noParams() {
+		return value;
+	}
+	
+	public int withParams(int a, Object b) {
+		return a + value;
+	}
+	
+	public static int staticNoParams() {
+		return 1;
+	}
+	
+	public static int staticWithParams(int a, Object b) {
+		return a;
+	}
+	
+	public void thrower() {
+		throw EXCEPTION;
+	}
+	
+	/**
+	 * Calls {@link #noParams()} {@link #FAN_OUT} times so that all events 
+	 * are recorded into the same tree.<br>
+	 */
+	public int fanOut() {
+		int sum = 0;
+		for (int i = 0; i < FAN_OUT; i++) {
+			sum += noParams();
+		}
+		return sum;
+	}
+	
+	public static class ProbeException extends RuntimeException {
+		
+		private static final long serialVersionUID = 1L;
+		
+		ProbeException() {
+			super("probe", null, false, false);
+		}
+		
+	}
+	
+}
\ No newline at end of file
@@ -2,6 +2,7 @@ package edu.udo.cs.dynaliser;
 
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Deque;
 import java.util.Iterator;
@@ -10,40 +11,193 @@ import java.util.NoSuchElementException;
 
 public class CallSequenceTree implements Iterable<edu.udo.cs.dynaliser.CstEvent> {
 	
+	/**
+	 * Rough estimate of the memory used by one event and by each parameter 
+	 * of an event in bytes. Used for the byte limit of a tree.<br>
+	 */
+	private static final int EVENT_BYTES = 64;
+	private static final int PARAM_BYTES = 16;
+	
 	// Lazy initialization
 	private final Thread thread;
 	private Deque<CstEvent> eventStack;
 	private CstEvent rootEvent;
 	private int size;
+	// The events held by this tree including events which have not ended yet
+	private int heldEvents;
+	private long heldBytes;
+	/**
+	 * The events which have ended since subtrees were detached last. Only 
+	 * these can be detached, so only these count towards the limits.<br>
+	 */
+	private int completedEvents;
+	private long completedBytes;
+	/**
+	 * The number of partial trees which were detached from this tree. For 
+	 * a partial tree this is its index among the partial trees of the same 
+	 * root invocation instead.<br>
+	 */
+	private int detachedCount;
+	private final boolean partial;
+	// Guarded by this; trees are identified in the order they were queued
+	private boolean identitiesResolved;
+	/**
+	 * Holds the records of this tree until they are decoded into events 
+	 * the first time the root event is requested. Null if the events were 
+	 * recorded as objects.<br>
+	 */
+	private volatile JDynEventBuffer eventBuffer;
+	/**
+	 * The time this tree was passed to the {@link JDynProcessorThread}. Set 
+	 * before the tree is queued in the pipelines.<br>
+	 */
+	private long queuedNanoTime;
 	
 	CallSequenceTree(Thread sequenceThread) {
 		thread = sequenceThread;
+		partial = false;
+	}
+	
+	/**
+	 * Creates a partial tree for a completed subtree which was detached 
+	 * from a tree whose root invocation has not ended yet.<br>
+	 */
+	private CallSequenceTree(Thread sequenceThread, CstEvent subtreeRoot, 
+			int eventCount, int partialIndex) 
+	{
+		this(sequenceThread, subtreeRoot, eventCount, partialIndex, true);
+	}
+	
+	/**
+	 * Creates a complete tree from events which were not recorded by this 
+	 * tree, for example events built by a {@link JDynTreeBuilder}.<br>
+	 */
+	CallSequenceTree(Thread sequenceThread, CstEvent root, 
+			int eventCount, int partialIndex, boolean isPartial) 
+	{
+		thread = sequenceThread;
+		rootEvent = root;
+		size = eventCount;
+		detachedCount = partialIndex;
+		partial = isPartial;
+	}
+	
+	/**
+	 * Creates a tree for the records of a {@link JDynEventBuffer}. The 
+	 * buffer is released after it was decoded.<br>
+	 */
+	CallSequenceTree(Thread sequenceThread, JDynEventBuffer buffer) {
+		thread = sequenceThread;
+		eventBuffer = buffer;
+		size = buffer.getCompletedEventCount();
+		partial = false;
 	}
 	
 	public Thread getThread() {
 		return thread;
 	}
 	
+	/**
+	 * Returns true if this tree was detached from a tree whose root 
+	 * invocation had not ended yet because that tree exceeded the limits 
+	 * of the settings. The root event of a partial tree has a parent; the 
+	 * parent is returned by {@link #getOpenAncestor()}.<br>
+	 * @return		true if this is a partial tree
+	 */
+	public boolean isPartial() {
+		return partial;
+	}
+	
+	/**
+	 * Returns the event the root event of this partial tree was a child of. 
+	 * This event and its ancestors had not ended when this tree was 
+	 * detached; they are part of a later tree of the same thread. The 
+	 * children of the ancestors may still change.<br>
+	 * @return		the parent of the root event or null if this tree is not partial
+	 */
+	public CstEvent getOpenAncestor() {
+		if (!partial) {
+			return null;
+		}
+		return rootEvent.getParent();
+	}
+	
+	/**
+	 * For partial trees this returns the index of the tree among all partial 
+	 * trees detached from the same root invocation, in the order in which 
+	 * they were recorded. Otherwise the number of partial trees which were 
+	 * detached from this tree is returned; the events of those trees are no 
+	 * longer part of this tree.<br>
+	 * @return		a non-negative index or count
+	 */
+	public int getPartialIndex() {
+		return detachedCount;
+	}
+	
+	/**
+	 * Returns the number of events which have started but not ended yet.<br>
+	 */
+	int getOpenEventCount() {
+		return eventStack == null ? 0 : eventStack.size();
+	}
+	
+	/**
+	 * Returns the number of events this tree holds, including events which 
+	 * have not ended yet. Other threads may read a slightly outdated value.<br>
+	 */
+	int getHeldEventCount() {
+		return heldEvents;
+	}
+	
+	/**
+	 * Returns the estimated memory of the events this tree holds in bytes. 
+	 * Other threads may read a slightly outdated value.<br>
+	 */
+	long getHeldBytes() {
+		return heldBytes;
+	}
+	
+	long getQueuedNanoTime() {
+		return queuedNanoTime;
+	}
+	
+	void setQueuedNanoTime(long nanoTime) {
+		queuedNanoTime = nanoTime;
+	}
+	
 	boolean isFinal() {
 		return rootEvent != null && (eventStack == null 
 				|| eventStack.isEmpty());
 	}
 	
 	public CstEvent getRootEvent() {
+		if (eventBuffer != null) {
+			decodeEventBuffer();
+		}
 		return rootEvent;
 	}
 	
+	private synchronized void decodeEventBuffer() {
+		JDynEventBuffer buffer = eventBuffer;
+		// Another processor may have decoded the buffer in the meantime
+		if (buffer == null) {
+			return;
+		}
+		rootEvent = buffer.decode();
+		eventBuffer = null;
+		buffer.release();
+	}
+	
 	protected CstEventConstructor beforeConstructor(
 			Class<?> clazz, 
-			String signature, 
-			Object[] params, 
-			boolean hasParams) 
+			int methodID, 
+			int paramCount) 
 	{
 		CstEventConstructor event;
-		if (hasParams) {
-			event = new CstEventConstructor(peekEvent(), clazz, signature, params);
+		if (paramCount > 0) {
+			event = new CstEventConstructor(peekEvent(), clazz, methodID, new Object[paramCount]);
 		} else {
-			event = new CstEventConstructor(peekEvent(), clazz, signature);
+			event = new CstEventConstructor(peekEvent(), clazz, methodID);
 		}
 		pushEvent(event);
 		return event;
@@ -52,10 +206,13 @@ public class CallSequenceTree implements Iterable<edu.udo.cs.dynaliser.CstEvent>
 	protected CstEventConstructor afterConstructor(Object object) {
 		CstEventConstructor event = (CstEventConstructor) popEvent(CstEventConstructor.class);
 		event.makeEndTime();
-		if (event.getConstructedClass() != object.getClass()) {
-			event.setSuperConstructor(object);
-		} else {
-			event.setRegularConstructor(object);
+		// The object is null if it was not captured
+		if (object != null) {
+			if (event.getConstructedClass() != object.getClass()) {
+				event.setSuperConstructor(object);
+			} else {
+				event.setRegularConstructor(object);
+			}
 		}
 		size++;
 		return event;
@@ -63,15 +220,14 @@ public class CallSequenceTree implements Iterable<edu.udo.cs.dynaliser.CstEvent>
 	
 	protected CstEventStaticMethod beforeStaticMethod(
 			Class<?> clazz, 
-			String signature, 
-			Object[] params, 
-			boolean hasParams) 
+			int methodID, 
+			int paramCount) 
 	{
 		CstEventStaticMethod event;
-		if (hasParams) {
-			event = new CstEventStaticMethod(peekEvent(), clazz, signature, params);
+		if (paramCount > 0) {
+			event = new CstEventStaticMethod(peekEvent(), clazz, methodID, new Object[paramCount]);
 		} else {
-			event = new CstEventStaticMethod(peekEvent(), clazz, signature);
+			event = new CstEventStaticMethod(peekEvent(), clazz, methodID);
 		}
 		pushEvent(event);
 		return event;
@@ -79,7 +235,7 @@ public class CallSequenceTree implements Iterable<edu.udo.cs.dynaliser.CstEvent>
 	
 	protected CstEventStaticMethod afterStaticMethod(
 			Class<?> clazz, 
-			String signature, 
+			int methodID, 
 			Object returnedValue, 
 			boolean hasReturn) 
 	{
@@ -93,16 +249,17 @@ public class CallSequenceTree implements Iterable<edu.udo.cs.dynaliser.CstEvent>
 	protected CstEventMethod beforeMethod(
 			Object object, 
 			int id, 
-			String signature, 
-			Object[] params, 
-			boolean hasParams) 
+			int methodID, 
+			int paramCount) 
 	{
-		IdentifiedObject self = new IdentifiedObject(object, id);
 		CstEventMethod event;
-		if (hasParams) {
-			event = new CstEventMethod(peekEvent(), self, signature, params);
+		if (paramCount > 0) {
+			event = new CstEventMethod(peekEvent(), object, methodID, new Object[paramCount]);
 		} else {
-			event = new CstEventMethod(peekEvent(), self, signature);
+			event = new CstEventMethod(peekEvent(), object, methodID);
+		}
+		if (id != JDynIdentityTable.NO_ID) {
+			event.setID(id);
 		}
 		pushEvent(event);
 		return event;
@@ -110,7 +267,7 @@ public class CallSequenceTree implements Iterable<edu.udo.cs.dynaliser.CstEvent>
 	
 	protected CstEventMethod afterMethod(
 			Object object, 
-			String signature, 
+			int methodID, 
 			Object returnedValue, 
 			boolean hasReturn) 
 	{
@@ -121,8 +278,11 @@ public class CallSequenceTree implements Iterable<edu.udo.cs.dynaliser.CstEvent>
 		return event;
 	}
 	
-	protected CstEventException exception(Exception exception, int id) {
-		CstEventException event = new CstEventException(peekEvent(), exception, id);
+	protected CstEventException exception(Throwable exception, int methodID, int id) {
+		CstEventException event = new CstEventException(peekEvent(), exception, methodID);
+		if (id != JDynIdentityTable.NO_ID) {
+			event.setID(id);
+		}
 		event.makeEndTime();
 		pushEvent(event);
 		popEvent(CstEventException.class);
@@ -130,6 +290,122 @@ public class CallSequenceTree implements Iterable<edu.udo.cs.dynaliser.CstEvent>
 		return event;
 	}
 	
+	/**
+	 * Returns true if the events which have ended since subtrees were 
+	 * detached last are more or use more estimated bytes than allowed. A 
+	 * limit of 0 or less is ignored.<br>
+	 * Events which have not ended yet are not counted. Otherwise a deep 
+	 * stack of running behaviors would exceed the limits on every end and 
+	 * each detachment would only yield a single event.<br>
+	 */
+	boolean exceedsLimits(int maxEvents, long maxBytes) {
+		return (maxEvents > 0 && completedEvents > maxEvents) 
+				|| (maxBytes > 0 && completedBytes > maxBytes);
+	}
+	
+	/**
+	 * Removes all completed subtrees from this tree and returns them as 
+	 * partial trees in the order in which they were recorded. Afterwards 
+	 * this tree only holds the events which have not ended yet.<br>
+	 * @return		a list of partial trees, may be empty
+	 */
+	List<CallSequenceTree> detachCompletedSubtrees() {
+		if (eventStack == null || eventStack.isEmpty() || completedEvents == 0) {
+			return Collections.emptyList();
+		}
+		List<CallSequenceTree> result = new ArrayList<>();
+		// The bottom of the stack is the root event
+		Iterator<CstEvent> iter = eventStack.descendingIterator();
+		CstEvent openEvent = iter.next();
+		heldBytes = 0;
+		while (openEvent != null) {
+			heldBytes += estimateBytes(openEvent);
+			CstEvent openChild = iter.hasNext() ? iter.next() : null;
+			for (CstEvent child : openEvent.removeChildrenBefore(openChild)) {
+				result.add(new CallSequenceTree(thread, child, 
+						countEvents(child), detachedCount++));
+			}
+			openEvent = openChild;
+		}
+		// Only events which have not ended are left; they are not counted yet
+		heldEvents = eventStack.size();
+		completedEvents = 0;
+		completedBytes = 0;
+		size = 0;
+		return result;
+	}
+	
+	private static int estimateBytes(CstEvent event) {
+		return EVENT_BYTES + PARAM_BYTES * event.getParameterArray().length;
+	}
+	
+	private static int countEvents(CstEvent subtreeRoot) {
+		int count = 0;
+		Deque<CstEvent> stack = new ArrayDeque<>();
+		stack.push(subtreeRoot);
+		while (!stack.isEmpty()) {
+			CstEvent current = stack.pop();
+			count++;
+			for (int i = 0; i < current.getChildCount(); i++) {
+				stack.push(current.getChild(i));
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 * Returns true if {@link #resolveIdentities(JDynIdentityTable)} was called.<br>
+	 */
+	synchronized boolean isIdentitiesResolved() {
+		return identitiesResolved;
+	}
+	
+	/**
+	 * Identifies all objects referenced by the events of this tree in the 
+	 * order in which they would have been identified while recording. This 
+	 * is used when the identification was deferred to the 
+	 * {@link JDynProcessorThread}. Must not be called while events are still 
+	 * being added to this tree. Calls after the first call have no effect.<br>
+	 * @param table		the table used for identification
+	 */
+	synchronized void resolveIdentities(JDynIdentityTable table) {
+		if (identitiesResolved) {
+			return;
+		}
+		identitiesResolved = true;
+		CstEvent rootEvent = getRootEvent();
+		if (rootEvent == null) {
+			return;
+		}
+		// Walk the tree iteratively; recursive call sequences may be very deep
+		CstEvent[] path = new CstEvent[16];
+		int[] nextChild = new int[16];
+		int depth = 0;
+		path[0] = rootEvent;
+		nextChild[0] = 0;
+		rootEvent.resolveStart(table);
+		while (depth >= 0) {
+			CstEvent current = path[depth];
+			int childIndex = nextChild[depth];
+			if (childIndex < current.getChildCount()) {
+				nextChild[depth] = childIndex + 1;
+				CstEvent child = current.getChild(childIndex);
+				depth++;
+				if (depth == path.length) {
+					path = Arrays.copyOf(path, depth * 2);
+					nextChild = Arrays.copyOf(nextChild, depth * 2);
+				}
+				path[depth] = child;
+				nextChild[depth] = 0;
+				child.resolveStart(table);
+			} else {
+				current.resolveEnd(table);
+				path[depth] = null;
+				depth--;
+			}
+		}
+	}
+	
 	public int getEventCount() {
 		return size;
 	}
@@ -155,6 +431,8 @@ public class CallSequenceTree implements Iterable<edu.udo.cs.dynaliser.CstEvent>
 			currentEvent.addChild(event);
 		}
 		eventStack.push(event);
+		heldEvents++;
+		heldBytes += estimateBytes(event);
 	}
 	
 	protected CstEvent popEvent(Class<?> expectedClass) {
@@ -171,6 +449,8 @@ public class CallSequenceTree implements Iterable<edu.udo.cs.dynaliser.CstEvent>
 					+" != "+
 					expectedClass.getSimpleName());
 		}
+		completedEvents++;
+		completedBytes += estimateBytes(event);
 		// After the tree was finalized the stack is no longer needed
 		if (isFinal()) {
 			eventStack = null;
@@ -204,13 +484,14 @@ public class CallSequenceTree implements Iterable<edu.udo.cs.dynaliser.CstEvent>
 		private int pos = 0;
 		
 		public CstIterator(CallSequenceTree seqDia) {
-			if (seqDia.rootEvent == null) {
+			CstEvent rootEvent = seqDia.getRootEvent();
+			if (rootEvent == null) {
 				eventList = Collections.emptyList();
 			} else {
 				eventList = new ArrayList<>();
 				
 				Deque<CstEvent> eventStack = new ArrayDeque<>();
-				eventStack.push(seqDia.rootEvent);
+				eventStack.push(rootEvent);
 				while (!eventStack.isEmpty()) {
 					CstEvent current = eventStack.pop();
 					eventList.add(current);
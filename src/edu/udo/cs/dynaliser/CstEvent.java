@@ -12,20 +12,21 @@ public abstract class CstEvent {
 	private final CstEvent parent;
 	// Type should be unique per class and constant
 	private final CstEventType type;
-	// The signature of the method / constructor / exception
-	private final String sig;
+	// The id of the method / constructor in the JDynMethodRegistry
+	private final int methodID;
 	// The nano time of the system when this event was created
-	private final long beforeTime;
+	// Only changed when the event is decoded from a JDynEventBuffer
+	private long beforeTime;
 	// The nano time of the system when this event was finished
 	// This is set in the method makeEndTime()
 	private long afterTime;
 	// Lazy initialized
 	private List<CstEvent> children;
 	
-	CstEvent(CstEventType eventType, CstEvent parentEvent, String signature) {
+	CstEvent(CstEventType eventType, CstEvent parentEvent, int methodIdentifier) {
 		type = eventType;
 		parent = parentEvent;
-		sig = signature;
+		methodID = methodIdentifier;
 		beforeTime = System.nanoTime();
 	}
 	
@@ -55,8 +56,24 @@ public abstract class CstEvent {
 		return type;
 	}
 	
+	/**
+	 * Returns the id of the behavior that caused this event as given out 
+	 * by the {@link JDynMethodRegistry}. Events that do not belong to a 
+	 * behavior return {@link JDynMethodRegistry#NO_METHOD_ID}.<br>
+	 * @return			a dense, non-negative id or {@link JDynMethodRegistry#NO_METHOD_ID}
+	 */
+	public int getMethodID() {
+		return methodID;
+	}
+	
+	/**
+	 * Returns the signature of the behavior that caused this event. The 
+	 * signature is looked up in the {@link JDynMethodRegistry} each time 
+	 * this method is called; use {@link #getMethodID()} where possible.<br>
+	 * @return			the long name of the behavior
+	 */
 	public String getSignature() {
-		return sig;
+		return JDynMethodRegistry.getSignature(methodID);
 	}
 	
 	/**
@@ -84,6 +101,15 @@ public abstract class CstEvent {
 		afterTime = System.nanoTime();
 	}
 	
+	/**
+	 * Sets the recorded times of an event that is decoded from a 
+	 * {@link JDynEventBuffer}.<br>
+	 */
+	void setNanoTimes(long before, long after) {
+		beforeTime = before;
+		afterTime = after;
+	}
+	
 	public CstEvent getParent() {
 		return parent;
 	}
@@ -93,6 +119,26 @@ public abstract class CstEvent {
 		children.add(child);
 	}
 	
+	/**
+	 * Removes all children except openChild, which must be the last child 
+	 * if it is not null, and returns them in order. Used by the 
+	 * {@link CallSequenceTree} to detach completed subtrees.<br>
+	 */
+	List<CstEvent> removeChildrenBefore(CstEvent openChild) {
+		if (children == null) {
+			return Collections.emptyList();
+		}
+		if (openChild == null) {
+			List<CstEvent> removed = children;
+			children = null;
+			return removed;
+		}
+		List<CstEvent> completed = children.subList(0, children.size() - 1);
+		List<CstEvent> removed = new ArrayList<>(completed);
+		completed.clear();
+		return removed;
+	}
+	
 	public int getChildCount() {
 		if (children == null) {
 			return 0;
@@ -100,6 +146,14 @@ public abstract class CstEvent {
 		return children.size();
 	}
 	
+	/**
+	 * Returns the child at the given index without creating a view of the 
+	 * child list. Used internally to walk trees.<br>
+	 */
+	CstEvent getChild(int index) {
+		return children.get(index);
+	}
+	
 	public List<CstEvent> getChildren() {
 		if (children == null) {
 			return Collections.emptyList();
@@ -107,6 +161,56 @@ public abstract class CstEvent {
 		return Collections.unmodifiableList(children);
 	}
 	
+	/**
+	 * Called by {@link CallSequenceTree#resolveIdentities(JDynIdentityTable)} 
+	 * in the order in which this event was started. Subclasses identify the 
+	 * objects that would have been identified at the start of the event 
+	 * if identification had not been deferred.<br>
+	 * @param table		the table used for identification
+	 */
+	void resolveStart(JDynIdentityTable table) {}
+	
+	/**
+	 * Like {@link #resolveStart(JDynIdentityTable)} but called in the order 
+	 * in which this event ended, after all children were resolved.<br>
+	 * @param table		the table used for identification
+	 */
+	void resolveEnd(JDynIdentityTable table) {}
+	
+	/**
+	 * Returns the array the parameters of this event are stored in. The 
+	 * {@link JDynEventDispatcher} writes the parameters into this array 
+	 * one by one after the event was created.<br>
+	 */
+	Object[] getParameterArray() {
+		return EMPTY_ARRAY;
+	}
+	
+	/**
+	 * Replaces each parameter that has been identified before by an 
+	 * {@link IdentifiedObject}. Used for deferred identification.<br>
+	 */
+	static void resolveParameters(Object[] params, JDynIdentityTable table) {
+		for (int i = 0; i < params.length; i++) {
+			params[i] = resolveValue(params[i], table);
+		}
+	}
+	
+	/**
+	 * Returns an {@link IdentifiedObject} for value if it has been identified 
+	 * before, otherwise value itself. Used for deferred identification.<br>
+	 */
+	static Object resolveValue(Object value, JDynIdentityTable table) {
+		if (value == null || value instanceof IdentifiedObject) {
+			return value;
+		}
+		int id = table.probe(value);
+		if (id == JDynIdentityTable.NO_ID) {
+			return value;
+		}
+		return new IdentifiedObject(value, id);
+	}
+	
 	private void lazyCreateChildList() {
 		if (children == null) {
 			children = new ArrayList<>(2);
@@ -10,17 +10,17 @@ public class CstEventConstructor extends CstEvent {
 		
 		protected CstEventConstructor(CstEvent parentEvent, 
 				Class<?> constructedClass, 
-				String signature) 
+				int methodID) 
 		{
-			this(parentEvent, constructedClass, signature, EMPTY_ARRAY);
+			this(parentEvent, constructedClass, methodID, EMPTY_ARRAY);
 		}
 		
 		protected CstEventConstructor(CstEvent parentEvent, 
 				Class<?> constructedClass, 
-				String signature, 
+				int methodID, 
 				Object[] parameters) 
 		{
-			super(CstEventType.CONSTRUCTOR, parentEvent, signature);
+			super(CstEventType.CONSTRUCTOR, parentEvent, methodID);
 			clazz = constructedClass;
 			params = parameters;
 		}
@@ -45,6 +45,14 @@ public class CstEventConstructor extends CstEvent {
 			costructedObj = object;
 		}
 		
+		/**
+		 * Used for events decoded from a {@link JDynEventBuffer}.<br>
+		 */
+		void setConstructedObject(IdentifiedObject object, boolean isSuperConstructor) {
+			self = object;
+			superConstructor = isSuperConstructor;
+		}
+		
 		protected void setID(int id) {
 			if (costructedObj == null) {
 				throw new IllegalStateException("costructedObj == null");
@@ -60,6 +68,16 @@ public class CstEventConstructor extends CstEvent {
 			}
 		}
 		
+		void resolveStart(JDynIdentityTable table) {
+			resolveParameters(params, table);
+		}
+		
+		void resolveEnd(JDynIdentityTable table) {
+			if (costructedObj != null && !superConstructor) {
+				setID(table.identify(costructedObj));
+			}
+		}
+		
 		public boolean isSuperConstructor() {
 			return superConstructor;
 		}
@@ -68,6 +86,10 @@ public class CstEventConstructor extends CstEvent {
 			return clazz;
 		}
 		
+		Object[] getParameterArray() {
+			return params;
+		}
+		
 		public Object[] getParameters() {
 			return params;
 		}
@@ -76,6 +98,11 @@ public class CstEventConstructor extends CstEvent {
 			return params != null && params.length > 0;
 		}
 		
+		/**
+		 * Returns the constructed object. This is null if the constructed 
+		 * object was not captured or not identified yet.<br>
+		 * @return			an {@link IdentifiedObject} or null
+		 */
 		public IdentifiedObject getConstructedObject() {
 			return self;
 		}
@@ -1,33 +1,129 @@
 package edu.udo.cs.dynaliser;
 
+import java.util.Arrays;
+
+/**
+ * A single throw of an exception or error. The event is created in the first 
+ * instrumented behavior the throwable leaves. While it propagates further 
+ * each instrumented behavior it leaves is added to the same event instead of 
+ * creating a new event per behavior.<br>
+ */
 public class CstEventException extends CstEvent {
 	
-	private final IdentifiedObject excObj;
+	private final Throwable exc;
+	// Lazily created unless the exception was identified when it was thrown
+	private IdentifiedObject excObj;
+	/**
+	 * The ids of the behaviors the throwable left in the order in which it 
+	 * left them. Only written by the recording thread before the event is 
+	 * processed.<br>
+	 */
+	private int[] unwoundIDs;
+	private int unwindDepth;
+	
+	protected CstEventException(CstEvent parentEvent, Throwable exception, int methodID) {
+		super(CstEventType.EXCEPTION, parentEvent, JDynMethodRegistry.NO_METHOD_ID);
+		exc = exception;
+		unwoundIDs = new int[] {methodID};
+		unwindDepth = 1;
+	}
+	
+	/**
+	 * Called when the throwable leaves another instrumented behavior.<br>
+	 */
+	void addUnwoundBehavior(int methodID) {
+		if (unwindDepth == unwoundIDs.length) {
+			unwoundIDs = Arrays.copyOf(unwoundIDs, unwindDepth * 2);
+		}
+		unwoundIDs[unwindDepth++] = methodID;
+	}
 	
-	protected CstEventException(CstEvent parentEvent, Exception exception, int objID) {
-		super(CstEventType.EXCEPTION, parentEvent, exception.getClass().getName());
-		excObj = new IdentifiedObject(exception, objID);
+	void setUnwoundBehaviors(int[] methodIDs, int count) {
+		unwoundIDs = Arrays.copyOf(methodIDs, count);
+		unwindDepth = count;
 	}
 	
 	protected IdentifiedObject getSourceObject() {
 		return getExceptionObject();
 	}
 	
+	protected void setID(int id) {
+		excObj = new IdentifiedObject(exc, id);
+	}
+	
+	void resolveStart(JDynIdentityTable table) {
+		setID(table.identify(exc));
+	}
+	
+	/**
+	 * Returns the thrown exception. If identification is deferred and the 
+	 * event was not processed yet the id of the returned object is 
+	 * {@link JDynIdentityTable#NO_ID}.<br>
+	 * @return			a non-null {@link IdentifiedObject}
+	 */
 	public IdentifiedObject getExceptionObject() {
+		if (excObj == null) {
+			excObj = new IdentifiedObject(exc, JDynIdentityTable.NO_ID);
+		}
 		return excObj;
 	}
 	
+	/**
+	 * Returns the thrown exception or error.<br>
+	 * @return			a non-null {@link Throwable}
+	 */
+	public Throwable getThrowable() {
+		return exc;
+	}
+	
+	/**
+	 * Returns the thrown exception. Use {@link #getThrowable()} to get 
+	 * errors as well.<br>
+	 * @return			the thrown exception or null if an {@link Error} or 
+	 * 					another kind of {@link Throwable} was thrown
+	 */
 	public Exception getException() {
-		return (Exception) getExceptionObject().getIdentifiedObject();
+		return exc instanceof Exception ? (Exception) exc : null;
+	}
+	
+	/**
+	 * Returns the number of instrumented behaviors the throwable left 
+	 * before it was caught or left the root invocation. Behaviors which 
+	 * are not instrumented are not counted.<br>
+	 * @return			a positive number
+	 */
+	public int getUnwindDepth() {
+		return unwindDepth;
+	}
+	
+	/**
+	 * Returns the ids of the instrumented behaviors the throwable left in 
+	 * the order in which it left them. The first id belongs to the behavior 
+	 * in which the throwable was thrown or which called the uninstrumented 
+	 * code that threw it.<br>
+	 * @return			an array with {@link #getUnwindDepth()} ids of the 
+	 * 					{@link JDynMethodRegistry}
+	 */
+	public int[] getUnwoundMethodIDs() {
+		return Arrays.copyOf(unwoundIDs, unwindDepth);
+	}
+	
+	/**
+	 * Exceptions do not have an id in the {@link JDynMethodRegistry}. 
+	 * Their signature is the name of the exception class.<br>
+	 * @return			the full name of the exception class
+	 */
+	public String getSignature() {
+		return getThrowable().getClass().getName();
 	}
 	
 	public String toString() {
 		StringBuilder sb = new StringBuilder();
 		sb.append(getEventType().toString());
 		sb.append("::");
-		sb.append(getException().getClass().getName());
+		sb.append(getThrowable().getClass().getName());
 		sb.append("=");
-		sb.append(getException().getMessage());
+		sb.append(getThrowable().getMessage());
 		return sb.toString();
 	}
 	
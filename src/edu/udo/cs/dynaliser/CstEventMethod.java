@@ -2,26 +2,28 @@ package edu.udo.cs.dynaliser;
 
 public class CstEventMethod extends CstEvent {
 	
-	private final IdentifiedObject obj;
+	private final Object obj;
 	private final Object[] params;
+	// Lazily created unless the object was identified when the event started
+	private IdentifiedObject self;
 	private Object retVal;
 	private boolean hasRetVal;
 	
 	protected CstEventMethod(
 			CstEvent parentEvent, 
-			IdentifiedObject object, 
-			String signature) 
+			Object object, 
+			int methodID) 
 	{
-		this(parentEvent, object, signature, EMPTY_ARRAY);
+		this(parentEvent, object, methodID, EMPTY_ARRAY);
 	}
 	
 	protected CstEventMethod(
 			CstEvent parentEvent, 
-			IdentifiedObject object, 
-			String signature, 
+			Object object, 
+			int methodID, 
 			Object[] parameters) 
 	{
-		super(CstEventType.METHOD, parentEvent, signature);
+		super(CstEventType.METHOD, parentEvent, methodID);
 		obj = object;
 		params = parameters;
 	}
@@ -30,13 +32,52 @@ public class CstEventMethod extends CstEvent {
 		return getInvokingObject();
 	}
 	
+	protected void setID(int id) {
+		self = new IdentifiedObject(obj, id);
+	}
+	
+	/**
+	 * Used for events decoded from a {@link JDynEventBuffer}.<br>
+	 */
+	void setInvokingObject(IdentifiedObject object) {
+		self = object;
+	}
+	
 	protected void setReturnedValue(Object returnedValue, boolean hasReturnValue) {
 		retVal = returnedValue;
 		hasRetVal = hasReturnValue;
 	}
 	
+	void resolveStart(JDynIdentityTable table) {
+		resolveParameters(params, table);
+		if (obj != null) {
+			setID(table.identify(obj));
+		}
+	}
+	
+	void resolveEnd(JDynIdentityTable table) {
+		if (hasRetVal) {
+			retVal = resolveValue(retVal, table);
+		}
+	}
+	
+	/**
+	 * Returns the object on which the method was invoked. If identification 
+	 * is deferred and the event was not processed yet the id of the 
+	 * returned object is {@link JDynIdentityTable#NO_ID}.<br>
+	 * @return			an {@link IdentifiedObject} or null if the invoking 
+	 * 					object was not captured
+	 * @see JDynCaptureLevel#TIMING
+	 */
 	public IdentifiedObject getInvokingObject() {
-		return obj;
+		if (self == null && obj != null) {
+			self = new IdentifiedObject(obj, JDynIdentityTable.NO_ID);
+		}
+		return self;
+	}
+	
+	Object[] getParameterArray() {
+		return params;
 	}
 	
 	public Object[] getParameters() {
@@ -2,28 +2,28 @@ package edu.udo.cs.dynaliser;
 
 public class CstEventStaticMethod extends CstEvent {
 	
-	private final IdentifiedObject clazzObj;
 	private final Class<?> clazz;
 	private final Object[] params;
+	// Lazily created
+	private IdentifiedObject clazzObj;
 	private Object retVal;
 	private boolean hasRetVal;
 	
 	protected CstEventStaticMethod(
 			CstEvent parentEvent, 
 			Class<?> methodClass, 
-			String signature)
+			int methodID)
 	{
-		this(parentEvent, methodClass, signature, EMPTY_ARRAY);
+		this(parentEvent, methodClass, methodID, EMPTY_ARRAY);
 	}
 	
 	protected CstEventStaticMethod(
 			CstEvent parentEvent, 
 			Class<?> methodClass, 
-			String signature, 
+			int methodID, 
 			Object[] parameters) 
 	{
-		super(CstEventType.STATIC_METHOD, parentEvent, signature);
-		clazzObj = new IdentifiedObject(methodClass, -1);
+		super(CstEventType.STATIC_METHOD, parentEvent, methodID);
 		clazz = methodClass;
 		params = parameters;
 	}
@@ -37,7 +37,20 @@ public class CstEventStaticMethod extends CstEvent {
 		hasRetVal = hasReturnValue;
 	}
 	
+	void resolveStart(JDynIdentityTable table) {
+		resolveParameters(params, table);
+	}
+	
+	void resolveEnd(JDynIdentityTable table) {
+		if (hasRetVal) {
+			retVal = resolveValue(retVal, table);
+		}
+	}
+	
 	public IdentifiedObject getMethodClassObject() {
+		if (clazzObj == null) {
+			clazzObj = new IdentifiedObject(clazz, -1);
+		}
 		return clazzObj;
 	}
 	
@@ -45,6 +58,10 @@ public class CstEventStaticMethod extends CstEvent {
 		return clazz;
 	}
 	
+	Object[] getParameterArray() {
+		return params;
+	}
+	
 	public Object[] getParameters() {
 		return params;
 	}
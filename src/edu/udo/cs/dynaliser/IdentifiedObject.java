@@ -3,6 +3,7 @@ package edu.udo.cs.dynaliser;
 public class IdentifiedObject {
 	
 	private final Object obj;
+	private final Class<?> clazz;
 	private final int id;
 	
 	/**
@@ -16,22 +17,54 @@ public class IdentifiedObject {
 			throw new IllegalArgumentException("obj == null");
 		}
 		this.obj = obj;
+		this.clazz = null;
+		this.id = id;
+	}
+	
+	private IdentifiedObject(Class<?> objectClass, int id) {
+		this.obj = null;
+		this.clazz = objectClass;
 		this.id = id;
 	}
 	
 	/**
-	 * The object that is identified by the unique id returned 
+	 * Creates an {@link IdentifiedObject} for an object that is no longer
+	 * available, for example because its events were recorded into a
+	 * {@link JDynEventBuffer}. Only the class and the id are known.<br>
+	 * @param objectClass					the class of the object, non-null
+	 * @param id							the unique id for the object
+	 * @return								an identified object without object
+	 * @throws IllegalArgumentException		if objectClass is null
+	 */
+	public static IdentifiedObject withoutObject(Class<?> objectClass, int id) {
+		if (objectClass == null) {
+			throw new IllegalArgumentException("objectClass == null");
+		}
+		return new IdentifiedObject(objectClass, id);
+	}
+	
+	/**
+	 * The object that is identified by the unique id returned
 	 * by {@link #getUniqueID()}.<br>
-	 * @return			a non-null object of any class
+	 * @return			the object or null if this was created by
+	 * 					{@link #withoutObject(Class, int)}
 	 */
 	public Object getIdentifiedObject() {
 		return obj;
 	}
 	
+	/**
+	 * Returns true if the identified object itself is available.<br>
+	 * @return			false if this was created by {@link #withoutObject(Class, int)}
+	 */
+	public boolean hasIdentifiedObject() {
+		return obj != null;
+	}
+	
 	/**
 	 * Returns the unique id given to the identified object.<br>
-	 * This id is unique for all objects of the same class. 
-	 * There may be other identified objects with the same id 
+	 * This id is unique for all objects of the same class.
+	 * There may be other identified objects with the same id
 	 * iff they belong to a different class.<br>
 	 * Subclasses are treated as different from their super classes.<br>
 	 * @return			the unique id of the identified object
@@ -45,7 +78,10 @@ public class IdentifiedObject {
 	 * @return		{@link #getIdentifiedObject()}.{@link #getClass()}
 	 */
 	public Class<?> getIdentifiedObjectClass() {
-		return getIdentifiedObject().getClass();
+		if (obj == null) {
+			return clazz;
+		}
+		return obj.getClass();
 	}
 	
 }
\ No newline at end of file
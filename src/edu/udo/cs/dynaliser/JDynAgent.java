@@ -5,10 +5,19 @@ import java.io.File;
 import java.lang.instrument.ClassFileTransformer;
 import java.lang.instrument.IllegalClassFormatException;
 import java.lang.instrument.Instrumentation;
+import java.lang.instrument.UnmodifiableClassException;
+import java.lang.management.ManagementFactory;
 import java.security.ProtectionDomain;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.prefs.BackingStoreException;
 import java.util.prefs.Preferences;
 
+import javax.management.ObjectName;
+
 import edu.udo.cs.dynalysis.JDynObserver;
 import edu.udo.cs.dynalysis.JDynProcessor;
 import javassist.ClassPool;
@@ -26,6 +35,10 @@ public class JDynAgent implements ClassFileTransformer {
 	 */
 	private static final String DEFAULT_SETTINGS_FILE_NAME = "jdynSettings.xml";
 	private static Instrumentation instr;
+	/**
+	 * The installed agent or null if no agent was installed yet.<br>
+	 */
+	private static JDynAgent installedAgent;
 	
 	/**
 	 * This special method is being called before the main method of the user
@@ -35,10 +48,42 @@ public class JDynAgent implements ClassFileTransformer {
 	 * @param instrumentation	passed by the system to attach the {@link ClassFileTransformer}
 	 */
 	public static void premain(String agentArguments, Instrumentation instrumentation) {
+		install(agentArguments, instrumentation, false);
+	}
+	
+	/**
+	 * This method is called if the agent is attached to a JVM that is 
+	 * already running. It takes the same arguments as 
+	 * {@link #premain(String, Instrumentation)}. All included classes that 
+	 * were already loaded are retransformed.<br>
+	 * @param agentArguments	jcstg takes one optional argument for the settings file
+	 * @param instrumentation	passed by the system to attach the {@link ClassFileTransformer}
+	 */
+	public static void agentmain(String agentArguments, Instrumentation instrumentation) {
+		install(agentArguments, instrumentation, true);
+	}
+	
+	/**
+	 * Returns the installed agent or null if the agent is not installed or 
+	 * was not needed.<br>
+	 * @return		the installed agent or null
+	 */
+	public static synchronized JDynAgent getInstalledAgent() {
+		return installedAgent;
+	}
+	
+	private static synchronized void install(String agentArguments, 
+			Instrumentation instrumentation, boolean attached) 
+	{
+		if (installedAgent != null) {
+			System.err.println("JDyn Error: The agent is already installed");
+			return;
+		}
 		instr = instrumentation;
 		// Assume default values for settings
 		String settingsFileName = DEFAULT_SETTINGS_FILE_NAME;
 		boolean debug = false;
+		boolean enabled = true;
 		if (agentArguments != null && !agentArguments.isEmpty()) {
 			String[] args = agentArguments.split(",");
 			// Iterate over arguments and check if they are legal
@@ -55,18 +100,48 @@ public class JDynAgent implements ClassFileTransformer {
 				// Settings file path written out
 				} else if (lowerArg.startsWith("-file=")) {
 					settingsFileName = arg.substring("-file=".length());
+				// Start without instrumentation; it can be enabled through JMX
+				} else if ("-disabled".equals(lowerArg)) {
+					enabled = false;
 				// Any other arguments are undefined right now
 				} else {
 					System.err.println("JDyn Error: Illegal Argument '"+arg+"'");
 				}
 			}
 		}
-		JDynAgent agent = new JDynAgent(settingsFileName, debug);
+		JDynAgent agent = new JDynAgent(settingsFileName, debug, enabled);
 		// In case the settings do not contain any observers or processors there is nothing to do
 		if (!agent.isNeeded()) {
 			return;
 		}
-		instrumentation.addTransformer(agent);
+		installedAgent = agent;
+		boolean canRetransform = instrumentation.isRetransformClassesSupported();
+		// Registered first since the JDK classes loaded for JMX can not always 
+		// pass through a transformer on newer JVMs (ClassCircularityError)
+		if (canRetransform) {
+			registerMBean(new JDynControl(agent), JDynControlMBean.OBJECT_NAME);
+		} else if (attached || !enabled) {
+			System.err.println("JDyn Error: The JVM does not support retransformation of classes");
+		}
+		registerMBean(new JDynMetrics(), JDynMetricsMBean.OBJECT_NAME);
+		instrumentation.addTransformer(agent, canRetransform);
+		if (attached && enabled && canRetransform) {
+			agent.retransformLoadedClasses();
+		}
+	}
+	
+	/**
+	 * Registers a bean with the platform MBean server, for example the 
+	 * {@link JDynControlMBean} so that the instrumentation can be enabled and 
+	 * disabled through JMX.<br>
+	 */
+	private static void registerMBean(Object bean, String objectName) {
+		try {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(
+					bean, new ObjectName(objectName));
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
 	}
 	
 	public static long getObjectSize(Object obj) {
@@ -84,16 +159,44 @@ public class JDynAgent implements ClassFileTransformer {
 	 */
 	private final JDynSettings settings;
 	/**
-	 * {@link JDynClassTransformation} contains utility methods to inject byte code
-	 * to a class to make it usable by the JCSTG.<br>
+	 * Determine which callbacks are injected by the {@link JDynClassTransformation}. 
+	 * A new transformation is used for each class so that classes can be 
+	 * transformed in parallel.<br>
+	 */
+	private final boolean observerCallbacks;
+	private final boolean processorCallbacks;
+	/**
+	 * One javassist class pool per class loader.<br>
+	 */
+	private final JDynClassPools classPools = new JDynClassPools();
+	/**
+	 * Serves instrumented byte code from previous runs. Null if byte code 
+	 * is not cached.<br>
+	 */
+	private final JDynBytecodeCache cache;
+	/**
+	 * If false no class is instrumented. Classes which are retransformed 
+	 * while the agent is disabled get their original byte code back.<br>
 	 */
-	private final JDynClassTransformation transformation;
+	private volatile boolean enabled;
+	/**
+	 * The signatures of the methods whose probes were removed by the 
+	 * {@link JDynProbeTuner} grouped by the name of their class.<br>
+	 */
+	private final Map<String, Set<String>> removedProbes = new ConcurrentHashMap<>();
+	/**
+	 * Decides which behaviors are instrumented if only entry points are 
+	 * instrumented at first. Null if all included behaviors are 
+	 * instrumented.<br>
+	 */
+	private final JDynDrillDown drillDown;
 	
 	/**
 	 * Parses the settings file (if possible) and saves the settings to the
 	 * {@link Preferences}.<br>
 	 */
-	private JDynAgent(String settingsFileName, boolean debug) {
+	private JDynAgent(String settingsFileName, boolean debug, boolean enable) {
+		enabled = enable;
 		if (debug) {
 			JDynAgent.debugMsg("Parse settings file", settingsFileName);
 		}
@@ -110,25 +213,46 @@ public class JDynAgent implements ClassFileTransformer {
 						JDynProcessor.class.getSimpleName(),
 						"registered. Analysis aborted.");
 			}
-			transformation = null;
+			observerCallbacks = false;
+			processorCallbacks = false;
+			cache = null;
+			drillDown = null;
 			return;
 		}
 		
 		// We only enable the injection of these callbacks if needed to save performance
-		transformation = new JDynClassTransformation();
-		if (settings.hasObservers()) {
-			if (settings.isDebug()) {
-				JDynAgent.debugMsg("Enable", JDynObserver.class.getSimpleName(),
-						"callbacks.");
-			}
-			transformation.enableObserverCallback();
+		observerCallbacks = settings.hasObservers();
+		if (observerCallbacks && settings.isDebug()) {
+			JDynAgent.debugMsg("Enable", JDynObserver.class.getSimpleName(),
+					"callbacks.");
+		}
+		processorCallbacks = settings.hasProcessors();
+		if (processorCallbacks && settings.isDebug()) {
+			JDynAgent.debugMsg("Enable", JDynProcessor.class.getSimpleName(),
+					"callbacks.");
 		}
-		if (settings.hasProcessors()) {
+		
+		if (settings.getDrillDownMicros() > 0) {
 			if (settings.isDebug()) {
-				JDynAgent.debugMsg("Enable", JDynProcessor.class.getSimpleName(),
-						"callbacks.");
+				JDynAgent.debugMsg("Drill down into methods slower than", 
+						settings.getDrillDownMicros(), "micro seconds");
+			}
+			if (!instr.isRetransformClassesSupported()) {
+				System.err.println("JDyn Error: The JVM does not support retransformation of classes");
 			}
-			transformation.enableProcessorCallback();
+			drillDown = new JDynDrillDown(settings, instr);
+		} else {
+			drillDown = null;
+		}
+		
+		// The cache restores the method ids of previous runs; no class may be transformed before
+		// The instrumented behaviors change during the run in the drill down mode
+		if (!settings.getBytecodeCacheDir().isEmpty() && drillDown == null) {
+			cache = JDynBytecodeCache.open(new File(settings.getBytecodeCacheDir()), 
+					settings.getBytecodeCacheMaxMegabytes() * 1024L * 1024L, 
+					getCacheFingerprint(), settings.isDebug());
+		} else {
+			cache = null;
 		}
 		
 		// We write the settings we read from file to the preferences to share
@@ -149,6 +273,26 @@ public class JDynAgent implements ClassFileTransformer {
 		}
 	}
 	
+	/**
+	 * Returns the fingerprint of the settings for the {@link JDynBytecodeCache}. 
+	 * The size and modification time of the agent jar are included so that 
+	 * cached byte code is not used with a different version of the agent.<br>
+	 */
+	private String getCacheFingerprint() {
+		StringBuilder sb = new StringBuilder(settings.getInstrumentationFingerprint());
+		try {
+			File agentFile = new File(JDynAgent.class.getProtectionDomain()
+					.getCodeSource().getLocation().toURI());
+			sb.append(", agent=");
+			sb.append(agentFile.length());
+			sb.append("/");
+			sb.append(agentFile.lastModified());
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		return sb.toString();
+	}
+	
 	/**
 	 * Returns true if any callbacks would be added to classes passed to the
 	 * {@link ClassFileTransformer}. Returns false if the instrumentation is
@@ -160,11 +304,118 @@ public class JDynAgent implements ClassFileTransformer {
 				&& (settings.hasObservers() || settings.hasProcessors());
 	}
 	
+	/**
+	 * Returns true if classes are instrumented when they are loaded or 
+	 * retransformed.<br>
+	 * @return		true if the instrumentation is enabled
+	 */
+	public boolean isEnabled() {
+		return enabled;
+	}
+	
+	/**
+	 * Enables or disables the instrumentation. All included classes that 
+	 * are already loaded are retransformed. When the instrumentation is 
+	 * disabled these classes get their original byte code back and do 
+	 * not call the {@link JDynEventDispatcher} anymore. Invocations which 
+	 * are running while the classes are retransformed finish with the 
+	 * code they started with.<br>
+	 * @param value		true to enable, false to disable the instrumentation
+	 * @return			the number of retransformed classes
+	 */
+	public synchronized int setEnabled(boolean value) {
+		if (enabled == value) {
+			return 0;
+		}
+		if (!instr.isRetransformClassesSupported()) {
+			System.err.println("JDyn Error: The JVM does not support retransformation of classes");
+			return 0;
+		}
+		enabled = value;
+		if (settings.isDebug()) {
+			JDynAgent.debugMsg(value ? "Enable" : "Disable", "instrumentation");
+		}
+		return retransformLoadedClasses();
+	}
+	
+	/**
+	 * Retransforms the classes of the methods with the given signatures 
+	 * without the probes of these methods. Each class is retransformed once, 
+	 * no matter how many of its methods are given. The probes are not added 
+	 * again if a class is retransformed later on.<br>
+	 * @param signatures		the long names of methods
+	 */
+	void removeProbes(Collection<String> signatures) {
+		Set<String> classNames = new HashSet<>();
+		for (String signature : signatures) {
+			int nameEnd = signature.indexOf('(');
+			String className = signature.substring(0, signature.lastIndexOf('.', nameEnd));
+			removedProbes.computeIfAbsent(className, 
+					(name) -> ConcurrentHashMap.newKeySet()).add(signature);
+			classNames.add(className);
+		}
+		if (!instr.isRetransformClassesSupported()) {
+			System.err.println("JDyn Error: The JVM does not support retransformation of classes");
+			return;
+		}
+		// A class may have been loaded by more than one class loader
+		for (Class<?> clazz : instr.getAllLoadedClasses()) {
+			if (!classNames.contains(clazz.getName()) || !instr.isModifiableClass(clazz)) {
+				continue;
+			}
+			try {
+				instr.retransformClasses(clazz);
+			} catch (UnmodifiableClassException | RuntimeException | LinkageError e) {
+				System.err.println("JDyn Error: Can not retransform "+clazz.getName());
+				e.printStackTrace();
+			}
+		}
+	}
+	
+	/**
+	 * Returns the drill down of the instrumentation or null if all included 
+	 * behaviors are instrumented right away.<br>
+	 */
+	JDynDrillDown getDrillDown() {
+		return drillDown;
+	}
+	
+	/**
+	 * Retransforms all loaded classes which are included by the settings. 
+	 * Classes are retransformed one by one so that a class which can not 
+	 * be retransformed does not prevent the others.<br>
+	 * @return		the number of retransformed classes
+	 */
+	private int retransformLoadedClasses() {
+		int count = 0;
+		for (Class<?> clazz : instr.getAllLoadedClasses()) {
+			if (clazz.isInterface() || clazz.isArray() || !instr.isModifiableClass(clazz)
+					|| !settings.isClassIncluded(clazz.getName())) 
+			{
+				continue;
+			}
+			try {
+				instr.retransformClasses(clazz);
+				count++;
+			} catch (UnmodifiableClassException | RuntimeException | LinkageError e) {
+				System.err.println("JDyn Error: Can not retransform "+clazz.getName());
+				e.printStackTrace();
+			}
+		}
+		if (settings.isDebug()) {
+			JDynAgent.debugMsg("Retransformed", count, "classes");
+		}
+		return count;
+	}
+	
 	/**
 	 * This method is called by the JVM for each class that is to be transformed.<br>
-	 * @param loader				dont care about this
+	 * It may be called by several threads at the same time.<br>
+	 * If classBeingRedefined is not null the class is being retransformed 
+	 * and classfileBuffer holds its original byte code.<br>
+	 * @param loader				the defining loader, null for the bootstrap loader
 	 * @param className				might be null in which case we do nothing
-	 * @param classBeingRedefined	dont care about this
+	 * @param classBeingRedefined	the class if it is retransformed, otherwise null
 	 * @param protectionDomain		dont care about this
 	 * @param classfileBuffer		might be null in which case we do nothing
 	 */
@@ -175,42 +426,67 @@ public class JDynAgent implements ClassFileTransformer {
 			byte[] classfileBuffer) throws IllegalClassFormatException
 	{
 		// Could be null for some reason
-		if (className == null) {
+		if (className == null || !enabled) {
 			return classfileBuffer;
 		}
 		boolean debug = settings.isDebug();
 		
-		// Java class names use '.' instead of '/' which is used in file path names
-		className = className.replace('/', '.');
 		if (debug) {
 			JDynAgent.debugMsg("Check class", className, "for analysis.");
 		}
-		// Check if class is included
+		// Check if class is included; this works on the internal name to not create a new String for every class
 		if (!settings.isClassIncluded(className)) {
 			return classfileBuffer;
 		}
+		long startNanos = System.nanoTime();
+		// Java class names use '.' instead of '/' which is used in file path names
+		className = className.replace('/', '.');
 		if (debug) {
 			JDynAgent.debugMsg("Instrument class", className);
 		}
+		JDynCaptureLevel level = settings.getCaptureLevel(className);
+		Set<String> removedSignatures = removedProbes.get(className);
+		String cacheKey = null;
+		// The cached byte code still contains the removed probes
+		if (cache != null && removedSignatures == null) {
+			cacheKey = cache.createKey(className, level, classfileBuffer);
+			byte[] cachedBytes = cache.load(cacheKey);
+			if (cachedBytes != null) {
+				if (debug) {
+					JDynAgent.debugMsg("Use cached byte code for", className);
+				}
+				JDynMetrics.classTransformed(0, System.nanoTime() - startNanos);
+				return cachedBytes;
+			}
+		}
 		// If the class object is loaded but an exception is thrown we must detach it in the finally block
 		CtClass classObj = null;
 		// If we do not make any modifications we return the original byte code
 		byte[] result = classfileBuffer;
+		int behaviorCount = 0;
 		
 		try {
-			// Use of javassist API
-			ClassPool pool = ClassPool.getDefault();
-			// Exception class is needed to add try-catch block to code transformation
-			// This is cached for performance
-			if (transformation.getExceptionClass() == null) {
-				transformation.setExceptionClass(pool.get("java.lang.Exception"));
+			// Use of javassist API; classes are resolved against their own class loader
+			ClassPool pool = classPools.getPool(loader);
+			// All state of a transformation belongs to this call; other threads may transform other classes
+			JDynClassTransformation transformation = new JDynClassTransformation();
+			if (observerCallbacks) {
+				transformation.enableObserverCallback();
 			}
+			if (processorCallbacks) {
+				transformation.enableProcessorCallback();
+			}
+			// Exception class is needed to add try-catch block to code transformation; errors are caught as well
+			transformation.setExceptionClass(pool.get("java.lang.Throwable"));
 			// Load class file
 			classObj = pool.makeClass(new ByteArrayInputStream(classfileBuffer));
 			
 			// Don't manipulate interfaces
 			if (!classObj.isInterface()) {
-				transformation.setClass(classObj, className);
+				if (debug) {
+					JDynAgent.debugMsg("Capture level of", className, "is", level);
+				}
+				transformation.setClass(classObj, className, level);
 				
 				// CtBehaviors might be methods or constructors
 				CtBehavior[] behaviors = classObj.getDeclaredBehaviors();
@@ -221,24 +497,37 @@ public class JDynAgent implements ClassFileTransformer {
 								"for analysis.");
 					}
 					// Don't manipulate abstract or native methods
-					if (!isAbstract(behav)
-							&& !isNative(behav)
-						// TODO: should default constructors be excluded?
-//							&& !isDefaultConstructor(methods[i])
-							)
-					{
+					// Default constructors are kept; observers count the objects they construct
+					if (!isAbstract(behav) && !isNative(behav)) {
+						if (drillDown != null) {
+							drillDown.recordCallees(behav);
+						}
+						if (drillDown != null && !drillDown.isInstrumented(behav)) {
+							if (debug) {
+								JDynAgent.debugMsg("Method", behav.getLongName(),
+										"is not reached by the drill down yet. No instrumentation.");
+							}
 						// If behavior is a method check settings if method is included
-						if (behav instanceof CtMethod) {
+						} else if (behav instanceof CtMethod) {
 							CtMethod method = (CtMethod) behav;
-							if (settings.isMethodIncluded(method.getLongName())) {
+							if (removedSignatures != null 
+									&& removedSignatures.contains(method.getLongName())) 
+							{
+								if (debug) {
+									JDynAgent.debugMsg("Probes of method", method.getLongName(), 
+											"were removed. No instrumentation.");
+								}
+							} else if (settings.isMethodIncluded(method.getLongName())) {
 								if (debug) {
 									JDynAgent.debugMsg("Instrument method", method.getLongName());
 								}
 								transformation.addBehavior(method);
+								behaviorCount++;
 							}
 						} else {
 							// If it is not a method, the behavior is a constructor
 							transformation.addBehavior(behav);
+							behaviorCount++;
 						}
 					} else {
 						if (debug) {
@@ -255,6 +544,9 @@ public class JDynAgent implements ClassFileTransformer {
 					JDynAgent.debugMsg(className, "is interface. No instrumentation.");
 				}
 			}
+			if (cacheKey != null) {
+				cache.store(cacheKey, result, transformation.getMethodIDs());
+			}
 		} catch (Exception e) {
 			JDynAgent.debugMsg("Error during instrumentation. ClassName=",className);
 			e.printStackTrace();
@@ -264,6 +556,9 @@ public class JDynAgent implements ClassFileTransformer {
 				classObj.detach();
 			}
 		}
+		if (result != classfileBuffer) {
+			JDynMetrics.classTransformed(behaviorCount, System.nanoTime() - startNanos);
+		}
 		// Return either original byte code or modified byte code
 		return result;
 	}
@@ -0,0 +1,475 @@
+package edu.udo.cs.dynaliser;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Stores instrumented byte code on disk so that classes which did not change
+ * since the last run are not transformed with javassist again.<br>
+ * Entries are keyed by a SHA-256 hash of the original byte code, the class
+ * name, the capture level and the settings which influence the
+ * instrumentation. Each entry stores a SHA-256 checksum of the instrumented
+ * byte code; entries that can not be read or do not match their checksum
+ * are deleted and treated as missing.<br>
+ * The ids of the {@link JDynMethodRegistry} are compiled into the byte code.
+ * The cache therefore persists the registry and loads it before the first
+ * class is transformed so that cached byte code refers to the same
+ * behaviors in every run.<br>
+ * If the cache grows beyond its size limit the least recently used entries
+ * are deleted. The persisted registry counts towards the limit. Its
+ * signatures can not be removed while classes use their ids, so signatures
+ * of deleted or outdated entries pile up. When the cache is opened and most
+ * persisted signatures belong to no entry anymore, the whole cache is
+ * cleared and the registry starts over.<br>
+ * Only one JVM at a time may use a cache directory since the ids of the
+ * registry are given out by each JVM on its own. The JVM which opens the
+ * cache first holds a lock on a file in the directory until it exits;
+ * other JVMs transform their classes without the cache meanwhile.<br>
+ */
+public class JDynBytecodeCache {
+	
+	/**
+	 * Written at the start of each entry; the characters "JDYN".<br>
+	 */
+	private static final int ENTRY_MAGIC = 0x4A44594E;
+	/**
+	 * Must be increased whenever the format of the entries or the injected
+	 * code changes in an incompatible way.<br>
+	 */
+	private static final int FORMAT_VERSION = 4;
+	private static final String ENTRY_SUFFIX = ".jdc";
+	private static final String REGISTRY_FILE_NAME = "methods.txt";
+	private static final String LOCK_FILE_NAME = "lock";
+	private static final String REGISTRY_HEADER = "JDynMethodRegistry " + FORMAT_VERSION;
+	/**
+	 * The registry is rebuilt when more than this many persisted signatures, 
+	 * and more than half of all persisted signatures, are not used by any 
+	 * entry.<br>
+	 */
+	private static final int MIN_STALE_SIGNATURES = 256;
+	
+	private final File dir;
+	private final long maxBytes;
+	private final String fingerprint;
+	private final boolean debug;
+	private final File registryFile;
+	/**
+	 * Holds the lock on the directory. Never closed; the lock is released 
+	 * when the JVM exits.<br>
+	 */
+	@SuppressWarnings("unused")
+	private final FileChannel lockChannel;
+	// The following fields are guarded by this
+	private long totalBytes;
+	/**
+	 * The number of signatures of the {@link JDynMethodRegistry} which are
+	 * stored in the registry file.<br>
+	 */
+	private int persistedMethodCount;
+	
+	/**
+	 * Opens or creates the cache in the given directory. Must be called
+	 * before any behavior is registered with the {@link JDynMethodRegistry}.<br>
+	 * @param directory				the directory of the cache, created if needed
+	 * @param maxSizeBytes			the maximum total size of all entries
+	 * @param settingsFingerprint	changes whenever a setting which influences
+	 * 								the injected code changes
+	 * @param debugMode				true to print debug messages
+	 * @return						the cache or null if the directory can not be 
+	 * 								used or is used by another JVM
+	 */
+	public static JDynBytecodeCache open(File directory, long maxSizeBytes,
+			String settingsFingerprint, boolean debugMode)
+	{
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			System.err.println("JDyn Error: Can not create cache directory '"+directory+"'");
+			return null;
+		}
+		FileChannel lockChannel = null;
+		try {
+			lockChannel = FileChannel.open(new File(directory, LOCK_FILE_NAME).toPath(), 
+					StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+			FileLock lock = lockChannel.tryLock();
+			if (lock != null) {
+				return new JDynBytecodeCache(directory, maxSizeBytes, 
+						settingsFingerprint, debugMode, lockChannel);
+			}
+		} catch (IOException | OverlappingFileLockException e) {
+			if (debugMode) {
+				JDynAgent.debugMsg("Can not lock cache directory", directory, "Reason:", e.getMessage());
+			}
+		}
+		System.err.println("JDyn Error: Can not lock the byte code cache '"+directory
+				+"', it may be in use by another JVM; classes are transformed without it");
+		if (lockChannel != null) {
+			try {
+				lockChannel.close();
+			} catch (IOException e) {
+				// The lock was not taken
+			}
+		}
+		return null;
+	}
+	
+	private JDynBytecodeCache(File directory, long maxSizeBytes,
+			String settingsFingerprint, boolean debugMode, FileChannel directoryLock)
+	{
+		dir = directory;
+		maxBytes = maxSizeBytes;
+		fingerprint = settingsFingerprint;
+		debug = debugMode;
+		lockChannel = directoryLock;
+		registryFile = new File(dir, REGISTRY_FILE_NAME);
+		if (!loadRegistry()) {
+			// Entries refer to method ids that are not known anymore
+			clear();
+		}
+		for (File entry : listEntries()) {
+			totalBytes += entry.length();
+		}
+		totalBytes += registryFile.length();
+		if (debug) {
+			JDynAgent.debugMsg("Byte code cache", dir, "holds", totalBytes, "bytes and",
+					persistedMethodCount, "methods");
+		}
+	}
+	
+	/**
+	 * Returns the key of the entry for a class.<br>
+	 * @param className		the full name of the class
+	 * @param level			the capture level of the class
+	 * @param classBytes	the original byte code of the class
+	 * @return				a hexadecimal SHA-256 hash
+	 */
+	public String createKey(String className, JDynCaptureLevel level, byte[] classBytes) {
+		MessageDigest digest = createDigest();
+		digest.update(fingerprint.getBytes(StandardCharsets.UTF_8));
+		digest.update((byte) 0);
+		digest.update(className.getBytes(StandardCharsets.UTF_8));
+		digest.update((byte) 0);
+		digest.update(level.name().getBytes(StandardCharsets.UTF_8));
+		digest.update((byte) 0);
+		digest.update(classBytes);
+		return toHex(digest.digest());
+	}
+	
+	/**
+	 * Returns the cached byte code for the given key.<br>
+	 * @param key		a key as returned by {@link #createKey(String, JDynCaptureLevel, byte[])}
+	 * @return			the instrumented byte code or null if there is no valid entry
+	 */
+	public synchronized byte[] load(String key) {
+		File entry = new File(dir, key + ENTRY_SUFFIX);
+		if (!entry.isFile()) {
+			return null;
+		}
+		try (DataInputStream in = new DataInputStream(new FileInputStream(entry))) {
+			if (in.readInt() != ENTRY_MAGIC || in.readInt() != FORMAT_VERSION) {
+				throw new IOException("Unknown entry format");
+			}
+			int methodCount = in.readInt();
+			if (methodCount > persistedMethodCount) {
+				throw new IOException("Entry refers to unknown methods");
+			}
+			int idCount = in.readInt();
+			if (idCount < 0 || idCount > methodCount) {
+				throw new IOException("Illegal id count "+idCount);
+			}
+			in.skipBytes(idCount * 4);
+			int length = in.readInt();
+			if (length < 0 || length > entry.length()) {
+				throw new IOException("Illegal length "+length);
+			}
+			byte[] bytes = new byte[length];
+			in.readFully(bytes);
+			byte[] checksum = new byte[32];
+			in.readFully(checksum);
+			if (!Arrays.equals(checksum, createDigest().digest(bytes))) {
+				throw new IOException("Checksum mismatch");
+			}
+			// Used to find the least recently used entries
+			entry.setLastModified(System.currentTimeMillis());
+			return bytes;
+		} catch (IOException e) {
+			if (debug) {
+				JDynAgent.debugMsg("Discard cache entry", entry, "Reason:", e.getMessage());
+			}
+			delete(entry);
+			return null;
+		}
+	}
+	
+	/**
+	 * Stores the instrumented byte code for the given key. All behaviors
+	 * registered so far are persisted first.<br>
+	 * @param key		a key as returned by {@link #createKey(String, JDynCaptureLevel, byte[])}
+	 * @param bytes		the instrumented byte code
+	 * @param methodIDs	the ids of the behaviors the byte code refers to
+	 */
+	public synchronized void store(String key, byte[] bytes, int[] methodIDs) {
+		if (!persistRegistry()) {
+			return;
+		}
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream(
+				bytes.length + methodIDs.length * 4 + 52);
+		try (DataOutputStream out = new DataOutputStream(buffer)) {
+			out.writeInt(ENTRY_MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			out.writeInt(persistedMethodCount);
+			out.writeInt(methodIDs.length);
+			for (int methodID : methodIDs) {
+				out.writeInt(methodID);
+			}
+			out.writeInt(bytes.length);
+			out.write(bytes);
+			out.write(createDigest().digest(bytes));
+		} catch (IOException e) {
+			e.printStackTrace();
+			return;
+		}
+		if (!makeRoom(buffer.size())) {
+			return;
+		}
+		File entry = new File(dir, key + ENTRY_SUFFIX);
+		try {
+			// Written to a temporary file first so a crash can not leave a partial entry
+			File tempFile = File.createTempFile(key, ".tmp", dir);
+			try (FileOutputStream out = new FileOutputStream(tempFile)) {
+				buffer.writeTo(out);
+			}
+			long oldLength = entry.length();
+			Files.move(tempFile.toPath(), entry.toPath(),
+					StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			totalBytes += buffer.size() - oldLength;
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Deletes the least recently used entries until an entry of the given
+	 * size fits into the cache.<br>
+	 * @return		false if the entry does not fit even without other entries
+	 */
+	private boolean makeRoom(long entrySize) {
+		if (totalBytes + entrySize <= maxBytes) {
+			return true;
+		}
+		List<File> entries = listEntries();
+		entries.sort((a, b) -> Long.compare(a.lastModified(), b.lastModified()));
+		for (File entry : entries) {
+			if (totalBytes + entrySize <= maxBytes) {
+				break;
+			}
+			delete(entry);
+		}
+		return totalBytes + entrySize <= maxBytes;
+	}
+	
+	private void delete(File entry) {
+		long length = entry.length();
+		if (entry.delete()) {
+			totalBytes -= length;
+		}
+	}
+	
+	private void clear() {
+		for (File entry : listEntries()) {
+			entry.delete();
+		}
+		totalBytes = 0;
+		persistedMethodCount = 0;
+		registryFile.delete();
+	}
+	
+	private List<File> listEntries() {
+		File[] files = dir.listFiles((d, name) -> name.endsWith(ENTRY_SUFFIX));
+		if (files == null) {
+			return new ArrayList<>();
+		}
+		return new ArrayList<>(Arrays.asList(files));
+	}
+	
+	/**
+	 * Registers all persisted signatures with the {@link JDynMethodRegistry}
+	 * so they get the ids they had when the entries were written. Nothing 
+	 * is registered unless the whole file was accepted.<br>
+	 * @return		false if the persisted ids can not be restored or too 
+	 * 				many of them are not used anymore
+	 */
+	private boolean loadRegistry() {
+		if (!registryFile.isFile()) {
+			return true;
+		}
+		List<String> signatures = new ArrayList<>();
+		try (BufferedReader in = new BufferedReader(new InputStreamReader(
+				new FileInputStream(registryFile), StandardCharsets.UTF_8)))
+		{
+			if (!REGISTRY_HEADER.equals(in.readLine())) {
+				return false;
+			}
+			String line;
+			while ((line = in.readLine()) != null) {
+				signatures.add(line);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+		if (!endsWithNewLine(registryFile) && !signatures.isEmpty()) {
+			// The last signature was not written completely; no entry refers to it
+			signatures.remove(signatures.size() - 1);
+		}
+		int staleCount = signatures.size() - countUsedSignatures();
+		if (staleCount > MIN_STALE_SIGNATURES && staleCount * 2 > signatures.size()) {
+			if (debug) {
+				JDynAgent.debugMsg("Rebuild byte code cache;", staleCount, "of", 
+						signatures.size(), "methods are not used anymore");
+			}
+			return false;
+		}
+		// The ids of the file can only be given out again if no id was given out yet
+		if (JDynMethodRegistry.getMethodCount() != 0
+				|| new HashSet<>(signatures).size() != signatures.size()) 
+		{
+			return false;
+		}
+		// Rewrite the file in case the last line was incomplete
+		if (!writeRegistry(signatures)) {
+			return false;
+		}
+		// Nothing is registered before the whole file was accepted
+		for (String signature : signatures) {
+			JDynMethodRegistry.register(signature);
+		}
+		persistedMethodCount = signatures.size();
+		return true;
+	}
+	
+	/**
+	 * Returns the number of distinct method ids the entries refer to. 
+	 * Entries which can not be read are ignored; they are deleted when 
+	 * they are loaded.<br>
+	 */
+	private int countUsedSignatures() {
+		BitSet usedIDs = new BitSet();
+		for (File entry : listEntries()) {
+			try (DataInputStream in = new DataInputStream(new FileInputStream(entry))) {
+				if (in.readInt() != ENTRY_MAGIC || in.readInt() != FORMAT_VERSION) {
+					continue;
+				}
+				int methodCount = in.readInt();
+				int idCount = in.readInt();
+				for (int i = 0; i < idCount; i++) {
+					int methodID = in.readInt();
+					if (methodID >= 0 && methodID < methodCount) {
+						usedIDs.set(methodID);
+					}
+				}
+			} catch (IOException e) {
+				// Not counted
+			}
+		}
+		return usedIDs.cardinality();
+	}
+	
+	private boolean endsWithNewLine(File file) {
+		try {
+			byte[] bytes = Files.readAllBytes(file.toPath());
+			return bytes.length > 0 && bytes[bytes.length - 1] == '\n';
+		} catch (IOException e) {
+			return false;
+		}
+	}
+	
+	private boolean writeRegistry(List<String> signatures) {
+		try (Writer out = new OutputStreamWriter(
+				new FileOutputStream(registryFile), StandardCharsets.UTF_8))
+		{
+			out.write(REGISTRY_HEADER);
+			out.write('\n');
+			for (String signature : signatures) {
+				out.write(signature);
+				out.write('\n');
+			}
+			return true;
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+	}
+	
+	/**
+	 * Appends all signatures registered since the last call to the registry
+	 * file.<br>
+	 * @return		false if the signatures could not be written
+	 */
+	private boolean persistRegistry() {
+		int methodCount = JDynMethodRegistry.getMethodCount();
+		if (methodCount == persistedMethodCount) {
+			return true;
+		}
+		long oldLength = registryFile.length();
+		boolean newFile = !registryFile.isFile();
+		try (Writer out = new OutputStreamWriter(
+				new FileOutputStream(registryFile, true), StandardCharsets.UTF_8))
+		{
+			if (newFile) {
+				out.write(REGISTRY_HEADER);
+				out.write('\n');
+			}
+			for (int methodID = persistedMethodCount; methodID < methodCount; methodID++) {
+				out.write(JDynMethodRegistry.getSignature(methodID));
+				out.write('\n');
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			return false;
+		}
+		totalBytes += registryFile.length() - oldLength;
+		persistedMethodCount = methodCount;
+		return true;
+	}
+	
+	private static MessageDigest createDigest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform is required to support SHA-256
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	private static String toHex(byte[] bytes) {
+		StringBuilder sb = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			sb.append(Character.forDigit((b >> 4) & 0xF, 16));
+			sb.append(Character.forDigit(b & 0xF, 16));
+		}
+		return sb.toString();
+	}
+	
+}
\ No newline at end of file
@@ -0,0 +1,70 @@
+package edu.udo.cs.dynaliser;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts the calls of behaviors that are instrumented with the
+ * {@link JDynCaptureLevel#COUNT} level.<br>
+ * The counters are indexed by the ids of the {@link JDynMethodRegistry}.
+ * They are kept in fixed size chunks which are created when the first
+ * behavior of a chunk is called. Chunks are never replaced so that no
+ * increment can get lost while the counters grow.<br>
+ */
+public class JDynCallCounts {
+	
+	private static final int CHUNK_BITS = 10;
+	private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+	private static final int MAX_CHUNKS = 1 << 16;
+	
+	private static final AtomicLongArray[] chunks = new AtomicLongArray[MAX_CHUNKS];
+	
+	private JDynCallCounts() {}
+	
+	/**
+	 * Adds one call to the counter of the given behavior.<br>
+	 * @param methodID		an id from the {@link JDynMethodRegistry}
+	 */
+	public static void increment(int methodID) {
+		// A stale null is resolved under the lock in createChunk
+		AtomicLongArray chunk = chunks[methodID >>> CHUNK_BITS];
+		if (chunk == null) {
+			chunk = createChunk(methodID >>> CHUNK_BITS);
+		}
+		chunk.incrementAndGet(methodID & CHUNK_MASK);
+	}
+	
+	/**
+	 * Returns the number of calls counted for the given behavior so far.<br>
+	 * @param methodID		an id from the {@link JDynMethodRegistry}
+	 * @return				the number of calls, 0 if the behavior was never called
+	 */
+	public static long getCount(int methodID) {
+		if (methodID < 0) {
+			return 0;
+		}
+		AtomicLongArray chunk = getChunk(methodID >>> CHUNK_BITS);
+		if (chunk == null) {
+			return 0;
+		}
+		return chunk.get(methodID & CHUNK_MASK);
+	}
+	
+	private static AtomicLongArray getChunk(int index) {
+		synchronized (chunks) {
+			return chunks[index];
+		}
+	}
+	
+	private static AtomicLongArray createChunk(int index) {
+		synchronized (chunks) {
+			AtomicLongArray chunk = chunks[index];
+			if (chunk == null) {
+				chunk = new AtomicLongArray(CHUNK_SIZE);
+				chunks[index] = chunk;
+			}
+			return chunk;
+		}
+	}
+	
+}
\ No newline at end of file
@@ -0,0 +1,55 @@
+package edu.udo.cs.dynaliser;
+
+/**
+ * Determines how much information is recorded for the behaviors of a class.<br>
+ * The level is chosen in the settings file either globally or for each
+ * included prefix. The {@link JDynClassTransformation} only injects the
+ * callbacks that are needed for the level of the class it transforms.<br>
+ * The levels are ordered; each level records everything the levels
+ * before it record.<br>
+ */
+public enum JDynCaptureLevel {
+	
+	/**
+	 * Only the number of calls of each behavior is counted. No events are
+	 * created. The counts can be read from {@link JDynCallCounts}.<br>
+	 */
+	COUNT,
+	/**
+	 * Events are created when a behavior starts and ends so that the
+	 * elapsed time can be measured. The invoking or constructed object is
+	 * not recorded and exceptions are not caught.<br>
+	 */
+	TIMING,
+	/**
+	 * Like {@link #TIMING} but with the invoking and constructed objects
+	 * and exceptions. Parameters and returned values are not recorded.<br>
+	 */
+	STRUCTURE,
+	/**
+	 * Everything is recorded. This is the default.<br>
+	 */
+	FULL,
+	;
+	
+	/**
+	 * Returns the level with the given name ignoring case or defaultLevel
+	 * if there is no level with the given name.<br>
+	 * @param name			the name of a level, may be null or empty
+	 * @param defaultLevel	returned if name is not a valid name
+	 * @return				a level or defaultLevel
+	 */
+	public static JDynCaptureLevel parse(String name, JDynCaptureLevel defaultLevel) {
+		if (name == null || name.isEmpty()) {
+			return defaultLevel;
+		}
+		for (JDynCaptureLevel level : values()) {
+			if (level.name().equalsIgnoreCase(name.trim())) {
+				return level;
+			}
+		}
+		System.err.println("JDyn Error: Illegal capture level '"+name+"'");
+		return defaultLevel;
+	}
+	
+}
\ No newline at end of file
@@ -0,0 +1,71 @@
+package edu.udo.cs.dynaliser;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import javassist.ClassClassPath;
+import javassist.ClassPool;
+import javassist.LoaderClassPath;
+
+/**
+ * Hands out one javassist {@link ClassPool} per {@link ClassLoader} so that
+ * classes are resolved against the loader that defines them.<br>
+ * A pool keeps every class it looked up. To bound the memory used by the
+ * pools a pool is replaced by a new one after it was used for a number of
+ * transformations. Class loaders are only weakly referenced.<br>
+ */
+class JDynClassPools {
+	
+	/**
+	 * The number of classes a pool is used for before it is replaced.<br>
+	 */
+	private static final int MAX_TRANSFORMATIONS_PER_POOL = 512;
+	
+	/**
+	 * Used for classes of the bootstrap class loader which is represented
+	 * by null.<br>
+	 */
+	private static final Object BOOTSTRAP_KEY = new Object();
+	
+	// Guarded by this
+	private final Map<Object, PoolEntry> pools = new WeakHashMap<>();
+	
+	/**
+	 * Returns the pool for the given class loader.<br>
+	 * @param loader		a class loader or null for the bootstrap class loader
+	 * @return				a non-null pool
+	 */
+	synchronized ClassPool getPool(ClassLoader loader) {
+		Object key = loader == null ? BOOTSTRAP_KEY : loader;
+		PoolEntry entry = pools.get(key);
+		if (entry == null || entry.useCount >= MAX_TRANSFORMATIONS_PER_POOL) {
+			entry = new PoolEntry(createPool(loader));
+			pools.put(key, entry);
+		}
+		entry.useCount++;
+		return entry.pool;
+	}
+	
+	private ClassPool createPool(ClassLoader loader) {
+		ClassPool pool = new ClassPool();
+		pool.appendSystemPath();
+		if (loader != null) {
+			pool.insertClassPath(new LoaderClassPath(loader));
+		}
+		// The injected code refers to the classes of the agent
+		pool.appendClassPath(new ClassClassPath(JDynEventDispatcher.class));
+		return pool;
+	}
+	
+	private static class PoolEntry {
+		
+		final ClassPool pool;
+		int useCount;
+		
+		PoolEntry(ClassPool classPool) {
+			pool = classPool;
+		}
+		
+	}
+	
+}
\ No newline at end of file
@@ -0,0 +1,74 @@
+package edu.udo.cs.dynaliser;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+
+/**
+ * Assigns a dense integer id to classes so that they can be stored in a
+ * {@link JDynEventBuffer}.<br>
+ * Classes are only weakly referenced. If a class was unloaded its id
+ * resolves to null.<br>
+ */
+public class JDynClassRegistry {
+	
+	/**
+	 * Used in records that do not reference a class.<br>
+	 */
+	public static final int NO_CLASS_ID = -1;
+	
+	/**
+	 * Caches the id of each class. A {@link ClassValue} does not keep the
+	 * class alive.<br>
+	 */
+	private static final ClassValue<Integer> classToID = new ClassValue<Integer>() {
+		protected Integer computeValue(Class<?> type) {
+			return Integer.valueOf(add(type));
+		}
+	};
+	private static final Object registerLock = new Object();
+	private static volatile WeakReference<?>[] classes = new WeakReference<?>[64];
+	private static volatile int count;
+	
+	private JDynClassRegistry() {}
+	
+	/**
+	 * Returns the id of the given class. The class is registered if it
+	 * was not registered before.<br>
+	 * @param clazz		a class or null
+	 * @return			the id of clazz or {@link #NO_CLASS_ID} if clazz is null
+	 */
+	public static int getID(Class<?> clazz) {
+		if (clazz == null) {
+			return NO_CLASS_ID;
+		}
+		return classToID.get(clazz).intValue();
+	}
+	
+	/**
+	 * Returns the class with the given id.<br>
+	 * @param classID	an id as returned by {@link #getID(Class)}
+	 * @return			the class or null if there is no such id or the
+	 * 					class was unloaded
+	 */
+	public static Class<?> getRegisteredClass(int classID) {
+		if (classID < 0 || classID >= count) {
+			return null;
+		}
+		return (Class<?>) classes[classID].get();
+	}
+	
+	private static int add(Class<?> clazz) {
+		synchronized (registerLock) {
+			int newID = count;
+			WeakReference<?>[] arr = classes;
+			if (newID == arr.length) {
+				arr = Arrays.copyOf(arr, arr.length * 2);
+				classes = arr;
+			}
+			arr[newID] = new WeakReference<>(clazz);
+			count = newID + 1;
+			return newID;
+		}
+	}
+	
+}
\ No newline at end of file
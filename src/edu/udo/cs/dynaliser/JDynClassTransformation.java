@@ -6,10 +6,8 @@ import java.util.List;
 import edu.udo.cs.dynalysis.JDynObserver;
 import javassist.CtBehavior;
 import javassist.CtClass;
-import javassist.CtField;
 import javassist.CtMethod;
 import javassist.Modifier;
-import javassist.bytecode.AccessFlag;
 
 public class JDynClassTransformation {
 	
@@ -17,12 +15,7 @@ public class JDynClassTransformation {
 	 * This is used for the class file transformation.<br>
 	 */
 	private static final String JCSTG_EVENT_DISPATCHER = JDynEventDispatcher.class.getName();
-	/**
-	 * The name of the private member variable used to determine whether a class
-	 * was initialized yet or not.<br>
-	 * A new member variable of this name will be injected in each modified class.<br>
-	 */
-	private static final String TRANSFORM_CLASS_INIT_FIELD_NAME = "cstg_class_transform_init";
+	private static final String CST_EVENT_CLASS_NAME = CstEvent.class.getName();
 	
 	/**
 	 * Cached for performance
@@ -33,6 +26,11 @@ public class JDynClassTransformation {
 	 * modified. This is used for the initialization.<br>
 	 */
 	private final List<CtBehavior> behaviorList = new ArrayList<>();
+	/**
+	 * The {@link JDynMethodRegistry} ids of the behaviors which were 
+	 * instrumented by the last call to {@link #instrumentAndClear()}.<br>
+	 */
+	private int[] methodIDs = new int[0];
 	private CtClass excClass;
 	private boolean isObsCB = false;
 	private boolean isProcCB = false;
@@ -40,6 +38,10 @@ public class JDynClassTransformation {
 	private String methodListString;
 	private String classRef;
 	private CtClass transClass;
+	/**
+	 * The capture level of the class that is currently being modified.<br>
+	 */
+	private JDynCaptureLevel captureLevel;
 	
 	public JDynClassTransformation() {
 	}
@@ -60,26 +62,12 @@ public class JDynClassTransformation {
 		isProcCB = true;
 	}
 	
-	public void setClass(CtClass classObj, String className) throws Exception {
+	public void setClass(CtClass classObj, String className, 
+			JDynCaptureLevel level) throws Exception 
+	{
 		transClass = classObj;
 		classRef = className + ".class";
-		
-		if (isObsCB) {
-			CtClass initFieldType = CtClass.booleanType;
-			CtField initField = new CtField(initFieldType,
-					TRANSFORM_CLASS_INIT_FIELD_NAME, transClass);
-			
-			// Volatile for multi-threaded applications
-			initField.setModifiers(initField.getModifiers()
-					| Modifier.STATIC | Modifier.VOLATILE);
-			
-			// Synthetic to not show up during reflection
-			initField.getFieldInfo().setAccessFlags(
-					initField.getFieldInfo().getAccessFlags() | AccessFlag.SYNTHETIC);
-			
-			// Initially true. Set to false after the first instrumented method was called
-			transClass.addField(initField, CtField.Initializer.constant(true));
-		}
+		captureLevel = level;
 	}
 	
 	public void addBehavior(CtBehavior method) {
@@ -102,13 +90,24 @@ public class JDynClassTransformation {
 		methodListString = callbackBuilder.toString();
 		callbackBuilder.delete(0, callbackBuilder.length());
 		
+		methodIDs = new int[behaviorList.size()];
 		for (int i = 0; i < behaviorList.size(); i++) {
 			CtBehavior behavior = behaviorList.get(i);
+			methodIDs[i] = JDynMethodRegistry.register(behavior.getLongName());
 			addCallback(behavior);
 		}
 		behaviorList.clear();
 	}
 	
+	/**
+	 * Returns the ids of the behaviors which were instrumented by the last 
+	 * call to {@link #instrumentAndClear()}.<br>
+	 * @return		an array of ids in the {@link JDynMethodRegistry}, may be empty
+	 */
+	public int[] getMethodIDs() {
+		return methodIDs;
+	}
+	
 	/**
 	 * Manipulates the byte code of the given behavior to add callbacks at the
 	 * beginning and the end of the user code, as well as a try-catch-block
@@ -116,6 +115,8 @@ public class JDynClassTransformation {
 	 * {@link JDynObserver CstgObservers} if needed.<br>
 	 * The callbacks are used to signal the start and end of an invocation of
 	 * the given behavior.<br>
+	 * Which of these are added depends on the {@link JDynCaptureLevel} of 
+	 * the class.<br>
 	 * 
 	 * @param behavior		either a CtMethod or CtConstructor that is to be changed
 	 * @throws Exception	several exceptions from javassist, but we can't deal with them anyways
@@ -124,8 +125,13 @@ public class JDynClassTransformation {
 		if (!isObsCB && !isProcCB) {
 			return;
 		}
-		String behaviorName = buildBehaviorName(behavior);
-		boolean hasParams = behavior.getParameterTypes().length > 0;
+		String behaviorID = buildBehaviorID(behavior);
+		if (captureLevel == JDynCaptureLevel.COUNT) {
+			behavior.insertBefore(buildCallback("countCall", behaviorID));
+			return;
+		}
+		boolean captureValues = captureLevel == JDynCaptureLevel.FULL;
+		int paramCount = behavior.getParameterTypes().length;
 		boolean hasReturnVal = false;
 		if (behavior instanceof CtMethod) {
 			if (((CtMethod) behavior).getReturnType() != CtClass.voidType) {
@@ -133,110 +139,157 @@ public class JDynClassTransformation {
 			}
 		}
 		String beforeCB;
-		if (hasParams) {
-			beforeCB = buildBeforeCallback_Params(behavior, behaviorName);
+		if (captureValues && paramCount > 0) {
+			beforeCB = buildBeforeCallback_Params(behavior, behaviorID, paramCount);
 		} else {
-			beforeCB = buildBeforeCallback_NoParams(behavior, behaviorName);
+			beforeCB = buildBeforeCallback_NoParams(behavior, behaviorID);
 		}
 		String afterCB;
-		if (hasReturnVal) {
-			afterCB = buildAfterCallback_Return(behavior, behaviorName);
+		if (captureValues && hasReturnVal) {
+			afterCB = buildAfterCallback_Return(behavior, behaviorID);
 		} else {
-			afterCB = buildAfterCallback_NoReturn(behavior, behaviorName);
+			afterCB = buildAfterCallback_NoReturn(behavior, behaviorID);
 		}
-		String catchCB = buildCatchCallback();
 		behavior.insertBefore(beforeCB);
 		behavior.insertAfter(afterCB, true);
-		if (isObsCB) {
+		if (captureLevel == JDynCaptureLevel.TIMING) {
+			return;
+		}
+		if (isObsCB && needsClassInit()) {
 			String obsCB = buildObserverCallback(behavior);
 			behavior.insertBefore(obsCB);
 		}
+		String catchCB = buildCatchCallback(behaviorID);
 		behavior.addCatch(catchCB, getExceptionClass(), "e");
 	}
 	
+	/**
+	 * Returns true if the class init callback is used for the current 
+	 * capture level.<br>
+	 */
+	private boolean needsClassInit() {
+		return captureLevel == JDynCaptureLevel.STRUCTURE 
+				|| captureLevel == JDynCaptureLevel.FULL;
+	}
+	
+	/**
+	 * Returns the code used to pass the invoking or constructed object to 
+	 * the {@link JDynEventDispatcher}. On the {@link JDynCaptureLevel#TIMING} 
+	 * level the object is not passed and null is used instead.<br>
+	 */
+	private String getSelfRef() {
+		if (captureLevel == JDynCaptureLevel.TIMING) {
+			return "null";
+		}
+		return "this";
+	}
+	
+	/**
+	 * The {@link JDynEventDispatcher} makes sure the observers are only 
+	 * notified once per class. No field is added to the class to remember 
+	 * this because classes can not get new fields when they are 
+	 * retransformed.<br>
+	 */
 	private String buildObserverCallback(CtBehavior method) {
-		String callBack = buildCallback("classInit", classRef, methodListString);
-		callbackBuilder.delete(0, callbackBuilder.length());
-		callbackBuilder.append("if (");
-		callbackBuilder.append(TRANSFORM_CLASS_INIT_FIELD_NAME);
-		callbackBuilder.append(") {");
-		callbackBuilder.append(TRANSFORM_CLASS_INIT_FIELD_NAME);
-		callbackBuilder.append(" = false;");
-		callbackBuilder.append(callBack);
-		callbackBuilder.append("}");
-		return callbackBuilder.toString();
+		return buildCallback("classInit", classRef, methodListString);
 	}
 	
-	private String buildBeforeCallback_NoParams(CtBehavior method, String methodName) {
+	private String buildBeforeCallback_NoParams(CtBehavior method, String methodID) {
 		if (method.getMethodInfo().isConstructor()) {
-			return buildCallback("beforeConstructor", classRef, methodName, "null", "false");
+			return buildCallback("beforeConstructor", classRef, methodID);
 		} else if (isStatic(method)) {
-			return buildCallback("beforeStaticMethod", classRef, methodName, "null", "false");
+			return buildCallback("beforeStaticMethod", classRef, methodID);
 		}
-		return buildCallback("beforeMethod", "this", methodName, "null", "false");
+		return buildCallback("beforeMethod", getSelfRef(), methodID);
 	}
 	
-	private String buildBeforeCallback_Params(CtBehavior method, String methodName) {
+	/**
+	 * Builds a callback for a behavior with parameters. Instead of passing 
+	 * <code>$args</code>, which would box every primitive parameter on every 
+	 * call, each parameter is passed on its own to one of the overloaded 
+	 * <code>param</code> methods of the {@link JDynEventDispatcher}. This 
+	 * only happens if the dispatcher actually records parameters.<br>
+	 * @param method		the behavior to which the callback belongs
+	 * @param methodID		the id of the method as returned by {@link #buildBehaviorID(CtBehavior)}
+	 * @param paramCount	the number of parameters of method, greater than 0
+	 * @return				compilable java code that represents a callback to the {@link JDynEventDispatcher}
+	 */
+	private String buildBeforeCallback_Params(CtBehavior method, String methodID, int paramCount) {
+		String count = Integer.toString(paramCount);
+		String startCB;
 		if (method.getMethodInfo().isConstructor()) {
-			return buildCallback("beforeConstructor", classRef, methodName, "$args", "true");
+			startCB = buildCallback("beforeConstructorParams", classRef, methodID, count);
 		} else if (isStatic(method)) {
-			return buildCallback("beforeStaticMethod", classRef, methodName, "$args", "true");
+			startCB = buildCallback("beforeStaticMethodParams", classRef, methodID, count);
+		} else {
+			startCB = buildCallback("beforeMethodParams", "this", methodID, count);
 		}
-		return buildCallback("beforeMethod", "this", methodName, "$args", "true");
+		StringBuilder sb = new StringBuilder();
+		sb.append("{");
+		sb.append(CST_EVENT_CLASS_NAME);
+		sb.append(" jdynEvent = ");
+		sb.append(startCB);
+		sb.append(" if (jdynEvent != null) {");
+		for (int i = 0; i < paramCount; i++) {
+			sb.append(buildCallback("param", "jdynEvent", Integer.toString(i), "$" + (i + 1)));
+		}
+		sb.append(buildCallback("paramsDone", "jdynEvent"));
+		sb.append("}}");
+		return sb.toString();
 	}
 	
-	private String buildAfterCallback_NoReturn(CtBehavior method, String methodName) {
+	private String buildAfterCallback_NoReturn(CtBehavior method, String methodID) {
 		if (method.getMethodInfo().isConstructor()) {
-			return buildCallback("afterConstructor", "this");
+			return buildCallback("afterConstructor", getSelfRef());
 		} else if (isStatic(method)) {
-			return buildCallback("afterStaticMethod", classRef, methodName, "null", "false");
+			return buildCallback("afterStaticMethod", classRef, methodID);
 		}
-		return buildCallback("afterMethod", "this", methodName, "null", "false");
+		return buildCallback("afterMethod", getSelfRef(), methodID);
 	}
 	
 	/**
 	 * Builds a callback to the {@link JDynEventDispatcher} calling either
-	 * {@link JDynEventDispatcher#afterConstructor(Object)},
-	 * {@link JDynEventDispatcher#afterStaticMethod(Class, String, Object, boolean)} or
-	 * {@link JDynEventDispatcher#afterMethod(Object, String, Object, boolean)} with the
-	 * respective arguments.<br>
+	 * {@link JDynEventDispatcher#afterConstructor(Object)} or one of the 
+	 * overloaded <code>afterStaticMethod</code> and <code>afterMethod</code> 
+	 * methods. The returned value is passed without wrapping it so that the 
+	 * overload for its primitive type is chosen.<br>
 	 * @param method		the method to which the callback belongs
-	 * @param methodName	the name of the method
+	 * @param methodID	the id of the method as returned by {@link #buildBehaviorID(CtBehavior)}
 	 * @return				compilable java code that represents a callback to the {@link JDynEventDispatcher}
 	 */
-	private String buildAfterCallback_Return(CtBehavior method, String methodName) {
+	private String buildAfterCallback_Return(CtBehavior method, String methodID) {
 		if (method.getMethodInfo().isConstructor()) {
 			return buildCallback("afterConstructor", "this");
 		} else if (isStatic(method)) {
-			return buildCallback("afterStaticMethod", classRef, methodName, "($w) $_", "true");
+			return buildCallback("afterStaticMethod", classRef, methodID, "$_");
 		}
-		return buildCallback("afterMethod", "this", methodName, "($w) $_", "true");
+		return buildCallback("afterMethod", "this", methodID, "$_");
 	}
 	
 	/**
-	 * Returns the name of the behavior enclosed by quotation marks (").<br>
+	 * Registers the behavior with the {@link JDynMethodRegistry} and returns 
+	 * the id it was given as an integer literal.<br>
+	 * The callbacks pass this id instead of the signature of the behavior.<br>
 	 * @param behavior	a non null behavior
-	 * @return			the name of the behavior in between quotation marks
+	 * @return			the id of the behavior as compilable java code
 	 */
-	private String buildBehaviorName(CtBehavior behavior) {
-		callbackBuilder.delete(0, callbackBuilder.length());
-		callbackBuilder.append("\"");
-		callbackBuilder.append(behavior.getLongName());
-		callbackBuilder.append("\"");
-		return callbackBuilder.toString();
+	private String buildBehaviorID(CtBehavior behavior) {
+		int methodID = JDynMethodRegistry.register(behavior.getLongName());
+		return Integer.toString(methodID);
 	}
 	
 	/**
-	 * Builds a callback to the {@link JDynEventDispatcher#exception(Exception)}
+	 * Builds a callback to the {@link JDynEventDispatcher#exception(Throwable, int)}
 	 * method. The callback must be inserted inside the catch block of a try-catch
-	 * statement.<br>
+	 * statement that catches {@link Throwable}.<br>
 	 * The exception variable is assumed to be called <code>e</code>.<br>
+	 * @param methodID	the id of the behavior as returned by {@link #buildBehaviorID(CtBehavior)}
 	 * @return			compilable java code that represents a callback to
-	 * 					{@link JDynEventDispatcher#exception(Exception)} followed
+	 * 					{@link JDynEventDispatcher#exception(Throwable, int)} followed
 	 * 					by a <code>throw</code> statement.<br>
 	 */
-	private String buildCatchCallback() {
-		String exceptionCB = buildCallback("exception", "e");
+	private String buildCatchCallback(String methodID) {
+		String exceptionCB = buildCallback("exception", "e", methodID);
 		callbackBuilder.delete(0, callbackBuilder.length());
 		callbackBuilder.append("{");
 		callbackBuilder.append(exceptionCB);
@@ -0,0 +1,40 @@
+package edu.udo.cs.dynaliser;
+
+/**
+ * Implements the {@link JDynControlMBean} by delegating to the installed 
+ * {@link JDynAgent}.<br>
+ */
+public class JDynControl implements JDynControlMBean {
+	
+	private final JDynAgent agent;
+	
+	public JDynControl(JDynAgent agent) {
+		this.agent = agent;
+	}
+	
+	@Override
+	public boolean isEnabled() {
+		return agent.isEnabled();
+	}
+	
+	@Override
+	public int enable() {
+		return agent.setEnabled(true);
+	}
+	
+	@Override
+	public int disable() {
+		return agent.setEnabled(false);
+	}
+	
+	@Override
+	public boolean isRecording() {
+		return JDynEventDispatcher.isRecording();
+	}
+	
+	@Override
+	public void setRecording(boolean value) {
+		JDynEventDispatcher.setRecording(value);
+	}
+	
+}
\ No newline at end of file
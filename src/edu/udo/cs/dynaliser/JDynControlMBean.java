@@ -0,0 +1,50 @@
+package edu.udo.cs.dynaliser;
+
+/**
+ * The JMX interface to enable and disable the instrumentation of a running 
+ * JVM without restarting it.<br>
+ * Recording can also be stopped without removing the instrumentation. This 
+ * takes effect immediately and is much cheaper than retransforming all 
+ * classes.<br>
+ * The bean is registered with the platform MBean server under the name 
+ * {@value #OBJECT_NAME} if the JVM supports the retransformation of 
+ * classes.<br>
+ */
+public interface JDynControlMBean {
+	
+	public static final String OBJECT_NAME = "edu.udo.cs.dynaliser:type=JDynControl";
+	
+	/**
+	 * Returns true if included classes are currently instrumented.<br>
+	 * @return		true if the instrumentation is enabled
+	 */
+	public boolean isEnabled();
+	
+	/**
+	 * Instruments all included classes including those that are already 
+	 * loaded.<br>
+	 * @return		the number of retransformed classes
+	 */
+	public int enable();
+	
+	/**
+	 * Restores the original byte code of all instrumented classes.<br>
+	 * @return		the number of retransformed classes
+	 */
+	public int disable();
+	
+	/**
+	 * Returns true if the instrumented classes record events.<br>
+	 * @return		true if recording was not stopped
+	 * @see JDynEventDispatcher#isRecording()
+	 */
+	public boolean isRecording();
+	
+	/**
+	 * Starts or stops recording events without retransforming any class.<br>
+	 * @param value		true to record events, false to stop recording
+	 * @see JDynEventDispatcher#setRecording(boolean)
+	 */
+	public void setRecording(boolean value);
+	
+}
\ No newline at end of file
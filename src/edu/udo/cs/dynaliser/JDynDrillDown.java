@@ -0,0 +1,308 @@
+package edu.udo.cs.dynaliser;
+
+import java.lang.instrument.Instrumentation;
+import java.lang.instrument.UnmodifiableClassException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javassist.CtBehavior;
+import javassist.CtMethod;
+import javassist.Modifier;
+import javassist.bytecode.BadBytecode;
+import javassist.bytecode.CodeAttribute;
+import javassist.bytecode.CodeIterator;
+import javassist.bytecode.ConstPool;
+import javassist.bytecode.Descriptor;
+import javassist.bytecode.MethodInfo;
+import javassist.bytecode.Opcode;
+
+/**
+ * Instruments a program step by step, starting with its entry points.<br>
+ * At first only the entry points are instrumented; these are the public
+ * methods of included classes if {@link JDynSettings#isDrillDownPublic()}
+ * is true and all methods matched by {@link JDynSettings#getDrillDownRoots()}.
+ * When an invocation of an instrumented method takes longer than
+ * {@link JDynSettings#getDrillDownMicros()} the {@link JDynEventDispatcher}
+ * reports it and the direct callees of the method are instrumented as well.
+ * Each slow method is expanded once, so the instrumentation grows one level
+ * deeper below the slow paths of the program only.<br>
+ * The callees of a behavior are read from its byte code when its class is
+ * transformed for the first time. A callee is resolved against the classes
+ * that are loaded when the method is expanded; implementations in classes
+ * which are loaded later are not instrumented.<br>
+ */
+final class JDynDrillDown {
+	
+	private final JDynSettings settings;
+	private final Instrumentation instrumentation;
+	private final boolean debug;
+	/**
+	 * The long names of the behaviors that were instrumented because their
+	 * caller was slow.<br>
+	 */
+	private final Set<String> active = ConcurrentHashMap.newKeySet();
+	/**
+	 * The callees of each behavior of an included class by its long name.<br>
+	 */
+	private final Map<String, Callee[]> callees = new ConcurrentHashMap<>();
+	/**
+	 * The ids of the methods which were expanded already.<br>
+	 */
+	private final Set<Integer> expanded = ConcurrentHashMap.newKeySet();
+	/**
+	 * Retransforms classes in the order in which methods were expanded.
+	 * Instrumented threads do not wait for it.<br>
+	 */
+	private final ExecutorService executor = Executors.newSingleThreadExecutor((runnable) -> {
+		Thread thread = new Thread(runnable, "JDynDrillDown");
+		thread.setDaemon(true);
+		return thread;
+	});
+	
+	JDynDrillDown(JDynSettings settings, Instrumentation instrumentation) {
+		this.settings = settings;
+		this.instrumentation = instrumentation;
+		debug = settings.isDebug();
+	}
+	
+	/**
+	 * Returns true if the given behavior is an entry point or was
+	 * activated because one of its callers was slow.<br>
+	 * @param behavior		a behavior of an included class
+	 * @return				true if the behavior should be instrumented
+	 */
+	boolean isInstrumented(CtBehavior behavior) {
+		String longName = behavior.getLongName();
+		if (active.contains(longName) || settings.isDrillDownRoot(longName)) {
+			return true;
+		}
+		return settings.isDrillDownPublic() && behavior instanceof CtMethod
+				&& Modifier.isPublic(behavior.getModifiers());
+	}
+	
+	/**
+	 * Reads the behaviors which are invoked by the given behavior from its
+	 * byte code. Only behaviors of included classes are remembered.
+	 * Behaviors are only read once; retransformations do not change the
+	 * original byte code.<br>
+	 * @param behavior		a non-abstract, non-native behavior
+	 */
+	void recordCallees(CtBehavior behavior) {
+		String longName = behavior.getLongName();
+		if (callees.containsKey(longName)) {
+			return;
+		}
+		MethodInfo info = behavior.getMethodInfo();
+		CodeAttribute code = info.getCodeAttribute();
+		if (code == null) {
+			return;
+		}
+		ConstPool constPool = info.getConstPool();
+		List<Callee> result = new ArrayList<>();
+		Set<String> seen = new HashSet<>();
+		CodeIterator iter = code.iterator();
+		try {
+			while (iter.hasNext()) {
+				int pos = iter.next();
+				int opcode = iter.byteAt(pos);
+				if (opcode != Opcode.INVOKEVIRTUAL && opcode != Opcode.INVOKESPECIAL
+						&& opcode != Opcode.INVOKESTATIC && opcode != Opcode.INVOKEINTERFACE)
+				{
+					continue;
+				}
+				int index = iter.u16bitAt(pos + 1);
+				String className;
+				String name;
+				String desc;
+				if (opcode == Opcode.INVOKEINTERFACE) {
+					className = constPool.getInterfaceMethodrefClassName(index);
+					name = constPool.getInterfaceMethodrefName(index);
+					desc = constPool.getInterfaceMethodrefType(index);
+				} else {
+					className = constPool.getMethodrefClassName(index);
+					name = constPool.getMethodrefName(index);
+					desc = constPool.getMethodrefType(index);
+				}
+				// Arrays and classes of the JDK are never instrumented
+				if (className == null || !settings.isClassIncluded(className)) {
+					continue;
+				}
+				boolean constructor = MethodInfo.nameInit.equals(name);
+				// Same format as CtBehavior.getLongName()
+				String signature = constructor
+						? className + Descriptor.toString(desc)
+						: className + "." + name + Descriptor.toString(desc);
+				if (seen.add(signature)) {
+					result.add(new Callee(className, signature, constructor));
+				}
+			}
+		} catch (BadBytecode e) {
+			e.printStackTrace();
+		}
+		callees.put(longName, result.toArray(new Callee[result.size()]));
+	}
+	
+	/**
+	 * Called by the {@link JDynEventDispatcher} when an invocation of the
+	 * method with the given id took longer than the threshold. The callees
+	 * of the method are instrumented on a thread of their own.<br>
+	 * @param methodID		the id of a method in the {@link JDynMethodRegistry}
+	 */
+	void thresholdExceeded(int methodID) {
+		if (!expanded.add(methodID)) {
+			return;
+		}
+		String signature = JDynMethodRegistry.getSignature(methodID);
+		if (signature == null) {
+			return;
+		}
+		executor.execute(() -> expand(signature));
+	}
+	
+	/**
+	 * Activates the callees of the given behavior and retransforms the
+	 * loaded classes which declare them.<br>
+	 */
+	private void expand(String signature) {
+		Callee[] calls = callees.get(signature);
+		if (calls == null || calls.length == 0) {
+			return;
+		}
+		Class<?>[] loadedClasses = instrumentation.getAllLoadedClasses();
+		Set<Class<?>> changedClasses = new HashSet<>();
+		int count = 0;
+		for (Callee callee : calls) {
+			if (active.add(callee.signature)) {
+				count++;
+				// The callee may be declared by a class which is not loaded yet
+				for (Class<?> clazz : loadedClasses) {
+					if (clazz.getName().equals(callee.className)) {
+						changedClasses.add(clazz);
+					}
+				}
+			}
+			if (!callee.constructor) {
+				count += activateImplementations(callee, loadedClasses, changedClasses);
+			}
+		}
+		if (debug) {
+			JDynAgent.debugMsg("Drill down into", count, "callees of", signature);
+		}
+		for (Class<?> clazz : changedClasses) {
+			if (clazz.isInterface() || !instrumentation.isModifiableClass(clazz)) {
+				continue;
+			}
+			try {
+				instrumentation.retransformClasses(clazz);
+			} catch (UnmodifiableClassException | RuntimeException | LinkageError e) {
+				System.err.println("JDyn Error: Can not retransform "+clazz.getName());
+				e.printStackTrace();
+			}
+		}
+	}
+	
+	/**
+	 * Activates the method that is invoked by the callee for each loaded
+	 * class that inherits from the class named by the callee. This is the
+	 * inherited method if the subclass does not override it.<br>
+	 * @return		the number of activated methods
+	 */
+	private int activateImplementations(Callee callee, Class<?>[] loadedClasses,
+			Set<Class<?>> changedClasses)
+	{
+		String member = callee.signature.substring(callee.className.length() + 1);
+		List<Class<?>> owners = new ArrayList<>();
+		for (Class<?> clazz : loadedClasses) {
+			if (clazz.getName().equals(callee.className)) {
+				owners.add(clazz);
+			}
+		}
+		int count = 0;
+		for (Class<?> clazz : loadedClasses) {
+			if (clazz.isInterface() || !isSubclass(clazz, owners)
+					|| !settings.isClassIncluded(clazz.getName()))
+			{
+				continue;
+			}
+			Class<?> declaring = findDeclaringClass(clazz, member);
+			if (declaring == null || !settings.isClassIncluded(declaring.getName())) {
+				continue;
+			}
+			if (active.add(declaring.getName() + "." + member)) {
+				changedClasses.add(declaring);
+				count++;
+			}
+		}
+		return count;
+	}
+	
+	private boolean isSubclass(Class<?> clazz, List<Class<?>> owners) {
+		for (Class<?> owner : owners) {
+			if (owner != clazz && owner.isAssignableFrom(clazz)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Returns the class that declares the method which is invoked on an
+	 * instance of the given class.<br>
+	 * @param member		the name of the method and its parameter types as
+	 * 						in {@link CtBehavior#getLongName()}
+	 * @return				the declaring class or null if it is not found
+	 */
+	private Class<?> findDeclaringClass(Class<?> clazz, String member) {
+		for (Class<?> cls = clazz; cls != null; cls = cls.getSuperclass()) {
+			Method[] methods;
+			try {
+				methods = cls.getDeclaredMethods();
+			} catch (LinkageError e) {
+				// A parameter type can not be loaded
+				return null;
+			}
+			for (Method method : methods) {
+				if (member.equals(toMember(method))) {
+					return cls;
+				}
+			}
+		}
+		return null;
+	}
+	
+	private String toMember(Method method) {
+		StringBuilder sb = new StringBuilder(method.getName());
+		sb.append('(');
+		Class<?>[] paramTypes = method.getParameterTypes();
+		for (int i = 0; i < paramTypes.length; i++) {
+			if (i > 0) {
+				sb.append(',');
+			}
+			sb.append(paramTypes[i].getTypeName());
+		}
+		sb.append(')');
+		return sb.toString();
+	}
+	
+	private static class Callee {
+		
+		final String className;
+		final String signature;
+		final boolean constructor;
+		
+		Callee(String calleeClassName, String calleeSignature, boolean isConstructor) {
+			className = calleeClassName;
+			signature = calleeSignature;
+			constructor = isConstructor;
+		}
+		
+	}
+	
+}
\ No newline at end of file
@@ -0,0 +1,294 @@
+package edu.udo.cs.dynaliser;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Records the events of one root invocation as fixed size records instead
+ * of {@link CstEvent} objects.<br>
+ * Each record holds the kind of the record, the method id, a time stamp,
+ * the id of a class in the {@link JDynClassRegistry} and the id of an object.
+ * The buffer is only turned into events by {@link #decode()} when a
+ * processor asks the {@link CallSequenceTree} for its root event. The
+ * memory of the records can be on or off the heap.<br>
+ * Buffers are reused after they were decoded so that recording does not
+ * allocate in the steady state.<br>
+ * A buffer is written by a single thread only.<br>
+ */
+public class JDynEventBuffer {
+	
+	static final int KIND_START_CONSTRUCTOR = 0;
+	static final int KIND_START_STATIC_METHOD = 1;
+	static final int KIND_START_METHOD = 2;
+	static final int KIND_END_CONSTRUCTOR = 3;
+	static final int KIND_END_STATIC_METHOD = 4;
+	static final int KIND_END_METHOD = 5;
+	static final int KIND_EXCEPTION = 6;
+	
+	/*
+	 * Layout of a record in bytes
+	 */
+	private static final int OFFSET_KIND = 0;
+	private static final int OFFSET_METHOD = 4;
+	private static final int OFFSET_TIME = 8;
+	private static final int OFFSET_CLASS = 16;
+	private static final int OFFSET_OBJECT = 20;
+	static final int RECORD_SIZE = 24;
+	
+	/**
+	 * At most this many unused buffers are kept for reuse.<br>
+	 */
+	private static final int MAX_POOLED_BUFFERS = 64;
+	private static final Queue<JDynEventBuffer> pool = new ConcurrentLinkedQueue<>();
+	private static final AtomicInteger pooledCount = new AtomicInteger();
+	
+	private final boolean direct;
+	private ByteBuffer records;
+	private int recordCount;
+	/**
+	 * The number of records that end an event. This is the number of events
+	 * of the decoded tree.<br>
+	 */
+	private int completedCount;
+	/**
+	 * Thrown exceptions are kept as objects. The method id of an exception
+	 * record is the index into this array.<br>
+	 */
+	private Throwable[] exceptions = new Throwable[4];
+	/**
+	 * The ids of the behaviors each exception left and their number, by 
+	 * the index of the exception.<br>
+	 */
+	private int[][] unwoundIDs = new int[4][];
+	private int[] unwindDepths = new int[4];
+	private int exceptionCount;
+	
+	private JDynEventBuffer(boolean directMemory, int initialRecords) {
+		direct = directMemory;
+		records = allocate(Math.max(16, initialRecords) * RECORD_SIZE);
+	}
+	
+	/**
+	 * Returns an empty buffer, reusing a released buffer if possible.<br>
+	 * @param directMemory		true if the records should be stored off the heap
+	 * @param initialRecords	the number of records the buffer can hold before it grows
+	 * @return					an empty buffer
+	 */
+	public static JDynEventBuffer acquire(boolean directMemory, int initialRecords) {
+		JDynEventBuffer buffer = pool.poll();
+		if (buffer != null) {
+			pooledCount.decrementAndGet();
+			if (buffer.direct == directMemory) {
+				return buffer;
+			}
+		}
+		return new JDynEventBuffer(directMemory, initialRecords);
+	}
+	
+	/**
+	 * Clears this buffer and makes it available to {@link #acquire(boolean, int)}.
+	 * The buffer must not be used by the caller afterwards.<br>
+	 */
+	public void release() {
+		recordCount = 0;
+		completedCount = 0;
+		Arrays.fill(exceptions, 0, exceptionCount, null);
+		Arrays.fill(unwoundIDs, 0, exceptionCount, null);
+		exceptionCount = 0;
+		if (pooledCount.incrementAndGet() <= MAX_POOLED_BUFFERS) {
+			pool.offer(this);
+		} else {
+			pooledCount.decrementAndGet();
+		}
+	}
+	
+	/**
+	 * Returns a copy of this buffer which is not pooled. Used to look at a
+	 * buffer that is still being written to.<br>
+	 */
+	JDynEventBuffer copy() {
+		JDynEventBuffer copy = new JDynEventBuffer(direct, recordCount);
+		int count = recordCount;
+		ByteBuffer src = records.duplicate();
+		src.position(0);
+		src.limit(count * RECORD_SIZE);
+		copy.records.put(src);
+		copy.records.clear();
+		copy.recordCount = count;
+		copy.completedCount = completedCount;
+		copy.exceptions = Arrays.copyOf(exceptions, exceptions.length);
+		copy.unwoundIDs = Arrays.copyOf(unwoundIDs, unwoundIDs.length);
+		copy.unwindDepths = Arrays.copyOf(unwindDepths, unwindDepths.length);
+		copy.exceptionCount = exceptionCount;
+		return copy;
+	}
+	
+	public int getRecordCount() {
+		return recordCount;
+	}
+	
+	/**
+	 * Returns the number of events that were completed in this buffer.<br>
+	 * @return		the number of end and exception records
+	 */
+	public int getCompletedEventCount() {
+		return completedCount;
+	}
+	
+	void append(int kind, int methodID, long time, int classID, int objectID) {
+		int offset = recordCount * RECORD_SIZE;
+		if (offset + RECORD_SIZE > records.capacity()) {
+			grow();
+		}
+		ByteBuffer buf = records;
+		buf.putInt(offset + OFFSET_KIND, kind);
+		buf.putInt(offset + OFFSET_METHOD, methodID);
+		buf.putLong(offset + OFFSET_TIME, time);
+		buf.putInt(offset + OFFSET_CLASS, classID);
+		buf.putInt(offset + OFFSET_OBJECT, objectID);
+		recordCount++;
+		if (kind >= KIND_END_CONSTRUCTOR) {
+			completedCount++;
+		}
+	}
+	
+	/**
+	 * Appends an exception record for a throwable that left the behavior 
+	 * with the given id.<br>
+	 * @return		the index of the exception for 
+	 * 				{@link #addUnwoundBehavior(int, int)}
+	 */
+	int appendException(Throwable exception, int methodID, 
+			long time, int classID, int objectID) 
+	{
+		if (exceptionCount == exceptions.length) {
+			exceptions = Arrays.copyOf(exceptions, exceptionCount * 2);
+			unwoundIDs = Arrays.copyOf(unwoundIDs, exceptionCount * 2);
+			unwindDepths = Arrays.copyOf(unwindDepths, exceptionCount * 2);
+		}
+		exceptions[exceptionCount] = exception;
+		unwoundIDs[exceptionCount] = new int[] {methodID};
+		unwindDepths[exceptionCount] = 1;
+		append(KIND_EXCEPTION, exceptionCount, time, classID, objectID);
+		return exceptionCount++;
+	}
+	
+	/**
+	 * Called when the exception with the given index leaves another 
+	 * instrumented behavior.<br>
+	 */
+	void addUnwoundBehavior(int exceptionIndex, int methodID) {
+		int depth = unwindDepths[exceptionIndex];
+		int[] ids = unwoundIDs[exceptionIndex];
+		if (depth == ids.length) {
+			ids = Arrays.copyOf(ids, depth * 2);
+			unwoundIDs[exceptionIndex] = ids;
+		}
+		ids[depth] = methodID;
+		unwindDepths[exceptionIndex] = depth + 1;
+	}
+	
+	private void grow() {
+		ByteBuffer newRecords = allocate(records.capacity() * 2);
+		ByteBuffer oldRecords = records.duplicate();
+		oldRecords.position(0);
+		oldRecords.limit(recordCount * RECORD_SIZE);
+		newRecords.put(oldRecords);
+		newRecords.clear();
+		records = newRecords;
+	}
+	
+	private ByteBuffer allocate(int bytes) {
+		ByteBuffer buf;
+		if (direct) {
+			buf = ByteBuffer.allocateDirect(bytes);
+		} else {
+			buf = ByteBuffer.allocate(bytes);
+		}
+		return buf.order(ByteOrder.nativeOrder());
+	}
+	
+	/**
+	 * Creates the events for the records in this buffer and returns the
+	 * root event. Events that were started but not ended have an after
+	 * time of 0.<br>
+	 * Objects are represented by {@link IdentifiedObject IdentifiedObjects}
+	 * without the object itself; only their class and id are known.<br>
+	 * @return		the root event or null if the buffer is empty
+	 */
+	CstEvent decode() {
+		CstEvent root = null;
+		CstEvent[] stack = new CstEvent[16];
+		int depth = 0;
+		ByteBuffer buf = records;
+		for (int i = 0; i < recordCount; i++) {
+			int offset = i * RECORD_SIZE;
+			int kind = buf.getInt(offset + OFFSET_KIND);
+			int methodID = buf.getInt(offset + OFFSET_METHOD);
+			long time = buf.getLong(offset + OFFSET_TIME);
+			int classID = buf.getInt(offset + OFFSET_CLASS);
+			int objectID = buf.getInt(offset + OFFSET_OBJECT);
+			Class<?> clazz = JDynClassRegistry.getRegisteredClass(classID);
+			CstEvent parent = depth == 0 ? null : stack[depth - 1];
+			
+			CstEvent event;
+			switch (kind) {
+			case KIND_START_CONSTRUCTOR:
+				event = new CstEventConstructor(parent, clazz, methodID);
+				break;
+			case KIND_START_STATIC_METHOD:
+				event = new CstEventStaticMethod(parent, clazz, methodID);
+				break;
+			case KIND_START_METHOD:
+				CstEventMethod mEvent = new CstEventMethod(parent, null, methodID);
+				if (clazz != null) {
+					mEvent.setInvokingObject(IdentifiedObject.withoutObject(clazz, objectID));
+				}
+				event = mEvent;
+				break;
+			case KIND_EXCEPTION:
+				int[] ids = unwoundIDs[methodID];
+				CstEventException eEvent = new CstEventException(parent, exceptions[methodID], ids[0]);
+				eEvent.setUnwoundBehaviors(ids, unwindDepths[methodID]);
+				eEvent.setID(objectID);
+				eEvent.setNanoTimes(time, time);
+				if (parent != null) {
+					parent.addChild(eEvent);
+				}
+				continue;
+			default:
+				// All other kinds end the event on top of the stack
+				if (depth == 0) {
+					throw new IllegalStateException("Unbalanced record "+i);
+				}
+				depth--;
+				CstEvent ended = stack[depth];
+				stack[depth] = null;
+				ended.setNanoTimes(ended.getBeforeNanoTime(), time);
+				if (kind == KIND_END_CONSTRUCTOR && clazz != null) {
+					CstEventConstructor cEvent = (CstEventConstructor) ended;
+					cEvent.setConstructedObject(
+							IdentifiedObject.withoutObject(clazz, objectID),
+							clazz != cEvent.getConstructedClass());
+				}
+				continue;
+			}
+			event.setNanoTimes(time, 0);
+			if (parent == null) {
+				root = event;
+			} else {
+				parent.addChild(event);
+			}
+			if (depth == stack.length) {
+				stack = Arrays.copyOf(stack, depth * 2);
+			}
+			stack[depth++] = event;
+		}
+		return root;
+	}
+	
+}
\ No newline at end of file
@@ -1,11 +1,18 @@
 package edu.udo.cs.dynaliser;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MutableCallSite;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.prefs.Preferences;
 
 import edu.udo.cs.dynalysis.JDynObserver;
@@ -13,38 +20,137 @@ import edu.udo.cs.dynalysis.JDynObserver;
 public class JDynEventDispatcher {
 	
 	private static final boolean NO_IDENTIFY;
-	private static final boolean DEBUG;
 	/**
-	 * Used for locking the object identification method.
+	 * If true objects are identified by the {@link JDynProcessorThread} 
+	 * when a finished sequence is processed instead of by the instrumented 
+	 * thread.<br>
 	 */
-	private static final Object identifyLock;
+	private static final boolean DEFER_IDENTIFY;
+	private static final boolean DEBUG;
 	/**
-	 * Used to count how many instances of a particular class have been created
+	 * If false no observer or processor uses parameters or returned values. 
+	 * In that case these values are neither boxed nor stored.<br>
 	 */
-	private static final Map<Class<?>, Integer> classInstanceCountMap;
+	private static final boolean CAPTURE_VALUES;
 	/**
 	 * Maps objects to a unique integer id to distinguish between them.<br>
-	 * An {@link IdentityHashMap} is used in case the user has overwritten 
-	 * the {@link Object#hashCode()} and/or {@link Object#equals(Object)} 
-	 * methods.<br>
+	 * The table is null if the NO_IDENTIFY option is set.<br>
+	 */
+	private static final JDynIdentityTable identityTable;
+	/**
+	 * Gives each thread its own {@link SequenceSlot} so that the current 
+	 * sequence of a thread can be found without any locking.<br>
+	 */
+	private static final ThreadLocal<SequenceSlot> threadToSequenceSlot = 
+			ThreadLocal.withInitial(() -> createSequenceSlot());
+	/**
+	 * All slots ever handed out by {@link #threadToSequenceSlot}. This is 
+	 * only written to once per thread and used to enumerate all live 
+	 * sequences in {@link #getAllCurrentSequences()}.<br>
+	 */
+	private static final Set<SequenceSlot> allSequenceSlots = ConcurrentHashMap.newKeySet();
+	/**
+	 * Counts created slots. Slots of terminated threads are removed every 
+	 * {@link #SLOT_PURGE_INTERVAL} created slots.<br>
+	 */
+	private static final AtomicInteger slotCreationCount = new AtomicInteger();
+	private static final int SLOT_PURGE_INTERVAL = 64;
+	/**
+	 * If true only some root invocations are recorded. Behaviors called 
+	 * from other root invocations take a fast exit in the callbacks.<br>
+	 */
+	private static final boolean SAMPLING;
+	/**
+	 * Only every n-th root invocation of each thread is recorded.<br>
+	 */
+	private static final int SAMPLE_EVERY;
+	/**
+	 * At most one root invocation is recorded within this many nano 
+	 * seconds. Zero if there is no limit.<br>
+	 */
+	private static final long SAMPLE_INTERVAL_NANOS;
+	private static final AtomicLong nextSampleNanoTime = new AtomicLong();
+	/**
+	 * If true events are recorded into a {@link JDynEventBuffer} per thread 
+	 * instead of being created as objects. This is only possible if there 
+	 * are no observers and parameters and returned values are not needed.<br>
+	 */
+	private static final boolean BUFFER_EVENTS;
+	/**
+	 * If true {@link CallSequenceTree CallSequenceTrees} which exceed the 
+	 * limits of the settings are split into partial trees.<br>
+	 */
+	private static final boolean LIMIT_TREES;
+	private static final int TREE_EVENT_LIMIT;
+	private static final int TREE_BYTE_LIMIT;
+	/**
+	 * Measures the duration of invocations to remove the probes of short 
+	 * hot methods. Null if probes are never removed.<br>
 	 */
-	private static final Map<Object, Integer> objectToIdMap;
+	private static final JDynProbeTuner probeTuner;
+	private static final boolean TUNE_PROBES;
 	/**
-	 * Maps threads to sequences so that each thread has its own
+	 * Instruments the callees of methods which take longer than 
+	 * {@link #DRILL_DOWN_NANOS}. Null if all included behaviors are 
+	 * instrumented right away.<br>
 	 */
-	private static final Map<Thread, CallSequenceTree> threadToSequenceMap = new HashMap<>();
+	private static final JDynDrillDown drillDown;
+	private static final boolean DRILL_DOWN;
+	private static final long DRILL_DOWN_NANOS;
+	private static final boolean BUFFER_DIRECT;
+	private static final int BUFFER_RECORDS;
 	private static final JDynProcessorThread procThread;
+	/**
+	 * The time the shut down hook waits for the processors to finish.<br>
+	 */
+	private static final long SHUTDOWN_PROCESSING_MILLIS = 10000;
 	/**
 	 * A Collection of all observers that are to be notified of class or 
 	 * method transformations.<br>
 	 */
 	private static final Iterable<JDynObserver> observers;
+	/**
+	 * The observers and their {@link JDynMetrics} statistics in the same 
+	 * order. Only used if observers are notified synchronously.<br>
+	 */
+	private static final JDynObserver[] observerArray;
+	private static final JDynMetrics.ObserverStats[] observerStats;
+	/**
+	 * Set to true once the observers were notified of a class. This 
+	 * survives a retransformation of the class.<br>
+	 */
+	private static final ClassValue<AtomicBoolean> classNotified = new ClassValue<AtomicBoolean>() {
+		@Override
+		protected AtomicBoolean computeValue(Class<?> type) {
+			return new AtomicBoolean();
+		}
+	};
+	/**
+	 * Notifies the observers if they are notified asynchronously, 
+	 * otherwise null.<br>
+	 */
+	private static final JDynObserverThread obsThread;
 	private static final JDynSettings settings;
+	/**
+	 * The target of this call site returns a constant which is true while 
+	 * events are recorded. Every callback checks it first. The JIT treats 
+	 * the target as a constant and compiles the callbacks to nothing while 
+	 * recording is stopped. Changing the target deoptimizes the compiled 
+	 * code that depends on it.<br>
+	 */
+	private static final MutableCallSite recordingSite = 
+			new MutableCallSite(MethodHandles.constant(boolean.class, true));
+	private static final MethodHandle recordingGuard = recordingSite.dynamicInvoker();
+	/**
+	 * Incremented whenever recording is stopped. A {@link SequenceSlot} 
+	 * from an older epoch is reset before it is used again since the 
+	 * behaviors that ran in between were not recorded.<br>
+	 */
+	private static volatile int recordingEpoch;
 	
 	static {
 		Preferences prefs = Preferences.userRoot().node(JDynAgent.JDYN_PREFERENCES);
 		settings = new JDynSettings(prefs);
-		procThread = new JDynProcessorThread(settings);
 		// The debug status of settings, although mutable, does never change
 		DEBUG = settings.isDebug();
 		if (DEBUG) {
@@ -58,6 +164,22 @@ public class JDynEventDispatcher {
 		} else {
 			observers = Collections.emptyList();
 		}
+		if (settings.hasObservers() && settings.isObserverAsync()) {
+			if (DEBUG) {
+				JDynAgent.debugMsg("Notify observers asynchronously");
+			}
+			obsThread = new JDynObserverThread(observers, settings.getObserverBufferSize());
+			observerArray = null;
+			observerStats = null;
+		} else {
+			obsThread = null;
+			List<JDynObserver> observerList = new ArrayList<>();
+			for (JDynObserver obs : observers) {
+				observerList.add(obs);
+			}
+			observerArray = observerList.toArray(new JDynObserver[observerList.size()]);
+			observerStats = JDynMetrics.createObserverStats(observerList);
+		}
 		
 		// If the NO_IDENTIFY option is set we won't identify objects uniquely.
 		NO_IDENTIFY = settings.isNoIdentify();
@@ -65,20 +187,86 @@ public class JDynEventDispatcher {
 			if (DEBUG) {
 				JDynAgent.debugMsg("Disable object identification");
 			}
-			// With NO_IDENTIFY we don't need these
-			identifyLock = null;
-			classInstanceCountMap = null;
-			objectToIdMap = null;
+			// With NO_IDENTIFY we don't need this
+			identityTable = null;
 		} else {
 			if (DEBUG) {
 				JDynAgent.debugMsg("Enable object identification");
 			}
-			identifyLock = new Object();
-			classInstanceCountMap = new HashMap<>();
-			objectToIdMap = new IdentityHashMap<>();
+			identityTable = new JDynIdentityTable();
+		}
+		// Deferred identification is only possible if objects are identified at all
+		DEFER_IDENTIFY = !NO_IDENTIFY && settings.isDeferIdentify();
+		if (DEFER_IDENTIFY) {
+			if (DEBUG) {
+				JDynAgent.debugMsg("Defer object identification");
+			}
+			procThread = new JDynProcessorThread(settings, identityTable);
+		} else {
+			procThread = new JDynProcessorThread(settings, null);
+		}
+		CAPTURE_VALUES = procThread.usesValues() || anyObserverUsesValues();
+		
+		TREE_EVENT_LIMIT = settings.getTreeEventLimit();
+		TREE_BYTE_LIMIT = settings.getTreeByteLimit();
+		TUNE_PROBES = settings.getProbeOverheadPercent() > 0;
+		if (TUNE_PROBES) {
+			if (DEBUG) {
+				JDynAgent.debugMsg("Remove probes with an overhead of more than", 
+						settings.getProbeOverheadPercent(), "percent");
+			}
+			probeTuner = new JDynProbeTuner(settings);
+		} else {
+			probeTuner = null;
+		}
+		JDynAgent agent = JDynAgent.getInstalledAgent();
+		drillDown = agent == null ? null : agent.getDrillDown();
+		DRILL_DOWN = drillDown != null;
+		DRILL_DOWN_NANOS = settings.getDrillDownMicros() * 1000L;
+		LIMIT_TREES = TREE_EVENT_LIMIT > 0 || TREE_BYTE_LIMIT > 0;
+		// Event buffers can not be split while their root invocation is running
+		BUFFER_EVENTS = settings.isEventBuffer() && !settings.hasObservers() 
+				&& !CAPTURE_VALUES && !LIMIT_TREES;
+		BUFFER_DIRECT = settings.isEventBufferDirect();
+		BUFFER_RECORDS = settings.getEventBufferRecords();
+		if (DEBUG && settings.isEventBuffer()) {
+			if (BUFFER_EVENTS) {
+				JDynAgent.debugMsg("Record events into event buffers. direct=", BUFFER_DIRECT);
+			} else {
+				JDynAgent.debugMsg("Event buffers can not be used with observers, values or tree limits");
+			}
+		}
+		
+		SAMPLE_EVERY = Math.max(1, settings.getSampleEvery());
+		int samplesPerSecond = settings.getSamplesPerSecond();
+		if (samplesPerSecond > 0) {
+			SAMPLE_INTERVAL_NANOS = 1_000_000_000L / samplesPerSecond;
+		} else {
+			SAMPLE_INTERVAL_NANOS = 0;
+		}
+		SAMPLING = SAMPLE_EVERY > 1 || SAMPLE_INTERVAL_NANOS > 0;
+		if (SAMPLING) {
+			if (DEBUG) {
+				JDynAgent.debugMsg("Enable sampling of root invocations. every=", 
+						SAMPLE_EVERY, "perSecond=", samplesPerSecond);
+			}
+			nextSampleNanoTime.set(System.nanoTime());
+		}
+		if (DEBUG && !CAPTURE_VALUES) {
+			JDynAgent.debugMsg("Parameters and returned values are not recorded");
 		}
 		
 		registerShutdownHook();
+		JDynMetrics.dispatcherInitialized();
+	}
+	
+	private static boolean anyObserverUsesValues() {
+		for (JDynObserver obs : observers) {
+			if (obs.usesValues()) {
+				return true;
+			}
+		}
+		return false;
 	}
 	
 	private static void registerShutdownHook() {
@@ -97,6 +285,20 @@ public class JDynEventDispatcher {
 				processSequence(seq);
 			}
 		}
+		// The JVM does not wait for the processor workers once it shuts down
+		if (!procThread.awaitIdle(SHUTDOWN_PROCESSING_MILLIS)) {
+			System.err.println("JDyn Error: Processors did not finish in time");
+		}
+		for (JDynProcessorPipeline pipeline : procThread.getPipelines()) {
+			try {
+				pipeline.getProcessor().onShutDown();
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+		if (obsThread != null) {
+			obsThread.shutDown();
+		}
 		for (JDynObserver obs : observers) {
 			try {
 				obs.onShutDown();
@@ -106,13 +308,168 @@ public class JDynEventDispatcher {
 		}
 	}
 	
+	/**
+	 * Returns true if the callbacks record events.<br>
+	 * @return		false if recording was stopped
+	 * @see #setRecording(boolean)
+	 */
+	public static boolean isRecording() {
+		try {
+			return (boolean) recordingGuard.invokeExact();
+		} catch (Throwable e) {
+			// A constant method handle does not throw
+			throw new InternalError(e);
+		}
+	}
+	
+	/**
+	 * Starts or stops the recording of events. Unlike disabling the 
+	 * instrumentation through the {@link JDynAgent} no class is 
+	 * retransformed; the callbacks stay in place but do nothing while 
+	 * recording is stopped.<br>
+	 * The sequences that were in progress when recording stopped are 
+	 * processed as they are when their threads record the next event.<br>
+	 * @param value		true to record events, false to stop recording
+	 */
+	public static synchronized void setRecording(boolean value) {
+		if (value == isRecording()) {
+			return;
+		}
+		if (DEBUG) {
+			JDynAgent.debugMsg(value ? "Start" : "Stop", "recording");
+		}
+		if (!value) {
+			recordingEpoch++;
+		}
+		recordingSite.setTarget(MethodHandles.constant(boolean.class, value));
+		MutableCallSite.syncAll(new MutableCallSite[] {recordingSite});
+	}
+	
+	/**
+	 * Called at the start of every behavior that was instrumented with the 
+	 * {@link JDynCaptureLevel#COUNT} level. No event is created.<br>
+	 * @param methodID		the id of the behavior in the {@link JDynMethodRegistry}
+	 * @see JDynCallCounts
+	 */
+	public static void countCall(int methodID) {
+		if (!isRecording()) {
+			return;
+		}
+		JDynCallCounts.increment(methodID);
+	}
+	
+	/**
+	 * Returns the number of observer notifications that were dropped since 
+	 * the observer thread could not keep up. Always 0 if observers are 
+	 * notified synchronously.<br>
+	 * @return		the number of dropped notifications
+	 */
+	public static long getDroppedObserverEventCount() {
+		if (obsThread == null) {
+			return 0;
+		}
+		return obsThread.getDroppedCount();
+	}
+	
+	/**
+	 * Returns the pipelines of all processors. They 
+	 * can be used to monitor queue depths and the number of dropped trees.<br>
+	 * @return		an unmodifiable list with one pipeline per processor
+	 */
+	public static List<JDynProcessorPipeline> getProcessorPipelines() {
+		return procThread.getPipelines();
+	}
+	
+	/**
+	 * Returns the number of objects in the identity table.<br>
+	 * @return		the table size or 0 if objects are not identified
+	 */
+	public static int getIdentityTableSize() {
+		return identityTable == null ? 0 : identityTable.size();
+	}
+	
+	/**
+	 * Returns the number of sequences whose root invocation has not ended 
+	 * yet. Like the following methods this looks at the sequences of other 
+	 * threads without locking; the result is only approximate.<br>
+	 * @return		the number of sequences being recorded
+	 */
+	static int getOpenSequenceCount() {
+		int count = 0;
+		for (SequenceSlot slot : allSequenceSlots) {
+			CallSequenceTree seq = slot.seq;
+			if ((seq != null && !seq.isFinal()) || slot.buffer != null) {
+				count++;
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 * Returns the number of events held by the sequences being recorded.<br>
+	 */
+	static long getOpenEventCount() {
+		long count = 0;
+		for (SequenceSlot slot : allSequenceSlots) {
+			CallSequenceTree seq = slot.seq;
+			if (seq != null && !seq.isFinal()) {
+				count += seq.getHeldEventCount();
+			}
+			JDynEventBuffer buffer = slot.buffer;
+			if (buffer != null) {
+				count += buffer.getCompletedEventCount() + slot.bufferDepth;
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 * Returns the estimated memory of the sequences being recorded in bytes.<br>
+	 */
+	static long getOpenSequenceBytes() {
+		long bytes = 0;
+		for (SequenceSlot slot : allSequenceSlots) {
+			CallSequenceTree seq = slot.seq;
+			if (seq != null && !seq.isFinal()) {
+				bytes += seq.getHeldBytes();
+			}
+			JDynEventBuffer buffer = slot.buffer;
+			if (buffer != null) {
+				bytes += (long) buffer.getRecordCount() * JDynEventBuffer.RECORD_SIZE;
+			}
+		}
+		return bytes;
+	}
+	
 	public static List<CallSequenceTree> getAllCurrentSequences() {
-		synchronized (threadToSequenceMap) {
-			return new ArrayList<>(threadToSequenceMap.values());
+		List<CallSequenceTree> result = new ArrayList<>(allSequenceSlots.size());
+		for (SequenceSlot slot : allSequenceSlots) {
+			CallSequenceTree seq = slot.seq;
+			if (seq != null) {
+				result.add(seq);
+			}
+			JDynEventBuffer buffer = slot.buffer;
+			if (buffer != null) {
+				// The owner thread may still be writing; look at a copy
+				result.add(new CallSequenceTree(slot.thread, buffer.copy()));
+			}
 		}
+		return result;
 	}
 	
+	/**
+	 * Called before each invocation of an instrumented behavior if there 
+	 * are observers. The observers are only notified of the first call 
+	 * for each class.<br>
+	 */
 	public static void classInit(Class<?> clazz, String methods) {
+		if (!isRecording()) {
+			return;
+		}
+		AtomicBoolean notified = classNotified.get(clazz);
+		if (notified.get() || !notified.compareAndSet(false, true)) {
+			return;
+		}
 		if (DEBUG) {
 			JDynAgent.debugMsg("Class", clazz, 
 					"was initialized with instrumented methods", methods);
@@ -136,128 +493,667 @@ public class JDynEventDispatcher {
 	
 	public static void beforeConstructor(
 			Class<?> clazz, 
-			String sig, 
-			Object[] params, 
-			boolean hasParams) 
+			int methodID) 
 	{
+		if (!isRecording()) {
+			return;
+		}
+		CstEventConstructor event = startConstructor(clazz, methodID, 0);
+		if (event != null) {
+			fireObsEvent(event, false);
+		}
+	}
+	
+	/**
+	 * Starts a constructor event for a constructor with parameters.<br>
+	 * If the parameters are used by any observer or processor the event is 
+	 * returned. The injected code must then pass each parameter to one of 
+	 * the {@link #param(CstEvent, int, Object) param} methods and finish 
+	 * with {@link #paramsDone(CstEvent)}. Otherwise the event is completed 
+	 * right away and null is returned.<br>
+	 * @param clazz			the class of the constructor
+	 * @param methodID		the id of the constructor in the {@link JDynMethodRegistry}
+	 * @param paramCount	the number of parameters of the constructor
+	 * @return				the event to which the parameters are added or null
+	 */
+	public static CstEvent beforeConstructorParams(
+			Class<?> clazz, 
+			int methodID, 
+			int paramCount) 
+	{
+		if (!isRecording()) {
+			return null;
+		}
+		if (CAPTURE_VALUES) {
+			return startConstructor(clazz, methodID, paramCount);
+		}
+		beforeConstructor(clazz, methodID);
+		return null;
+	}
+	
+	private static CstEventConstructor startConstructor(
+			Class<?> clazz, 
+			int methodID, 
+			int paramCount) 
+	{
+		SequenceSlot slot = getSlot();
+		if (SAMPLING && skipStart(slot)) {
+			return null;
+		}
+		JDynMetrics.countEvent(CstEventType.CONSTRUCTOR);
+		if (BUFFER_EVENTS) {
+			recordStart(slot, JDynEventBuffer.KIND_START_CONSTRUCTOR, methodID, 
+					JDynClassRegistry.getID(clazz), JDynIdentityTable.NO_ID);
+			return null;
+		}
 		if (DEBUG) {
 			JDynAgent.debugMsg("Constructor of class", clazz, "started");
 		}
-		transformParams(params, hasParams);
-		CallSequenceTree seq = getCurrentThreadSequence();
-		CstEventConstructor event = seq.beforeConstructor(
-				clazz, sig, params, hasParams);
-		
-		fireConstructorStart(observers, event);
+		CallSequenceTree seq = getCurrentThreadSequence(slot);
+		return seq.beforeConstructor(clazz, methodID, paramCount);
 	}
 	
+	/**
+	 * Called at the end of a constructor.<br>
+	 * @param object		the constructed object or null if the class was 
+	 * 						instrumented with the {@link JDynCaptureLevel#TIMING} 
+	 * 						level
+	 */
 	public static void afterConstructor(Object object) {
-		if (DEBUG) {
-			JDynAgent.debugMsg("Constructor of class", object.getClass(), "ended");
+		if (!isRecording()) {
+			return;
+		}
+		SequenceSlot slot = getSlot();
+		if (SAMPLING && skipEnd(slot)) {
+			return;
+		}
+		if (isUnmatchedEnd(slot)) {
+			return;
 		}
-		CallSequenceTree seq = getCurrentThreadSequence();
+		if (BUFFER_EVENTS) {
+			// Super constructors identify the object as well; it has the same id
+			recordEnd(slot, JDynEventBuffer.KIND_END_CONSTRUCTOR, JDynMethodRegistry.NO_METHOD_ID, 
+					JDynClassRegistry.getID(getClassOrNull(object)), bufferedID(object));
+			return;
+		}
+		CallSequenceTree seq = getCurrentThreadSequence(slot);
 		CstEventConstructor event = seq.afterConstructor(object);
-		if (!event.isSuperConstructor()) {
+		if (DEBUG) {
+			JDynAgent.debugMsg("Constructor of class", event.getConstructedClass(), "ended");
+		}
+		if (object != null && !event.isSuperConstructor() && !DEFER_IDENTIFY) {
 			int id = identifyObject(object);
 			event.setID(id);
 		}
-		processSequenceIfNecessary(seq);
+		processSequenceIfNecessary(slot, seq);
 		
-		fireConstructorEnd(observers, event);
+		fireObsEvent(event, true);
 	}
 	
 	public static void beforeStaticMethod(
 			Class<?> clazz, 
-			String sig, 
-			Object[] params, 
-			boolean hasParams) 
+			int methodID) 
+	{
+		if (!isRecording()) {
+			return;
+		}
+		CstEventStaticMethod event = startStaticMethod(clazz, methodID, 0);
+		if (event != null) {
+			fireObsEvent(event, false);
+		}
+	}
+	
+	/**
+	 * Like {@link #beforeConstructorParams(Class, int, int)} for static methods.<br>
+	 */
+	public static CstEvent beforeStaticMethodParams(
+			Class<?> clazz, 
+			int methodID, 
+			int paramCount) 
 	{
+		if (!isRecording()) {
+			return null;
+		}
+		if (CAPTURE_VALUES) {
+			return startStaticMethod(clazz, methodID, paramCount);
+		}
+		beforeStaticMethod(clazz, methodID);
+		return null;
+	}
+	
+	private static CstEventStaticMethod startStaticMethod(
+			Class<?> clazz, 
+			int methodID, 
+			int paramCount) 
+	{
+		SequenceSlot slot = getSlot();
+		if (SAMPLING && skipStart(slot)) {
+			return null;
+		}
+		JDynMetrics.countEvent(CstEventType.STATIC_METHOD);
+		if (BUFFER_EVENTS) {
+			recordStart(slot, JDynEventBuffer.KIND_START_STATIC_METHOD, methodID, 
+					JDynClassRegistry.getID(clazz), JDynIdentityTable.NO_ID);
+			return null;
+		}
 		if (DEBUG) {
-			JDynAgent.debugMsg("Static method", sig, 
+			JDynAgent.debugMsg("Static method", JDynMethodRegistry.getSignature(methodID), 
 					"of class", clazz, "started");
 		}
-		transformParams(params, hasParams);
-		CallSequenceTree seq = getCurrentThreadSequence();
-		CstEventStaticMethod event = seq.beforeStaticMethod(
-				clazz, sig, params, hasParams);
-		
-		fireStaticMethodStart(observers, event);
+		CallSequenceTree seq = getCurrentThreadSequence(slot);
+		return seq.beforeStaticMethod(clazz, methodID, paramCount);
+	}
+	
+	public static void afterStaticMethod(
+			Class<?> clazz, 
+			int methodID) 
+	{
+		if (!isRecording()) {
+			return;
+		}
+		endStaticMethod(clazz, methodID, null, false);
+	}
+	
+	public static void afterStaticMethod(
+			Class<?> clazz, 
+			int methodID, 
+			Object returnedValue) 
+	{
+		if (!isRecording()) {
+			return;
+		}
+		endStaticMethod(clazz, methodID, 
+				CAPTURE_VALUES ? returnedValue : null, CAPTURE_VALUES);
+	}
+	
+	public static void afterStaticMethod(
+			Class<?> clazz, 
+			int methodID, 
+			boolean returnedValue) 
+	{
+		if (!isRecording()) {
+			return;
+		}
+		endStaticMethod(clazz, methodID, 
+				CAPTURE_VALUES ? Boolean.valueOf(returnedValue) : null, CAPTURE_VALUES);
+	}
+	
+	public static void afterStaticMethod(
+			Class<?> clazz, 
+			int methodID, 
+			byte returnedValue) 
+	{
+		if (!isRecording()) {
+			return;
+		}
+		endStaticMethod(clazz, methodID, 
+				CAPTURE_VALUES ? Byte.valueOf(returnedValue) : null, CAPTURE_VALUES);
+	}
+	
+	public static void afterStaticMethod(
+			Class<?> clazz, 
+			int methodID, 
+			char returnedValue) 
+	{
+		if (!isRecording()) {
+			return;
+		}
+		endStaticMethod(clazz, methodID, 
+				CAPTURE_VALUES ? Character.valueOf(returnedValue) : null, CAPTURE_VALUES);
+	}
+	
+	public static void afterStaticMethod(
+			Class<?> clazz, 
+			int methodID, 
+			short returnedValue) 
+	{
+		if (!isRecording()) {
+			return;
+		}
+		endStaticMethod(clazz, methodID, 
+				CAPTURE_VALUES ? Short.valueOf(returnedValue) : null, CAPTURE_VALUES);
 	}
 	
 	public static void afterStaticMethod(
 			Class<?> clazz, 
-			String sig, 
+			int methodID, 
+			int returnedValue) 
+	{
+		if (!isRecording()) {
+			return;
+		}
+		endStaticMethod(clazz, methodID, 
+				CAPTURE_VALUES ? Integer.valueOf(returnedValue) : null, CAPTURE_VALUES);
+	}
+	
+	public static void afterStaticMethod(
+			Class<?> clazz, 
+			int methodID, 
+			long returnedValue) 
+	{
+		if (!isRecording()) {
+			return;
+		}
+		endStaticMethod(clazz, methodID, 
+				CAPTURE_VALUES ? Long.valueOf(returnedValue) : null, CAPTURE_VALUES);
+	}
+	
+	public static void afterStaticMethod(
+			Class<?> clazz, 
+			int methodID, 
+			float returnedValue) 
+	{
+		if (!isRecording()) {
+			return;
+		}
+		endStaticMethod(clazz, methodID, 
+				CAPTURE_VALUES ? Float.valueOf(returnedValue) : null, CAPTURE_VALUES);
+	}
+	
+	public static void afterStaticMethod(
+			Class<?> clazz, 
+			int methodID, 
+			double returnedValue) 
+	{
+		if (!isRecording()) {
+			return;
+		}
+		endStaticMethod(clazz, methodID, 
+				CAPTURE_VALUES ? Double.valueOf(returnedValue) : null, CAPTURE_VALUES);
+	}
+	
+	private static void endStaticMethod(
+			Class<?> clazz, 
+			int methodID, 
 			Object returnedValue, 
 			boolean hasReturn) 
 	{
+		SequenceSlot slot = getSlot();
+		if (SAMPLING && skipEnd(slot)) {
+			return;
+		}
+		if (isUnmatchedEnd(slot)) {
+			return;
+		}
+		if (BUFFER_EVENTS) {
+			recordEnd(slot, JDynEventBuffer.KIND_END_STATIC_METHOD, methodID, 
+					JDynClassRegistry.NO_CLASS_ID, JDynIdentityTable.NO_ID);
+			return;
+		}
 		if (DEBUG) {
-			JDynAgent.debugMsg("Static method", sig, 
+			JDynAgent.debugMsg("Static method", JDynMethodRegistry.getSignature(methodID), 
 					"of class", clazz, "ended");
 		}
 		returnedValue = transformReturnValue(returnedValue, hasReturn);
-		CallSequenceTree seq = getCurrentThreadSequence();
+		CallSequenceTree seq = getCurrentThreadSequence(slot);
 		CstEventStaticMethod event = seq.afterStaticMethod(
-				clazz, sig, returnedValue, hasReturn);
+				clazz, methodID, returnedValue, hasReturn);
+		if (TUNE_PROBES) {
+			measureProbes(slot, methodID, event.getBeforeNanoTime(), event.getAfterNanoTime());
+		}
+		if (DRILL_DOWN) {
+			checkDrillDown(methodID, event.getBeforeNanoTime(), event.getAfterNanoTime());
+		}
 		
-		processSequenceIfNecessary(seq);
-		fireStaticMethodEnd(observers, event);
+		processSequenceIfNecessary(slot, seq);
+		fireObsEvent(event, true);
 	}
 	
 	public static void beforeMethod(
 			Object obj, 
-			String sig, 
-			Object[] params, 
-			boolean hasParams) 
+			int methodID) 
 	{
+		if (!isRecording()) {
+			return;
+		}
+		CstEventMethod event = startMethod(obj, methodID, 0);
+		if (event != null) {
+			fireObsEvent(event, false);
+		}
+	}
+	
+	/**
+	 * Like {@link #beforeConstructorParams(Class, int, int)} for methods.<br>
+	 */
+	public static CstEvent beforeMethodParams(
+			Object obj, 
+			int methodID, 
+			int paramCount) 
+	{
+		if (!isRecording()) {
+			return null;
+		}
+		if (CAPTURE_VALUES) {
+			return startMethod(obj, methodID, paramCount);
+		}
+		beforeMethod(obj, methodID);
+		return null;
+	}
+	
+	private static CstEventMethod startMethod(
+			Object obj, 
+			int methodID, 
+			int paramCount) 
+	{
+		SequenceSlot slot = getSlot();
+		if (SAMPLING && skipStart(slot)) {
+			return null;
+		}
+		JDynMetrics.countEvent(CstEventType.METHOD);
+		if (BUFFER_EVENTS) {
+			recordStart(slot, JDynEventBuffer.KIND_START_METHOD, methodID, 
+					JDynClassRegistry.getID(getClassOrNull(obj)), bufferedID(obj));
+			return null;
+		}
 		if (DEBUG) {
-			JDynAgent.debugMsg("Method", sig, 
-					"of class", obj.getClass(), "started");
+			JDynAgent.debugMsg("Method", JDynMethodRegistry.getSignature(methodID), 
+					"of class", getClassOrNull(obj), "started");
 		}
-		transformParams(params, hasParams);
-		CallSequenceTree seq = getCurrentThreadSequence();
-		CstEventMethod event = seq.beforeMethod(obj, 
-				identifyObject(obj), sig, params, hasParams);
-		
-		fireMethodStart(observers, event);
+		CallSequenceTree seq = getCurrentThreadSequence(slot);
+		return seq.beforeMethod(obj, 
+				identifyObject(obj), methodID, paramCount);
+	}
+	
+	public static void afterMethod(
+			Object obj, 
+			int methodID) 
+	{
+		if (!isRecording()) {
+			return;
+		}
+		endMethod(obj, methodID, null, false);
+	}
+	
+	public static void afterMethod(
+			Object obj, 
+			int methodID, 
+			Object returnedValue) 
+	{
+		if (!isRecording()) {
+			return;
+		}
+		endMethod(obj, methodID, 
+				CAPTURE_VALUES ? returnedValue : null, CAPTURE_VALUES);
+	}
+	
+	public static void afterMethod(
+			Object obj, 
+			int methodID, 
+			boolean returnedValue) 
+	{
+		if (!isRecording()) {
+			return;
+		}
+		endMethod(obj, methodID, 
+				CAPTURE_VALUES ? Boolean.valueOf(returnedValue) : null, CAPTURE_VALUES);
+	}
+	
+	public static void afterMethod(
+			Object obj, 
+			int methodID, 
+			byte returnedValue) 
+	{
+		if (!isRecording()) {
+			return;
+		}
+		endMethod(obj, methodID, 
+				CAPTURE_VALUES ? Byte.valueOf(returnedValue) : null, CAPTURE_VALUES);
+	}
+	
+	public static void afterMethod(
+			Object obj, 
+			int methodID, 
+			char returnedValue) 
+	{
+		if (!isRecording()) {
+			return;
+		}
+		endMethod(obj, methodID, 
+				CAPTURE_VALUES ? Character.valueOf(returnedValue) : null, CAPTURE_VALUES);
+	}
+	
+	public static void afterMethod(
+			Object obj, 
+			int methodID, 
+			short returnedValue) 
+	{
+		if (!isRecording()) {
+			return;
+		}
+		endMethod(obj, methodID, 
+				CAPTURE_VALUES ? Short.valueOf(returnedValue) : null, CAPTURE_VALUES);
+	}
+	
+	public static void afterMethod(
+			Object obj, 
+			int methodID, 
+			int returnedValue) 
+	{
+		if (!isRecording()) {
+			return;
+		}
+		endMethod(obj, methodID, 
+				CAPTURE_VALUES ? Integer.valueOf(returnedValue) : null, CAPTURE_VALUES);
 	}
 	
 	public static void afterMethod(
 			Object obj, 
-			String sig, 
+			int methodID, 
+			long returnedValue) 
+	{
+		if (!isRecording()) {
+			return;
+		}
+		endMethod(obj, methodID, 
+				CAPTURE_VALUES ? Long.valueOf(returnedValue) : null, CAPTURE_VALUES);
+	}
+	
+	public static void afterMethod(
+			Object obj, 
+			int methodID, 
+			float returnedValue) 
+	{
+		if (!isRecording()) {
+			return;
+		}
+		endMethod(obj, methodID, 
+				CAPTURE_VALUES ? Float.valueOf(returnedValue) : null, CAPTURE_VALUES);
+	}
+	
+	public static void afterMethod(
+			Object obj, 
+			int methodID, 
+			double returnedValue) 
+	{
+		if (!isRecording()) {
+			return;
+		}
+		endMethod(obj, methodID, 
+				CAPTURE_VALUES ? Double.valueOf(returnedValue) : null, CAPTURE_VALUES);
+	}
+	
+	private static void endMethod(
+			Object obj, 
+			int methodID, 
 			Object returnedValue, 
 			boolean hasReturn) 
 	{
+		SequenceSlot slot = getSlot();
+		if (SAMPLING && skipEnd(slot)) {
+			return;
+		}
+		if (isUnmatchedEnd(slot)) {
+			return;
+		}
+		if (BUFFER_EVENTS) {
+			recordEnd(slot, JDynEventBuffer.KIND_END_METHOD, methodID, 
+					JDynClassRegistry.NO_CLASS_ID, JDynIdentityTable.NO_ID);
+			return;
+		}
 		if (DEBUG) {
-			JDynAgent.debugMsg("Method", sig, 
-					"of class", obj.getClass(), "ended");
+			JDynAgent.debugMsg("Method", JDynMethodRegistry.getSignature(methodID), 
+					"of class", getClassOrNull(obj), "ended");
 		}
 		returnedValue = transformReturnValue(returnedValue, hasReturn);
-		CallSequenceTree seq = getCurrentThreadSequence();
-		CstEventMethod event = seq.afterMethod(obj, sig, 
+		CallSequenceTree seq = getCurrentThreadSequence(slot);
+		CstEventMethod event = seq.afterMethod(obj, methodID, 
 				returnedValue, hasReturn);
+		if (TUNE_PROBES) {
+			measureProbes(slot, methodID, event.getBeforeNanoTime(), event.getAfterNanoTime());
+		}
+		if (DRILL_DOWN) {
+			checkDrillDown(methodID, event.getBeforeNanoTime(), event.getAfterNanoTime());
+		}
 		
-		processSequenceIfNecessary(seq);
-		fireMethodEnd(observers, event);
+		processSequenceIfNecessary(slot, seq);
+		fireObsEvent(event, true);
+	}
+	
+	/**
+	 * Stores the parameter with the given index in an event returned by one 
+	 * of the <code>before...Params</code> methods. Primitive values are only 
+	 * boxed here, after it is known that they are needed.<br>
+	 */
+	public static void param(CstEvent event, int index, Object value) {
+		event.getParameterArray()[index] = value;
+	}
+	
+	public static void param(CstEvent event, int index, boolean value) {
+		event.getParameterArray()[index] = Boolean.valueOf(value);
+	}
+	
+	public static void param(CstEvent event, int index, byte value) {
+		event.getParameterArray()[index] = Byte.valueOf(value);
+	}
+	
+	public static void param(CstEvent event, int index, char value) {
+		event.getParameterArray()[index] = Character.valueOf(value);
+	}
+	
+	public static void param(CstEvent event, int index, short value) {
+		event.getParameterArray()[index] = Short.valueOf(value);
+	}
+	
+	public static void param(CstEvent event, int index, int value) {
+		event.getParameterArray()[index] = Integer.valueOf(value);
 	}
 	
-	public static void exception(Exception exception) {
+	public static void param(CstEvent event, int index, long value) {
+		event.getParameterArray()[index] = Long.valueOf(value);
+	}
+	
+	public static void param(CstEvent event, int index, float value) {
+		event.getParameterArray()[index] = Float.valueOf(value);
+	}
+	
+	public static void param(CstEvent event, int index, double value) {
+		event.getParameterArray()[index] = Double.valueOf(value);
+	}
+	
+	/**
+	 * Called after all parameters were passed to an event returned by one 
+	 * of the <code>before...Params</code> methods. Notifies the observers 
+	 * that the event has started.<br>
+	 */
+	public static void paramsDone(CstEvent event) {
+		transformParams(event.getParameterArray());
+		fireObsEvent(event, false);
+	}
+	
+	/**
+	 * Called when a throwable leaves an instrumented behavior, after the 
+	 * end of the behavior was recorded.<br>
+	 * Only one event is recorded per throw. If the throwable left the 
+	 * callee of the behavior right before, the behavior is added to the 
+	 * event of the callee instead. Nothing is recorded if that event was 
+	 * already passed on to the processors.<br>
+	 * @param exception		the thrown exception or error
+	 * @param methodID		the id of the behavior in the {@link JDynMethodRegistry}
+	 */
+	public static void exception(Throwable exception, int methodID) {
+		if (!isRecording()) {
+			return;
+		}
+		SequenceSlot slot = getSlot();
+		// Exceptions are only recorded inside of behaviors; their roots were sampled already
+		if (SAMPLING && (slot.skipDepth > 0 || slot.skippedRootEnded)) {
+			// The end of the root was skipped right before its exception
+			slot.skippedRootEnded = false;
+			return;
+		}
+		if (BUFFER_EVENTS) {
+			JDynEventBuffer buffer = slot.buffer;
+			if (isUnwinding(slot, exception, slot.bufferDepth)) {
+				if (buffer != null && slot.thrownIndex >= 0) {
+					buffer.addUnwoundBehavior(slot.thrownIndex, methodID);
+				} else if (buffer == null) {
+					// The throwable left the root; it can not be reported again
+					slot.thrown = null;
+				}
+				return;
+			}
+			// Exceptions are only caught inside of instrumented behaviors
+			if (buffer != null) {
+				if (DEBUG) {
+					JDynAgent.debugMsg("Exception", exception.getClass(), "was thrown");
+				}
+				JDynMetrics.countEvent(CstEventType.EXCEPTION);
+				slot.thrownIndex = buffer.appendException(exception, methodID, System.nanoTime(), 
+						JDynClassRegistry.getID(exception.getClass()), bufferedID(exception));
+				slot.thrown = exception;
+				slot.thrownDepth = slot.bufferDepth;
+			}
+			return;
+		}
+		CallSequenceTree seq = slot.seq;
+		boolean open = seq != null && !seq.isFinal();
+		if (isUnwinding(slot, exception, open ? seq.getOpenEventCount() : 0)) {
+			// The event is part of a partial tree if subtrees were detached since
+			if (open && slot.thrownEvent != null 
+					&& seq.getPartialIndex() == slot.thrownDetachedCount) 
+			{
+				slot.thrownEvent.addUnwoundBehavior(methodID);
+			} else if (!open) {
+				// The throwable left the root; it can not be reported again
+				slot.thrown = null;
+			}
+			return;
+		}
 		if (DEBUG) {
-			JDynAgent.debugMsg("Exception", exception.getClass(), 
-					"was thrown");
+			JDynAgent.debugMsg("Exception", exception.getClass(), "was thrown");
 		}
-		CallSequenceTree seq = getCurrentThreadSequence();
-		CstEventException event = seq.exception(exception, 
+		JDynMetrics.countEvent(CstEventType.EXCEPTION);
+		seq = getCurrentThreadSequence(slot);
+		CstEventException event = seq.exception(exception, methodID, 
 				identifyObject(exception));
+		slot.thrown = exception;
+		slot.thrownDepth = seq.getOpenEventCount();
+		slot.thrownEvent = event;
+		slot.thrownDetachedCount = seq.getPartialIndex();
 		
-		processSequenceIfNecessary(seq);
-		fireException(observers, event);
+		processSequenceIfNecessary(slot, seq);
+		fireObsEvent(event, true);
 	}
 	
-	private static void transformParams(Object[] params, boolean hasParams) {
-		if (hasParams) {
+	/**
+	 * Returns true if the throwable left the callee of the current behavior 
+	 * right before and was recorded already. The end of a behavior is 
+	 * recorded before the throwable leaves it, so each behavior it leaves 
+	 * is one level less deep than the one before.<br>
+	 */
+	private static boolean isUnwinding(SequenceSlot slot, Throwable exception, int depth) {
+		if (exception != slot.thrown || depth != slot.thrownDepth - 1) {
+			return false;
+		}
+		slot.thrownDepth = depth;
+		return true;
+	}
+	
+	private static void transformParams(Object[] params) {
+		if (!DEFER_IDENTIFY) {
 			for (int i = 0; i < params.length; i++) {
-				Integer id = probeObject(params[i]);
-				if (id != null) {
+				int id = probeObject(params[i]);
+				if (id != JDynIdentityTable.NO_ID) {
 					params[i] = new IdentifiedObject(params[i], id);
 				}
 			}
@@ -265,18 +1161,34 @@ public class JDynEventDispatcher {
 	}
 	
 	private static Object transformReturnValue(Object returnedValue, boolean hasReturn) {
-		if (hasReturn && !NO_IDENTIFY) {
-			Integer id = probeObject(returnedValue);
-			if (id != null) {
+		if (hasReturn && !NO_IDENTIFY && !DEFER_IDENTIFY) {
+			int id = probeObject(returnedValue);
+			if (id != JDynIdentityTable.NO_ID) {
 				returnedValue = new IdentifiedObject(returnedValue, id);
 			}
 		}
 		return returnedValue;
 	}
 	
-	private static void processSequenceIfNecessary(final CallSequenceTree seq) {
+	private static void processSequenceIfNecessary(SequenceSlot slot, final CallSequenceTree seq) {
 		if (seq.isFinal()) {
+			// The slot would keep the tree alive until the thread starts another root
+			slot.seq = null;
+			releaseThrown(slot);
 			processSequence(seq);
+		} else if (LIMIT_TREES && seq.exceedsLimits(TREE_EVENT_LIMIT, TREE_BYTE_LIMIT)) {
+			// A root invocation that never ends would keep growing its tree
+			List<CallSequenceTree> partialTrees = seq.detachCompletedSubtrees();
+			if (DEBUG) {
+				JDynAgent.debugMsg("Detached", partialTrees.size(), "partial call sequences");
+			}
+			if (!partialTrees.isEmpty()) {
+				// Exception events have always completed, so the last one was detached
+				slot.thrownEvent = null;
+			}
+			for (CallSequenceTree partialTree : partialTrees) {
+				processSequence(partialTree);
+			}
 		}
 	}
 	
@@ -287,105 +1199,404 @@ public class JDynEventDispatcher {
 		procThread.process(seq);
 	}
 	
-	private static CallSequenceTree getCurrentThreadSequence() {
-		synchronized (threadToSequenceMap) {
-			Thread thread = Thread.currentThread();
-			CallSequenceTree seq = threadToSequenceMap.get(thread);
-			if (seq == null || seq.isFinal()) {
-				seq = new CallSequenceTree(thread);
-				threadToSequenceMap.put(thread, seq);
+	/**
+	 * Called when the root invocation of the slot has ended. The tree is 
+	 * passed on, so the slot must not keep its last exception event either; 
+	 * an idle thread would keep the whole tree alive through its parents. 
+	 * The throwable is only kept if it left the child of the root last, 
+	 * since the root may still report it. It is released when the root 
+	 * does so.<br>
+	 */
+	private static void releaseThrown(SequenceSlot slot) {
+		slot.thrownEvent = null;
+		slot.thrownIndex = -1;
+		if (slot.thrownDepth != 1) {
+			slot.thrown = null;
+		}
+	}
+	
+	private static void clearThrown(SequenceSlot slot) {
+		slot.thrown = null;
+		slot.thrownEvent = null;
+		slot.thrownIndex = -1;
+	}
+	
+	private static CallSequenceTree getCurrentThreadSequence(SequenceSlot slot) {
+		CallSequenceTree seq = slot.seq;
+		if (seq == null || seq.isFinal()) {
+			seq = new CallSequenceTree(slot.thread);
+			slot.seq = seq;
+			// An exception of the previous tree can not propagate into this one
+			clearThrown(slot);
+		}
+		return seq;
+	}
+	
+	private static void recordStart(SequenceSlot slot, int kind, 
+			int methodID, int classID, int objectID) 
+	{
+		JDynEventBuffer buffer = slot.buffer;
+		if (buffer == null) {
+			buffer = JDynEventBuffer.acquire(BUFFER_DIRECT, BUFFER_RECORDS);
+			slot.buffer = buffer;
+			// An exception of the previous buffer can not propagate into this one
+			clearThrown(slot);
+		}
+		long time = System.nanoTime();
+		buffer.append(kind, methodID, time, classID, objectID);
+		if (TUNE_PROBES || DRILL_DOWN) {
+			// The buffer can not be searched for the start of an invocation
+			if (slot.bufferDepth == slot.startTimes.length) {
+				slot.startTimes = Arrays.copyOf(slot.startTimes, slot.bufferDepth * 2);
 			}
-			return seq;
+			slot.startTimes[slot.bufferDepth] = time;
 		}
+		slot.bufferDepth++;
 	}
 	
-	private static Integer probeObject(Object obj) {
-		if (NO_IDENTIFY) {
-			return null;
+	private static void recordEnd(SequenceSlot slot, int kind, 
+			int methodID, int classID, int objectID) 
+	{
+		JDynEventBuffer buffer = slot.buffer;
+		long time = System.nanoTime();
+		buffer.append(kind, methodID, time, classID, objectID);
+		slot.bufferDepth--;
+		if (TUNE_PROBES && methodID != JDynMethodRegistry.NO_METHOD_ID) {
+			measureProbes(slot, methodID, slot.startTimes[slot.bufferDepth], time);
 		}
-		synchronized (identifyLock) {
-			return objectToIdMap.get(obj);
+		if (DRILL_DOWN && methodID != JDynMethodRegistry.NO_METHOD_ID) {
+			checkDrillDown(methodID, slot.startTimes[slot.bufferDepth], time);
+		}
+		if (slot.bufferDepth == 0) {
+			// The root invocation has ended; the next one gets a new buffer
+			slot.buffer = null;
+			releaseThrown(slot);
+			processSequence(new CallSequenceTree(slot.thread, buffer));
 		}
 	}
 	
-	private static Integer identifyObject(Object obj) {
-		if (NO_IDENTIFY) {
-			return Integer.valueOf(-1);
-		}
-		synchronized (identifyLock) {
-			Integer id = objectToIdMap.get(obj);
-			if (id == null) {
-				Integer classInstanceCount = classInstanceCountMap.get(obj.getClass());
-				if (classInstanceCount == null) {
-					classInstanceCount = Integer.valueOf(0);
-				}
-				int oldValue = classInstanceCount.intValue();
-				id = classInstanceCount;
-				classInstanceCount = Integer.valueOf(oldValue + 1);
-				classInstanceCountMap.put(obj.getClass(), classInstanceCount);
-				objectToIdMap.put(obj, id);
+	/**
+	 * Returns the id of obj for a record in a {@link JDynEventBuffer}. 
+	 * Records can not keep a reference to obj so the object is identified 
+	 * right away even if identification is deferred otherwise.<br>
+	 */
+	private static int bufferedID(Object obj) {
+		if (obj == null || identityTable == null) {
+			return JDynIdentityTable.NO_ID;
+		}
+		return identityTable.identify(obj);
+	}
+	
+	/**
+	 * Called when a behavior starts while sampling is enabled. Returns true 
+	 * if the behavior must not be recorded because it belongs to a root 
+	 * invocation that was not sampled.<br>
+	 * Whether a root invocation is sampled is decided when it starts. All 
+	 * behaviors called by an invocation that was not sampled are skipped 
+	 * by counting their depth in the slot.<br>
+	 */
+	private static boolean skipStart(SequenceSlot slot) {
+		slot.skippedRootEnded = false;
+		if (slot.skipDepth > 0) {
+			slot.skipDepth++;
+			return true;
+		}
+		boolean isRoot;
+		if (BUFFER_EVENTS) {
+			isRoot = slot.bufferDepth == 0;
+		} else {
+			CallSequenceTree seq = slot.seq;
+			isRoot = seq == null || seq.isFinal();
+		}
+		if (isRoot && !sampleRoot(slot)) {
+			slot.skipDepth = 1;
+			return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Called when a behavior ends while sampling is enabled. Returns true 
+	 * if the start of the behavior was skipped.<br>
+	 * The end of a behavior is recorded before a throwable leaves it, so 
+	 * the slot remembers when a skipped root ended until the next behavior 
+	 * starts. The exception of that root is skipped as well.<br>
+	 */
+	private static boolean skipEnd(SequenceSlot slot) {
+		if (slot.skipDepth > 0) {
+			slot.skipDepth--;
+			slot.skippedRootEnded = slot.skipDepth == 0;
+			return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Returns true if the root invocation that is about to start should be 
+	 * recorded. If both a count and a rate are set both must agree.<br>
+	 */
+	private static boolean sampleRoot(SequenceSlot slot) {
+		if (SAMPLE_EVERY > 1) {
+			int count = slot.rootCount;
+			slot.rootCount = count + 1 == SAMPLE_EVERY ? 0 : count + 1;
+			if (count != 0) {
+				return false;
 			}
-			return id;
 		}
+		if (SAMPLE_INTERVAL_NANOS > 0) {
+			long now = System.nanoTime();
+			long next = nextSampleNanoTime.get();
+			if (now - next < 0) {
+				return false;
+			}
+			// Only one thread may take the sample of the current interval
+			return nextSampleNanoTime.compareAndSet(next, now + SAMPLE_INTERVAL_NANOS);
+		}
+		return true;
 	}
 	
-	private static void fireConstructorStart(
-			Iterable<JDynObserver> obses, CstEventConstructor e) 
-	{
-		fireObsEvent(obses, (obs) -> obs.onConstructorStart(e));
+	private static void measureProbes(SequenceSlot slot, int methodID, long before, long after) {
+		JDynProbeTuner.ThreadStats stats = slot.probeStats;
+		if (stats == null) {
+			stats = new JDynProbeTuner.ThreadStats();
+			slot.probeStats = stats;
+		}
+		probeTuner.measure(stats, methodID, before, after);
 	}
 	
-	private static void fireConstructorEnd(
-			Iterable<JDynObserver> obses, CstEventConstructor e) 
-	{
-		fireObsEvent(obses, (obs) -> obs.onConstructorEnd(e));
+	private static void checkDrillDown(int methodID, long before, long after) {
+		if (after - before > DRILL_DOWN_NANOS) {
+			drillDown.thresholdExceeded(methodID);
+		}
 	}
 	
-	private static void fireStaticMethodStart(
-			Iterable<JDynObserver> obses, CstEventStaticMethod e) 
-	{
-		fireObsEvent(obses, (obs) -> obs.onStaticMethodStart(e));
+	/**
+	 * Returns the slot of the current thread. The slot is reset if 
+	 * recording was stopped since it was used last.<br>
+	 */
+	private static SequenceSlot getSlot() {
+		SequenceSlot slot = threadToSequenceSlot.get();
+		int epoch = recordingEpoch;
+		if (slot.epoch != epoch) {
+			resetSlot(slot, epoch);
+		}
+		return slot;
 	}
 	
-	private static void fireStaticMethodEnd(
-			Iterable<JDynObserver> obses, CstEventStaticMethod e) 
-	{
-		fireObsEvent(obses, (obs) -> obs.onStaticMethodEnd(e));
+	/**
+	 * Processes the sequence which was in progress when recording stopped 
+	 * and forgets all open behaviors of the slot. Behaviors which are 
+	 * still running end after recording was started again; their ends are 
+	 * ignored by {@link #isUnmatchedEnd(SequenceSlot)}.<br>
+	 */
+	private static void resetSlot(SequenceSlot slot, int epoch) {
+		if (DEBUG) {
+			JDynAgent.debugMsg("Reset sequence of", slot.thread, "after recording was stopped");
+		}
+		slot.epoch = epoch;
+		slot.skipDepth = 0;
+		slot.skippedRootEnded = false;
+		CallSequenceTree seq = slot.seq;
+		slot.seq = null;
+		if (seq != null && !seq.isFinal() && seq.getEventCount() > 0) {
+			processSequence(seq);
+		}
+		JDynEventBuffer buffer = slot.buffer;
+		slot.buffer = null;
+		slot.bufferDepth = 0;
+		clearThrown(slot);
+		if (buffer != null) {
+			processSequence(new CallSequenceTree(slot.thread, buffer));
+		}
 	}
 	
-	private static void fireMethodStart(
-			Iterable<JDynObserver> obses, CstEventMethod e) 
-	{
-		fireObsEvent(obses, (obs) -> obs.onMethodStart(e));
+	/**
+	 * Returns true if there is no running behavior on the current thread 
+	 * to which an end could belong. This only happens for 
+	 * behaviors which started before the slot was 
+	 * {@link #resetSlot(SequenceSlot, int) reset}.<br>
+	 */
+	private static boolean isUnmatchedEnd(SequenceSlot slot) {
+		if (BUFFER_EVENTS) {
+			return slot.bufferDepth == 0;
+		}
+		CallSequenceTree seq = slot.seq;
+		return seq == null || seq.isFinal();
 	}
 	
-	private static void fireMethodEnd(
-			Iterable<JDynObserver> obses, CstEventMethod e) 
-	{
-		fireObsEvent(obses, (obs) -> obs.onMethodEnd(e));
+	private static SequenceSlot createSequenceSlot() {
+		SequenceSlot slot = new SequenceSlot(Thread.currentThread());
+		slot.epoch = recordingEpoch;
+		allSequenceSlots.add(slot);
+		if (slotCreationCount.incrementAndGet() % SLOT_PURGE_INTERVAL == 0) {
+			purgeSequenceSlots();
+		}
+		return slot;
 	}
 	
-	private static void fireException(
-			Iterable<JDynObserver> obses, CstEvent event) 
-	{
-		CstEventException e = (CstEventException) event;
-		fireObsEvent(obses, (obs) -> obs.onException(e));
+	/**
+	 * Removes the slots of terminated threads unless they still hold a 
+	 * sequence that was not processed yet.<br>
+	 */
+	private static void purgeSequenceSlots() {
+		Iterator<SequenceSlot> iter = allSequenceSlots.iterator();
+		while (iter.hasNext()) {
+			SequenceSlot slot = iter.next();
+			CallSequenceTree seq = slot.seq;
+			if (!slot.thread.isAlive() && (seq == null || seq.isFinal()) 
+					&& slot.buffer == null) 
+			{
+				iter.remove();
+			}
+		}
 	}
 	
-	private static void fireObsEvent(Iterable<JDynObserver> obses, 
-			ObsEventAct act) 
-	{
-		for (JDynObserver obs : obses) {
+	private static Class<?> getClassOrNull(Object obj) {
+		if (obj == null) {
+			return null;
+		}
+		return obj.getClass();
+	}
+	
+	private static int probeObject(Object obj) {
+		if (NO_IDENTIFY || DEFER_IDENTIFY) {
+			return JDynIdentityTable.NO_ID;
+		}
+		return identityTable.probe(obj);
+	}
+	
+	private static int identifyObject(Object obj) {
+		if (NO_IDENTIFY || DEFER_IDENTIFY) {
+			return JDynIdentityTable.NO_ID;
+		}
+		return identityTable.identify(obj);
+	}
+	
+	/**
+	 * Notifies the observers that event has started or ended. If observers 
+	 * are notified asynchronously the notification is only buffered.<br>
+	 */
+	private static void fireObsEvent(CstEvent event, boolean isEnd) {
+		if (obsThread != null) {
+			SequenceSlot slot = threadToSequenceSlot.get();
+			JDynObserverBuffer buffer = slot.obsBuffer;
+			if (buffer == null) {
+				buffer = obsThread.createBuffer(slot.thread);
+				slot.obsBuffer = buffer;
+			}
+			if (!buffer.add(event, isEnd)) {
+				obsThread.countDropped();
+			}
+			return;
+		}
+		if (JDynMetrics.isObserverTiming()) {
+			fireObsEventTimed(event, isEnd);
+			return;
+		}
+		for (JDynObserver obs : observers) {
 			try {
-				act.forObs(obs);
+				JDynObserver.notifyObserver(obs, event, isEnd);
 			} catch (Exception e) {
 				e.printStackTrace();
 			}
 		}
 	}
 	
-	private static interface ObsEventAct {
-		void forObs(JDynObserver obs);
+	/**
+	 * Like {@link #fireObsEvent(CstEvent, boolean)} for synchronous 
+	 * observers but measures the time of each observer.<br>
+	 */
+	private static void fireObsEventTimed(CstEvent event, boolean isEnd) {
+		for (int i = 0; i < observerArray.length; i++) {
+			long startNanos = System.nanoTime();
+			try {
+				JDynObserver.notifyObserver(observerArray[i], event, isEnd);
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+			observerStats[i].add(1, System.nanoTime() - startNanos);
+		}
+	}
+	
+	/**
+	 * The current sequence of a single thread. The sequence is only ever 
+	 * replaced by the owning thread; it is volatile so that other threads 
+	 * can safely read it in {@link JDynEventDispatcher#getAllCurrentSequences()}.<br>
+	 */
+	private static final class SequenceSlot {
+		
+		final Thread thread;
+		volatile CallSequenceTree seq;
+		/**
+		 * The buffer of the current root invocation if events are recorded 
+		 * into {@link JDynEventBuffer JDynEventBuffers}.<br>
+		 */
+		volatile JDynEventBuffer buffer;
+		/**
+		 * The number of started behaviors in {@link #buffer} which have not 
+		 * ended yet. Only used by the owner thread.<br>
+		 */
+		int bufferDepth;
+		/**
+		 * The number of started behaviors of a root invocation that was not 
+		 * sampled which have not ended yet. Only used by the owner thread.<br>
+		 */
+		int skipDepth;
+		/**
+		 * True after a root invocation that was not sampled ended and before 
+		 * the next behavior starts. Only used by the owner thread.<br>
+		 */
+		boolean skippedRootEnded;
+		/**
+		 * Counts the root invocations of the owner thread modulo the 
+		 * {@link JDynEventDispatcher#SAMPLE_EVERY sampling count}.<br>
+		 */
+		int rootCount;
+		/**
+		 * Buffers the observer notifications of the owner thread if observers 
+		 * are notified asynchronously. Lazily created by the owner thread.<br>
+		 */
+		JDynObserverBuffer obsBuffer;
+		/**
+		 * The {@link JDynEventDispatcher#recordingEpoch recording epoch} in 
+		 * which the slot was used last. Only used by the owner thread.<br>
+		 */
+		int epoch;
+		/**
+		 * The measurements of the {@link JDynEventDispatcher#probeTuner} for 
+		 * the owner thread. Lazily created by the owner thread.<br>
+		 */
+		JDynProbeTuner.ThreadStats probeStats;
+		/**
+		 * The start times of the running behaviors in {@link #buffer} if 
+		 * probes may be removed or slow methods are drilled down into. Only 
+		 * used by the owner thread.<br>
+		 */
+		long[] startTimes = TUNE_PROBES || DRILL_DOWN ? new long[16] : null;
+		/**
+		 * The throwable of the last recorded exception and the depth of the 
+		 * behavior it left last. Used to record only one event per throw. 
+		 * Only used by the owner thread.<br>
+		 */
+		Throwable thrown;
+		int thrownDepth;
+		/**
+		 * The event of the last recorded exception, or the index of its 
+		 * record in {@link #buffer}, as long as it can be changed. Cleared 
+		 * when the event is passed on to the processors.<br>
+		 */
+		CstEventException thrownEvent;
+		int thrownIndex = -1;
+		/**
+		 * The {@link CallSequenceTree#getPartialIndex() number of detached 
+		 * partial trees} of {@link #seq} when the event was recorded.<br>
+		 */
+		int thrownDetachedCount;
+		
+		SequenceSlot(Thread owner) {
+			thread = owner;
+		}
+		
 	}
 	
 }
\ No newline at end of file
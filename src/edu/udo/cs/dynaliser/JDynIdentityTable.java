@@ -0,0 +1,192 @@
+package edu.udo.cs.dynaliser;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Maps objects to a unique integer id to distinguish between them.<br>
+ * Objects are compared by identity in case the user has overwritten
+ * the {@link Object#hashCode()} and/or {@link Object#equals(Object)}
+ * methods.<br>
+ * The table is split into independently locked stripes so that threads
+ * identifying different objects do not contend with each other. Objects
+ * are only weakly referenced; once an object was garbage collected its
+ * entry is removed the next time its stripe is written to. Ids are never
+ * reused.<br>
+ */
+public class JDynIdentityTable {
+	
+	/**
+	 * Returned by {@link #probe(Object)} for objects that were not
+	 * identified yet.<br>
+	 */
+	public static final int NO_ID = -1;
+	
+	private static final int STRIPE_BITS = 6;
+	private static final int STRIPE_COUNT = 1 << STRIPE_BITS;
+	private static final int STRIPE_MASK = STRIPE_COUNT - 1;
+	
+	/**
+	 * Used to count how many instances of a particular class have been
+	 * identified. A {@link ClassValue} does not keep the class alive.<br>
+	 */
+	private final ClassValue<AtomicInteger> classInstanceCounters = new ClassValue<AtomicInteger>() {
+		protected AtomicInteger computeValue(Class<?> type) {
+			return new AtomicInteger();
+		}
+	};
+	private final Stripe[] stripes = new Stripe[STRIPE_COUNT];
+	
+	public JDynIdentityTable() {
+		for (int i = 0; i < stripes.length; i++) {
+			stripes[i] = new Stripe();
+		}
+	}
+	
+	/**
+	 * Returns the id of the given object. If the object was not identified
+	 * before it is given the next free id for its class.<br>
+	 * @param obj		the object to identify, may be null
+	 * @return			the id of obj or {@link #NO_ID} if obj is null
+	 */
+	public int identify(Object obj) {
+		if (obj == null) {
+			return NO_ID;
+		}
+		int hash = hash(obj);
+		return stripes[hash & STRIPE_MASK].identify(obj, hash, classInstanceCounters);
+	}
+	
+	/**
+	 * Returns the id of the given object if it was identified before. The
+	 * object is not added to the table.<br>
+	 * @param obj		the object to look up, may be null
+	 * @return			the id of obj or {@link #NO_ID} if it has none
+	 */
+	public int probe(Object obj) {
+		if (obj == null) {
+			return NO_ID;
+		}
+		int hash = hash(obj);
+		return stripes[hash & STRIPE_MASK].probe(obj, hash);
+	}
+	
+	/**
+	 * Returns the number of entries in the table. Entries of objects that
+	 * were collected but not yet removed are counted as well.<br>
+	 * @return			the approximate number of identified live objects
+	 */
+	public int size() {
+		int size = 0;
+		for (Stripe stripe : stripes) {
+			size += stripe.size;
+		}
+		return size;
+	}
+	
+	private static int hash(Object obj) {
+		int h = System.identityHashCode(obj);
+		return h ^ (h >>> 16);
+	}
+	
+	private static final class Stripe {
+		
+		private final ReferenceQueue<Object> queue = new ReferenceQueue<>();
+		private Entry[] table = new Entry[16];
+		// Read without locking by size()
+		private volatile int size;
+		
+		synchronized int probe(Object obj, int hash) {
+			Entry[] tab = table;
+			for (Entry e = tab[indexFor(hash, tab.length)]; e != null; e = e.next) {
+				if (e.hash == hash && e.get() == obj) {
+					return e.id;
+				}
+			}
+			return NO_ID;
+		}
+		
+		synchronized int identify(Object obj, int hash,
+				ClassValue<AtomicInteger> counters)
+		{
+			expungeStaleEntries();
+			Entry[] tab = table;
+			int index = indexFor(hash, tab.length);
+			for (Entry e = tab[index]; e != null; e = e.next) {
+				if (e.hash == hash && e.get() == obj) {
+					return e.id;
+				}
+			}
+			int id = counters.get(obj.getClass()).getAndIncrement();
+			tab[index] = new Entry(obj, queue, hash, id, tab[index]);
+			size++;
+			if (size > tab.length - (tab.length >>> 2)) {
+				resize();
+			}
+			return id;
+		}
+		
+		private void resize() {
+			Entry[] oldTab = table;
+			Entry[] newTab = new Entry[oldTab.length * 2];
+			for (int i = 0; i < oldTab.length; i++) {
+				Entry e = oldTab[i];
+				while (e != null) {
+					Entry next = e.next;
+					int index = indexFor(e.hash, newTab.length);
+					e.next = newTab[index];
+					newTab[index] = e;
+					e = next;
+				}
+			}
+			table = newTab;
+		}
+		
+		private void expungeStaleEntries() {
+			Object ref;
+			while ((ref = queue.poll()) != null) {
+				Entry stale = (Entry) ref;
+				Entry[] tab = table;
+				int index = indexFor(stale.hash, tab.length);
+				Entry prev = null;
+				for (Entry e = tab[index]; e != null; e = e.next) {
+					if (e == stale) {
+						if (prev == null) {
+							tab[index] = e.next;
+						} else {
+							prev.next = e.next;
+						}
+						size--;
+						break;
+					}
+					prev = e;
+				}
+			}
+		}
+		
+		private static int indexFor(int hash, int length) {
+			// The lower bits were already used to choose the stripe
+			return (hash >>> STRIPE_BITS) & (length - 1);
+		}
+		
+	}
+	
+	private static final class Entry extends WeakReference<Object> {
+		
+		final int hash;
+		final int id;
+		Entry next;
+		
+		Entry(Object referent, ReferenceQueue<Object> queue,
+				int hash, int id, Entry next)
+		{
+			super(referent, queue);
+			this.hash = hash;
+			this.id = id;
+			this.next = next;
+		}
+		
+	}
+	
+}
\ No newline at end of file
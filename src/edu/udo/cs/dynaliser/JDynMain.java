@@ -1,10 +1,20 @@
 package edu.udo.cs.dynaliser;
 
+import java.util.Arrays;
+
+import edu.udo.cs.dynalysis.trace.JDynReplay;
 
 public class JDynMain {
 	
 	public static void main(String[] args) {
+		// Recorded traces can be analyzed without the agent
+		if (args.length > 0 && "replay".equalsIgnoreCase(args[0])) {
+			JDynReplay.main(Arrays.copyOfRange(args, 1, args.length));
+			return;
+		}
 		System.out.println("This jar needs to be run as a java agent");
+		System.out.println("To replay recorded traces use: replay [-f=settings.xml] "
+				+ "[-cp=classpath] [-threads=n] trace...");
 	}
 	
 }
\ No newline at end of file
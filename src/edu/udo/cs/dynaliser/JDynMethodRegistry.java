@@ -0,0 +1,98 @@
+package edu.udo.cs.dynaliser;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Assigns a dense integer id to every instrumented behavior.<br>
+ * The ids are given out by the {@link JDynClassTransformation} when a class
+ * is being transformed and are compiled into the injected callbacks as
+ * constants. Events only store the id; the signature is resolved through
+ * {@link #getSignature(int)} when it is actually needed, for example when
+ * a report is written.<br>
+ * Since the ids are dense, starting at 0, they can be used by observers
+ * and processors to index arrays instead of hashing signatures.<br>
+ */
+public class JDynMethodRegistry {
+	
+	/**
+	 * Used by events that do not belong to an instrumented behavior,
+	 * for example {@link CstEventException exceptions}.<br>
+	 */
+	public static final int NO_METHOD_ID = -1;
+	
+	/**
+	 * Used for locking the registration of new signatures.
+	 */
+	private static final Object registerLock = new Object();
+	/**
+	 * Makes sure a signature is given the same id if its class is
+	 * transformed more than once, for example by multiple ClassLoaders.<br>
+	 */
+	private static final Map<String, Integer> signatureToIdMap = new HashMap<>();
+	/**
+	 * The signatures indexed by their id. The array is only ever replaced
+	 * by a bigger copy while holding the {@link #registerLock}.<br>
+	 */
+	private static volatile String[] signatures = new String[256];
+	/**
+	 * The number of registered signatures. This is written after the
+	 * signature was stored and read before the signature is looked up
+	 * so that lookups do not need to lock.<br>
+	 */
+	private static volatile int count;
+	
+	private JDynMethodRegistry() {}
+	
+	/**
+	 * Returns the id for the given signature. If the signature was not
+	 * registered before a new id is created.<br>
+	 * @param signature		the long name of a behavior, must be non-null
+	 * @return				a non-negative id that is unique for the signature
+	 */
+	public static int register(String signature) {
+		if (signature == null) {
+			throw new IllegalArgumentException("signature == null");
+		}
+		synchronized (registerLock) {
+			Integer id = signatureToIdMap.get(signature);
+			if (id != null) {
+				return id.intValue();
+			}
+			int newID = count;
+			String[] sigs = signatures;
+			if (newID == sigs.length) {
+				sigs = Arrays.copyOf(sigs, sigs.length * 2);
+				signatures = sigs;
+			}
+			sigs[newID] = signature;
+			signatureToIdMap.put(signature, Integer.valueOf(newID));
+			count = newID + 1;
+			return newID;
+		}
+	}
+	
+	/**
+	 * Returns the signature that was registered with the given id or null
+	 * if there is no such id.<br>
+	 * @param methodID		an id as returned by {@link #register(String)}
+	 * @return				the signature for the id or null
+	 */
+	public static String getSignature(int methodID) {
+		if (methodID < 0 || methodID >= count) {
+			return null;
+		}
+		return signatures[methodID];
+	}
+	
+	/**
+	 * Returns the number of ids that have been given out so far. All ids
+	 * are smaller than this number.<br>
+	 * @return				the number of registered signatures
+	 */
+	public static int getMethodCount() {
+		return count;
+	}
+	
+}
\ No newline at end of file
@@ -0,0 +1,313 @@
+package edu.udo.cs.dynaliser;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import edu.udo.cs.dynalysis.JDynObserver;
+
+/**
+ * Implements the {@link JDynMetricsMBean}. The counters are static so that
+ * the agent and the {@link JDynEventDispatcher} can update them without a
+ * reference to the bean. All counters are {@link LongAdder LongAdders} or
+ * are updated by a single thread at a time so that counting does not add
+ * contention between the instrumented threads.<br>
+ * Metrics which need the dispatcher read zero until the dispatcher was
+ * initialized by the first instrumented class; reading them never
+ * initializes it.<br>
+ */
+public class JDynMetrics implements JDynMetricsMBean {
+	
+	private static final LongAdder instrumentedClasses = new LongAdder();
+	private static final LongAdder instrumentedBehaviors = new LongAdder();
+	private static final LongAdder transformNanos = new LongAdder();
+	private static final LongAccumulator maxTransformNanos = new LongAccumulator(Math::max, 0);
+	/**
+	 * Indexed by the ordinal of the {@link CstEventType}.<br>
+	 */
+	private static final LongAdder[] eventCounts = new LongAdder[CstEventType.values().length];
+	private static final List<ObserverStats> observerStats = new ArrayList<>();
+	private static volatile boolean observerTiming;
+	private static volatile boolean dispatcherReady;
+	
+	static {
+		for (int i = 0; i < eventCounts.length; i++) {
+			eventCounts[i] = new LongAdder();
+		}
+	}
+	
+	/**
+	 * Called by the agent after an included class was transformed.<br>
+	 * @param behaviorCount		the number of instrumented behaviors
+	 * @param nanos				the time of the transformation in nano seconds
+	 */
+	static void classTransformed(int behaviorCount, long nanos) {
+		instrumentedClasses.increment();
+		instrumentedBehaviors.add(behaviorCount);
+		transformNanos.add(nanos);
+		maxTransformNanos.accumulate(nanos);
+	}
+	
+	static void countEvent(CstEventType type) {
+		eventCounts[type.ordinal()].increment();
+	}
+	
+	/**
+	 * Creates the statistics of the given observers in the same order.<br>
+	 */
+	static ObserverStats[] createObserverStats(Iterable<JDynObserver> observers) {
+		List<ObserverStats> result = new ArrayList<>();
+		for (JDynObserver obs : observers) {
+			result.add(new ObserverStats(obs));
+		}
+		synchronized (observerStats) {
+			observerStats.addAll(result);
+		}
+		return result.toArray(new ObserverStats[result.size()]);
+	}
+	
+	static boolean isObserverTiming() {
+		return observerTiming;
+	}
+	
+	/**
+	 * Called once the {@link JDynEventDispatcher} is initialized.<br>
+	 */
+	static void dispatcherInitialized() {
+		dispatcherReady = true;
+	}
+	
+	/**
+	 * The time of the previous read of each rate and the count at that time,
+	 * indexed like {@link #eventCounts}. Guarded by this.<br>
+	 */
+	private final long[] rateNanoTimes = new long[eventCounts.length];
+	private final long[] rateCounts = new long[eventCounts.length];
+	
+	public JDynMetrics() {
+		long now = System.nanoTime();
+		for (int i = 0; i < eventCounts.length; i++) {
+			rateNanoTimes[i] = now;
+			rateCounts[i] = eventCounts[i].sum();
+		}
+	}
+	
+	@Override
+	public long getInstrumentedClassCount() {
+		return instrumentedClasses.sum();
+	}
+	
+	@Override
+	public long getInstrumentedBehaviorCount() {
+		return instrumentedBehaviors.sum();
+	}
+	
+	@Override
+	public long getTransformTimeMillis() {
+		return transformNanos.sum() / 1000000;
+	}
+	
+	@Override
+	public long getMeanTransformMicros() {
+		long classes = instrumentedClasses.sum();
+		return classes == 0 ? 0 : transformNanos.sum() / classes / 1000;
+	}
+	
+	@Override
+	public long getMaxTransformMicros() {
+		return maxTransformNanos.get() / 1000;
+	}
+	
+	@Override
+	public long getConstructorEventCount() {
+		return eventCounts[CstEventType.CONSTRUCTOR.ordinal()].sum();
+	}
+	
+	@Override
+	public long getStaticMethodEventCount() {
+		return eventCounts[CstEventType.STATIC_METHOD.ordinal()].sum();
+	}
+	
+	@Override
+	public long getMethodEventCount() {
+		return eventCounts[CstEventType.METHOD.ordinal()].sum();
+	}
+	
+	@Override
+	public long getExceptionEventCount() {
+		return eventCounts[CstEventType.EXCEPTION.ordinal()].sum();
+	}
+	
+	@Override
+	public double getConstructorEventsPerSecond() {
+		return getRate(CstEventType.CONSTRUCTOR);
+	}
+	
+	@Override
+	public double getStaticMethodEventsPerSecond() {
+		return getRate(CstEventType.STATIC_METHOD);
+	}
+	
+	@Override
+	public double getMethodEventsPerSecond() {
+		return getRate(CstEventType.METHOD);
+	}
+	
+	@Override
+	public double getExceptionEventsPerSecond() {
+		return getRate(CstEventType.EXCEPTION);
+	}
+	
+	/**
+	 * Returns the number of events of the given type per second since the
+	 * previous call for the same type.<br>
+	 */
+	private synchronized double getRate(CstEventType type) {
+		int index = type.ordinal();
+		long now = System.nanoTime();
+		long count = eventCounts[index].sum();
+		long elapsed = now - rateNanoTimes[index];
+		double rate = elapsed <= 0 ? 0 : (count - rateCounts[index]) * 1e9 / elapsed;
+		rateNanoTimes[index] = now;
+		rateCounts[index] = count;
+		return rate;
+	}
+	
+	@Override
+	public int getOpenTreeCount() {
+		return dispatcherReady ? JDynEventDispatcher.getOpenSequenceCount() : 0;
+	}
+	
+	@Override
+	public long getOpenTreeEventCount() {
+		return dispatcherReady ? JDynEventDispatcher.getOpenEventCount() : 0;
+	}
+	
+	@Override
+	public long getOpenTreeBytes() {
+		return dispatcherReady ? JDynEventDispatcher.getOpenSequenceBytes() : 0;
+	}
+	
+	@Override
+	public long getProcessorQueueDepth() {
+		long depth = 0;
+		for (JDynProcessorPipeline pipeline : getPipelines()) {
+			depth += pipeline.getQueueDepth();
+		}
+		return depth;
+	}
+	
+	@Override
+	public long getProcessorDroppedCount() {
+		long dropped = 0;
+		for (JDynProcessorPipeline pipeline : getPipelines()) {
+			dropped += pipeline.getDroppedCount();
+		}
+		return dropped;
+	}
+	
+	@Override
+	public String[] getProcessorStats() {
+		List<JDynProcessorPipeline> pipelines = getPipelines();
+		String[] result = new String[pipelines.size()];
+		for (int i = 0; i < result.length; i++) {
+			JDynProcessorPipeline pipeline = pipelines.get(i);
+			StringBuilder sb = new StringBuilder();
+			sb.append(pipeline.getProcessor().getClass().getSimpleName());
+			sb.append("[depth=");
+			sb.append(pipeline.getQueueDepth());
+			sb.append(", processed=");
+			sb.append(pipeline.getProcessedCount());
+			sb.append(", dropped=");
+			sb.append(pipeline.getDroppedCount());
+			sb.append(", meanWaitMicros=");
+			sb.append(pipeline.getMeanWaitNanos() / 1000);
+			sb.append(", meanProcessMicros=");
+			sb.append(pipeline.getMeanProcessNanos() / 1000);
+			sb.append("]");
+			result[i] = sb.toString();
+		}
+		return result;
+	}
+	
+	private List<JDynProcessorPipeline> getPipelines() {
+		if (!dispatcherReady) {
+			return Collections.emptyList();
+		}
+		return JDynEventDispatcher.getProcessorPipelines();
+	}
+	
+	@Override
+	public long getObserverDroppedCount() {
+		return dispatcherReady ? JDynEventDispatcher.getDroppedObserverEventCount() : 0;
+	}
+	
+	@Override
+	public String[] getObserverStats() {
+		synchronized (observerStats) {
+			String[] result = new String[observerStats.size()];
+			for (int i = 0; i < result.length; i++) {
+				result[i] = observerStats.get(i).toString();
+			}
+			return result;
+		}
+	}
+	
+	@Override
+	public boolean isObserverTimingEnabled() {
+		return observerTiming;
+	}
+	
+	@Override
+	public void setObserverTimingEnabled(boolean value) {
+		observerTiming = value;
+	}
+	
+	@Override
+	public int getIdentityTableSize() {
+		return dispatcherReady ? JDynEventDispatcher.getIdentityTableSize() : 0;
+	}
+	
+	/**
+	 * The number of notifications and the time spent in the callbacks of
+	 * a single observer.<br>
+	 */
+	static final class ObserverStats {
+		
+		private final String name;
+		private final LongAdder eventCount = new LongAdder();
+		private final LongAdder nanos = new LongAdder();
+		
+		ObserverStats(JDynObserver observer) {
+			name = observer.getClass().getSimpleName();
+		}
+		
+		/**
+		 * @param events		the number of events the observer was notified of
+		 * @param elapsedNanos	the time the callbacks took
+		 */
+		void add(int events, long elapsedNanos) {
+			eventCount.add(events);
+			nanos.add(elapsedNanos);
+		}
+		
+		public String toString() {
+			long events = eventCount.sum();
+			long total = nanos.sum();
+			StringBuilder sb = new StringBuilder();
+			sb.append(name);
+			sb.append("[events=");
+			sb.append(events);
+			sb.append(", totalMillis=");
+			sb.append(total / 1000000);
+			sb.append(", meanNanos=");
+			sb.append(events == 0 ? 0 : total / events);
+			sb.append("]");
+			return sb.toString();
+		}
+		
+	}
+	
+}
\ No newline at end of file
@@ -0,0 +1,129 @@
+package edu.udo.cs.dynaliser;
+
+/**
+ * The JMX interface to the metrics of the agent itself: how much was
+ * instrumented, how many events are recorded, how far the processors lag
+ * behind and how much time the observers take.<br>
+ * The bean is registered with the platform MBean server under the name
+ * {@value #OBJECT_NAME}. Counts are totals since the JVM started; rates are
+ * measured between two reads of the same attribute.<br>
+ */
+public interface JDynMetricsMBean {
+	
+	public static final String OBJECT_NAME = "edu.udo.cs.dynaliser:type=JDynMetrics";
+	
+	/**
+	 * Returns the number of classes whose byte code was instrumented,
+	 * including classes taken from the byte code cache.<br>
+	 * @return		the number of instrumented classes
+	 */
+	public long getInstrumentedClassCount();
+	
+	/**
+	 * Returns the number of methods and constructors which were
+	 * instrumented. Behaviors of classes taken from the byte code cache are
+	 * not counted.<br>
+	 * @return		the number of instrumented behaviors
+	 */
+	public long getInstrumentedBehaviorCount();
+	
+	/**
+	 * Returns the time spent in the transformation of included classes.<br>
+	 * @return		the total transformation time in milli seconds
+	 */
+	public long getTransformTimeMillis();
+	
+	/**
+	 * @return		the average transformation time of an included class in micro seconds
+	 */
+	public long getMeanTransformMicros();
+	
+	/**
+	 * @return		the longest transformation time of an included class in micro seconds
+	 */
+	public long getMaxTransformMicros();
+	
+	public long getConstructorEventCount();
+	
+	public long getStaticMethodEventCount();
+	
+	public long getMethodEventCount();
+	
+	public long getExceptionEventCount();
+	
+	public double getConstructorEventsPerSecond();
+	
+	public double getStaticMethodEventsPerSecond();
+	
+	public double getMethodEventsPerSecond();
+	
+	public double getExceptionEventsPerSecond();
+	
+	/**
+	 * Returns the number of trees whose root invocation is still running.<br>
+	 * @return		the number of trees which are being recorded
+	 */
+	public int getOpenTreeCount();
+	
+	/**
+	 * Returns the number of events held by the trees which are being
+	 * recorded.<br>
+	 * @return		the number of events of all open trees
+	 */
+	public long getOpenTreeEventCount();
+	
+	/**
+	 * Returns the estimated memory used by the trees which are being
+	 * recorded.<br>
+	 * @return		the estimated size of all open trees in bytes
+	 */
+	public long getOpenTreeBytes();
+	
+	/**
+	 * @return		the number of trees waiting in the queues of all processors
+	 */
+	public long getProcessorQueueDepth();
+	
+	/**
+	 * @return		the number of trees all processors dropped because their queues were full
+	 */
+	public long getProcessorDroppedCount();
+	
+	/**
+	 * Returns one line per processor with its queue depth, the numbers of
+	 * processed and dropped trees and the average time a tree waited in the
+	 * queue and took to process.<br>
+	 * @return		an array with one entry per processor
+	 */
+	public String[] getProcessorStats();
+	
+	/**
+	 * @return		the number of observer notifications dropped by the observer thread
+	 */
+	public long getObserverDroppedCount();
+	
+	/**
+	 * Returns one line per observer with the number of events it was
+	 * notified of and the time it took. Observers notified on the
+	 * instrumented threads are only measured while
+	 * {@link #isObserverTimingEnabled() observer timing} is enabled.<br>
+	 * @return		an array with one entry per observer
+	 */
+	public String[] getObserverStats();
+	
+	/**
+	 * Returns true if observers which are notified on the instrumented
+	 * threads are timed. Off by default since it adds two clock reads to
+	 * every notification.<br>
+	 * @return		true if synchronous observer notifications are timed
+	 */
+	public boolean isObserverTimingEnabled();
+	
+	public void setObserverTimingEnabled(boolean value);
+	
+	/**
+	 * @return		the number of objects in the identity table, 0 if objects are not identified
+	 */
+	public int getIdentityTableSize();
+	
+}
\ No newline at end of file
@@ -0,0 +1,308 @@
+package edu.udo.cs.dynaliser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Matches class names or method signatures against a list of patterns that
+ * were compiled into a prefix tree when the settings were read.<br>
+ * A pattern is either plain, a glob if it starts with {@value #GLOB_PREFIX}
+ * or a regular expression if it starts with {@value #REGEX_PREFIX}. Plain
+ * patterns match names that start with the pattern or, for method
+ * signatures, names that are equal to the pattern. In a glob '?' matches a
+ * single character and '*' any number of characters except a separator;
+ * '**' matches separators too.<br>
+ * The characters '.' and '/' are treated as the same separator so that both
+ * full class names and the internal names used by the JVM can be matched.
+ * Plain patterns and globs are matched without creating any objects. A name
+ * which does not match the beginning of any pattern is rejected after
+ * reading only as many characters as the patterns have in common with it.<br>
+ * Regular expressions are always matched against the name with '.' as
+ * separator.<br>
+ */
+final class JDynNameMatcher {
+	
+	/**
+	 * Marks a pattern as a glob.<br>
+	 */
+	static final String GLOB_PREFIX = "glob:";
+	/**
+	 * Marks a pattern as a regular expression.<br>
+	 */
+	static final String REGEX_PREFIX = "regex:";
+	
+	private final Node root = new Node();
+	private final Pattern[] regexes;
+	/**
+	 * The index of each regular expression within the original patterns.<br>
+	 */
+	private final int[] regexIndices;
+	
+	/**
+	 * @param patterns			the patterns in the order of their priority
+	 * @param plainIsPrefix		true if plain patterns match all names that
+	 * 							start with the pattern, false if they must
+	 * 							be equal to the name
+	 */
+	JDynNameMatcher(String[] patterns, boolean plainIsPrefix) {
+		List<Pattern> regexList = new ArrayList<>();
+		List<Integer> regexIndexList = new ArrayList<>();
+		for (int i = 0; i < patterns.length; i++) {
+			String pattern = patterns[i];
+			if (pattern.startsWith(REGEX_PREFIX)) {
+				regexList.add(Pattern.compile(pattern.substring(REGEX_PREFIX.length())));
+				regexIndexList.add(i);
+			} else if (pattern.startsWith(GLOB_PREFIX)) {
+				addGlob(pattern.substring(GLOB_PREFIX.length()), i);
+			} else {
+				Node node = root.getOrAdd(pattern, 0, pattern.length());
+				node.addRule(new Rule(i, plainIsPrefix ? Rule.PREFIX : Rule.EXACT, null));
+			}
+		}
+		regexes = regexList.toArray(new Pattern[regexList.size()]);
+		regexIndices = new int[regexIndexList.size()];
+		for (int i = 0; i < regexIndices.length; i++) {
+			regexIndices[i] = regexIndexList.get(i);
+		}
+	}
+	
+	/**
+	 * The characters up to the first wildcard are stored in the tree; the
+	 * rest of the glob is matched when a name reaches that node.<br>
+	 */
+	private void addGlob(String glob, int index) {
+		int literalEnd = 0;
+		while (literalEnd < glob.length() && !isWildcard(glob.charAt(literalEnd))) {
+			literalEnd++;
+		}
+		char[] rest = new char[glob.length() - literalEnd];
+		for (int i = 0; i < rest.length; i++) {
+			rest[i] = normalize(glob.charAt(literalEnd + i));
+		}
+		Node node = root.getOrAdd(glob, 0, literalEnd);
+		node.addRule(new Rule(index, Rule.GLOB, rest));
+	}
+	
+	/**
+	 * Returns true if the name is matched by any of the patterns.<br>
+	 * @param name		a class name or method signature
+	 * @return			true if at least one pattern matches
+	 */
+	boolean matchesAny(String name) {
+		Node node = root;
+		int pos = 0;
+		while (node != null) {
+			for (Rule rule : node.rules) {
+				if (rule.matches(name, pos)) {
+					return true;
+				}
+			}
+			if (pos == name.length()) {
+				break;
+			}
+			node = node.getChild(normalize(name.charAt(pos++)));
+		}
+		for (int i = 0; i < regexes.length; i++) {
+			if (regexes[i].matcher(new DottedName(name)).matches()) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Returns the index of the first pattern that matches the name.<br>
+	 * @param name		a class name or method signature
+	 * @return			the index of a pattern or -1 if no pattern matches
+	 */
+	int firstMatch(String name) {
+		int result = Integer.MAX_VALUE;
+		Node node = root;
+		int pos = 0;
+		while (node != null) {
+			for (Rule rule : node.rules) {
+				if (rule.index < result && rule.matches(name, pos)) {
+					result = rule.index;
+				}
+			}
+			if (pos == name.length()) {
+				break;
+			}
+			node = node.getChild(normalize(name.charAt(pos++)));
+		}
+		for (int i = 0; i < regexes.length && regexIndices[i] < result; i++) {
+			if (regexes[i].matcher(new DottedName(name)).matches()) {
+				result = regexIndices[i];
+			}
+		}
+		return result == Integer.MAX_VALUE ? -1 : result;
+	}
+	
+	private static boolean isWildcard(char c) {
+		return c == '*' || c == '?';
+	}
+	
+	private static char normalize(char c) {
+		return c == '.' ? '/' : c;
+	}
+	
+	/**
+	 * Matches the glob starting at globPos against the name starting at
+	 * namePos. The whole remaining name must be matched.<br>
+	 */
+	private static boolean globMatches(char[] glob, int globPos, String name, int namePos) {
+		int g = globPos;
+		int n = namePos;
+		while (g < glob.length) {
+			char c = glob[g];
+			if (c == '*') {
+				boolean crossSeparators = g + 1 < glob.length && glob[g + 1] == '*';
+				int next = crossSeparators ? g + 2 : g + 1;
+				for (int i = n; i <= name.length(); i++) {
+					if (globMatches(glob, next, name, i)) {
+						return true;
+					}
+					if (i < name.length() && !crossSeparators
+							&& normalize(name.charAt(i)) == '/')
+					{
+						return false;
+					}
+				}
+				return false;
+			}
+			if (n == name.length()) {
+				return false;
+			}
+			char nameChar = normalize(name.charAt(n));
+			if (c == '?' ? nameChar == '/' : c != nameChar) {
+				return false;
+			}
+			g++;
+			n++;
+		}
+		return n == name.length();
+	}
+	
+	private static class Node {
+		
+		private static final char[] NO_KEYS = new char[0];
+		private static final Node[] NO_CHILDREN = new Node[0];
+		private static final Rule[] NO_RULES = new Rule[0];
+		
+		// Sorted so that children can be found by a binary search
+		char[] keys = NO_KEYS;
+		Node[] children = NO_CHILDREN;
+		Rule[] rules = NO_RULES;
+		
+		Node getChild(char key) {
+			int index = Arrays.binarySearch(keys, key);
+			return index < 0 ? null : children[index];
+		}
+		
+		Node getOrAdd(String path, int from, int to) {
+			Node node = this;
+			for (int i = from; i < to; i++) {
+				char key = normalize(path.charAt(i));
+				int index = Arrays.binarySearch(node.keys, key);
+				if (index < 0) {
+					index = -index - 1;
+					node.insertChild(index, key, new Node());
+				}
+				node = node.children[index];
+			}
+			return node;
+		}
+		
+		void insertChild(int index, char key, Node child) {
+			char[] newKeys = new char[keys.length + 1];
+			Node[] newChildren = new Node[children.length + 1];
+			System.arraycopy(keys, 0, newKeys, 0, index);
+			System.arraycopy(children, 0, newChildren, 0, index);
+			newKeys[index] = key;
+			newChildren[index] = child;
+			System.arraycopy(keys, index, newKeys, index + 1, keys.length - index);
+			System.arraycopy(children, index, newChildren, index + 1, children.length - index);
+			keys = newKeys;
+			children = newChildren;
+		}
+		
+		void addRule(Rule rule) {
+			rules = Arrays.copyOf(rules, rules.length + 1);
+			rules[rules.length - 1] = rule;
+		}
+		
+	}
+	
+	private static class Rule {
+		
+		static final int PREFIX = 0;
+		static final int EXACT = 1;
+		static final int GLOB = 2;
+		
+		final int index;
+		final int kind;
+		/**
+		 * The part of a glob after its literal beginning.<br>
+		 */
+		final char[] globRest;
+		
+		Rule(int patternIndex, int ruleKind, char[] rest) {
+			index = patternIndex;
+			kind = ruleKind;
+			globRest = rest;
+		}
+		
+		/**
+		 * @param pos		the number of characters of the name which were
+		 * 					already matched by the tree
+		 */
+		boolean matches(String name, int pos) {
+			switch (kind) {
+			case PREFIX:
+				return true;
+			case EXACT:
+				return pos == name.length();
+			default:
+				return globMatches(globRest, 0, name, pos);
+			}
+		}
+		
+	}
+	
+	/**
+	 * Presents an internal name with '.' as separator without copying it.<br>
+	 */
+	private static class DottedName implements CharSequence {
+		
+		private final String name;
+		
+		DottedName(String name) {
+			this.name = name;
+		}
+		
+		@Override
+		public int length() {
+			return name.length();
+		}
+		
+		@Override
+		public char charAt(int index) {
+			char c = name.charAt(index);
+			return c == '/' ? '.' : c;
+		}
+		
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			return new DottedName(name.substring(start, end));
+		}
+		
+		@Override
+		public String toString() {
+			return name.replace('/', '.');
+		}
+		
+	}
+	
+}
\ No newline at end of file
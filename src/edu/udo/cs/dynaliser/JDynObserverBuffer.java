@@ -0,0 +1,72 @@
+package edu.udo.cs.dynaliser;
+
+import java.util.List;
+
+/**
+ * A bounded queue of the observer notifications of a single thread. The
+ * owner thread adds notifications and the {@link JDynObserverThread}
+ * removes them; neither needs a lock.<br>
+ */
+final class JDynObserverBuffer {
+	
+	private final Thread owner;
+	private final CstEvent[] events;
+	private final boolean[] ends;
+	private final int mask;
+	// The next position to read; only written by the consumer
+	private volatile long head;
+	// The next position to write; only written by the owner thread
+	private volatile long tail;
+	
+	JDynObserverBuffer(Thread ownerThread, int capacity) {
+		owner = ownerThread;
+		int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+		events = new CstEvent[size];
+		ends = new boolean[size];
+		mask = size - 1;
+	}
+	
+	Thread getOwner() {
+		return owner;
+	}
+	
+	/**
+	 * Adds a notification. Must only be called by the owner thread.<br>
+	 * @return		false if the buffer is full and the notification was dropped
+	 */
+	boolean add(CstEvent event, boolean isEnd) {
+		long t = tail;
+		if (t - head > mask) {
+			return false;
+		}
+		int index = (int) (t & mask);
+		events[index] = event;
+		ends[index] = isEnd;
+		// The volatile write publishes the entry to the consumer
+		tail = t + 1;
+		return true;
+	}
+	
+	boolean isEmpty() {
+		return head == tail;
+	}
+	
+	/**
+	 * Moves up to outEnds.length notifications to the given list and array
+	 * in the order in which they were added.<br>
+	 * @return		the number of moved notifications
+	 */
+	int drainTo(List<CstEvent> outEvents, boolean[] outEnds) {
+		long h = head;
+		int count = (int) Math.min(tail - h, outEnds.length);
+		for (int i = 0; i < count; i++) {
+			int index = (int) ((h + i) & mask);
+			outEvents.add(events[index]);
+			outEnds[i] = ends[index];
+			events[index] = null;
+		}
+		head = h + count;
+		return count;
+	}
+	
+}
\ No newline at end of file
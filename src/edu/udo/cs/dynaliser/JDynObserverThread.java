@@ -0,0 +1,157 @@
+package edu.udo.cs.dynaliser;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import edu.udo.cs.dynalysis.JDynObserver;
+
+/**
+ * Notifies the {@link JDynObserver observers} on a thread of its own so
+ * that slow observers do not slow down the instrumented program.<br>
+ * Each instrumented thread puts its notifications into a
+ * {@link JDynObserverBuffer}. The buffers are drained periodically and the
+ * notifications of each thread are passed in order to
+ * {@link JDynObserver#onEvents(List, boolean[])}. If a buffer is full
+ * further notifications of its thread are dropped and counted.<br>
+ */
+public class JDynObserverThread {
+	
+	/**
+	 * The time the thread sleeps if there were no notifications.<br>
+	 */
+	private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+	/**
+	 * The maximum number of notifications passed to an observer at once.<br>
+	 */
+	private static final int MAX_BATCH_SIZE = 256;
+	
+	private final Iterable<JDynObserver> observers;
+	/**
+	 * The {@link JDynMetrics} statistics of the observers in iteration order.<br>
+	 */
+	private final JDynMetrics.ObserverStats[] observerStats;
+	private final int bufferCapacity;
+	private final Set<JDynObserverBuffer> buffers = ConcurrentHashMap.newKeySet();
+	private final LongAdder droppedCount = new LongAdder();
+	private final LongAdder deliveredCount = new LongAdder();
+	// Only used while holding the lock of this object
+	private final List<CstEvent> batchEvents = new ArrayList<>(MAX_BATCH_SIZE);
+	private final boolean[] batchEnds = new boolean[MAX_BATCH_SIZE];
+	private final Thread thread;
+	private volatile boolean running = true;
+	
+	/**
+	 * @param observers			the observers to notify, must be non-null
+	 * @param bufferCapacity	the number of notifications each thread can
+	 * 							buffer before notifications are dropped
+	 */
+	public JDynObserverThread(Iterable<JDynObserver> observers, int bufferCapacity) {
+		this.observers = observers;
+		observerStats = JDynMetrics.createObserverStats(observers);
+		this.bufferCapacity = bufferCapacity;
+		// A demon thread; the remaining notifications are delivered by shutDown()
+		thread = new Thread(() -> threadRun(), "JDynObserver");
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	/**
+	 * Creates the buffer for the notifications of the given thread.<br>
+	 */
+	JDynObserverBuffer createBuffer(Thread owner) {
+		JDynObserverBuffer buffer = new JDynObserverBuffer(owner, bufferCapacity);
+		buffers.add(buffer);
+		return buffer;
+	}
+	
+	void countDropped() {
+		droppedCount.increment();
+	}
+	
+	/**
+	 * Returns the number of notifications that were dropped because the
+	 * buffer of their thread was full.<br>
+	 * @return		the number of dropped notifications
+	 */
+	public long getDroppedCount() {
+		return droppedCount.sum();
+	}
+	
+	/**
+	 * Returns the number of notifications that were passed to the observers.
+	 * Each notification is counted once regardless of the number of
+	 * observers.<br>
+	 * @return		the number of delivered notifications
+	 */
+	public long getDeliveredCount() {
+		return deliveredCount.sum();
+	}
+	
+	/**
+	 * Stops the thread and delivers all remaining notifications on the
+	 * calling thread.<br>
+	 */
+	public void shutDown() {
+		running = false;
+		LockSupport.unpark(thread);
+		drainAll();
+	}
+	
+	private void threadRun() {
+		while (running) {
+			if (drainAll() == 0) {
+				LockSupport.parkNanos(IDLE_NANOS);
+			}
+		}
+	}
+	
+	/**
+	 * Delivers the notifications of all buffers. Buffers of threads that
+	 * have died are removed once they are empty.<br>
+	 * @return		the number of delivered notifications
+	 */
+	private synchronized int drainAll() {
+		int total = 0;
+		Iterator<JDynObserverBuffer> iter = buffers.iterator();
+		while (iter.hasNext()) {
+			JDynObserverBuffer buffer = iter.next();
+			// Checked before draining so no notification can be added afterwards
+			boolean ownerDead = !buffer.getOwner().isAlive();
+			int count;
+			do {
+				batchEvents.clear();
+				count = buffer.drainTo(batchEvents, batchEnds);
+				if (count > 0) {
+					deliver();
+					total += count;
+				}
+			} while (count == MAX_BATCH_SIZE);
+			if (ownerDead && buffer.isEmpty()) {
+				iter.remove();
+			}
+		}
+		return total;
+	}
+	
+	private void deliver() {
+		int index = 0;
+		for (JDynObserver obs : observers) {
+			long startNanos = System.nanoTime();
+			try {
+				obs.onEvents(batchEvents, batchEnds);
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+			observerStats[index++].add(batchEvents.size(), System.nanoTime() - startNanos);
+		}
+		deliveredCount.add(batchEvents.size());
+		batchEvents.clear();
+	}
+	
+}
\ No newline at end of file
@@ -0,0 +1,144 @@
+package edu.udo.cs.dynaliser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Measures the call rate and mean duration of every method and removes the
+ * probes of hot methods which are so short that the probes make up a large
+ * part of their run time, for example getters and setters.<br>
+ * The {@link JDynEventDispatcher} passes the duration of each invocation
+ * that ended to the tuner if {@link JDynSettings#getProbeOverheadPercent()}
+ * is greater than 0. Each thread measures on its own so that no locking is
+ * needed. Methods are judged in windows of
+ * {@link JDynSettings#getProbeMinCalls()} calls per thread.<br>
+ * The probes of a method are removed by retransforming its class through the
+ * {@link JDynAgent} on a single background thread; the decision is recorded
+ * in {@link JDynRemovedProbes}. Constructors are never removed.<br>
+ */
+final class JDynProbeTuner {
+	
+	private final int maxOverheadPercent;
+	private final int minCalls;
+	private final int minCallsPerSecond;
+	private final int probeNanos;
+	private final boolean debug;
+	/**
+	 * The signatures of the methods whose probes are to be removed and whose 
+	 * classes were not retransformed yet.<br>
+	 */
+	private final Queue<String> pendingRemovals = new ConcurrentLinkedQueue<>();
+	/**
+	 * Retransforms the classes of the pending removals. Removals that are 
+	 * decided while a retransformation runs are done together afterwards. 
+	 * Instrumented threads do not wait for it.<br>
+	 */
+	private final ExecutorService executor = Executors.newSingleThreadExecutor((runnable) -> {
+		Thread thread = new Thread(runnable, "JDynProbeRemoval");
+		thread.setDaemon(true);
+		return thread;
+	});
+	
+	JDynProbeTuner(JDynSettings settings) {
+		maxOverheadPercent = settings.getProbeOverheadPercent();
+		minCalls = Math.max(1, settings.getProbeMinCalls());
+		minCallsPerSecond = settings.getProbeMinCallsPerSecond();
+		probeNanos = settings.getProbeNanos();
+		debug = settings.isDebug();
+	}
+	
+	/**
+	 * Adds an invocation of a method to the measurements of the calling
+	 * thread.<br>
+	 * @param stats			the measurements of the calling thread
+	 * @param methodID		the id of a method in the {@link JDynMethodRegistry}
+	 * @param before		the time the invocation started in nano seconds
+	 * @param after			the time the invocation ended in nano seconds
+	 */
+	void measure(ThreadStats stats, int methodID, long before, long after) {
+		if (methodID >= stats.calls.length) {
+			stats.grow(methodID + 1);
+		}
+		if (stats.calls[methodID] == 0) {
+			stats.windowStart[methodID] = before;
+		}
+		stats.totalNanos[methodID] += after - before;
+		if (++stats.calls[methodID] >= minCalls) {
+			judge(stats, methodID, after);
+		}
+	}
+	
+	/**
+	 * Decides at the end of a window whether the probes of the method are
+	 * removed and starts a new window.<br>
+	 */
+	private void judge(ThreadStats stats, int methodID, long windowEnd) {
+		long count = stats.calls[methodID];
+		double meanNanos = stats.totalNanos[methodID] / (double) count;
+		long windowNanos = Math.max(1, windowEnd - stats.windowStart[methodID]);
+		double callsPerSecond = count * 1_000_000_000.0 / windowNanos;
+		stats.calls[methodID] = 0;
+		stats.totalNanos[methodID] = 0;
+		if (callsPerSecond < minCallsPerSecond
+				|| probeNanos * 100.0 <= maxOverheadPercent * meanNanos)
+		{
+			return;
+		}
+		String reason = String.format("probes removed after %d calls; mean duration %.1f ns, "
+				+ "%.0f calls per second", count, meanNanos, callsPerSecond);
+		if (!JDynRemovedProbes.record(methodID, reason)) {
+			// Another thread made the same decision already
+			return;
+		}
+		String signature = JDynMethodRegistry.getSignature(methodID);
+		if (debug) {
+			JDynAgent.debugMsg("Remove probes of", signature, "Reason:", reason);
+		}
+		JDynAgent agent = JDynAgent.getInstalledAgent();
+		if (agent == null) {
+			return;
+		}
+		pendingRemovals.add(signature);
+		executor.execute(() -> removePending(agent));
+	}
+	
+	/**
+	 * Removes the probes of all pending methods at once so that each class 
+	 * is retransformed only once. Does nothing if an earlier task removed 
+	 * them already.<br>
+	 */
+	private void removePending(JDynAgent agent) {
+		List<String> signatures = new ArrayList<>();
+		String signature;
+		while ((signature = pendingRemovals.poll()) != null) {
+			signatures.add(signature);
+		}
+		if (!signatures.isEmpty()) {
+			agent.removeProbes(signatures);
+		}
+	}
+	
+	/**
+	 * The measurements of a single thread indexed by method id.<br>
+	 */
+	static final class ThreadStats {
+		
+		long[] calls = new long[256];
+		long[] totalNanos = new long[256];
+		long[] windowStart = new long[256];
+		
+		void grow(int minLength) {
+			int length = Math.max(calls.length * 2, minLength);
+			calls = Arrays.copyOf(calls, length);
+			totalNanos = Arrays.copyOf(totalNanos, length);
+			windowStart = Arrays.copyOf(windowStart, length);
+		}
+		
+	}
+	
+}
\ No newline at end of file
@@ -0,0 +1,257 @@
+package edu.udo.cs.dynaliser;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import edu.udo.cs.dynalysis.JDynProcessor;
+
+/**
+ * A bounded first-in-first-out queue of finished {@link CallSequenceTree
+ * CallSequenceTrees} for a single {@link JDynProcessor}.<br>
+ * Each processor has its own pipeline so that a slow processor does not
+ * delay the others. The trees of a pipeline are processed by at most one
+ * worker of the {@link JDynProcessorThread} at a time, in the order in
+ * which they were queued. Processors do not need to be thread safe.<br>
+ * What happens if the queue is full is determined by the
+ * {@link JDynQueuePolicy}.<br>
+ */
+public class JDynProcessorPipeline {
+	
+	/**
+	 * The longest time the {@link JDynQueuePolicy#BLOCK} policy waits for 
+	 * room in the queue before the new tree is dropped.<br>
+	 */
+	private static final long MAX_BLOCK_NANOS = TimeUnit.SECONDS.toNanos(1);
+	
+	private final JDynProcessor proc;
+	private final JDynQueuePolicy policy;
+	private final ReentrantLock queueLock = new ReentrantLock();
+	private final Condition notFull = queueLock.newCondition();
+	// A ring of trees; guarded by queueLock
+	private final CallSequenceTree[] queue;
+	private int head;
+	private int count;
+	/**
+	 * The number of trees that arrived since the queue became full. Used
+	 * by the {@link JDynQueuePolicy#SAMPLE} policy.<br>
+	 */
+	private long overflowCount;
+	private final AtomicLong queuedCount = new AtomicLong();
+	private final AtomicLong droppedCount = new AtomicLong();
+	private final AtomicLong processedCount = new AtomicLong();
+	/**
+	 * The summed time processed trees waited in the queue and the summed 
+	 * time the processor took for them. Written by one worker at a time.<br>
+	 */
+	private final AtomicLong waitNanos = new AtomicLong();
+	private final AtomicLong processNanos = new AtomicLong();
+	/**
+	 * True while this pipeline waits for or is served by a worker. Guarded
+	 * by the lock of the {@link JDynProcessorThread}.<br>
+	 */
+	boolean scheduled;
+	
+	JDynProcessorPipeline(JDynProcessor processor, int capacity, JDynQueuePolicy queuePolicy) {
+		proc = processor;
+		policy = queuePolicy;
+		queue = new CallSequenceTree[Math.max(1, capacity)];
+	}
+	
+	/**
+	 * Adds seq to the end of the queue applying the {@link JDynQueuePolicy}
+	 * if the queue is full.<br>
+	 * @param seq		a finished tree
+	 * @return			true if the queue is not empty afterwards
+	 */
+	boolean offer(CallSequenceTree seq) {
+		queueLock.lock();
+		try {
+			if (count == queue.length) {
+				switch (policy) {
+				case BLOCK:
+					// A worker waiting for room in a queue might wait for itself
+					if (JDynProcessorThread.isWorker(Thread.currentThread())) {
+						droppedCount.incrementAndGet();
+						return true;
+					}
+					try {
+						long remaining = MAX_BLOCK_NANOS;
+						while (count == queue.length) {
+							if (remaining <= 0) {
+								droppedCount.incrementAndGet();
+								return true;
+							}
+							remaining = notFull.awaitNanos(remaining);
+						}
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						droppedCount.incrementAndGet();
+						return count > 0;
+					}
+					break;
+				case DROP_NEWEST:
+					droppedCount.incrementAndGet();
+					return true;
+				case DROP_OLDEST:
+					queue[head] = null;
+					head = (head + 1) % queue.length;
+					count--;
+					droppedCount.incrementAndGet();
+					break;
+				case SAMPLE:
+					// Reservoir sampling over all trees that arrived while the queue was full
+					overflowCount++;
+					long index = ThreadLocalRandom.current().nextLong(queue.length + overflowCount);
+					if (index < queue.length) {
+						queue[(head + (int) index) % queue.length] = seq;
+						queuedCount.incrementAndGet();
+					}
+					droppedCount.incrementAndGet();
+					return true;
+				}
+			} else {
+				overflowCount = 0;
+			}
+			queue[(head + count) % queue.length] = seq;
+			count++;
+			queuedCount.incrementAndGet();
+			return true;
+		} finally {
+			queueLock.unlock();
+		}
+	}
+	
+	/**
+	 * Removes and returns the oldest tree in the queue.<br>
+	 * @return		a tree or null if the queue is empty
+	 */
+	CallSequenceTree poll() {
+		queueLock.lock();
+		try {
+			if (count == 0) {
+				return null;
+			}
+			CallSequenceTree seq = queue[head];
+			queue[head] = null;
+			head = (head + 1) % queue.length;
+			count--;
+			notFull.signal();
+			return seq;
+		} finally {
+			queueLock.unlock();
+		}
+	}
+	
+	boolean isEmpty() {
+		queueLock.lock();
+		try {
+			return count == 0;
+		} finally {
+			queueLock.unlock();
+		}
+	}
+	
+	void process(CallSequenceTree seq) {
+		long startNanos = System.nanoTime();
+		try {
+			proc.processSequence(seq);
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		long endNanos = System.nanoTime();
+		waitNanos.addAndGet(startNanos - seq.getQueuedNanoTime());
+		processNanos.addAndGet(endNanos - startNanos);
+		processedCount.incrementAndGet();
+	}
+	
+	public JDynProcessor getProcessor() {
+		return proc;
+	}
+	
+	public JDynQueuePolicy getPolicy() {
+		return policy;
+	}
+	
+	/**
+	 * Returns the maximum number of trees that can wait in the queue.<br>
+	 * @return		a positive capacity
+	 */
+	public int getCapacity() {
+		return queue.length;
+	}
+	
+	/**
+	 * Returns the number of trees that are waiting in the queue right now.<br>
+	 * @return		the current queue depth
+	 */
+	public int getQueueDepth() {
+		queueLock.lock();
+		try {
+			return count;
+		} finally {
+			queueLock.unlock();
+		}
+	}
+	
+	/**
+	 * Returns the number of trees that were put into the queue so far.<br>
+	 * @return		the number of queued trees
+	 */
+	public long getQueuedCount() {
+		return queuedCount.get();
+	}
+	
+	/**
+	 * Returns the number of trees that were dropped because the queue was
+	 * full. Trees that were replaced by the {@link JDynQueuePolicy#SAMPLE}
+	 * policy count as dropped.<br>
+	 * @return		the number of dropped trees
+	 */
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+	
+	/**
+	 * Returns the number of trees that were passed to the processor.<br>
+	 * @return		the number of processed trees
+	 */
+	public long getProcessedCount() {
+		return processedCount.get();
+	}
+	
+	/**
+	 * Returns the average time the processed trees waited in the queue 
+	 * before they were passed to the processor.<br>
+	 * @return		the mean waiting time in nano seconds, 0 if nothing was processed
+	 */
+	public long getMeanWaitNanos() {
+		long processed = processedCount.get();
+		return processed == 0 ? 0 : waitNanos.get() / processed;
+	}
+	
+	/**
+	 * Returns the average time the processor took for a tree.<br>
+	 * @return		the mean processing time in nano seconds, 0 if nothing was processed
+	 */
+	public long getMeanProcessNanos() {
+		long processed = processedCount.get();
+		return processed == 0 ? 0 : processNanos.get() / processed;
+	}
+	
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(proc.getClass().getSimpleName());
+		sb.append("[depth=");
+		sb.append(getQueueDepth());
+		sb.append(", processed=");
+		sb.append(getProcessedCount());
+		sb.append(", dropped=");
+		sb.append(getDroppedCount());
+		sb.append("]");
+		return sb.toString();
+	}
+	
+}
\ No newline at end of file
@@ -1,87 +1,273 @@
 package edu.udo.cs.dynaliser;
 
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Deque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
 import edu.udo.cs.dynalysis.JDynProcessor;
 
+/**
+ * Passes finished {@link CallSequenceTree CallSequenceTrees} to the
+ * {@link JDynProcessor processors}.<br>
+ * Each processor has its own bounded {@link JDynProcessorPipeline}. The
+ * pipelines are served by a limited number of worker threads which are
+ * started when there is work and end when all pipelines are empty.<br>
+ */
 public class JDynProcessorThread {
 	
-	private final ReentrantLock seqsLock = new ReentrantLock();
-	private final ReentrantLock threadLock = new ReentrantLock();
+	/**
+	 * A worker processes at most this many trees of a pipeline before it
+	 * moves on to the next pipeline that has work.<br>
+	 */
+	private static final int MAX_BATCH_SIZE = 64;
+	private static final String WORKER_NAME_PREFIX = "JDynProcessor-";
+	
+	private final ReentrantLock workLock = new ReentrantLock();
+	private final Condition allIdle = workLock.newCondition();
 	private final JDynSettings settings;
-	private volatile Thread thread;
-	private Deque<CallSequenceTree> seqsToProcess;
-	private Collection<JDynProcessor> procs;
+	/**
+	 * Used to identify the objects of each sequence before it is processed.
+	 * Null if objects were identified while recording.<br>
+	 */
+	private final JDynIdentityTable deferredIdentityTable;
+	/**
+	 * The sequences whose objects were not identified yet in the order in 
+	 * which they were passed to {@link #process(CallSequenceTree)}. 
+	 * Sequences are identified in this order, one at a time while holding 
+	 * {@link #resolveLock}, no matter which worker reaches them first, so 
+	 * that ids are given out deterministically.<br>
+	 * Trees which were dropped by all pipelines stay in this queue since 
+	 * later ids depend on them. The queue holds at most 
+	 * {@link #maxUnresolved} trees; the oldest trees beyond that are 
+	 * identified by the thread that queues a new tree.<br>
+	 */
+	private final Queue<CallSequenceTree> unresolvedSeqs = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger unresolvedCount = new AtomicInteger();
+	private final int maxUnresolved;
+	private final Object resolveLock = new Object();
+	private final Collection<JDynProcessor> procs;
+	private final List<JDynProcessorPipeline> pipelines;
+	// Pipelines which have work but no worker; guarded by workLock
+	private final Deque<JDynProcessorPipeline> readyPipelines = new ArrayDeque<>();
+	private final int maxWorkers;
+	// Guarded by workLock
+	private int workerCount;
 	
-	public JDynProcessorThread(JDynSettings settings) {
+	/**
+	 * @param settings			must be non-null
+	 * @param identityTable		if non-null, the objects of each sequence are
+	 * 							identified with this table before it is processed
+	 */
+	public JDynProcessorThread(JDynSettings settings, JDynIdentityTable identityTable) {
 		if (settings == null) {
 			throw new IllegalArgumentException("settings == null || !settings.hasProcessors()");
 		}
 		this.settings = settings;
+		deferredIdentityTable = identityTable;
+		// Created right away so usesValues() can be answered before the first event
+		if (settings.hasProcessors()) {
+			procs = settings.createProcessors();
+		} else {
+			procs = Collections.emptyList();
+		}
+		List<JDynProcessorPipeline> pipelineList = new ArrayList<>(procs.size());
+		for (JDynProcessor proc : procs) {
+			pipelineList.add(new JDynProcessorPipeline(proc,
+					settings.getPipelineCapacity(), settings.getPipelinePolicy()));
+		}
+		pipelines = Collections.unmodifiableList(pipelineList);
+		if (settings.getProcessorWorkers() > 0) {
+			maxWorkers = settings.getProcessorWorkers();
+		} else {
+			maxWorkers = Math.max(1, pipelines.size());
+		}
+		// Every tree that a pipeline still holds or a worker is about to process
+		long capacity = maxWorkers;
+		for (JDynProcessorPipeline pipeline : pipelines) {
+			capacity += pipeline.getCapacity();
+		}
+		maxUnresolved = (int) Math.min(Integer.MAX_VALUE, capacity);
+	}
+	
+	/**
+	 * Returns true if any of the processors uses parameters or returned
+	 * values.<br>
+	 * @see JDynProcessor#usesValues()
+	 */
+	public boolean usesValues() {
+		for (JDynProcessor proc : procs) {
+			if (proc.usesValues()) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	/**
+	 * Returns the pipelines of all processors. The pipelines can be used to
+	 * monitor queue depths and dropped trees.<br>
+	 * @return		an unmodifiable list with one pipeline per processor
+	 */
+	public List<JDynProcessorPipeline> getPipelines() {
+		return pipelines;
 	}
 	
 	public void process(CallSequenceTree seq) {
 		if (!settings.hasProcessors()) {
 			return;
 		}
-		seqsLock.lock();
+		seq.setQueuedNanoTime(System.nanoTime());
+		if (deferredIdentityTable != null) {
+			unresolvedSeqs.add(seq);
+			if (unresolvedCount.incrementAndGet() > maxUnresolved) {
+				resolveOverflow();
+			}
+		}
+		for (JDynProcessorPipeline pipeline : pipelines) {
+			if (pipeline.offer(seq)) {
+				schedule(pipeline);
+			}
+		}
+	}
+	
+	/**
+	 * Waits until all queued trees were processed or the timeout elapsed.<br>
+	 * @param timeoutMillis		the maximum time to wait in milliseconds
+	 * @return					true if all pipelines are empty and idle
+	 */
+	public boolean awaitIdle(long timeoutMillis) {
+		long remaining = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		workLock.lock();
 		try {
-			lazyInitializeStack();
-			seqsToProcess.push(seq);
+			while (workerCount > 0) {
+				if (remaining <= 0) {
+					return false;
+				}
+				remaining = allIdle.awaitNanos(remaining);
+			}
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
 		} finally {
-			seqsLock.unlock();
+			workLock.unlock();
 		}
-		threadLock.lock();
+	}
+	
+	/**
+	 * Returns true if thread is a worker which serves the pipelines.<br>
+	 */
+	static boolean isWorker(Thread thread) {
+		return thread.getName().startsWith(WORKER_NAME_PREFIX);
+	}
+	
+	private void schedule(JDynProcessorPipeline pipeline) {
+		workLock.lock();
 		try {
-			if (thread == null) {
-				// This thread should NOT be a demon thread,
-				// it may have to run after the instrumented program has finished
-				thread = new Thread(() -> threadRun());
-				thread.start();
+			if (pipeline.scheduled) {
+				return;
+			}
+			pipeline.scheduled = true;
+			readyPipelines.add(pipeline);
+			if (workerCount < maxWorkers) {
+				workerCount++;
+				// Workers should NOT be demon threads,
+				// they may have to run after the instrumented program has finished
+				Thread worker = new Thread(() -> workerRun(), WORKER_NAME_PREFIX+workerCount);
+				worker.start();
 			}
 		} finally {
-			threadLock.unlock();
+			workLock.unlock();
 		}
 	}
 	
-	private void lazyInitializeStack() {
-		if (seqsToProcess == null) {
-			seqsToProcess = new ArrayDeque<>();
+	/**
+	 * Identifies the objects of seq and of all sequences which were passed 
+	 * to {@link #process(CallSequenceTree)} before it. Sequences which were 
+	 * dropped by all pipelines are identified as well since later ids 
+	 * depend on them.<br>
+	 */
+	private void resolveIdentities(CallSequenceTree seq) {
+		synchronized (resolveLock) {
+			while (!seq.isIdentitiesResolved()) {
+				CallSequenceTree next = unresolvedSeqs.poll();
+				if (next == null) {
+					// Not reached; seq is queued before it is offered to the pipelines
+					seq.resolveIdentities(deferredIdentityTable);
+					break;
+				}
+				unresolvedCount.decrementAndGet();
+				next.resolveIdentities(deferredIdentityTable);
+			}
 		}
 	}
 	
-	private void lazyInitializeProcessors() {
-		if (procs == null) {
-			procs = settings.createProcessors();
+	/**
+	 * Identifies the oldest queued sequences until no more than 
+	 * {@link #maxUnresolved} are left. Only happens if trees were dropped, 
+	 * the pipelines can not hold more trees than that. The identified 
+	 * sequences are released unless a pipeline still holds them.<br>
+	 */
+	private void resolveOverflow() {
+		synchronized (resolveLock) {
+			while (unresolvedCount.get() > maxUnresolved) {
+				CallSequenceTree next = unresolvedSeqs.poll();
+				if (next == null) {
+					break;
+				}
+				unresolvedCount.decrementAndGet();
+				next.resolveIdentities(deferredIdentityTable);
+			}
 		}
 	}
 	
-	private void threadRun() {
+	private void workerRun() {
 		while (true) {
-			CallSequenceTree seq;
-			seqsLock.lock();
+			JDynProcessorPipeline pipeline;
+			workLock.lock();
 			try {
-				seq = seqsToProcess.poll();
+				pipeline = readyPipelines.poll();
+				if (pipeline == null) {
+					workerCount--;
+					if (workerCount == 0) {
+						allIdle.signalAll();
+					}
+					return;
+				}
 			} finally {
-				seqsLock.unlock();
+				workLock.unlock();
 			}
-			if (seq == null) {
-				break;
+			for (int i = 0; i < MAX_BATCH_SIZE; i++) {
+				CallSequenceTree seq = pipeline.poll();
+				if (seq == null) {
+					break;
+				}
+				if (deferredIdentityTable != null) {
+					resolveIdentities(seq);
+				}
+				pipeline.process(seq);
 			}
-			lazyInitializeProcessors();
-			for (JDynProcessor proc : procs) {
-				proc.processSequence(seq);
+			workLock.lock();
+			try {
+				// A tree offered after this check schedules the pipeline again
+				if (pipeline.isEmpty()) {
+					pipeline.scheduled = false;
+				} else {
+					readyPipelines.add(pipeline);
+				}
+			} finally {
+				workLock.unlock();
 			}
 		}
-		threadLock.lock();
-		try {
-			thread = null;
-		} finally {
-			threadLock.unlock();
-		}
 	}
 	
 }
\ No newline at end of file
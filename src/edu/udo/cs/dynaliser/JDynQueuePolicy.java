@@ -0,0 +1,54 @@
+package edu.udo.cs.dynaliser;
+
+/**
+ * Determines what a {@link JDynProcessorPipeline} does with a finished
+ * {@link CallSequenceTree} when its queue is full.<br>
+ */
+public enum JDynQueuePolicy {
+	
+	/**
+	 * The recording thread waits until there is room in the queue. A slow 
+	 * processor slows down the instrumented program. This is the default.<br>
+	 * The recording thread waits at most one second, then the new tree is 
+	 * dropped. Trees finished by a worker of the {@link JDynProcessorThread}, 
+	 * for example because a processor runs instrumented code, are dropped 
+	 * right away since the worker might have to empty the queue itself.<br>
+	 */
+	BLOCK,
+	/**
+	 * The new tree is dropped.<br>
+	 */
+	DROP_NEWEST,
+	/**
+	 * The oldest queued tree is dropped to make room for the new tree.<br>
+	 */
+	DROP_OLDEST,
+	/**
+	 * The new tree replaces a random queued tree or is dropped so that the
+	 * queue holds a uniform sample of all trees that arrived while it was
+	 * full. Replaced trees keep the position of the tree they replaced.<br>
+	 */
+	SAMPLE,
+	;
+	
+	/**
+	 * Returns the policy with the given name ignoring case or defaultPolicy
+	 * if there is no policy with the given name.<br>
+	 * @param name				the name of a policy, may be null or empty
+	 * @param defaultPolicy		returned if name is not a valid name
+	 * @return					a policy or defaultPolicy
+	 */
+	public static JDynQueuePolicy parse(String name, JDynQueuePolicy defaultPolicy) {
+		if (name == null || name.isEmpty()) {
+			return defaultPolicy;
+		}
+		for (JDynQueuePolicy policy : values()) {
+			if (policy.name().equalsIgnoreCase(name.trim())) {
+				return policy;
+			}
+		}
+		System.err.println("JDyn Error: Illegal queue policy '"+name+"'");
+		return defaultPolicy;
+	}
+	
+}
\ No newline at end of file
@@ -0,0 +1,60 @@
+package edu.udo.cs.dynaliser;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Records the methods whose probes were removed while the program was 
+ * running because they cost too much compared to the methods themselves.<br>
+ * Reports can use this to show that a method was excluded from the 
+ * analysis after some point and that its numbers are incomplete.<br>
+ * @see JDynSettings#getProbeOverheadPercent()
+ */
+public class JDynRemovedProbes {
+	
+	/**
+	 * Maps method ids of the {@link JDynMethodRegistry} to the reason why 
+	 * their probes were removed.<br>
+	 */
+	private static final Map<Integer, String> reasons = new ConcurrentHashMap<>();
+	
+	private JDynRemovedProbes() {}
+	
+	/**
+	 * Records that the probes of the method are removed.<br>
+	 * @return		false if the probes were removed before
+	 */
+	static boolean record(int methodID, String reason) {
+		return reasons.putIfAbsent(Integer.valueOf(methodID), reason) == null;
+	}
+	
+	/**
+	 * Returns true if the probes of the method were removed.<br>
+	 * @param methodID		an id of the {@link JDynMethodRegistry}
+	 * @return				true if the method is not recorded anymore
+	 */
+	public static boolean isRemoved(int methodID) {
+		return reasons.containsKey(Integer.valueOf(methodID));
+	}
+	
+	/**
+	 * Returns a description of why the probes of the method were removed.<br>
+	 * @param methodID		an id of the {@link JDynMethodRegistry}
+	 * @return				a human readable reason or null if the probes 
+	 * 						were not removed
+	 */
+	public static String getReason(int methodID) {
+		return reasons.get(Integer.valueOf(methodID));
+	}
+	
+	/**
+	 * Returns the ids of all methods whose probes were removed together 
+	 * with the reason.<br>
+	 * @return		an unmodifiable view of the removed methods
+	 */
+	public static Map<Integer, String> getRemovedMethods() {
+		return Collections.unmodifiableMap(reasons);
+	}
+	
+}
\ No newline at end of file
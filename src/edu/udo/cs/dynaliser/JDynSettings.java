@@ -19,6 +19,7 @@ public class JDynSettings {
 	 */
 	private static final String PREFERENCE_KEYWORD_COUNT_INCLUDED = "countInc";
 	private static final String PREFERENCE_KEYWORD_INCLUDED = "inc";
+	private static final String PREFERENCE_KEYWORD_INCLUDED_CAPTURE = "incCapture";
 	private static final String PREFERENCE_KEYWORD_COUNT_EXCLUDED = "countExc";
 	private static final String PREFERENCE_KEYWORD_EXCLUDED = "exc";
 	private static final String PREFERENCE_KEYWORD_COUNT_METHOD = "countMtd";
@@ -30,20 +31,58 @@ public class JDynSettings {
 	private static final String PREFERENCE_KEYWORD_OBSERVER = "obs";
 	private static final String PREFERENCE_KEYWORD_OBSERVER_ARGS = "obsArgs";
 	private static final String PREFERENCE_KEYWORD_NO_IDENTIFY = "noIdentify";
+	private static final String PREFERENCE_KEYWORD_DEFER_IDENTIFY = "deferIdentify";
+	private static final String PREFERENCE_KEYWORD_CAPTURE_LEVEL = "captureLevel";
+	private static final String PREFERENCE_KEYWORD_SAMPLE_EVERY = "sampleEvery";
+	private static final String PREFERENCE_KEYWORD_SAMPLES_PER_SECOND = "samplesPerSecond";
+	private static final String PREFERENCE_KEYWORD_EVENT_BUFFER = "eventBuffer";
+	private static final String PREFERENCE_KEYWORD_EVENT_BUFFER_DIRECT = "eventBufferDirect";
+	private static final String PREFERENCE_KEYWORD_EVENT_BUFFER_RECORDS = "eventBufferRecords";
+	private static final String PREFERENCE_KEYWORD_TREE_EVENT_LIMIT = "treeEventLimit";
+	private static final String PREFERENCE_KEYWORD_TREE_BYTE_LIMIT = "treeByteLimit";
+	private static final String PREFERENCE_KEYWORD_PROCESSOR_WORKERS = "procWorkers";
+	private static final String PREFERENCE_KEYWORD_PIPELINE_CAPACITY = "pipelineCapacity";
+	private static final String PREFERENCE_KEYWORD_PIPELINE_POLICY = "pipelinePolicy";
+	private static final String PREFERENCE_KEYWORD_OBSERVER_ASYNC = "obsAsync";
+	private static final String PREFERENCE_KEYWORD_OBSERVER_BUFFER_SIZE = "obsBufferSize";
+	private static final String PREFERENCE_KEYWORD_CACHE_DIR = "cacheDir";
+	private static final String PREFERENCE_KEYWORD_CACHE_MAX_MEGABYTES = "cacheMaxMB";
+	private static final String PREFERENCE_KEYWORD_PROBE_OVERHEAD_PERCENT = "probeOverheadPercent";
+	private static final String PREFERENCE_KEYWORD_PROBE_MIN_CALLS = "probeMinCalls";
+	private static final String PREFERENCE_KEYWORD_PROBE_MIN_CALLS_PER_SECOND = "probeMinRate";
+	private static final String PREFERENCE_KEYWORD_PROBE_NANOS = "probeNanos";
+	private static final String PREFERENCE_KEYWORD_DRILL_DOWN_MICROS = "drillDownMicros";
+	private static final String PREFERENCE_KEYWORD_DRILL_DOWN_PUBLIC = "drillDownPublic";
+	private static final String PREFERENCE_KEYWORD_COUNT_DRILL_DOWN_ROOT = "countDrillDownRoot";
+	private static final String PREFERENCE_KEYWORD_DRILL_DOWN_ROOT = "drillDownRoot";
 	private static final String PREFERENCE_KEYWORD_DEBUG = "debug";
 	
 	/**
-	 * Prefixes of classes that should be included in the analysis.
+	 * Prefixes or {@link JDynNameMatcher patterns} of classes that should be 
+	 * included in the analysis.
 	 */
 	private final String[] incPrefixes;
 	/**
-	 * Prefixes of classes that should be excluded from the analysis.
+	 * The capture level for each included prefix. An element is null if 
+	 * the {@link #captureLevel default level} should be used.<br>
+	 */
+	private final JDynCaptureLevel[] incCaptureLevels;
+	/**
+	 * Prefixes or {@link JDynNameMatcher patterns} of classes that should be 
+	 * excluded from the analysis.
 	 */
 	private final String[] excPrefixes;
 	/**
-	 * Prefixes of methods that should be excluded from the analysis.
+	 * Signatures or {@link JDynNameMatcher patterns} of methods that should 
+	 * be excluded from the analysis.
 	 */
 	private final String[] excMethods;
+	/*
+	 * The above patterns compiled for fast matching.
+	 */
+	private final JDynNameMatcher incMatcher;
+	private final JDynNameMatcher excMatcher;
+	private final JDynNameMatcher excMethodMatcher;
 	/**
 	 * Full class name and args String for all {@link JDynProcessor processors}.
 	 */
@@ -53,6 +92,90 @@ public class JDynSettings {
 	 */
 	private final ClassAndArgs[] obsClasses;
 	private final boolean noIdentify;
+	/**
+	 * If true objects are identified by the {@link JDynProcessorThread} 
+	 * instead of the instrumented thread.<br>
+	 */
+	private final boolean deferIdentify;
+	/**
+	 * Used for all included classes which do not have their own level.<br>
+	 */
+	private final JDynCaptureLevel captureLevel;
+	/**
+	 * Only every n-th root invocation of a thread is recorded.<br>
+	 */
+	private final int sampleEvery;
+	/**
+	 * At most this many root invocations are recorded per second over 
+	 * all threads. Zero if not limited.<br>
+	 */
+	private final int samplesPerSecond;
+	/**
+	 * If true events are recorded into a {@link JDynEventBuffer} per thread 
+	 * instead of as objects, if possible.<br>
+	 */
+	private final boolean eventBuffer;
+	private final boolean eventBufferDirect;
+	private final int eventBufferRecords;
+	/**
+	 * If more events than this ended in a {@link CallSequenceTree} since 
+	 * its subtrees were detached last, its completed subtrees are processed 
+	 * as partial trees. Zero if not limited.<br>
+	 */
+	private final int treeEventLimit;
+	/**
+	 * Like {@link #treeEventLimit} for the estimated memory of a tree in 
+	 * bytes.<br>
+	 */
+	private final int treeByteLimit;
+	/**
+	 * The maximum number of threads that run {@link JDynProcessor processors}. 
+	 * Zero for one thread per processor.<br>
+	 */
+	private final int procWorkers;
+	/**
+	 * The number of trees that can wait for each processor.<br>
+	 */
+	private final int pipelineCapacity;
+	private final JDynQueuePolicy pipelinePolicy;
+	/**
+	 * If true {@link JDynObserver observers} are notified on a thread of 
+	 * their own.<br>
+	 */
+	private final boolean obsAsync;
+	private final int obsBufferSize;
+	/**
+	 * The directory of the {@link JDynBytecodeCache}. Empty if instrumented 
+	 * byte code is not cached.<br>
+	 */
+	private final String cacheDir;
+	private final int cacheMaxMegabytes;
+	/**
+	 * The probes of a method are removed if their estimated cost is more 
+	 * than this percentage of the mean duration of the method. Zero if 
+	 * probes are never removed.<br>
+	 */
+	private final int probeOverheadPercent;
+	private final int probeMinCalls;
+	private final int probeMinCallsPerSecond;
+	/**
+	 * The estimated cost of the probes of a single invocation in nano 
+	 * seconds.<br>
+	 */
+	private final int probeNanos;
+	/**
+	 * If greater than 0 only entry points are instrumented at first. The 
+	 * callees of each invocation that takes longer than this many micro 
+	 * seconds are instrumented as well.<br>
+	 */
+	private final int drillDownMicros;
+	private final boolean drillDownPublic;
+	/**
+	 * Signatures or {@link JDynNameMatcher patterns} of methods that are 
+	 * entry points in the drill down mode.<br>
+	 */
+	private final String[] drillDownRoots;
+	private final JDynNameMatcher drillDownRootMatcher;
 	private boolean debug;
 	
 	/**
@@ -62,9 +185,12 @@ public class JDynSettings {
 	public JDynSettings(Preferences prefs) {
 		int countInc = prefs.getInt(PREFERENCE_KEYWORD_COUNT_INCLUDED, 0);
 		incPrefixes = new String[countInc];
+		incCaptureLevels = new JDynCaptureLevel[countInc];
 		for (int i = 0; i < countInc; i++) {
 			String incClsName = prefs.get(PREFERENCE_KEYWORD_INCLUDED + i, null);
 			incPrefixes[i] = incClsName;
+			String incCapture = prefs.get(PREFERENCE_KEYWORD_INCLUDED_CAPTURE + i, null);
+			incCaptureLevels[i] = JDynCaptureLevel.parse(incCapture, null);
 		}
 		
 		int countExc = prefs.getInt(PREFERENCE_KEYWORD_COUNT_EXCLUDED, 0);
@@ -80,6 +206,9 @@ public class JDynSettings {
 			String excMtdName = prefs.get(PREFERENCE_KEYWORD_METHOD + i, null);
 			excMethods[i] = excMtdName;
 		}
+		incMatcher = new JDynNameMatcher(incPrefixes, true);
+		excMatcher = new JDynNameMatcher(excPrefixes, true);
+		excMethodMatcher = new JDynNameMatcher(excMethods, false);
 		
 		int countProc = prefs.getInt(PREFERENCE_KEYWORD_COUNT_PROCESSOR, 0);
 		procClasses = new ClassAndArgs[countProc];
@@ -100,6 +229,36 @@ public class JDynSettings {
 		extractClasses(obsClasses);
 		
 		noIdentify = prefs.getBoolean(PREFERENCE_KEYWORD_NO_IDENTIFY, false);
+		deferIdentify = prefs.getBoolean(PREFERENCE_KEYWORD_DEFER_IDENTIFY, false);
+		captureLevel = JDynCaptureLevel.parse(
+				prefs.get(PREFERENCE_KEYWORD_CAPTURE_LEVEL, null), JDynCaptureLevel.FULL);
+		sampleEvery = prefs.getInt(PREFERENCE_KEYWORD_SAMPLE_EVERY, 1);
+		samplesPerSecond = prefs.getInt(PREFERENCE_KEYWORD_SAMPLES_PER_SECOND, 0);
+		eventBuffer = prefs.getBoolean(PREFERENCE_KEYWORD_EVENT_BUFFER, false);
+		eventBufferDirect = prefs.getBoolean(PREFERENCE_KEYWORD_EVENT_BUFFER_DIRECT, false);
+		eventBufferRecords = prefs.getInt(PREFERENCE_KEYWORD_EVENT_BUFFER_RECORDS, 1024);
+		treeEventLimit = prefs.getInt(PREFERENCE_KEYWORD_TREE_EVENT_LIMIT, 0);
+		treeByteLimit = prefs.getInt(PREFERENCE_KEYWORD_TREE_BYTE_LIMIT, 0);
+		procWorkers = prefs.getInt(PREFERENCE_KEYWORD_PROCESSOR_WORKERS, 0);
+		pipelineCapacity = prefs.getInt(PREFERENCE_KEYWORD_PIPELINE_CAPACITY, 4096);
+		pipelinePolicy = JDynQueuePolicy.parse(
+				prefs.get(PREFERENCE_KEYWORD_PIPELINE_POLICY, null), JDynQueuePolicy.BLOCK);
+		obsAsync = prefs.getBoolean(PREFERENCE_KEYWORD_OBSERVER_ASYNC, false);
+		obsBufferSize = prefs.getInt(PREFERENCE_KEYWORD_OBSERVER_BUFFER_SIZE, 4096);
+		cacheDir = prefs.get(PREFERENCE_KEYWORD_CACHE_DIR, "");
+		cacheMaxMegabytes = prefs.getInt(PREFERENCE_KEYWORD_CACHE_MAX_MEGABYTES, 64);
+		probeOverheadPercent = prefs.getInt(PREFERENCE_KEYWORD_PROBE_OVERHEAD_PERCENT, 0);
+		probeMinCalls = prefs.getInt(PREFERENCE_KEYWORD_PROBE_MIN_CALLS, 10000);
+		probeMinCallsPerSecond = prefs.getInt(PREFERENCE_KEYWORD_PROBE_MIN_CALLS_PER_SECOND, 1000);
+		probeNanos = prefs.getInt(PREFERENCE_KEYWORD_PROBE_NANOS, 50);
+		drillDownMicros = prefs.getInt(PREFERENCE_KEYWORD_DRILL_DOWN_MICROS, 0);
+		drillDownPublic = prefs.getBoolean(PREFERENCE_KEYWORD_DRILL_DOWN_PUBLIC, true);
+		int countRoot = prefs.getInt(PREFERENCE_KEYWORD_COUNT_DRILL_DOWN_ROOT, 0);
+		drillDownRoots = new String[countRoot];
+		for (int i = 0; i < countRoot; i++) {
+			drillDownRoots[i] = prefs.get(PREFERENCE_KEYWORD_DRILL_DOWN_ROOT + i, null);
+		}
+		drillDownRootMatcher = new JDynNameMatcher(drillDownRoots, false);
 		debug = prefs.getBoolean(PREFERENCE_KEYWORD_DEBUG, false);
 	}
 	
@@ -108,19 +267,71 @@ public class JDynSettings {
 w	 */
 	protected JDynSettings(
 			String[] includedClasses,
+			JDynCaptureLevel[] includedCaptureLevels,
 			String[] excludedClasses,
 			String[] excludedMethods,
 			ClassAndArgs[] processorClasses,
 			ClassAndArgs[] observerClasses,
 			boolean identifyObjects,
+			boolean deferIdentification,
+			JDynCaptureLevel defaultCaptureLevel,
+			int sampleEveryRoot,
+			int sampledRootsPerSecond,
+			boolean useEventBuffer,
+			boolean eventBufferOffHeap,
+			int eventBufferInitialRecords,
+			int maxEventsPerTree,
+			int maxBytesPerTree,
+			int processorWorkers,
+			int queueCapacity,
+			JDynQueuePolicy queuePolicy,
+			boolean asyncObservers,
+			int observerBufferSize,
+			String bytecodeCacheDir,
+			int bytecodeCacheMaxMegabytes,
+			int maxProbeOverheadPercent,
+			int minCallsBeforeRemoval,
+			int minCallsPerSecondForRemoval,
+			int estimatedProbeNanos,
+			int drillDownThresholdMicros,
+			boolean publicEntryPoints,
+			String[] entryPointMethods,
 			boolean debugMode)
 	{
 		incPrefixes = includedClasses;
+		incCaptureLevels = includedCaptureLevels;
 		excPrefixes = excludedClasses;
 		excMethods = excludedMethods;
+		incMatcher = new JDynNameMatcher(incPrefixes, true);
+		excMatcher = new JDynNameMatcher(excPrefixes, true);
+		excMethodMatcher = new JDynNameMatcher(excMethods, false);
 		procClasses = processorClasses;
 		obsClasses = observerClasses;
 		noIdentify = !identifyObjects;
+		deferIdentify = deferIdentification;
+		captureLevel = defaultCaptureLevel;
+		sampleEvery = sampleEveryRoot;
+		samplesPerSecond = sampledRootsPerSecond;
+		eventBuffer = useEventBuffer;
+		eventBufferDirect = eventBufferOffHeap;
+		eventBufferRecords = eventBufferInitialRecords;
+		treeEventLimit = maxEventsPerTree;
+		treeByteLimit = maxBytesPerTree;
+		procWorkers = processorWorkers;
+		pipelineCapacity = queueCapacity;
+		pipelinePolicy = queuePolicy;
+		obsAsync = asyncObservers;
+		obsBufferSize = observerBufferSize;
+		cacheDir = bytecodeCacheDir;
+		cacheMaxMegabytes = bytecodeCacheMaxMegabytes;
+		probeOverheadPercent = maxProbeOverheadPercent;
+		probeMinCalls = minCallsBeforeRemoval;
+		probeMinCallsPerSecond = minCallsPerSecondForRemoval;
+		probeNanos = estimatedProbeNanos;
+		drillDownMicros = drillDownThresholdMicros;
+		drillDownPublic = publicEntryPoints;
+		drillDownRoots = entryPointMethods;
+		drillDownRootMatcher = new JDynNameMatcher(drillDownRoots, false);
 		debug = debugMode;
 		extractClasses(procClasses);
 		extractClasses(obsClasses);
@@ -138,6 +349,268 @@ w	 */
 		return noIdentify;
 	}
 	
+	/**
+	 * Returns true if objects should be identified when a finished 
+	 * {@link CallSequenceTree} is processed rather than when the events 
+	 * are recorded.<br>
+	 * @return		true if object identification is deferred
+	 */
+	public boolean isDeferIdentify() {
+		return deferIdentify;
+	}
+	
+	/**
+	 * Returns the capture level used for classes that are included by a 
+	 * prefix without a level of its own.<br>
+	 * @return		a non-null {@link JDynCaptureLevel}
+	 */
+	public JDynCaptureLevel getDefaultCaptureLevel() {
+		return captureLevel;
+	}
+	
+	/**
+	 * Returns the capture level for the class with the given name. This is 
+	 * the level of the first included prefix that matches the class name or 
+	 * the {@link #getDefaultCaptureLevel() default level} if the prefix does 
+	 * not specify a level.<br>
+	 * @param className			the full name of an included class; packages 
+	 * 							may be separated by '.' or '/'
+	 * @return					a non-null {@link JDynCaptureLevel}
+	 */
+	public JDynCaptureLevel getCaptureLevel(String className) {
+		int index = incMatcher.firstMatch(className);
+		if (index >= 0 && incCaptureLevels[index] != null) {
+			return incCaptureLevels[index];
+		}
+		return captureLevel;
+	}
+	
+	/**
+	 * Returns n if only every n-th root invocation of each thread should be 
+	 * recorded. A value of 1 or less means every root invocation is recorded.<br>
+	 * @return		the sampling count
+	 */
+	public int getSampleEvery() {
+		return sampleEvery;
+	}
+	
+	/**
+	 * Returns the maximum number of root invocations that should be recorded 
+	 * per second. A value of 0 or less means there is no limit.<br>
+	 * @return		the sampling rate
+	 */
+	public int getSamplesPerSecond() {
+		return samplesPerSecond;
+	}
+	
+	/**
+	 * Returns true if events should be recorded into a {@link JDynEventBuffer} 
+	 * instead of as {@link CstEvent} objects. The buffer can not be used if 
+	 * there are observers or if parameters and returned values are needed.<br>
+	 * @return		true if the event buffer was requested
+	 */
+	public boolean isEventBuffer() {
+		return eventBuffer;
+	}
+	
+	/**
+	 * Returns true if the records of the {@link JDynEventBuffer} should be 
+	 * stored off the heap.<br>
+	 * @return		true for direct buffers
+	 */
+	public boolean isEventBufferDirect() {
+		return eventBufferDirect;
+	}
+	
+	/**
+	 * Returns the number of records a new {@link JDynEventBuffer} can hold 
+	 * before it needs to grow.<br>
+	 * @return		the initial number of records per buffer
+	 */
+	public int getEventBufferRecords() {
+		return eventBufferRecords;
+	}
+	
+	/**
+	 * Returns the maximum number of completed events a 
+	 * {@link CallSequenceTree} may hold before they are detached and 
+	 * processed as partial trees. Events which have not ended yet are not 
+	 * counted. A value of 0 or less means there is no limit.<br>
+	 * @return		the event limit per tree
+	 */
+	public int getTreeEventLimit() {
+		return treeEventLimit;
+	}
+	
+	/**
+	 * Returns the maximum estimated size of the completed events of a 
+	 * {@link CallSequenceTree} in bytes before they are detached and 
+	 * processed as partial trees. A value of 0 or less means there is no 
+	 * limit.<br>
+	 * @return		the byte limit per tree
+	 */
+	public int getTreeByteLimit() {
+		return treeByteLimit;
+	}
+	
+	/**
+	 * Returns the maximum number of threads that pass trees to the 
+	 * {@link JDynProcessor processors}. A value of 0 or less means one 
+	 * thread per processor.<br>
+	 * @return		the number of processor workers
+	 */
+	public int getProcessorWorkers() {
+		return procWorkers;
+	}
+	
+	/**
+	 * Returns the number of finished trees that can wait for each 
+	 * {@link JDynProcessor} before the {@link #getPipelinePolicy() policy} 
+	 * is applied.<br>
+	 * @return		the capacity of each {@link JDynProcessorPipeline}
+	 */
+	public int getPipelineCapacity() {
+		return pipelineCapacity;
+	}
+	
+	/**
+	 * Returns what happens to finished trees if a processor can not keep up.<br>
+	 * @return		a non-null {@link JDynQueuePolicy}
+	 */
+	public JDynQueuePolicy getPipelinePolicy() {
+		return pipelinePolicy;
+	}
+	
+	/**
+	 * Returns true if {@link JDynObserver observers} should be notified on 
+	 * a thread of their own through {@link JDynObserver#onEvents(List, boolean[])}.<br>
+	 * @return		true for asynchronous notifications
+	 */
+	public boolean isObserverAsync() {
+		return obsAsync;
+	}
+	
+	/**
+	 * Returns the number of notifications each thread can buffer for the 
+	 * observers if they are notified asynchronously. Further notifications 
+	 * are dropped until the buffer was drained.<br>
+	 * @return		the buffer size per thread
+	 */
+	public int getObserverBufferSize() {
+		return obsBufferSize;
+	}
+	
+	/**
+	 * Returns the directory in which instrumented byte code is cached 
+	 * between runs.<br>
+	 * @return		a directory path or an empty String if there is no cache
+	 */
+	public String getBytecodeCacheDir() {
+		return cacheDir;
+	}
+	
+	/**
+	 * Returns the maximum size of the byte code cache in mega bytes.<br>
+	 * @return		the size limit of the cache
+	 */
+	public int getBytecodeCacheMaxMegabytes() {
+		return cacheMaxMegabytes;
+	}
+	
+	/**
+	 * Returns the maximum cost of the probes of a method in percent of the 
+	 * mean duration of the method. If the probes of a frequently called 
+	 * method cost more they are removed by the {@link JDynProbeTuner}. A 
+	 * value of 0 or less means probes are never removed.<br>
+	 * @return		the maximum probe overhead in percent
+	 */
+	public int getProbeOverheadPercent() {
+		return probeOverheadPercent;
+	}
+	
+	/**
+	 * Returns the number of calls of a method that are measured before it 
+	 * is decided whether its probes are removed.<br>
+	 * @return		the minimum number of calls
+	 */
+	public int getProbeMinCalls() {
+		return probeMinCalls;
+	}
+	
+	/**
+	 * Returns the number of calls per second above which a method is 
+	 * considered hot. The probes of other methods are never removed.<br>
+	 * @return		the minimum call rate
+	 */
+	public int getProbeMinCallsPerSecond() {
+		return probeMinCallsPerSecond;
+	}
+	
+	/**
+	 * Returns the estimated cost of the probes of a single invocation.<br>
+	 * @return		the probe cost in nano seconds
+	 */
+	public int getProbeNanos() {
+		return probeNanos;
+	}
+	
+	/**
+	 * Returns the latency in micro seconds above which the callees of a 
+	 * method are instrumented in the drill down mode. A value of 0 or less 
+	 * means that all included methods are instrumented right away.<br>
+	 * @return		the drill down threshold in micro seconds
+	 */
+	public int getDrillDownMicros() {
+		return drillDownMicros;
+	}
+	
+	/**
+	 * Returns true if all public methods of included classes are entry 
+	 * points in the drill down mode. Otherwise only the methods matched by 
+	 * {@link #getDrillDownRoots()} are entry points.<br>
+	 * @return		true if public methods are entry points
+	 */
+	public boolean isDrillDownPublic() {
+		return drillDownPublic;
+	}
+	
+	/**
+	 * Returns the signatures or patterns of the methods which are entry 
+	 * points in the drill down mode in addition to the public methods.<br>
+	 * @return		a non-null array
+	 */
+	public String[] getDrillDownRoots() {
+		return drillDownRoots.clone();
+	}
+	
+	/**
+	 * Returns true if the method with the given signature is matched by one 
+	 * of the {@link #getDrillDownRoots() drill down roots}.<br>
+	 * @param methodSignature	the full signature of the method including the
+	 * 							full name of the enclosing class
+	 * @return					true if the method is an entry point
+	 */
+	public boolean isDrillDownRoot(String methodSignature) {
+		return drillDownRootMatcher.matchesAny(methodSignature);
+	}
+	
+	/**
+	 * Returns a String that changes whenever a setting changes which 
+	 * influences the code injected into a class, except for the capture 
+	 * level of the class. Used to key the {@link JDynBytecodeCache}.<br>
+	 * @return		a non-null String
+	 */
+	public String getInstrumentationFingerprint() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("observers=");
+		sb.append(hasObservers());
+		sb.append(", processors=");
+		sb.append(hasProcessors());
+		sb.append(", excMethods=");
+		sb.append(Arrays.toString(excMethods));
+		return sb.toString();
+	}
+	
 	/**
 	 * Returns true if the list of included class prefixes is not empty.<br>
 	 * @return		true if there are any classes that are included
@@ -196,21 +669,15 @@ w	 */
 	/**
 	 * Returns true if the class with the given class name should be included
 	 * in the analysis.<br>
-	 * @param className			the full name of the class including packages
+	 * Names can be checked in the internal form used by the JVM without 
+	 * converting them first.<br>
+	 * @param className			the full name of the class including packages 
+	 * 							separated by '.' or '/'
 	 * @return					true if the class is supposed to be instrumented
 	 */
 	public boolean isClassIncluded(String className) {
-		for (int i = 0; i < excPrefixes.length; i++) {
-			if (className.startsWith(excPrefixes[i])) {
-				return false;
-			}
-		}
-		for (int i = 0; i < incPrefixes.length; i++) {
-			if (className.startsWith(incPrefixes[i])) {
-				return true;
-			}
-		}
-		return false;
+		// Most classes are not included and rejected after a few characters
+		return incMatcher.matchesAny(className) && !excMatcher.matchesAny(className);
 	}
 	
 	/**
@@ -221,12 +688,7 @@ w	 */
 	 * @return					true if the method is supposed to be instrumented
 	 */
 	public boolean isMethodIncluded(String methodSignature) {
-		for (int i = 0; i < excMethods.length; i++) {
-			if (methodSignature.equals(excMethods[i])) {
-				return false;
-			}
-		}
-		return true;
+		return !excMethodMatcher.matchesAny(methodSignature);
 	}
 	
 	/**
@@ -308,6 +770,11 @@ w	 */
 		prefs.putInt(PREFERENCE_KEYWORD_COUNT_INCLUDED, countInc);
 		for (int i = 0; i < countInc; i++) {
 			prefs.put(PREFERENCE_KEYWORD_INCLUDED+i, incPrefixes[i]);
+			if (incCaptureLevels[i] == null) {
+				prefs.remove(PREFERENCE_KEYWORD_INCLUDED_CAPTURE+i);
+			} else {
+				prefs.put(PREFERENCE_KEYWORD_INCLUDED_CAPTURE+i, incCaptureLevels[i].name());
+			}
 		}
 		
 		int countExc = excPrefixes.length;
@@ -331,6 +798,32 @@ w	 */
 		}
 		
 		prefs.putBoolean(PREFERENCE_KEYWORD_NO_IDENTIFY, noIdentify);
+		prefs.putBoolean(PREFERENCE_KEYWORD_DEFER_IDENTIFY, deferIdentify);
+		prefs.put(PREFERENCE_KEYWORD_CAPTURE_LEVEL, captureLevel.name());
+		prefs.putInt(PREFERENCE_KEYWORD_SAMPLE_EVERY, sampleEvery);
+		prefs.putInt(PREFERENCE_KEYWORD_SAMPLES_PER_SECOND, samplesPerSecond);
+		prefs.putBoolean(PREFERENCE_KEYWORD_EVENT_BUFFER, eventBuffer);
+		prefs.putBoolean(PREFERENCE_KEYWORD_EVENT_BUFFER_DIRECT, eventBufferDirect);
+		prefs.putInt(PREFERENCE_KEYWORD_EVENT_BUFFER_RECORDS, eventBufferRecords);
+		prefs.putInt(PREFERENCE_KEYWORD_TREE_EVENT_LIMIT, treeEventLimit);
+		prefs.putInt(PREFERENCE_KEYWORD_TREE_BYTE_LIMIT, treeByteLimit);
+		prefs.putInt(PREFERENCE_KEYWORD_PROCESSOR_WORKERS, procWorkers);
+		prefs.putInt(PREFERENCE_KEYWORD_PIPELINE_CAPACITY, pipelineCapacity);
+		prefs.put(PREFERENCE_KEYWORD_PIPELINE_POLICY, pipelinePolicy.name());
+		prefs.putBoolean(PREFERENCE_KEYWORD_OBSERVER_ASYNC, obsAsync);
+		prefs.putInt(PREFERENCE_KEYWORD_OBSERVER_BUFFER_SIZE, obsBufferSize);
+		prefs.put(PREFERENCE_KEYWORD_CACHE_DIR, cacheDir);
+		prefs.putInt(PREFERENCE_KEYWORD_CACHE_MAX_MEGABYTES, cacheMaxMegabytes);
+		prefs.putInt(PREFERENCE_KEYWORD_PROBE_OVERHEAD_PERCENT, probeOverheadPercent);
+		prefs.putInt(PREFERENCE_KEYWORD_PROBE_MIN_CALLS, probeMinCalls);
+		prefs.putInt(PREFERENCE_KEYWORD_PROBE_MIN_CALLS_PER_SECOND, probeMinCallsPerSecond);
+		prefs.putInt(PREFERENCE_KEYWORD_PROBE_NANOS, probeNanos);
+		prefs.putInt(PREFERENCE_KEYWORD_DRILL_DOWN_MICROS, drillDownMicros);
+		prefs.putBoolean(PREFERENCE_KEYWORD_DRILL_DOWN_PUBLIC, drillDownPublic);
+		prefs.putInt(PREFERENCE_KEYWORD_COUNT_DRILL_DOWN_ROOT, drillDownRoots.length);
+		for (int i = 0; i < drillDownRoots.length; i++) {
+			prefs.put(PREFERENCE_KEYWORD_DRILL_DOWN_ROOT+i, drillDownRoots[i]);
+		}
 		prefs.putBoolean(PREFERENCE_KEYWORD_DEBUG, debug);
 	}
 	
@@ -339,6 +832,8 @@ w	 */
 		StringBuilder builder = new StringBuilder();
 		builder.append("Settings [incClasses=");
 		builder.append(Arrays.toString(incPrefixes));
+		builder.append(", incCaptureLevels=");
+		builder.append(Arrays.toString(incCaptureLevels));
 		builder.append(", excClasses=");
 		builder.append(Arrays.toString(excPrefixes));
 		builder.append(", excMethods=");
@@ -347,6 +842,52 @@ w	 */
 		builder.append(Arrays.toString(procClasses));
 		builder.append(", noIdentify=");
 		builder.append(noIdentify);
+		builder.append(", deferIdentify=");
+		builder.append(deferIdentify);
+		builder.append(", captureLevel=");
+		builder.append(captureLevel);
+		builder.append(", sampleEvery=");
+		builder.append(sampleEvery);
+		builder.append(", samplesPerSecond=");
+		builder.append(samplesPerSecond);
+		builder.append(", eventBuffer=");
+		builder.append(eventBuffer);
+		builder.append(", eventBufferDirect=");
+		builder.append(eventBufferDirect);
+		builder.append(", eventBufferRecords=");
+		builder.append(eventBufferRecords);
+		builder.append(", treeEventLimit=");
+		builder.append(treeEventLimit);
+		builder.append(", treeByteLimit=");
+		builder.append(treeByteLimit);
+		builder.append(", procWorkers=");
+		builder.append(procWorkers);
+		builder.append(", pipelineCapacity=");
+		builder.append(pipelineCapacity);
+		builder.append(", pipelinePolicy=");
+		builder.append(pipelinePolicy);
+		builder.append(", obsAsync=");
+		builder.append(obsAsync);
+		builder.append(", obsBufferSize=");
+		builder.append(obsBufferSize);
+		builder.append(", cacheDir=");
+		builder.append(cacheDir);
+		builder.append(", cacheMaxMegabytes=");
+		builder.append(cacheMaxMegabytes);
+		builder.append(", probeOverheadPercent=");
+		builder.append(probeOverheadPercent);
+		builder.append(", probeMinCalls=");
+		builder.append(probeMinCalls);
+		builder.append(", probeMinCallsPerSecond=");
+		builder.append(probeMinCallsPerSecond);
+		builder.append(", probeNanos=");
+		builder.append(probeNanos);
+		builder.append(", drillDownMicros=");
+		builder.append(drillDownMicros);
+		builder.append(", drillDownPublic=");
+		builder.append(drillDownPublic);
+		builder.append(", drillDownRoots=");
+		builder.append(Arrays.toString(drillDownRoots));
 		builder.append(", debug=");
 		builder.append(debug);
 		builder.append("]");
@@ -25,33 +25,87 @@ public class JDynSettingsParser {
 			DocumentBuilder builder = fac.newDocumentBuilder();
 			Document doc = builder.parse(settingsFile);
 			
-			List<String> incClassList = readAttributeList(doc, "include", "prefix");
-			List<String> excClassList = readAttributeList(doc, "exclude", "prefix");
-			List<String> excMethodList = readAttributeList(doc, "excludeMethod", "signature");
+			List<String> incClassList = readPatternList(doc, "include", "prefix");
+			List<String> incCaptureList = readAttributeList(doc, "include", "capture");
+			List<String> excClassList = readPatternList(doc, "exclude", "prefix");
+			List<String> excMethodList = readPatternList(doc, "excludeMethod", "signature");
 			List<ClassAndArgs> procClassList = readClassAndArgsList(doc, "processor");
 			List<ClassAndArgs> obsClassList = readClassAndArgsList(doc, "observer");
 			
 			boolean identifyObjects = readBool(doc, "identifyObjects", true);
+			boolean deferIdentification = readBool(doc, "deferIdentification", false);
 			boolean debugMode = readBool(doc, "debugMode", false);
+			JDynCaptureLevel captureLevel = readCaptureLevel(doc, "captureLevel", JDynCaptureLevel.FULL);
+			int sampleEvery = readInt(doc, "sampling", "every", 1);
+			int samplesPerSecond = readInt(doc, "sampling", "perSecond", 0);
+			boolean eventBuffer = readBool(doc, "eventBuffer", false);
+			boolean eventBufferDirect = readBool(doc, "eventBuffer", "direct", false);
+			int eventBufferRecords = readInt(doc, "eventBuffer", "records", 1024);
+			int treeEventLimit = readInt(doc, "treeLimit", "events", 0);
+			int treeByteLimit = readInt(doc, "treeLimit", "bytes", 0);
+			int processorWorkers = readInt(doc, "pipeline", "workers", 0);
+			int pipelineCapacity = readInt(doc, "pipeline", "capacity", 4096);
+			JDynQueuePolicy pipelinePolicy = readQueuePolicy(doc, "pipeline", JDynQueuePolicy.BLOCK);
+			boolean observerAsync = readBool(doc, "observerDelivery", "async", false);
+			int observerBufferSize = readInt(doc, "observerDelivery", "bufferSize", 4096);
+			String cacheDir = readString(doc, "bytecodeCache", "dir", "");
+			int cacheMaxMegabytes = readInt(doc, "bytecodeCache", "maxMegabytes", 64);
+			int probeOverheadPercent = readInt(doc, "removeProbes", "maxOverheadPercent", 0);
+			int probeMinCalls = readInt(doc, "removeProbes", "minCalls", 10000);
+			int probeMinCallsPerSecond = readInt(doc, "removeProbes", "minCallsPerSecond", 1000);
+			int probeNanos = readInt(doc, "removeProbes", "probeNanos", 50);
+			int drillDownMicros = readInt(doc, "drillDown", "thresholdMicros", 0);
+			boolean drillDownPublic = readBool(doc, "drillDown", "publicEntryPoints", true);
+			List<String> drillDownRootList = readPatternList(doc, "drillDownRoot", "signature");
 			
 			String[] includedClasses = incClassList.toArray(new String[incClassList.size()]);
+			JDynCaptureLevel[] includedCaptureLevels = new JDynCaptureLevel[incCaptureList.size()];
+			for (int i = 0; i < includedCaptureLevels.length; i++) {
+				includedCaptureLevels[i] = JDynCaptureLevel.parse(incCaptureList.get(i), null);
+			}
 			String[] excludedClasses = excClassList.toArray(new String[excClassList.size()]);
 			String[] excludedMethods = excMethodList.toArray(new String[excMethodList.size()]);
 			ClassAndArgs[] processorClasses = procClassList.toArray(new ClassAndArgs[procClassList.size()]);
 			ClassAndArgs[] observerClasses = obsClassList.toArray(new ClassAndArgs[obsClassList.size()]);
 			return new JDynSettings(includedClasses, 
+					includedCaptureLevels, 
 					excludedClasses, 
 					excludedMethods, 
 					processorClasses, 
 					observerClasses,
 					identifyObjects, 
+					deferIdentification, 
+					captureLevel, 
+					sampleEvery, 
+					samplesPerSecond, 
+					eventBuffer, 
+					eventBufferDirect, 
+					eventBufferRecords, 
+					treeEventLimit, 
+					treeByteLimit, 
+					processorWorkers, 
+					pipelineCapacity, 
+					pipelinePolicy, 
+					observerAsync, 
+					observerBufferSize, 
+					cacheDir, 
+					cacheMaxMegabytes, 
+					probeOverheadPercent, 
+					probeMinCalls, 
+					probeMinCallsPerSecond, 
+					probeNanos, 
+					drillDownMicros, 
+					drillDownPublic, 
+					drillDownRootList.toArray(new String[drillDownRootList.size()]), 
 					debugMode);
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
-		return new JDynSettings(new String[0], new String[0], 
-				new String[0], new ClassAndArgs[0], new ClassAndArgs[0], 
-				false, false);
+		return new JDynSettings(new String[0], new JDynCaptureLevel[0], 
+				new String[0], new String[0], new ClassAndArgs[0], 
+				new ClassAndArgs[0], false, false, JDynCaptureLevel.FULL, 1, 0, 
+				false, false, 1024, 0, 0, 0, 4096, JDynQueuePolicy.BLOCK, 
+				false, 4096, "", 64, 0, 10000, 1000, 50, 0, true, new String[0], false);
 	}
 	
 	private static List<ClassAndArgs> readClassAndArgsList(Document doc, String tag) {
@@ -74,10 +128,72 @@ public class JDynSettingsParser {
 		return result;
 	}
 	
+	/**
+	 * Reads one pattern per element. The pattern is given either by the 
+	 * plainAttribute or by a 'glob' or 'regex' attribute. Globs and regular 
+	 * expressions are marked as described in {@link JDynNameMatcher}.<br>
+	 */
+	private static List<String> readPatternList(Document doc, String tag, String plainAttribute) {
+		List<String> result = new ArrayList<>();
+		forAllElems(doc, tag, 
+			(elem) -> {
+				if (elem.hasAttribute("glob")) {
+					result.add(JDynNameMatcher.GLOB_PREFIX + elem.getAttribute("glob"));
+				} else if (elem.hasAttribute("regex")) {
+					result.add(JDynNameMatcher.REGEX_PREFIX + elem.getAttribute("regex"));
+				} else {
+					result.add(elem.getAttribute(plainAttribute));
+				}
+			}
+		);
+		return result;
+	}
+	
 	private static boolean readBool(Document doc, String tag, boolean defaultValue) {
+		return readBool(doc, tag, "value", defaultValue);
+	}
+	
+	private static boolean readBool(Document doc, String tag, String attribute, boolean defaultValue) {
 		boolean[] result = {defaultValue};
 		forAllElems(doc, tag, 
-			(elem) -> result[0] = "true".equalsIgnoreCase(elem.getAttribute("value"))
+			(elem) -> result[0] = "true".equalsIgnoreCase(elem.getAttribute(attribute))
+		);
+		return result[0];
+	}
+	
+	private static String readString(Document doc, String tag, String attribute, String defaultValue) {
+		String[] result = {defaultValue};
+		forAllElems(doc, tag, 
+			(elem) -> result[0] = elem.getAttribute(attribute).trim()
+		);
+		return result[0];
+	}
+	
+	private static int readInt(Document doc, String tag, String attribute, int defaultValue) {
+		int[] result = {defaultValue};
+		forAllElems(doc, tag, 
+			(elem) -> {
+				String value = elem.getAttribute(attribute);
+				if (!value.isEmpty()) {
+					result[0] = Integer.parseInt(value.trim());
+				}
+			}
+		);
+		return result[0];
+	}
+	
+	private static JDynCaptureLevel readCaptureLevel(Document doc, String tag, JDynCaptureLevel defaultValue) {
+		JDynCaptureLevel[] result = {defaultValue};
+		forAllElems(doc, tag, 
+			(elem) -> result[0] = JDynCaptureLevel.parse(elem.getAttribute("value"), defaultValue)
+		);
+		return result[0];
+	}
+	
+	private static JDynQueuePolicy readQueuePolicy(Document doc, String tag, JDynQueuePolicy defaultValue) {
+		JDynQueuePolicy[] result = {defaultValue};
+		forAllElems(doc, tag, 
+			(elem) -> result[0] = JDynQueuePolicy.parse(elem.getAttribute("policy"), defaultValue)
 		);
 		return result[0];
 	}
@@ -0,0 +1,166 @@
+package edu.udo.cs.dynaliser;
+
+import java.util.Arrays;
+
+/**
+ * Creates a {@link CallSequenceTree} from events which were recorded
+ * elsewhere, for example by reading a trace file. The events are added in
+ * pre-order: each event is started with one of the <code>begin</code>
+ * methods, followed by its children, and ended with {@link #end()}.<br>
+ * The times of the events are given; objects are represented by
+ * {@link IdentifiedObject IdentifiedObjects} created with
+ * {@link IdentifiedObject#withoutObject(Class, int)}. The root event of a
+ * partial tree built this way does not have a parent.<br>
+ * A builder is not thread safe but can build any number of trees one
+ * after the other.<br>
+ */
+public class JDynTreeBuilder {
+	
+	private CstEvent rootEvent;
+	private CstEvent[] stack = new CstEvent[16];
+	private int depth;
+	private int eventCount;
+	
+	public JDynTreeBuilder() {
+	}
+	
+	/**
+	 * Starts a constructor event.<br>
+	 * @param methodID			the id of the constructor in the {@link JDynMethodRegistry}
+	 * @param clazz				the class declaring the constructor
+	 * @param params			the parameters or null if none were captured
+	 * @param object			the constructed object or null if it was not captured
+	 * @param superConstructor	true if the constructor was invoked by the
+	 * 							constructor of a subclass
+	 * @param before			the start time in nano seconds
+	 * @param after				the end time in nano seconds
+	 */
+	public void beginConstructor(int methodID, Class<?> clazz, Object[] params,
+			IdentifiedObject object, boolean superConstructor, long before, long after)
+	{
+		CstEventConstructor event = new CstEventConstructor(peek(), clazz, methodID,
+				params == null ? CstEvent.EMPTY_ARRAY : params);
+		if (object != null) {
+			event.setConstructedObject(object, superConstructor);
+		}
+		begin(event, before, after);
+	}
+	
+	/**
+	 * Starts a static method event.<br>
+	 * @param methodID			the id of the method in the {@link JDynMethodRegistry}
+	 * @param clazz				the class declaring the method
+	 * @param params			the parameters or null if none were captured
+	 * @param returnedValue		the returned value if hasReturnValue is true
+	 * @param hasReturnValue	true if a returned value was captured
+	 * @param before			the start time in nano seconds
+	 * @param after				the end time in nano seconds
+	 */
+	public void beginStaticMethod(int methodID, Class<?> clazz, Object[] params,
+			Object returnedValue, boolean hasReturnValue, long before, long after)
+	{
+		CstEventStaticMethod event = new CstEventStaticMethod(peek(), clazz, methodID,
+				params == null ? CstEvent.EMPTY_ARRAY : params);
+		event.setReturnedValue(returnedValue, hasReturnValue);
+		begin(event, before, after);
+	}
+	
+	/**
+	 * Starts a method event.<br>
+	 * @param methodID			the id of the method in the {@link JDynMethodRegistry}
+	 * @param object			the invoking object or null if it was not captured
+	 * @param params			the parameters or null if none were captured
+	 * @param returnedValue		the returned value if hasReturnValue is true
+	 * @param hasReturnValue	true if a returned value was captured
+	 * @param before			the start time in nano seconds
+	 * @param after				the end time in nano seconds
+	 */
+	public void beginMethod(int methodID, IdentifiedObject object, Object[] params,
+			Object returnedValue, boolean hasReturnValue, long before, long after)
+	{
+		CstEventMethod event = new CstEventMethod(peek(), null, methodID,
+				params == null ? CstEvent.EMPTY_ARRAY : params);
+		if (object != null) {
+			event.setInvokingObject(object);
+		}
+		event.setReturnedValue(returnedValue, hasReturnValue);
+		begin(event, before, after);
+	}
+	
+	/**
+	 * Adds an exception event to the current event. Exception events do
+	 * not have children and need not be ended.<br>
+	 * @param throwable				the thrown exception or a stand-in for it
+	 * @param id					the id of the exception object
+	 * @param unwoundMethodIDs		the ids of the behaviors the exception left,
+	 * 								must not be empty
+	 * @param before				the start time in nano seconds
+	 * @param after					the end time in nano seconds
+	 * @see CstEventException#getUnwoundMethodIDs()
+	 */
+	public void addException(Throwable throwable, int id, int[] unwoundMethodIDs,
+			long before, long after)
+	{
+		CstEventException event = new CstEventException(peek(), throwable, unwoundMethodIDs[0]);
+		event.setUnwoundBehaviors(unwoundMethodIDs, unwoundMethodIDs.length);
+		event.setID(id);
+		event.setNanoTimes(before, after);
+		add(event);
+	}
+	
+	/**
+	 * Ends the event which was started last and has not ended yet.<br>
+	 * @throws IllegalStateException	if all events have ended
+	 */
+	public void end() {
+		if (depth == 0) {
+			throw new IllegalStateException("depth == 0");
+		}
+		stack[--depth] = null;
+	}
+	
+	/**
+	 * Returns the tree of all added events and resets this builder.<br>
+	 * @param thread			the thread the events were recorded in
+	 * @param partial			true if the tree is {@link CallSequenceTree#isPartial() partial}
+	 * @param partialIndex		see {@link CallSequenceTree#getPartialIndex()}
+	 * @return					a tree with the added events
+	 * @throws IllegalStateException	if no event was added or not all events have ended
+	 */
+	public CallSequenceTree build(Thread thread, boolean partial, int partialIndex) {
+		if (rootEvent == null || depth > 0) {
+			throw new IllegalStateException("rootEvent="+rootEvent+", depth="+depth);
+		}
+		CallSequenceTree tree = new CallSequenceTree(thread, rootEvent,
+				eventCount, partialIndex, partial);
+		rootEvent = null;
+		eventCount = 0;
+		return tree;
+	}
+	
+	private void begin(CstEvent event, long before, long after) {
+		event.setNanoTimes(before, after);
+		add(event);
+		if (depth == stack.length) {
+			stack = Arrays.copyOf(stack, depth * 2);
+		}
+		stack[depth++] = event;
+	}
+	
+	private void add(CstEvent event) {
+		CstEvent parent = peek();
+		if (parent != null) {
+			parent.addChild(event);
+		} else if (rootEvent == null) {
+			rootEvent = event;
+		} else {
+			throw new IllegalStateException("The tree has a root event already");
+		}
+		eventCount++;
+	}
+	
+	private CstEvent peek() {
+		return depth == 0 ? null : stack[depth - 1];
+	}
+	
+}
\ No newline at end of file
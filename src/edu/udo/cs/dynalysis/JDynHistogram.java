@@ -0,0 +1,211 @@
+package edu.udo.cs.dynalysis;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of non-negative long values, usually durations in nano
+ * seconds, which answers percentile queries with a bounded relative error
+ * in a fixed amount of memory.<br>
+ * Values are sorted into buckets by their power of two; each power of two
+ * is split into 2^n linear sub buckets. Values below 2^n are counted
+ * exactly. The precision is given as the number of significant decimal
+ * digits: 1 digit keeps the error of a percentile below 10% in 16 sub
+ * buckets (about 5 KB), 2 digits below 1% in 128 sub buckets (about 38 KB)
+ * and 3 digits below 0.1% in 1024 sub buckets (about 280 KB). Values above
+ * 2^{@value #MAX_VALUE_BITS} are counted in the last bucket; the minimum,
+ * maximum, total and count are always exact.<br>
+ * Recording is lock free and may happen on any number of threads at the
+ * same time. Histograms can be {@link #add(JDynHistogram) merged}, for
+ * example the histograms of several threads or sequences.<br>
+ */
+public class JDynHistogram {
+	
+	/**
+	 * Values up to 2^44 nano seconds, almost 5 hours, are sorted into
+	 * buckets.<br>
+	 */
+	public static final int MAX_VALUE_BITS = 44;
+	public static final int DEFAULT_PRECISION = 1;
+	
+	private final int precision;
+	private final int subBucketBits;
+	private final int subBucketCount;
+	private final AtomicLongArray counts;
+	// Kept next to the buckets so that the count is known without a scan
+	private final LongAdder count = new LongAdder();
+	private final LongAdder total = new LongAdder();
+	private final LongAccumulator min = new LongAccumulator(Math::min, Long.MAX_VALUE);
+	private final LongAccumulator max = new LongAccumulator(Math::max, Long.MIN_VALUE);
+	
+	public JDynHistogram() {
+		this(DEFAULT_PRECISION);
+	}
+	
+	/**
+	 * @param significantDigits		the number of significant decimal digits of
+	 * 								percentiles, from 1 to 3
+	 * @throws IllegalArgumentException	if significantDigits is out of range
+	 */
+	public JDynHistogram(int significantDigits) {
+		if (significantDigits < 1 || significantDigits > 3) {
+			throw new IllegalArgumentException("significantDigits="+significantDigits);
+		}
+		precision = significantDigits;
+		// A bucket is at most 1 / 2^n as wide as its values, so 2^n >= 10^digits
+		int bits = 0;
+		long needed = (long) Math.pow(10, significantDigits);
+		while ((1L << bits) < needed) {
+			bits++;
+		}
+		subBucketBits = bits;
+		subBucketCount = 1 << bits;
+		counts = new AtomicLongArray((MAX_VALUE_BITS - subBucketBits + 1) * subBucketCount);
+	}
+	
+	/**
+	 * Parses a precision argument of an observer or processor.<br>
+	 * @param arg		the number of significant digits or an empty string
+	 * @return			a valid precision, {@link #DEFAULT_PRECISION} if arg is not one
+	 */
+	public static int parsePrecision(String arg) {
+		int digits = JDynUtil.toInt(arg, DEFAULT_PRECISION);
+		return digits < 1 || digits > 3 ? DEFAULT_PRECISION : digits;
+	}
+	
+	public int getPrecision() {
+		return precision;
+	}
+	
+	/**
+	 * Records a single value. Negative values are recorded as 0.<br>
+	 */
+	public void record(long value) {
+		record(value, 1);
+	}
+	
+	/**
+	 * Records the given value count times.<br>
+	 */
+	public void record(long value, long count) {
+		if (count <= 0) {
+			return;
+		}
+		long positive = Math.max(0, value);
+		counts.addAndGet(indexOf(positive), count);
+		this.count.add(count);
+		total.add(positive * count);
+		min.accumulate(positive);
+		max.accumulate(positive);
+	}
+	
+	/**
+	 * Adds all values of another histogram to this one. The other histogram
+	 * may have a different precision; in that case the error of the result
+	 * is the larger of both.<br>
+	 * @param other		a histogram which is not changed
+	 */
+	public void add(JDynHistogram other) {
+		if (other.getCount() == 0) {
+			return;
+		}
+		for (int i = 0; i < other.counts.length(); i++) {
+			long count = other.counts.get(i);
+			if (count == 0) {
+				continue;
+			}
+			if (other.subBucketBits == subBucketBits) {
+				counts.addAndGet(i, count);
+			} else {
+				counts.addAndGet(indexOf(other.highestValueAt(i)), count);
+			}
+		}
+		count.add(other.count.sum());
+		total.add(other.total.sum());
+		min.accumulate(other.min.get());
+		max.accumulate(other.max.get());
+	}
+	
+	public long getCount() {
+		return count.sum();
+	}
+	
+	public long getTotal() {
+		return total.sum();
+	}
+	
+	/**
+	 * @return		the smallest recorded value or 0 if nothing was recorded
+	 */
+	public long getMin() {
+		long value = min.get();
+		return value == Long.MAX_VALUE ? 0 : value;
+	}
+	
+	/**
+	 * @return		the largest recorded value or 0 if nothing was recorded
+	 */
+	public long getMax() {
+		long value = max.get();
+		return value == Long.MIN_VALUE ? 0 : value;
+	}
+	
+	public double getMean() {
+		long count = getCount();
+		return count == 0 ? 0 : getTotal() / (double) count;
+	}
+	
+	/**
+	 * Returns a value such that the given percentage of all recorded values
+	 * are less or equal to it, within the precision of this histogram. The
+	 * result is never larger than the maximum.<br>
+	 * @param percentile	a percentage from 0 to 100, for example 99.9
+	 * @return				the value at the percentile or 0 if nothing was recorded
+	 */
+	public long getValueAtPercentile(double percentile) {
+		long count = getCount();
+		if (count == 0) {
+			return 0;
+		}
+		double fraction = Math.min(100, Math.max(0, percentile)) / 100;
+		long rank = Math.max(1, (long) Math.ceil(fraction * count));
+		long seen = 0;
+		for (int i = 0; i < counts.length(); i++) {
+			seen += counts.get(i);
+			if (seen >= rank) {
+				return Math.min(highestValueAt(i), getMax());
+			}
+		}
+		// Values were recorded while counting
+		return getMax();
+	}
+	
+	private int indexOf(long value) {
+		if (value < subBucketCount) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		if (exponent >= MAX_VALUE_BITS) {
+			return counts.length() - 1;
+		}
+		int shift = exponent - subBucketBits;
+		int subBucket = (int) (value >>> shift) - subBucketCount;
+		return (shift + 1) * subBucketCount + subBucket;
+	}
+	
+	/**
+	 * Returns the largest value which is counted by the bucket with the
+	 * given index.<br>
+	 */
+	private long highestValueAt(int index) {
+		if (index < subBucketCount) {
+			return index;
+		}
+		int shift = index / subBucketCount - 1;
+		int subBucket = index % subBucketCount;
+		long lowest = (long) (subBucketCount + subBucket) << shift;
+		return lowest + (1L << shift) - 1;
+	}
+	
+}
\ No newline at end of file
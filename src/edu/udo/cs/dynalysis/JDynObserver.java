@@ -1,5 +1,8 @@
 package edu.udo.cs.dynalysis;
 
+import java.util.List;
+
+import edu.udo.cs.dynaliser.CstEvent;
 import edu.udo.cs.dynaliser.CstEventConstructor;
 import edu.udo.cs.dynaliser.CstEventException;
 import edu.udo.cs.dynaliser.CstEventMethod;
@@ -50,6 +53,73 @@ public interface JDynObserver {
 	
 	default void onException(CstEventException event) {}
 	
+	/**
+	 * Called by the observer thread of the {@link JDynEventDispatcher} if 
+	 * observers are notified asynchronously. The events of one thread are 
+	 * passed in the order in which they started or ended; events of 
+	 * different threads are passed in separate calls.<br>
+	 * Since the events are passed later the instrumented thread may have 
+	 * changed them already, for example by ending an event that is passed 
+	 * as started.<br>
+	 * The default implementation calls the other callbacks of this 
+	 * interface for each event. The list and the array are reused after 
+	 * this method returns.<br>
+	 * @param events	the events of a single thread, never empty
+	 * @param ends		ends[i] is true if the i-th event has ended and false 
+	 * 					if it has started. May be longer than events
+	 */
+	default void onEvents(List<CstEvent> events, boolean[] ends) {
+		for (int i = 0; i < events.size(); i++) {
+			notifyObserver(this, events.get(i), ends[i]);
+		}
+	}
+	
 	default void onShutDown() {}
 	
+	/**
+	 * Returns whether this observer looks at parameters or returned values.<br>
+	 * If no observer and no processor does, the instrumented code will not 
+	 * box primitive parameters and returned values at all and the events 
+	 * will have null in their place.<br>
+	 * @return			true if parameters or returned values are used
+	 */
+	default boolean usesValues() {
+		return true;
+	}
+	
+	/**
+	 * Calls the callback of obs that matches the type of the event.<br>
+	 * @param obs		the observer to notify
+	 * @param event		an event that has started or ended
+	 * @param isEnd		true if the event has ended. Ignored for exceptions
+	 */
+	static void notifyObserver(JDynObserver obs, CstEvent event, boolean isEnd) {
+		switch (event.getEventType()) {
+		case CONSTRUCTOR:
+			if (isEnd) {
+				obs.onConstructorEnd((CstEventConstructor) event);
+			} else {
+				obs.onConstructorStart((CstEventConstructor) event);
+			}
+			break;
+		case STATIC_METHOD:
+			if (isEnd) {
+				obs.onStaticMethodEnd((CstEventStaticMethod) event);
+			} else {
+				obs.onStaticMethodStart((CstEventStaticMethod) event);
+			}
+			break;
+		case METHOD:
+			if (isEnd) {
+				obs.onMethodEnd((CstEventMethod) event);
+			} else {
+				obs.onMethodStart((CstEventMethod) event);
+			}
+			break;
+		case EXCEPTION:
+			obs.onException((CstEventException) event);
+			break;
+		}
+	}
+	
 }
\ No newline at end of file
@@ -1,6 +1,7 @@
 package edu.udo.cs.dynalysis;
 
 import edu.udo.cs.dynaliser.CallSequenceTree;
+import edu.udo.cs.dynaliser.JDynEventDispatcher;
 
 public interface JDynProcessor {
 	
@@ -8,4 +9,21 @@ public interface JDynProcessor {
 	
 	public void processSequence(CallSequenceTree sequence);
 	
+	/**
+	 * Called by the {@link JDynEventDispatcher} when the JVM shuts down, 
+	 * after all remaining trees were processed or the time to process them 
+	 * ran out. Processors which write their output in parts can finish it 
+	 * here.<br>
+	 */
+	default void onShutDown() {}
+	
+	/**
+	 * Returns whether this processor looks at parameters or returned values.<br>
+	 * @return			true if parameters or returned values are used
+	 * @see JDynObserver#usesValues()
+	 */
+	default boolean usesValues() {
+		return true;
+	}
+	
 }
\ No newline at end of file
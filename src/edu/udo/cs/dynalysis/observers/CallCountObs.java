@@ -0,0 +1,65 @@
+package edu.udo.cs.dynalysis.observers;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.udo.cs.dynaliser.JDynCallCounts;
+import edu.udo.cs.dynaliser.JDynCaptureLevel;
+import edu.udo.cs.dynaliser.JDynMethodRegistry;
+import edu.udo.cs.dynalysis.JDynObserver;
+import edu.udo.cs.dynalysis.JDynUtil;
+
+/**
+ * Prints the number of calls of all behaviors that were instrumented with
+ * the {@link JDynCaptureLevel#COUNT} level when the program shuts down.<br>
+ * The output is sorted by the number of calls, the most called behavior
+ * first.<br>
+ * Supported args: <code>outfile</code> and <code>mincalls</code>.<br>
+ */
+public class CallCountObs implements JDynObserver {
+	
+	private String outPath;
+	private long minCalls;
+	
+	public boolean usesValues() {
+		return false;
+	}
+	
+	public void setArgs(String args) {
+		outPath = JDynUtil.extractArg(args, "outfile");
+		minCalls = JDynUtil.toInt(JDynUtil.extractArg(args, "mincalls"), 1);
+	}
+	
+	public void onShutDown() {
+		String title = "#   Call Count   #";
+		StringBuilder sb = new StringBuilder(title.length());
+		sb.append('#');
+		for (int i = 0; i < title.length() - 2; i++) {
+			sb.append('=');
+		}
+		sb.append('#');
+		String titleCover = sb.toString();
+		
+		List<Integer> methodIDs = new ArrayList<>();
+		int methodCount = JDynMethodRegistry.getMethodCount();
+		for (int methodID = 0; methodID < methodCount; methodID++) {
+			if (JDynCallCounts.getCount(methodID) >= minCalls) {
+				methodIDs.add(methodID);
+			}
+		}
+		methodIDs.sort((a, b) -> Long.compare(
+				JDynCallCounts.getCount(b), JDynCallCounts.getCount(a)));
+		
+		Object printKey = JDynUtil.startPrinting(outPath);
+		JDynUtil.print(printKey, titleCover);
+		JDynUtil.print(printKey, title);
+		JDynUtil.print(printKey, titleCover);
+		JDynUtil.print(printKey);
+		for (Integer methodID : methodIDs) {
+			JDynUtil.print(printKey, JDynCallCounts.getCount(methodID), "\t",
+					JDynMethodRegistry.getSignature(methodID));
+		}
+		JDynUtil.stopPrinting(printKey);
+	}
+	
+}
\ No newline at end of file
@@ -1,26 +1,43 @@
 package edu.udo.cs.dynalysis.observers;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Map.Entry;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.Arrays;
 
 import edu.udo.cs.dynaliser.CstEvent;
 import edu.udo.cs.dynaliser.CstEventConstructor;
 import edu.udo.cs.dynaliser.CstEventMethod;
 import edu.udo.cs.dynaliser.CstEventStaticMethod;
+import edu.udo.cs.dynaliser.JDynMethodRegistry;
+import edu.udo.cs.dynaliser.JDynRemovedProbes;
+import edu.udo.cs.dynalysis.JDynHistogram;
 import edu.udo.cs.dynalysis.JDynObserver;
 import edu.udo.cs.dynalysis.JDynUtil;
+import edu.udo.cs.dynalysis.processors.ElapsedTimeProc;
 import edu.udo.cs.dynalysis.processors.ElapsedTimeProc.Times;
 
+/**
+ * Records the running time of every executed behavior in a 
+ * {@link JDynHistogram} per behavior and prints the calls, best, worst, 
+ * total, average and percentile times after shutdown.<br>
+ * Supported args: <code>unit</code>, <code>outfile</code>, 
+ * <code>mincalls</code> and <code>precision</code>, the number of 
+ * significant digits of the percentiles from 1 to 3.<br>
+ */
 public class ElapsedTimeObs implements JDynObserver {
 	
-	private final ReadWriteLock lock = new ReentrantReadWriteLock();
-	private final Map<String, PerMethodData> measuredTimeMap = new HashMap<>();
+	/**
+	 * Indexed by the method id of the events. Read without locking; new 
+	 * histograms are added and the array is grown while holding the lock 
+	 * of this observer. Histograms are only ever added, never replaced.<br>
+	 */
+	private volatile JDynHistogram[] measuredTimes = new JDynHistogram[256];
 	private Times times;
 	private String outPath;
 	private int minCalls;
+	private int precision = JDynHistogram.DEFAULT_PRECISION;
+	
+	public boolean usesValues() {
+		return false;
+	}
 	
 	public void setArgs(String args) {
 		times = Times.parseString(JDynUtil.extractArg(args, "unit"));
@@ -35,6 +52,7 @@ public class ElapsedTimeObs implements JDynObserver {
 		} else {
 			minCalls = -1;
 		}
+		precision = JDynHistogram.parsePrecision(JDynUtil.extractArg(args, "precision"));
 	}
 	
 	public void onStaticMethodEnd(CstEventStaticMethod event) {
@@ -50,27 +68,39 @@ public class ElapsedTimeObs implements JDynObserver {
 	}
 	
 	private void recordTime(CstEvent event) {
-		String sig = event.getSignature();
+		int methodID = event.getMethodID();
+		if (methodID == JDynMethodRegistry.NO_METHOD_ID) {
+			return;
+		}
 		long time = event.getAfterNanoTime() - event.getBeforeNanoTime();
-		
-		lock.writeLock().lock();
-		try {
-			PerMethodData data = measuredTimeMap.get(sig);
-			if (data == null) {
-				data = new PerMethodData();
-				measuredTimeMap.put(sig, data);
-			}
-			data.calls++;
-			data.total += time;
-			if (time > data.worst) {
-				data.worst = time;
-			}
-			if (time < data.best) {
-				data.best = time;
+		getHistogram(methodID).record(time);
+	}
+	
+	private JDynHistogram getHistogram(int methodID) {
+		JDynHistogram[] histograms = measuredTimes;
+		if (methodID < histograms.length) {
+			JDynHistogram histogram = histograms[methodID];
+			if (histogram != null) {
+				return histogram;
 			}
-		} finally {
-			lock.writeLock().unlock();
 		}
+		return createHistogram(methodID);
+	}
+	
+	private synchronized JDynHistogram createHistogram(int methodID) {
+		JDynHistogram[] histograms = measuredTimes;
+		if (methodID >= histograms.length) {
+			int newLength = Math.max(histograms.length * 2, methodID + 1);
+			histograms = Arrays.copyOf(histograms, newLength);
+		}
+		JDynHistogram histogram = histograms[methodID];
+		if (histogram == null) {
+			histogram = new JDynHistogram(precision);
+			histograms[methodID] = histogram;
+		}
+		// Publishes the new histogram to threads which read the array afterwards
+		measuredTimes = histograms;
+		return histogram;
 	}
 	
 	public void onShutDown() {
@@ -89,39 +119,24 @@ public class ElapsedTimeObs implements JDynObserver {
 		JDynUtil.print(printKey, titleCover);
 		JDynUtil.print(printKey);
 		
-		lock.readLock().lock();
-		try {
-			for (Entry<String, PerMethodData> timeEntry : measuredTimeMap.entrySet()) {
-				PerMethodData data = timeEntry.getValue();
-				if (minCalls > 0 && data.calls < minCalls) {
-					continue;
-				}
-				JDynUtil.print(printKey, "=====  ", timeEntry.getKey(), "  =====");
-				
-				long worst = (long) (data.worst / times.divideNanosBy);
-				long best = (long) (data.best / times.divideNanosBy);
-				long total = (long) (data.total / times.divideNanosBy);
-				double avg = total / data.calls;
-				
-				String suffix = times.toString();
-				
-				JDynUtil.print(printKey, "calls\t= ", data.calls);
-				JDynUtil.print(printKey, "best\t= ", best, " \t", suffix);
-				JDynUtil.print(printKey, "worst\t= ", worst, " \t", suffix);
-				JDynUtil.print(printKey, "total\t= ", total, " \t", suffix);
-				JDynUtil.print(printKey, "average\t= ", avg, " \t", suffix, "\n");
+		JDynHistogram[] histograms = measuredTimes;
+		for (int methodID = 0; methodID < histograms.length; methodID++) {
+			JDynHistogram histogram = histograms[methodID];
+			if (histogram == null) {
+				continue;
 			}
-			JDynUtil.stopPrinting(printKey);
-		} finally {
-			lock.readLock().unlock();
+			if (minCalls > 0 && histogram.getCount() < minCalls) {
+				continue;
+			}
+			String sig = JDynMethodRegistry.getSignature(methodID);
+			JDynUtil.print(printKey, "=====  ", sig, "  =====");
+			String removedReason = JDynRemovedProbes.getReason(methodID);
+			if (removedReason != null) {
+				JDynUtil.print(printKey, "note\t= ", removedReason);
+			}
+			ElapsedTimeProc.printTimes(printKey, histogram, times);
 		}
-	}
-	
-	protected static class PerMethodData {
-		long calls;
-		long best = Long.MAX_VALUE;
-		long worst = Long.MIN_VALUE;
-		long total;
+		JDynUtil.stopPrinting(printKey);
 	}
 	
 }
\ No newline at end of file
@@ -20,6 +20,10 @@ public class MethodCoverage implements JDynObserver {
 	private final Map<Class<?>, Set<String>> methodsCoveredPerClass = new HashMap<>();
 	private String outPath;
 	
+	public boolean usesValues() {
+		return false;
+	}
+	
 	public void setArgs(String args) {
 		outPath = JDynUtil.extractArg(args, "outfile");
 	}
@@ -72,6 +76,10 @@ public class MethodCoverage implements JDynObserver {
 	}
 	
 	public void onMethodStart(CstEventMethod event) {
+		// Without the invoking object the class is not known
+		if (event.getInvokingObject() == null) {
+			return;
+		}
 		Class<?> clazz = event.getInvokingObject().getIdentifiedObjectClass();
 		Set<String> methodsCovered = methodsCoveredPerClass.get(clazz);
 		if (methodsCovered == null) {
@@ -17,12 +17,20 @@ public class ObjSizeObs implements JDynObserver {
 	private final Map<Class<?>, Long> measuredSizeMap = new HashMap<>();
 	private String outPath;
 	
+	public boolean usesValues() {
+		return false;
+	}
+	
 	public void setArgs(String args) {
 		outPath = JDynUtil.extractArg(args, "outfile");
 	}
 	
 	public void onConstructorEnd(CstEventConstructor event) {
 		System.out.println("ObjSizeObs.onConstructorEnd="+event);
+		// The object is not captured below the STRUCTURE capture level
+		if (event.getConstructedObject() == null) {
+			return;
+		}
 		Class<?> objClass = event.getConstructedClass();
 		lock.writeLock().lock();
 		try {
@@ -8,6 +8,10 @@ import edu.udo.cs.dynalysis.JDynObserver;
 
 public class PrintObs implements JDynObserver {
 	
+	public boolean usesValues() {
+		return false;
+	}
+	
 	public void onConstructorStart(CstEventConstructor event) {
 		System.out.println("onConstructorStart()="+event.getSignature());
 	}
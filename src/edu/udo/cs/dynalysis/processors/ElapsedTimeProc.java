@@ -2,28 +2,70 @@ package edu.udo.cs.dynalysis.processors;
 
 import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.Deque;
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.Map.Entry;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import edu.udo.cs.dynaliser.CallSequenceTree;
 import edu.udo.cs.dynaliser.CstEvent;
+import edu.udo.cs.dynaliser.JDynMethodRegistry;
+import edu.udo.cs.dynaliser.JDynRemovedProbes;
+import edu.udo.cs.dynalysis.JDynHistogram;
 import edu.udo.cs.dynalysis.JDynProcessor;
 import edu.udo.cs.dynalysis.JDynUtil;
 
+/**
+ * Prints the calls, best, worst, total, average and percentile times of 
+ * each behavior of a sequence.<br>
+ * The percentiles of a behavior which was called at most 
+ * {@value #MAX_EXACT_TIMES} times in a sequence are exact. The times of 
+ * behaviors which were called more often are recorded in a 
+ * {@link JDynHistogram} so that memory stays bounded.<br>
+ * Supported args: <code>unit</code>, <code>sortBy</code>, 
+ * <code>outfile</code>, <code>minCallCount</code>, <code>precision</code>, 
+ * the number of significant digits of the histogram percentiles from 1 to 
+ * 3, and <code>summary</code>. If summary is true the times of all 
+ * sequences are merged into a histogram per behavior and printed once 
+ * more after shutdown.<br>
+ */
 public class ElapsedTimeProc implements JDynProcessor {
 	
+	/**
+	 * The percentiles printed for each behavior.<br>
+	 */
+	private static final double[] PERCENTILES = {50, 90, 99, 99.9};
+	private static final String[] PERCENTILE_NAMES = {"p50", "p90", "p99", "p99.9"};
+	/**
+	 * The number of times of a behavior in a sequence that are kept as 
+	 * they are before they are moved into a histogram.<br>
+	 */
+	private static final int MAX_EXACT_TIMES = 256;
+	
 	private final AtomicInteger outCount = new AtomicInteger(0);
 	private Times times;
 	private SortBy sortBy;
 	private String outPath;
 	private int minCallCount;
+	private int precision = JDynHistogram.DEFAULT_PRECISION;
+	/**
+	 * The merged records of all sequences if a summary is printed, otherwise 
+	 * null. Indexed by method id.<br>
+	 */
+	private Record[] summaryRecords;
+	/**
+	 * The records of the sequence being processed indexed by method id. 
+	 * Reused for every sequence; only the entries of the current sequence 
+	 * are non-null.<br>
+	 */
+	private Record[] recordsByID = new Record[0];
+	
+	@Override
+	public boolean usesValues() {
+		return false;
+	}
 	
 	@Override
 	public void setArgs(String args) {
@@ -31,34 +73,102 @@ public class ElapsedTimeProc implements JDynProcessor {
 		sortBy = SortBy.parseString(JDynUtil.extractArg(args, "sortBy"));
 		outPath = JDynUtil.extractArg(args, "outfile");
 		minCallCount = JDynUtil.toInt(JDynUtil.extractArg(args, "minCallCount"), -1);
+		precision = JDynHistogram.parsePrecision(JDynUtil.extractArg(args, "precision"));
+		if (Boolean.parseBoolean(JDynUtil.extractArg(args, "summary"))) {
+			summaryRecords = new Record[0];
+		}
 	}
 	
+	/**
+	 * The times of a behavior. Up to {@link #MAX_EXACT_TIMES} times are 
+	 * kept as they are, more times are recorded in a histogram.<br>
+	 */
 	private static class Record {
-		final String sig;
-		long best;
+		final int methodID;
+		final int precision;
+		long count;
+		long best = Long.MAX_VALUE;
 		long worst;
 		long total;
-		int count;
-		public Record(String signature, long firstTime) {
-			sig = signature;
-			best = worst = total = firstTime;
-			count = 1;
+		// Either times or histogram is null
+		long[] times;
+		boolean sorted;
+		JDynHistogram histogram;
+		
+		/**
+		 * @param keepTimes		false if all times are recorded in a histogram
+		 */
+		Record(int methodIdentifier, int histogramPrecision, boolean keepTimes) {
+			methodID = methodIdentifier;
+			precision = histogramPrecision;
+			if (keepTimes) {
+				times = new long[4];
+			} else {
+				histogram = new JDynHistogram(precision);
+			}
 		}
-		public void add(long time) {
-			if (best > time) {
-				best = time;
+		
+		void add(long time) {
+			count++;
+			total += time;
+			best = Math.min(best, time);
+			worst = Math.max(worst, time);
+			if (histogram == null && count > MAX_EXACT_TIMES) {
+				histogram = new JDynHistogram(precision);
+				for (int i = 0; i < count - 1; i++) {
+					histogram.record(times[i]);
+				}
+				times = null;
 			}
-			if (worst < time) {
-				worst = time;
+			if (histogram != null) {
+				histogram.record(time);
+			} else {
+				if (count > times.length) {
+					times = Arrays.copyOf(times, times.length * 2);
+				}
+				times[(int) count - 1] = time;
+				sorted = false;
 			}
-			total += time;
-			count++;
+		}
+		
+		/**
+		 * Adds all times of other to this record which must not keep its 
+		 * times.<br>
+		 */
+		void addAll(Record other) {
+			count += other.count;
+			total += other.total;
+			best = Math.min(best, other.best);
+			worst = Math.max(worst, other.worst);
+			if (other.histogram != null) {
+				histogram.add(other.histogram);
+			} else {
+				for (int i = 0; i < other.count; i++) {
+					histogram.record(other.times[i]);
+				}
+			}
+		}
+		
+		double getMean() {
+			return count == 0 ? 0 : total / (double) count;
+		}
+		
+		long getValueAtPercentile(double percentile) {
+			if (histogram != null) {
+				return histogram.getValueAtPercentile(percentile);
+			}
+			if (!sorted) {
+				Arrays.sort(times, 0, (int) count);
+				sorted = true;
+			}
+			long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+			return times[(int) Math.min(rank, count) - 1];
 		}
 	}
 	
 	@Override
 	public void processSequence(CallSequenceTree sequence) {
-		Map<String, Record> timesMap = new HashMap<>();
+		List<Record> records = new ArrayList<>();
 		
 		Deque<CstEvent> eventStack = new ArrayDeque<>();
 		eventStack.push(sequence.getRootEvent());
@@ -69,22 +179,20 @@ public class ElapsedTimeProc implements JDynProcessor {
 				continue;
 			}
 			
-			String key = event.getSignature();
-			if (key != null) {
+			int methodID = event.getMethodID();
+			if (methodID != JDynMethodRegistry.NO_METHOD_ID) {
 				long time = event.getAfterNanoTime() - event.getBeforeNanoTime();
-				Record rec = timesMap.get(key);
+				if (methodID >= recordsByID.length) {
+					recordsByID = Arrays.copyOf(recordsByID, 
+							Math.max(recordsByID.length * 2, methodID + 1));
+				}
+				Record rec = recordsByID[methodID];
 				if (rec == null) {
-					rec = new Record(key, time);
-					timesMap.put(key, rec);
-				} else {
-					rec.add(time);
+					rec = new Record(methodID, precision, true);
+					recordsByID[methodID] = rec;
+					records.add(rec);
 				}
-//				List<Long> times = timesMap.get(key);
-//				if (times == null) {
-//					times = new ArrayList<>();
-//					timesMap.put(key, times);
-//				}
-//				times.add(Long.valueOf(time));
+				rec.add(time);
 			}
 			if (event.getChildCount() > 0) {
 				for (CstEvent childEvent : event.getChildren()) {
@@ -92,24 +200,69 @@ public class ElapsedTimeProc implements JDynProcessor {
 				}
 			}
 		}
-		filterTimes(timesMap);
-		if (timesMap.size() > 0) {
-			printTimes(timesMap);
+		for (Record rec : records) {
+			recordsByID[rec.methodID] = null;
+		}
+		if (summaryRecords != null) {
+			addToSummary(records);
+		}
+		filterTimes(records);
+		if (records.size() > 0) {
+			printTimes(records, null);
+		}
+	}
+	
+	/**
+	 * Merges the records of a sequence into the {@link #summaryRecords}.<br>
+	 */
+	private void addToSummary(List<Record> records) {
+		for (Record rec : records) {
+			if (rec.methodID >= summaryRecords.length) {
+				summaryRecords = Arrays.copyOf(summaryRecords, 
+						Math.max(summaryRecords.length * 2, rec.methodID + 1));
+			}
+			Record summary = summaryRecords[rec.methodID];
+			if (summary == null) {
+				summary = new Record(rec.methodID, precision, false);
+				summaryRecords[rec.methodID] = summary;
+			}
+			summary.addAll(rec);
+		}
+	}
+	
+	@Override
+	public void onShutDown() {
+		if (summaryRecords == null) {
+			return;
+		}
+		List<Record> records = new ArrayList<>();
+		for (Record rec : summaryRecords) {
+			if (rec != null) {
+				records.add(rec);
+			}
+		}
+		filterTimes(records);
+		if (records.size() > 0) {
+			printTimes(records, "Summary");
 		}
 	}
 	
-	private void filterTimes(Map<String, Record> timesMap) {
-		Iterator<Entry<String, Record>> iter = timesMap.entrySet().iterator();
+	private void filterTimes(List<Record> records) {
+		Iterator<Record> iter = records.iterator();
 		while (iter.hasNext()) {
-			Entry<String, Record> entry = iter.next();
-			Record rec = entry.getValue();
+			Record rec = iter.next();
 			if (rec.count < minCallCount) {
 				iter.remove();
 			}
 		}
 	}
 	
-	private void printTimes(Map<String, Record> timesMap) {
+	/**
+	 * @param records		the records to print
+	 * @param fileSuffix	appended to the path of an output file instead of a 
+	 * 						running number, may be null
+	 */
+	private void printTimes(List<Record> records, String fileSuffix) {
 		String title = "#   Elapsed Time   #";
 		StringBuilder sb = new StringBuilder(title.length());
 		sb.append('#');
@@ -121,8 +274,12 @@ public class ElapsedTimeProc implements JDynProcessor {
 		
 		String out = outPath;
 		if (JDynUtil.isOutputToFile(outPath)) {
-			int number = outCount.getAndIncrement();
-			out = outPath + number + ".txt";
+			if (fileSuffix == null) {
+				int number = outCount.getAndIncrement();
+				out = outPath + number + ".txt";
+			} else {
+				out = outPath + fileSuffix + ".txt";
+			}
 		}
 		Object printKey = JDynUtil.startPrinting(out);
 		JDynUtil.print(printKey, titleCover);
@@ -130,39 +287,79 @@ public class ElapsedTimeProc implements JDynProcessor {
 		JDynUtil.print(printKey, titleCover);
 		JDynUtil.print(printKey);
 		
-		Collection<Record> records;
-		if (sortBy == null) {
-			records = timesMap.values();
-		} else {
-			List<Record> recordsList = new ArrayList<>(timesMap.values());
-			sortBy.sort(recordsList);
-			records = recordsList;
+		if (sortBy != null) {
+			sortBy.sort(records);
 		}
 		for (Record rec : records) {
-			JDynUtil.print(printKey, "=====  ", rec.sig, "  =====");
-			
-			long worst = (long) (rec.worst / times.divideNanosBy);
-			long best = (long) (rec.best / times.divideNanosBy);
-			long total = (long) (rec.total / times.divideNanosBy);
-			double avg = total / (double) rec.count;
-			
-			String suffix = times.toString();
-			
-			JDynUtil.print(printKey, "calls\t= ", rec.count);
-			JDynUtil.print(printKey, "best\t= ", best, " \t", suffix);
-			JDynUtil.print(printKey, "worst\t= ", worst, " \t", suffix);
-			JDynUtil.print(printKey, "total\t= ", total, " \t", suffix);
-			JDynUtil.print(printKey, "average\t= ", avg, " \t", suffix, "\n");
+			String sig = JDynMethodRegistry.getSignature(rec.methodID);
+			JDynUtil.print(printKey, "=====  ", sig, "  =====");
+			String removedReason = JDynRemovedProbes.getReason(rec.methodID);
+			if (removedReason != null) {
+				JDynUtil.print(printKey, "note\t= ", removedReason);
+			}
+			long[] percentileValues = new long[PERCENTILES.length];
+			for (int i = 0; i < PERCENTILES.length; i++) {
+				percentileValues[i] = rec.getValueAtPercentile(PERCENTILES[i]);
+			}
+			printTimes(printKey, rec.count, rec.best, rec.worst, rec.total, 
+					percentileValues, times);
 		}
 		JDynUtil.stopPrinting(printKey);
 	}
 	
+	/**
+	 * Prints the calls, best, worst, total, average and percentile times of 
+	 * a histogram in the given unit. Also used by the ElapsedTimeObs.<br>
+	 * @param printKey		returned by {@link JDynUtil#startPrinting(String)}
+	 * @param histogram		the times of a behavior in nano seconds
+	 * @param times			the unit of the output
+	 */
+	public static void printTimes(Object printKey, JDynHistogram histogram, Times times) {
+		long[] percentileValues = new long[PERCENTILES.length];
+		for (int i = 0; i < PERCENTILES.length; i++) {
+			percentileValues[i] = histogram.getValueAtPercentile(PERCENTILES[i]);
+		}
+		printTimes(printKey, histogram.getCount(), histogram.getMin(), histogram.getMax(), 
+				histogram.getTotal(), percentileValues, times);
+	}
+	
+	/**
+	 * @param percentileValues		the times at the {@link #PERCENTILES} in nano seconds
+	 */
+	private static void printTimes(Object printKey, long count, long bestNanos, 
+			long worstNanos, long totalNanos, long[] percentileValues, Times times) 
+	{
+		long worst = (long) (worstNanos / times.divideNanosBy);
+		long best = (long) (bestNanos / times.divideNanosBy);
+		long total = (long) (totalNanos / times.divideNanosBy);
+		double avg = total / (double) count;
+		
+		String suffix = times.toString();
+		
+		JDynUtil.print(printKey, "calls\t= ", count);
+		JDynUtil.print(printKey, "best\t= ", best, " \t", suffix);
+		JDynUtil.print(printKey, "worst\t= ", worst, " \t", suffix);
+		JDynUtil.print(printKey, "total\t= ", total, " \t", suffix);
+		JDynUtil.print(printKey, "average\t= ", avg, " \t", suffix);
+		for (int i = 0; i < PERCENTILES.length; i++) {
+			long value = (long) (percentileValues[i] / times.divideNanosBy);
+			String name = PERCENTILE_NAMES[i] + "\t= ";
+			if (i < PERCENTILES.length - 1) {
+				JDynUtil.print(printKey, name, value, " \t", suffix);
+			} else {
+				JDynUtil.print(printKey, name, value, " \t", suffix, "\n");
+			}
+		}
+	}
+	
 	public static enum SortBy {
-		CALLS	((r1, r2) -> Integer.compare(r2.count, r1.count)),
+		CALLS	((r1, r2) -> Long.compare(r2.count, r1.count)),
 		BEST	((r1, r2) -> Long.compare(r2.best, r1.best)),
 		WORST	((r1, r2) -> Long.compare(r2.worst, r1.worst)),
 		TOTAL	((r1, r2) -> Long.compare(r2.total, r1.total)),
-		AVERAGE	((r1, r2) -> Double.compare(r2.total / (double) r2.count, r1.total / (double) r1.count)),
+		AVERAGE	((r1, r2) -> Double.compare(r2.getMean(), r1.getMean())),
+		P99		((r1, r2) -> Long.compare(r2.getValueAtPercentile(99), 
+				r1.getValueAtPercentile(99))),
 		;
 		
 		final Comparator<Record> comparator;
@@ -9,6 +9,7 @@ import edu.udo.cs.dynaliser.CstEventException;
 import edu.udo.cs.dynaliser.CstEventMethod;
 import edu.udo.cs.dynaliser.CstEventStaticMethod;
 import edu.udo.cs.dynaliser.IdentifiedObject;
+import edu.udo.cs.dynaliser.JDynIdentityTable;
 import edu.udo.cs.dynalysis.JDynProcessor;
 import edu.udo.cs.dynalysis.JDynUtil;
 
@@ -88,7 +89,7 @@ public class PrintCallSequence implements JDynProcessor {
 			sb.append(", class=");
 			sb.append(cEvent.getConstructedClass().getSimpleName());
 			sb.append(", id=");
-			sb.append(cEvent.getConstructedObject().getUniqueID());
+			appendID(sb, cEvent.getConstructedObject());
 			if (cEvent.hasParameters()) {
 				Object[] params = cEvent.getParameters();
 				for (int i = 0; i < params.length; i++) {
@@ -102,16 +103,23 @@ public class PrintCallSequence implements JDynProcessor {
 		case EXCEPTION:
 			CstEventException eEvent = (CstEventException) event;
 			sb.append(", class=");
-			sb.append(eEvent.getException().getClass().getSimpleName());
+			sb.append(eEvent.getThrowable().getClass().getSimpleName());
 			sb.append(", msg=");
-			sb.append(eEvent.getException().getMessage());
+			sb.append(eEvent.getThrowable().getMessage());
+			sb.append(", unwound=");
+			sb.append(eEvent.getUnwindDepth());
 			break;
 		case METHOD:
 			CstEventMethod mEvent = (CstEventMethod) event;
 			sb.append(", class=");
-			sb.append(mEvent.getInvokingObject().getIdentifiedObject().getClass().getSimpleName());
+			IdentifiedObject self = mEvent.getInvokingObject();
+			if (self == null) {
+				sb.append(JDynUtil.getClassSimpleNameFromSignature(mEvent.getSignature()));
+			} else {
+				sb.append(self.getIdentifiedObjectClass().getSimpleName());
+			}
 			sb.append(", id=");
-			sb.append(mEvent.getInvokingObject().getUniqueID());
+			appendID(sb, self);
 			sb.append(", method=");
 			sb.append(JDynUtil.getMethodNameFromSignature(mEvent.getSignature()));
 			if (mEvent.hasReturnValue()) {
@@ -153,6 +161,14 @@ public class PrintCallSequence implements JDynProcessor {
 		}
 	}
 	
+	private void appendID(StringBuilder sb, IdentifiedObject obj) {
+		if (obj == null) {
+			sb.append(JDynIdentityTable.NO_ID);
+		} else {
+			sb.append(obj.getUniqueID());
+		}
+	}
+	
 	private void appendParamOrReturn(StringBuilder sb, Object obj) {
 		if (obj == null) {
 			sb.append("null");
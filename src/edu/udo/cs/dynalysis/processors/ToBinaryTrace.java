@@ -0,0 +1,68 @@
+package edu.udo.cs.dynalysis.processors;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+
+import edu.udo.cs.dynaliser.CallSequenceTree;
+import edu.udo.cs.dynalysis.JDynProcessor;
+import edu.udo.cs.dynalysis.JDynUtil;
+import edu.udo.cs.dynalysis.trace.JDynTraceFormat;
+import edu.udo.cs.dynalysis.trace.JDynTraceWriter;
+
+/**
+ * Writes all trees into a single file of the {@link JDynTraceFormat binary
+ * trace format}.<br>
+ * Arguments are "outfile", the path of the file which defaults to
+ * "trace.jdt", and "chunkKB", the size of a chunk in kilo bytes. The file
+ * is completed when the JVM shuts down.<br>
+ */
+public class ToBinaryTrace implements JDynProcessor {
+	
+	public static final String DEFAULT_OUT_PATH = "trace.jdt";
+	
+	private String outPath;
+	private int chunkBytes;
+	private JDynTraceWriter writer;
+	private boolean failed;
+	
+	@Override
+	public void setArgs(String args) {
+		outPath = JDynUtil.extractArg(args, "outfile");
+		if (outPath.isEmpty()) {
+			outPath = DEFAULT_OUT_PATH;
+		}
+		int chunkKB = JDynUtil.toInt(JDynUtil.extractArg(args, "chunkKB"), -1);
+		chunkBytes = chunkKB > 0 ? chunkKB * 1024 : JDynTraceWriter.DEFAULT_CHUNK_BYTES;
+	}
+	
+	@Override
+	public synchronized void processSequence(CallSequenceTree sequence) {
+		if (failed) {
+			return;
+		}
+		try {
+			if (writer == null) {
+				writer = new JDynTraceWriter(Paths.get(outPath), chunkBytes);
+			}
+			writer.write(sequence);
+		} catch (IOException e) {
+			System.err.println("JDyn Error: Can not write trace file '"+outPath+"'");
+			e.printStackTrace();
+			// The file is broken after the last complete chunk
+			failed = true;
+		}
+	}
+	
+	@Override
+	public synchronized void onShutDown() {
+		if (writer == null) {
+			return;
+		}
+		try {
+			writer.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+}
\ No newline at end of file
@@ -143,11 +143,11 @@ public class ToTikZUml implements JDynProcessor {
 	
 	private void appendException(StringBuilder sb, CstEventException event) {
 		sb.append("\\umlcreatecall[class=");
-		sb.append(event.getException().getClass().getSimpleName());
+		sb.append(event.getThrowable().getClass().getSimpleName());
 		sb.append("] {");
 		appendObject(sb, event.getCallingObject());
 		sb.append("}{");
-		appendObject(sb, new IdentifiedObject(event.getException(), -1));
+		appendObject(sb, new IdentifiedObject(event.getThrowable(), -1));
 		sb.append("}");
 	}
 	
@@ -0,0 +1,202 @@
+package edu.udo.cs.dynalysis.trace;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import edu.udo.cs.dynaliser.CallSequenceTree;
+import edu.udo.cs.dynaliser.JDynProcessorPipeline;
+import edu.udo.cs.dynaliser.JDynProcessorThread;
+import edu.udo.cs.dynaliser.JDynSettings;
+import edu.udo.cs.dynaliser.JDynSettingsParser;
+import edu.udo.cs.dynalysis.JDynProcessor;
+
+/**
+ * Feeds the trees of trace files written by the
+ * {@link edu.udo.cs.dynalysis.processors.ToBinaryTrace ToBinaryTrace}
+ * processor into the {@link JDynProcessor processors} of a settings file,
+ * so that the analysis can run on another machine than the program.<br>
+ * Usage: <code>JDynReplay [-f=settings.xml] [-cp=classpath] [-threads=n]
+ * trace...</code><br>
+ * The classes of the program are loaded from the given class path if
+ * possible; otherwise stubs with the same names are used. Chunks are
+ * decoded by a number of threads at the same time and the trees are passed
+ * to the processors in the order they were recorded by a
+ * {@link JDynProcessorThread}, exactly as in the recording JVM; the
+ * <code>pipeline</code> settings apply. Settings which only concern the
+ * recording are ignored.<br>
+ */
+public class JDynReplay {
+	
+	private static final String DEFAULT_SETTINGS_FILE_NAME = "jdynSettings.xml";
+	
+	public static void main(String[] args) {
+		String settingsFileName = DEFAULT_SETTINGS_FILE_NAME;
+		String classPath = null;
+		int threads = Runtime.getRuntime().availableProcessors();
+		List<String> traceFileNames = new ArrayList<>();
+		for (String arg : args) {
+			String lowerArg = arg.toLowerCase();
+			if (lowerArg.startsWith("-f=")) {
+				settingsFileName = arg.substring("-f=".length());
+			} else if (lowerArg.startsWith("-cp=")) {
+				classPath = arg.substring("-cp=".length());
+			} else if (lowerArg.startsWith("-threads=")) {
+				try {
+					threads = Integer.parseInt(arg.substring("-threads=".length()));
+				} catch (NumberFormatException e) {
+					System.err.println("JDyn Error: Illegal Argument '"+arg+"'");
+				}
+			} else if (arg.startsWith("-")) {
+				System.err.println("JDyn Error: Illegal Argument '"+arg+"'");
+			} else {
+				traceFileNames.add(arg);
+			}
+		}
+		if (traceFileNames.isEmpty()) {
+			System.err.println("Usage: JDynReplay [-f=settings.xml] [-cp=classpath] "
+					+ "[-threads=n] trace...");
+			return;
+		}
+		File settingsFile = new File(settingsFileName);
+		if (!settingsFile.isFile()) {
+			System.err.println("JDyn Error: Settings file '"+settingsFileName+"' not found");
+			return;
+		}
+		JDynSettings settings = new JDynSettingsParser().parseSettings(settingsFile);
+		if (!settings.hasProcessors()) {
+			System.err.println("JDyn Error: The settings do not contain any processors");
+			return;
+		}
+		JDynReplay replay = new JDynReplay(settings, createClassLoader(classPath), threads);
+		for (String fileName : traceFileNames) {
+			replay.replay(fileName);
+		}
+		replay.finish();
+	}
+	
+	private static ClassLoader createClassLoader(String classPath) {
+		ClassLoader parent = JDynReplay.class.getClassLoader();
+		if (classPath == null || classPath.isEmpty()) {
+			return parent;
+		}
+		List<URL> urls = new ArrayList<>();
+		for (String entry : classPath.split(File.pathSeparator)) {
+			try {
+				urls.add(new File(entry).toURI().toURL());
+			} catch (MalformedURLException e) {
+				System.err.println("JDyn Error: Illegal class path entry '"+entry+"'");
+			}
+		}
+		return new URLClassLoader(urls.toArray(new URL[urls.size()]), parent);
+	}
+	
+	private final JDynProcessorThread procThread;
+	private final ClassLoader classLoader;
+	private final ExecutorService decoders;
+	/**
+	 * The number of chunks which may be decoded ahead of the processors.<br>
+	 */
+	private final int maxPendingChunks;
+	private JDynTraceReader firstReader;
+	private long treeCount;
+	
+	/**
+	 * @param settings		the settings which name the processors
+	 * @param loader		used to load the classes of the traces
+	 * @param threadCount	the number of threads decoding chunks
+	 */
+	public JDynReplay(JDynSettings settings, ClassLoader loader, int threadCount) {
+		procThread = new JDynProcessorThread(settings, null);
+		classLoader = loader;
+		int decoderCount = Math.max(1, threadCount);
+		decoders = Executors.newFixedThreadPool(decoderCount, (runnable) -> {
+			Thread thread = new Thread(runnable, "JDynReplayDecoder");
+			thread.setDaemon(true);
+			return thread;
+		});
+		maxPendingChunks = decoderCount * 2;
+	}
+	
+	/**
+	 * Passes all trees of the given trace file to the processors. Errors
+	 * are printed; the trees read before an error are processed.<br>
+	 * @param fileName		the path of a trace file
+	 */
+	public void replay(String fileName) {
+		Deque<Future<List<CallSequenceTree>>> pending = new ArrayDeque<>();
+		try (JDynTraceReader reader = openReader(fileName)) {
+			JDynTraceReader.Chunk chunk;
+			while ((chunk = reader.nextChunk()) != null) {
+				pending.add(decoders.submit(chunk::decode));
+				if (pending.size() >= maxPendingChunks) {
+					process(pending.poll());
+				}
+			}
+			while (!pending.isEmpty()) {
+				process(pending.poll());
+			}
+			if (reader.isDamaged()) {
+				System.err.println("JDyn Error: The last chunk of '"+fileName
+						+"' is damaged and was skipped");
+			}
+		} catch (IOException | ExecutionException e) {
+			System.err.println("JDyn Error: Can not replay '"+fileName+"'");
+			e.printStackTrace();
+			for (Future<List<CallSequenceTree>> future : pending) {
+				future.cancel(false);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * Waits until the processors processed all trees and lets them finish
+	 * their output.<br>
+	 */
+	public void finish() {
+		decoders.shutdown();
+		procThread.awaitIdle(Long.MAX_VALUE);
+		long dropped = 0;
+		for (JDynProcessorPipeline pipeline : procThread.getPipelines()) {
+			dropped += pipeline.getDroppedCount();
+			try {
+				pipeline.getProcessor().onShutDown();
+			} catch (Exception e) {
+				e.printStackTrace();
+			}
+		}
+		System.out.println("JDynReplay: "+treeCount+" trees replayed, "+dropped+" dropped");
+	}
+	
+	private JDynTraceReader openReader(String fileName) throws IOException {
+		if (firstReader == null) {
+			firstReader = new JDynTraceReader(Paths.get(fileName), classLoader);
+			return firstReader;
+		}
+		// All files share their classes and threads
+		return new JDynTraceReader(Paths.get(fileName), firstReader);
+	}
+	
+	private void process(Future<List<CallSequenceTree>> future)
+			throws InterruptedException, ExecutionException
+	{
+		for (CallSequenceTree tree : future.get()) {
+			procThread.process(tree);
+			treeCount++;
+		}
+	}
+	
+}
\ No newline at end of file
@@ -0,0 +1,220 @@
+package edu.udo.cs.dynalysis.trace;
+
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import edu.udo.cs.dynaliser.IdentifiedObject;
+import edu.udo.cs.dynaliser.JDynIdentityTable;
+import javassist.CannotCompileException;
+import javassist.ClassPool;
+import javassist.CtClass;
+import javassist.CtNewConstructor;
+import javassist.NotFoundException;
+
+/**
+ * Turns the class names of a trace back into classes for a
+ * {@link JDynTraceReader}.<br>
+ * Classes are loaded without being initialized. A class that can not be
+ * loaded, usually because the program is not on the class path of the
+ * replay, is replaced by an empty stub class with the same name so that
+ * processors still see the recorded names. Stubs are top level classes, so
+ * the simple name of a stub for a nested class includes its outer class.
+ * Exceptions are recreated through their constructor with a single String
+ * if possible, otherwise a stub which extends {@link Throwable} is used.<br>
+ * All methods are thread safe.<br>
+ */
+final class JDynTraceClasses {
+	
+	private final ClassLoader loader;
+	private final Map<String, Class<?>> classes = new ConcurrentHashMap<>();
+	// The following fields are guarded by this
+	private ClassPool pool;
+	private final StubLoader stubs;
+	/**
+	 * Exception stubs are defined by a loader of their own in case a stub of
+	 * the same name was defined before for a value that was not thrown.<br>
+	 */
+	private final StubLoader throwableStubs;
+	
+	/**
+	 * @param classLoader	used to load the recorded classes
+	 */
+	JDynTraceClasses(ClassLoader classLoader) {
+		loader = classLoader;
+		stubs = new StubLoader(classLoader);
+		throwableStubs = new StubLoader(classLoader);
+	}
+	
+	/**
+	 * Returns the class with the given name or a stub for it.<br>
+	 * @param name		a class name as returned by {@link Class#getName()} or null
+	 * @return			a class with the given name or null if name is null
+	 */
+	Class<?> getClass(String name) {
+		if (name == null) {
+			return null;
+		}
+		Class<?> clazz = classes.get(name);
+		if (clazz == null) {
+			clazz = resolve(name, false);
+		}
+		return clazz;
+	}
+	
+	/**
+	 * Creates a throwable of the given class with the given message. The
+	 * stack trace of the result is meaningless.<br>
+	 * @param className		the name of the recorded throwable class
+	 * @param message		the recorded message, may be null
+	 * @return				a non-null throwable
+	 */
+	Throwable createThrowable(String className, String message) {
+		Class<?> clazz = classes.get(className);
+		if (clazz == null) {
+			clazz = resolve(className, true);
+		}
+		if (!Throwable.class.isAssignableFrom(clazz)) {
+			clazz = defineThrowableStub(className);
+		}
+		try {
+			return (Throwable) clazz.getConstructor(String.class).newInstance(message);
+		} catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+			// The class has no such constructor or can not be instantiated
+		}
+		if (clazz.getClassLoader() != throwableStubs) {
+			try {
+				return (Throwable) defineThrowableStub(className)
+						.getConstructor(String.class).newInstance(message);
+			} catch (ReflectiveOperationException | RuntimeException | LinkageError e) {
+				// Names of the JDK can not be used for stubs
+			}
+		}
+		return new Throwable(className + ": " + message);
+	}
+	
+	/**
+	 * Returns the constant of an enum or the name of the constant if the
+	 * enum can not be loaded or does not have the constant anymore.<br>
+	 */
+	Object getEnumConstant(String className, String constantName) {
+		Class<?> clazz = getClass(className);
+		if (clazz != null && clazz.isEnum()) {
+			for (Object constant : clazz.getEnumConstants()) {
+				if (((Enum<?>) constant).name().equals(constantName)) {
+					return constant;
+				}
+			}
+		}
+		return constantName;
+	}
+	
+	/**
+	 * Returns a stand-in for a value that was not identified while
+	 * recording. Arrays are replaced by empty arrays of the same type, other
+	 * objects by an {@link IdentifiedObject} with the id
+	 * {@link JDynIdentityTable#NO_ID}.<br>
+	 */
+	Object getOtherValue(String className) {
+		Class<?> clazz = getClass(className);
+		if (clazz == null) {
+			return null;
+		}
+		if (clazz.isArray()) {
+			return Array.newInstance(clazz.getComponentType(), 0);
+		}
+		return IdentifiedObject.withoutObject(clazz, JDynIdentityTable.NO_ID);
+	}
+	
+	private synchronized Class<?> resolve(String name, boolean throwable) {
+		Class<?> clazz = classes.get(name);
+		if (clazz != null) {
+			return clazz;
+		}
+		try {
+			clazz = Class.forName(name, false, loader);
+		} catch (ClassNotFoundException | LinkageError e) {
+			if (name.startsWith("[")) {
+				clazz = resolveArray(name);
+			} else if (throwable) {
+				clazz = defineThrowableStub(name);
+			} else {
+				clazz = defineStub(name);
+			}
+		}
+		classes.put(name, clazz);
+		return clazz;
+	}
+	
+	/**
+	 * Returns the class of an array whose element class can not be loaded.<br>
+	 */
+	private Class<?> resolveArray(String name) {
+		int dimensions = name.lastIndexOf('[') + 1;
+		String elementName = name.substring(dimensions);
+		Class<?> elementClass = Object.class;
+		if (elementName.startsWith("L") && elementName.endsWith(";")) {
+			elementClass = getClass(elementName.substring(1, elementName.length() - 1));
+		}
+		return Array.newInstance(elementClass, new int[dimensions]).getClass();
+	}
+	
+	private synchronized Class<?> defineStub(String name) {
+		Class<?> clazz = stubs.define(getPool(), name, false);
+		return clazz == null ? Object.class : clazz;
+	}
+	
+	private synchronized Class<?> defineThrowableStub(String name) {
+		Class<?> clazz = throwableStubs.findStub(name);
+		if (clazz == null) {
+			clazz = throwableStubs.define(getPool(), name, true);
+		}
+		return clazz == null ? Throwable.class : clazz;
+	}
+	
+	private ClassPool getPool() {
+		if (pool == null) {
+			pool = new ClassPool();
+			pool.appendSystemPath();
+		}
+		return pool;
+	}
+	
+	private static class StubLoader extends ClassLoader {
+		
+		StubLoader(ClassLoader parent) {
+			super(parent);
+		}
+		
+		Class<?> findStub(String name) {
+			return findLoadedClass(name);
+		}
+		
+		/**
+		 * Defines an empty public class with the given name. Throwable stubs
+		 * extend {@link Throwable} and have a constructor with a message.<br>
+		 * @return		the stub or null if it can not be defined
+		 */
+		Class<?> define(ClassPool pool, String name, boolean throwable) {
+			try {
+				CtClass stub = pool.makeClass(name);
+				if (throwable) {
+					stub.setSuperclass(pool.get(Throwable.class.getName()));
+					stub.addConstructor(CtNewConstructor.make(
+							new CtClass[] {pool.get(String.class.getName())}, new CtClass[0], stub));
+				}
+				byte[] bytes = stub.toBytecode();
+				stub.detach();
+				return defineClass(name, bytes, 0, bytes.length);
+			} catch (CannotCompileException | NotFoundException | IOException
+					| RuntimeException | LinkageError e)
+			{
+				System.err.println("JDyn Error: Can not create a stub for class '"+name+"'");
+				return null;
+			}
+		}
+		
+	}
+	
+}
\ No newline at end of file
@@ -0,0 +1,169 @@
+package edu.udo.cs.dynalysis.trace;
+
+import edu.udo.cs.dynaliser.CallSequenceTree;
+
+/**
+ * Constants of the binary trace format written by the {@link JDynTraceWriter}.<br>
+ * A trace file starts with {@link #FILE_MAGIC} and {@link #VERSION}, each
+ * as a big endian int, followed by any number of chunks. A chunk starts
+ * with {@link #CHUNK_MAGIC}, the length of its payload and a CRC-32 of
+ * the payload, each as a big endian int. A chunk that is incomplete or
+ * does not match its checksum ends the trace; all chunks before it can
+ * be read.<br>
+ * The payload of a chunk starts with the strings which are used for the
+ * first time in the chunk: their number as a varint followed by each
+ * string as the varint length of its UTF-8 bytes and the bytes. Strings
+ * are numbered in the order they are defined throughout the file; a
+ * string reference is the varint number of the string plus one, or 0 for
+ * null. After the strings follow the number of trees as a varint and the
+ * trees.<br>
+ * A tree is written as a reference to the name of its thread, a byte of
+ * tree flags, the varint {@link CallSequenceTree#getPartialIndex() partial
+ * index}, the zig-zag varlong start time of its root event relative to the
+ * start of the previous tree in the chunk (the first tree of a chunk is
+ * relative to 0) and its events in pre-order. Each event is written as:
+ * <ul>
+ * <li>a byte with the event kind in the lower bits and the event flags</li>
+ * <li>a reference to the signature, or to the class name for exceptions</li>
+ * <li>the zig-zag varlong start time relative to the start of its parent,
+ * or of the tree for the root event, and the zig-zag varlong duration</li>
+ * <li>the data of the kind, see the <code>EVENT_</code> constants</li>
+ * <li>the parameters as a varint count and values if
+ * {@link #FLAG_PARAMETERS} is set</li>
+ * <li>the returned value if {@link #FLAG_RETURN} is set</li>
+ * <li>the varint number of children, which follow right after</li>
+ * </ul>
+ * Object ids are written as zig-zag varint differences to the object id
+ * written before in the same tree.<br>
+ */
+public final class JDynTraceFormat {
+
+	/**
+	 * The characters "JDTR".<br>
+	 */
+	public static final int FILE_MAGIC = 0x4A445452;
+	/**
+	 * Must be increased whenever the format changes in an incompatible way.<br>
+	 */
+	public static final int VERSION = 1;
+	/**
+	 * The characters "JDCK".<br>
+	 */
+	public static final int CHUNK_MAGIC = 0x4A44434B;
+	/**
+	 * The bytes before the payload of a chunk: magic, length and checksum.<br>
+	 */
+	public static final int CHUNK_HEADER_BYTES = 12;
+
+	/**
+	 * Set if the tree is {@link CallSequenceTree#isPartial() partial}.<br>
+	 */
+	public static final int TREE_PARTIAL = 0x01;
+
+	/**
+	 * The lower bits of the first byte of an event.<br>
+	 */
+	public static final int EVENT_KIND_MASK = 0x07;
+	/**
+	 * Followed by a reference to the constructed class and, if
+	 * {@link #FLAG_OBJECT} is set, the class and id of the constructed
+	 * object.<br>
+	 */
+	public static final int EVENT_CONSTRUCTOR = 0;
+	/**
+	 * Followed by a reference to the class of the method.<br>
+	 */
+	public static final int EVENT_STATIC_METHOD = 1;
+	/**
+	 * Followed by the class and id of the invoking object if
+	 * {@link #FLAG_OBJECT} is set.<br>
+	 */
+	public static final int EVENT_METHOD = 2;
+	/**
+	 * Followed by the message as text, the id of the exception object, the
+	 * varint unwind depth and a reference to the signature of each unwound
+	 * behavior. Exceptions do not have children; their child count is
+	 * always 0.<br>
+	 */
+	public static final int EVENT_EXCEPTION = 3;
+
+	public static final int FLAG_PARAMETERS = 0x10;
+	public static final int FLAG_RETURN = 0x20;
+	public static final int FLAG_OBJECT = 0x40;
+	/**
+	 * Set for a constructor event that belongs to a super constructor.<br>
+	 */
+	public static final int FLAG_SUPER = 0x80;
+
+	/*
+	 * Each value starts with one of the following bytes.
+	 */
+	public static final int VALUE_NULL = 0;
+	/**
+	 * Followed by a reference to the class and the id of the object.<br>
+	 */
+	public static final int VALUE_OBJECT = 1;
+	/**
+	 * Followed by a byte that is 0 or 1.<br>
+	 */
+	public static final int VALUE_BOOLEAN = 2;
+	public static final int VALUE_BYTE = 3;
+	/**
+	 * Followed by a varint.<br>
+	 */
+	public static final int VALUE_CHAR = 4;
+	/**
+	 * Followed by a zig-zag varint.<br>
+	 */
+	public static final int VALUE_SHORT = 5;
+	/**
+	 * Followed by a zig-zag varint.<br>
+	 */
+	public static final int VALUE_INT = 6;
+	/**
+	 * Followed by a zig-zag varlong.<br>
+	 */
+	public static final int VALUE_LONG = 7;
+	/**
+	 * Followed by the big endian IEEE 754 bits.<br>
+	 */
+	public static final int VALUE_FLOAT = 8;
+	public static final int VALUE_DOUBLE = 9;
+	/**
+	 * Followed by the value as text.<br>
+	 */
+	public static final int VALUE_STRING = 10;
+	/**
+	 * Followed by a reference to the class and a reference to the name of
+	 * the constant.<br>
+	 */
+	public static final int VALUE_ENUM = 11;
+	/**
+	 * An object which was not identified. Followed by a reference to its
+	 * class.<br>
+	 */
+	public static final int VALUE_OTHER = 12;
+
+	private JDynTraceFormat() {
+	}
+
+	/**
+	 * Returns the zig-zag encoding of value so that values close to 0 are
+	 * written with few bytes regardless of their sign.<br>
+	 * @param value		any value
+	 * @return			a non-negative value if value is not too big
+	 */
+	public static long zigZag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	/**
+	 * Reverses {@link #zigZag(long)}.<br>
+	 * @param encoded	a value returned by {@link #zigZag(long)}
+	 * @return			the original value
+	 */
+	public static long unZigZag(long encoded) {
+		return (encoded >>> 1) ^ -(encoded & 1);
+	}
+
+}
\ No newline at end of file
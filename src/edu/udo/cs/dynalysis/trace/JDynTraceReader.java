@@ -0,0 +1,443 @@
+package edu.udo.cs.dynalysis.trace;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+import edu.udo.cs.dynaliser.CallSequenceTree;
+import edu.udo.cs.dynaliser.IdentifiedObject;
+import edu.udo.cs.dynaliser.JDynMethodRegistry;
+import edu.udo.cs.dynaliser.JDynTreeBuilder;
+
+/**
+ * Reads the {@link CallSequenceTree CallSequenceTrees} of a file written by
+ * a {@link JDynTraceWriter}.<br>
+ * The chunks of the file are read one after the other with
+ * {@link #nextChunk()}. Since the string table of a chunk is read right
+ * away, the trees of the chunks can then be {@link Chunk#decode() decoded}
+ * by different threads at the same time.<br>
+ * The signatures of the trace are registered with the
+ * {@link JDynMethodRegistry} of this JVM; the method ids of the replayed
+ * events differ from the recorded ids. Objects are replayed as
+ * {@link IdentifiedObject IdentifiedObjects} without the object.<br>
+ */
+public class JDynTraceReader implements Closeable {
+	
+	private final Path path;
+	private final FileChannel channel;
+	private final JDynTraceClasses classes;
+	/**
+	 * The threads of the replayed trees by name. Threads are never started;
+	 * they only provide the name to processors.<br>
+	 */
+	private final Map<String, Thread> threads;
+	private final ByteBuffer header = ByteBuffer.allocate(JDynTraceFormat.CHUNK_HEADER_BYTES);
+	private final CRC32 crc = new CRC32();
+	/**
+	 * All strings defined so far. Only appended to, so the chunks read
+	 * before can keep using the array while new strings are defined.<br>
+	 */
+	private String[] strings = new String[256];
+	private int stringCount;
+	private boolean damaged;
+	
+	/**
+	 * Opens the file and checks its header.<br>
+	 * @param file			a file written by a {@link JDynTraceWriter}
+	 * @param classLoader	used to load the classes named in the trace
+	 * @throws IOException	if the file can not be read or is not a trace file
+	 */
+	public JDynTraceReader(Path file, ClassLoader classLoader) throws IOException {
+		this(file, new JDynTraceClasses(classLoader), new ConcurrentHashMap<>());
+	}
+	
+	/**
+	 * Opens another file which shares the loaded classes and the threads
+	 * with the given reader so that the trees of both files refer to the
+	 * same classes and threads.<br>
+	 * @param file			a file written by a {@link JDynTraceWriter}
+	 * @param sharedWith	another reader, may be closed already
+	 * @throws IOException	if the file can not be read or is not a trace file
+	 */
+	public JDynTraceReader(Path file, JDynTraceReader sharedWith) throws IOException {
+		this(file, sharedWith.classes, sharedWith.threads);
+	}
+	
+	private JDynTraceReader(Path file, JDynTraceClasses traceClasses,
+			Map<String, Thread> threadsByName) throws IOException
+	{
+		path = file;
+		classes = traceClasses;
+		threads = threadsByName;
+		channel = FileChannel.open(file, StandardOpenOption.READ);
+		ByteBuffer fileHeader = ByteBuffer.allocate(8);
+		try {
+			if (!readFully(fileHeader)
+					|| fileHeader.getInt(0) != JDynTraceFormat.FILE_MAGIC)
+			{
+				throw new IOException("Not a trace file: "+file);
+			}
+			if (fileHeader.getInt(4) != JDynTraceFormat.VERSION) {
+				throw new IOException("Unsupported trace version "+fileHeader.getInt(4)+": "+file);
+			}
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Reads the next chunk of the file and its string table.<br>
+	 * @return				the next chunk or null at the end of the trace
+	 * @throws IOException	if the file can not be read
+	 * @see #isDamaged()
+	 */
+	public Chunk nextChunk() throws IOException {
+		if (damaged) {
+			return null;
+		}
+		header.clear();
+		if (!readFully(header)) {
+			// A header that ends within the file was cut off by a crash
+			damaged = header.position() > 0;
+			return null;
+		}
+		int length = header.getInt(4);
+		if (header.getInt(0) != JDynTraceFormat.CHUNK_MAGIC || length < 0
+				|| length > channel.size() - channel.position())
+		{
+			damaged = true;
+			return null;
+		}
+		ByteBuffer payload = ByteBuffer.allocate(length);
+		readFully(payload);
+		crc.reset();
+		crc.update(payload.array(), 0, length);
+		if ((int) crc.getValue() != header.getInt(8)) {
+			damaged = true;
+			return null;
+		}
+		payload.flip();
+		try {
+			int count = readVarInt(payload);
+			for (int i = 0; i < count; i++) {
+				byte[] bytes = new byte[readVarInt(payload)];
+				payload.get(bytes);
+				if (stringCount == strings.length) {
+					strings = Arrays.copyOf(strings, stringCount * 2);
+				}
+				strings[stringCount++] = new String(bytes, StandardCharsets.UTF_8);
+			}
+		} catch (BufferUnderflowException | NegativeArraySizeException e) {
+			throw new IOException("Malformed string table in "+path, e);
+		}
+		return new Chunk(payload, strings, stringCount);
+	}
+	
+	/**
+	 * Returns true if the trace ended with a chunk that was incomplete or did
+	 * not match its checksum. The chunks before it were read normally.<br>
+	 * @return		true if the end of the file is damaged
+	 */
+	public boolean isDamaged() {
+		return damaged;
+	}
+	
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+	
+	private Thread getThread(String name) {
+		String threadName = name == null ? "unknown" : name;
+		return threads.computeIfAbsent(threadName, (n) -> new Thread(n));
+	}
+	
+	/**
+	 * @return		false if the end of the file was reached before buffer is full
+	 */
+	private boolean readFully(ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer) < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private static int readVarInt(ByteBuffer buffer) throws IOException {
+		long value = readVarLong(buffer);
+		if (value > Integer.MAX_VALUE || value < Integer.MIN_VALUE) {
+			throw new IOException("Varint out of range: "+value);
+		}
+		return (int) value;
+	}
+	
+	private static long readVarLong(ByteBuffer buffer) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			byte b = buffer.get();
+			value |= (long) (b & 0x7F) << shift;
+			if (b >= 0) {
+				return value;
+			}
+		}
+		throw new IOException("Malformed varint");
+	}
+	
+	/**
+	 * The trees of a single chunk.<br>
+	 */
+	public final class Chunk {
+		
+		private final ByteBuffer payload;
+		private final String[] table;
+		private final int tableSize;
+		/**
+		 * The id in the {@link JDynMethodRegistry} plus 1 by string
+		 * reference, 0 if the signature was not registered yet.<br>
+		 */
+		private int[] methodIDs;
+		private int lastObjectID;
+		
+		private Chunk(ByteBuffer treesPayload, String[] stringTable, int stringTableSize) {
+			payload = treesPayload;
+			table = stringTable;
+			tableSize = stringTableSize;
+		}
+		
+		/**
+		 * Decodes the trees of this chunk. Different chunks of the same
+		 * reader may be decoded at the same time; a single chunk must only be
+		 * decoded once.<br>
+		 * @return				the trees in the order they were written
+		 * @throws IOException	if the chunk is malformed
+		 */
+		public List<CallSequenceTree> decode() throws IOException {
+			methodIDs = new int[tableSize + 1];
+			JDynTreeBuilder builder = new JDynTreeBuilder();
+			try {
+				int treeCount = readVarInt(payload);
+				List<CallSequenceTree> result = new ArrayList<>(treeCount);
+				long lastTreeStart = 0;
+				for (int i = 0; i < treeCount; i++) {
+					String threadName = string(readVarInt(payload));
+					int flags = payload.get();
+					int partialIndex = readVarInt(payload);
+					long start = lastTreeStart + JDynTraceFormat.unZigZag(readVarLong(payload));
+					lastTreeStart = start;
+					lastObjectID = 0;
+					decodeEvents(builder, start);
+					result.add(builder.build(getThread(threadName),
+							(flags & JDynTraceFormat.TREE_PARTIAL) != 0, partialIndex));
+				}
+				return result;
+			} catch (BufferUnderflowException | IllegalStateException
+					| IllegalArgumentException | IndexOutOfBoundsException e)
+			{
+				throw new IOException("Malformed chunk in "+path, e);
+			}
+		}
+		
+		/**
+		 * Decodes the events of a tree in pre-order. The start time of each
+		 * started event is kept until all of its children were read.<br>
+		 */
+		private void decodeEvents(JDynTreeBuilder builder, long treeStart) throws IOException {
+			int[] remaining = new int[16];
+			long[] starts = new long[16];
+			int depth = 0;
+			do {
+				long parentStart = depth == 0 ? treeStart : starts[depth - 1];
+				int flags = payload.get() & 0xFF;
+				boolean exception = (flags & JDynTraceFormat.EVENT_KIND_MASK)
+						== JDynTraceFormat.EVENT_EXCEPTION;
+				long before = decodeEvent(builder, flags, parentStart);
+				int childCount = readVarInt(payload);
+				if (childCount > 0) {
+					if (exception) {
+						throw new IOException("Exception with children in "+path);
+					}
+					if (depth == remaining.length) {
+						remaining = Arrays.copyOf(remaining, depth * 2);
+						starts = Arrays.copyOf(starts, depth * 2);
+					}
+					remaining[depth] = childCount;
+					starts[depth] = before;
+					depth++;
+					continue;
+				}
+				if (!exception) {
+					builder.end();
+				}
+				// End each ancestor whose last child this was
+				while (depth > 0 && --remaining[depth - 1] == 0) {
+					depth--;
+					builder.end();
+				}
+			} while (depth > 0);
+		}
+		
+		/**
+		 * Reads a single event up to its number of children and adds it to
+		 * the builder.<br>
+		 * @return		the start time of the event
+		 */
+		private long decodeEvent(JDynTreeBuilder builder, int flags, long parentStart)
+				throws IOException
+		{
+			int ref = readVarInt(payload);
+			long before = parentStart + JDynTraceFormat.unZigZag(readVarLong(payload));
+			long after = before + JDynTraceFormat.unZigZag(readVarLong(payload));
+			boolean hasParams = (flags & JDynTraceFormat.FLAG_PARAMETERS) != 0;
+			boolean hasReturn = (flags & JDynTraceFormat.FLAG_RETURN) != 0;
+			boolean hasObject = (flags & JDynTraceFormat.FLAG_OBJECT) != 0;
+			switch (flags & JDynTraceFormat.EVENT_KIND_MASK) {
+			case JDynTraceFormat.EVENT_CONSTRUCTOR: {
+				Class<?> clazz = classes.getClass(string(readVarInt(payload)));
+				IdentifiedObject object = hasObject ? readObject() : null;
+				Object[] params = hasParams ? readValues() : null;
+				builder.beginConstructor(methodID(ref), clazz, params, object,
+						(flags & JDynTraceFormat.FLAG_SUPER) != 0, before, after);
+				break;
+			}
+			case JDynTraceFormat.EVENT_STATIC_METHOD: {
+				Class<?> clazz = classes.getClass(string(readVarInt(payload)));
+				Object[] params = hasParams ? readValues() : null;
+				Object returnedValue = hasReturn ? readValue() : null;
+				builder.beginStaticMethod(methodID(ref), clazz, params,
+						returnedValue, hasReturn, before, after);
+				break;
+			}
+			case JDynTraceFormat.EVENT_METHOD: {
+				IdentifiedObject object = hasObject ? readObject() : null;
+				Object[] params = hasParams ? readValues() : null;
+				Object returnedValue = hasReturn ? readValue() : null;
+				builder.beginMethod(methodID(ref), object, params,
+						returnedValue, hasReturn, before, after);
+				break;
+			}
+			case JDynTraceFormat.EVENT_EXCEPTION: {
+				String message = readText();
+				int id = readObjectID();
+				int[] unwound = new int[readVarInt(payload)];
+				for (int i = 0; i < unwound.length; i++) {
+					unwound[i] = methodID(readVarInt(payload));
+				}
+				if (unwound.length == 0) {
+					throw new IOException("Exception without unwound behaviors in "+path);
+				}
+				builder.addException(classes.createThrowable(string(ref), message),
+						id, unwound, before, after);
+				break;
+			}
+			default:
+				throw new IOException("Unknown event kind "+flags+" in "+path);
+			}
+			return before;
+		}
+		
+		private IdentifiedObject readObject() throws IOException {
+			Class<?> clazz = classes.getClass(string(readVarInt(payload)));
+			int id = readObjectID();
+			if (clazz == null) {
+				return null;
+			}
+			return IdentifiedObject.withoutObject(clazz, id);
+		}
+		
+		private int readObjectID() throws IOException {
+			lastObjectID += (int) JDynTraceFormat.unZigZag(readVarLong(payload));
+			return lastObjectID;
+		}
+		
+		private Object[] readValues() throws IOException {
+			Object[] values = new Object[readVarInt(payload)];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = readValue();
+			}
+			return values;
+		}
+		
+		private Object readValue() throws IOException {
+			int tag = payload.get();
+			switch (tag) {
+			case JDynTraceFormat.VALUE_NULL:
+				return null;
+			case JDynTraceFormat.VALUE_OBJECT:
+				return readObject();
+			case JDynTraceFormat.VALUE_BOOLEAN:
+				return Boolean.valueOf(payload.get() != 0);
+			case JDynTraceFormat.VALUE_BYTE:
+				return Byte.valueOf(payload.get());
+			case JDynTraceFormat.VALUE_CHAR:
+				return Character.valueOf((char) readVarInt(payload));
+			case JDynTraceFormat.VALUE_SHORT:
+				return Short.valueOf((short) JDynTraceFormat.unZigZag(readVarLong(payload)));
+			case JDynTraceFormat.VALUE_INT:
+				return Integer.valueOf((int) JDynTraceFormat.unZigZag(readVarLong(payload)));
+			case JDynTraceFormat.VALUE_LONG:
+				return Long.valueOf(JDynTraceFormat.unZigZag(readVarLong(payload)));
+			case JDynTraceFormat.VALUE_FLOAT:
+				return Float.valueOf(payload.getFloat());
+			case JDynTraceFormat.VALUE_DOUBLE:
+				return Double.valueOf(payload.getDouble());
+			case JDynTraceFormat.VALUE_STRING:
+				return readText();
+			case JDynTraceFormat.VALUE_ENUM: {
+				String className = string(readVarInt(payload));
+				return classes.getEnumConstant(className, string(readVarInt(payload)));
+			}
+			case JDynTraceFormat.VALUE_OTHER:
+				return classes.getOtherValue(string(readVarInt(payload)));
+			default:
+				throw new IOException("Unknown value tag "+tag+" in "+path);
+			}
+		}
+		
+		private String readText() throws IOException {
+			int length = readVarInt(payload);
+			if (length == 0) {
+				return null;
+			}
+			byte[] bytes = new byte[length - 1];
+			payload.get(bytes);
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+		
+		private String string(int ref) throws IOException {
+			if (ref == 0) {
+				return null;
+			}
+			if (ref < 0 || ref > tableSize) {
+				throw new IOException("Unknown string reference "+ref+" in "+path);
+			}
+			return table[ref - 1];
+		}
+		
+		private int methodID(int ref) throws IOException {
+			if (ref == 0) {
+				return JDynMethodRegistry.NO_METHOD_ID;
+			}
+			int id = methodIDs[ref];
+			if (id == 0) {
+				id = JDynMethodRegistry.register(string(ref)) + 1;
+				methodIDs[ref] = id;
+			}
+			return id - 1;
+		}
+		
+	}
+	
+}
\ No newline at end of file
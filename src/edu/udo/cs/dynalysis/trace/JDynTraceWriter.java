@@ -0,0 +1,447 @@
+package edu.udo.cs.dynalysis.trace;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import edu.udo.cs.dynaliser.CallSequenceTree;
+import edu.udo.cs.dynaliser.CstEvent;
+import edu.udo.cs.dynaliser.CstEventConstructor;
+import edu.udo.cs.dynaliser.CstEventException;
+import edu.udo.cs.dynaliser.CstEventMethod;
+import edu.udo.cs.dynaliser.CstEventStaticMethod;
+import edu.udo.cs.dynaliser.IdentifiedObject;
+import edu.udo.cs.dynaliser.JDynMethodRegistry;
+
+/**
+ * Writes {@link CallSequenceTree CallSequenceTrees} into a file of the
+ * {@link JDynTraceFormat binary trace format}.<br>
+ * Trees are encoded into the current chunk in memory. The chunk is written
+ * to the file channel once it holds more than the chunk size or when
+ * {@link #flush()} is called, so a crash loses at most the trees of the
+ * current chunk.<br>
+ * A writer is not thread safe.<br>
+ */
+public class JDynTraceWriter implements Closeable {
+
+	/**
+	 * The chunk size used if none is given.<br>
+	 */
+	public static final int DEFAULT_CHUNK_BYTES = 64 * 1024;
+
+	private final FileChannel channel;
+	private final int chunkBytes;
+	private final CRC32 crc = new CRC32();
+	/**
+	 * The number of each string that was used so far.<br>
+	 */
+	private final Map<String, Integer> stringNumbers = new HashMap<>();
+	/**
+	 * The strings used for the first time in the current chunk.<br>
+	 */
+	private final List<String> newStrings = new ArrayList<>();
+	/**
+	 * The string reference of each signature by method id, 0 if unknown.<br>
+	 */
+	private int[] signatureRefs = new int[256];
+	private final Deque<CstEvent> eventStack = new ArrayDeque<>();
+	/**
+	 * The trees of the current chunk.<br>
+	 */
+	private ByteBuffer trees;
+	private int treeCount;
+	/**
+	 * Holds a whole chunk before it is written to the channel.<br>
+	 */
+	private ByteBuffer chunk;
+	private long lastTreeStart;
+	private int lastObjectID;
+	private boolean closed;
+
+	/**
+	 * Creates the file, replacing an existing file, and writes the file
+	 * header.<br>
+	 * @param file				the file to write to
+	 * @param chunkSizeBytes	the size in bytes after which a chunk is written
+	 * @throws IOException		if the file can not be created
+	 */
+	public JDynTraceWriter(Path file, int chunkSizeBytes) throws IOException {
+		chunkBytes = Math.max(1024, chunkSizeBytes);
+		trees = ByteBuffer.allocate(chunkBytes * 2);
+		chunk = ByteBuffer.allocateDirect(chunkBytes * 2);
+		channel = FileChannel.open(file, StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		chunk.putInt(JDynTraceFormat.FILE_MAGIC);
+		chunk.putInt(JDynTraceFormat.VERSION);
+		chunk.flip();
+		writeFully(chunk);
+	}
+
+	/**
+	 * Adds the tree to the current chunk. The chunk is written to the file
+	 * if it is full afterwards.<br>
+	 * @param tree			a tree with a root event
+	 * @throws IOException	if a full chunk can not be written
+	 */
+	public void write(CallSequenceTree tree) throws IOException {
+		if (closed) {
+			throw new IOException("Writer is closed");
+		}
+		CstEvent root = tree.getRootEvent();
+		if (root == null) {
+			return;
+		}
+		lastObjectID = 0;
+		long start = root.getBeforeNanoTime();
+		putVarInt(stringRef(tree.getThread() == null ? null : tree.getThread().getName()));
+		ensure(1);
+		trees.put((byte) (tree.isPartial() ? JDynTraceFormat.TREE_PARTIAL : 0));
+		putVarInt(tree.getPartialIndex());
+		putVarLong(JDynTraceFormat.zigZag(start - lastTreeStart));
+		lastTreeStart = start;
+		// Iterative so that deep trees do not overflow the stack
+		eventStack.push(root);
+		while (!eventStack.isEmpty()) {
+			CstEvent event = eventStack.pop();
+			long parentStart = event == root ? start : event.getParent().getBeforeNanoTime();
+			writeEvent(event, parentStart);
+			List<CstEvent> children = event.getChildren();
+			putVarInt(children.size());
+			for (int i = children.size() - 1; i >= 0; i--) {
+				eventStack.push(children.get(i));
+			}
+		}
+		treeCount++;
+		if (trees.position() >= chunkBytes) {
+			flush();
+		}
+	}
+
+	/**
+	 * Writes the current chunk to the file if it holds any trees.<br>
+	 * @throws IOException	if the chunk can not be written
+	 */
+	public void flush() throws IOException {
+		if (treeCount == 0) {
+			return;
+		}
+		ByteBuffer payload = ByteBuffer.allocate(estimateStringBytes() + 5 + trees.position());
+		putVarInt(payload, newStrings.size());
+		for (String str : newStrings) {
+			byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+			putVarInt(payload, bytes.length);
+			payload.put(bytes);
+		}
+		putVarInt(payload, treeCount);
+		trees.flip();
+		payload.put(trees);
+		payload.flip();
+		crc.reset();
+		crc.update(payload.array(), 0, payload.limit());
+
+		int size = JDynTraceFormat.CHUNK_HEADER_BYTES + payload.limit();
+		if (chunk.capacity() < size) {
+			chunk = ByteBuffer.allocateDirect(size);
+		}
+		chunk.clear();
+		chunk.putInt(JDynTraceFormat.CHUNK_MAGIC);
+		chunk.putInt(payload.limit());
+		chunk.putInt((int) crc.getValue());
+		chunk.put(payload);
+		chunk.flip();
+
+		newStrings.clear();
+		trees.clear();
+		treeCount = 0;
+		// Times of the next chunk start at 0 so that chunks can be decoded on their own
+		lastTreeStart = 0;
+		writeFully(chunk);
+	}
+
+	/**
+	 * Writes the current chunk and closes the file.<br>
+	 * @throws IOException	if the chunk can not be written
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		try {
+			flush();
+		} finally {
+			closed = true;
+			channel.close();
+		}
+	}
+
+	private void writeFully(ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	private void writeEvent(CstEvent event, long parentStart) {
+		long before = event.getBeforeNanoTime();
+		switch (event.getEventType()) {
+		case CONSTRUCTOR: {
+			CstEventConstructor cEvent = (CstEventConstructor) event;
+			IdentifiedObject object = cEvent.getConstructedObject();
+			int flags = JDynTraceFormat.EVENT_CONSTRUCTOR;
+			if (cEvent.hasParameters()) {
+				flags |= JDynTraceFormat.FLAG_PARAMETERS;
+			}
+			if (object != null) {
+				flags |= JDynTraceFormat.FLAG_OBJECT;
+			}
+			if (cEvent.isSuperConstructor()) {
+				flags |= JDynTraceFormat.FLAG_SUPER;
+			}
+			writeEventStart(flags, signatureRef(event.getMethodID()), before, parentStart, event);
+			putVarInt(stringRef(className(cEvent.getConstructedClass())));
+			if (object != null) {
+				putObject(object);
+			}
+			if (cEvent.hasParameters()) {
+				putValues(cEvent.getParameters());
+			}
+			break;
+		}
+		case STATIC_METHOD: {
+			CstEventStaticMethod sEvent = (CstEventStaticMethod) event;
+			int flags = JDynTraceFormat.EVENT_STATIC_METHOD;
+			if (sEvent.hasParameters()) {
+				flags |= JDynTraceFormat.FLAG_PARAMETERS;
+			}
+			if (sEvent.hasReturnValue()) {
+				flags |= JDynTraceFormat.FLAG_RETURN;
+			}
+			writeEventStart(flags, signatureRef(event.getMethodID()), before, parentStart, event);
+			putVarInt(stringRef(className(sEvent.getMethodClass())));
+			if (sEvent.hasParameters()) {
+				putValues(sEvent.getParameters());
+			}
+			if (sEvent.hasReturnValue()) {
+				putValue(sEvent.getReturnedValue());
+			}
+			break;
+		}
+		case METHOD: {
+			CstEventMethod mEvent = (CstEventMethod) event;
+			IdentifiedObject object = mEvent.getInvokingObject();
+			int flags = JDynTraceFormat.EVENT_METHOD;
+			if (mEvent.hasParameters()) {
+				flags |= JDynTraceFormat.FLAG_PARAMETERS;
+			}
+			if (mEvent.hasReturnValue()) {
+				flags |= JDynTraceFormat.FLAG_RETURN;
+			}
+			if (object != null) {
+				flags |= JDynTraceFormat.FLAG_OBJECT;
+			}
+			writeEventStart(flags, signatureRef(event.getMethodID()), before, parentStart, event);
+			if (object != null) {
+				putObject(object);
+			}
+			if (mEvent.hasParameters()) {
+				putValues(mEvent.getParameters());
+			}
+			if (mEvent.hasReturnValue()) {
+				putValue(mEvent.getReturnedValue());
+			}
+			break;
+		}
+		case EXCEPTION: {
+			CstEventException eEvent = (CstEventException) event;
+			Throwable throwable = eEvent.getThrowable();
+			writeEventStart(JDynTraceFormat.EVENT_EXCEPTION, stringRef(throwable.getClass().getName()),
+					before, parentStart, event);
+			putText(throwable.getMessage());
+			putObjectID(eEvent.getExceptionObject().getUniqueID());
+			int[] unwound = eEvent.getUnwoundMethodIDs();
+			putVarInt(unwound.length);
+			for (int methodID : unwound) {
+				putVarInt(signatureRef(methodID));
+			}
+			break;
+		}
+		default:
+			throw new IllegalStateException("Unknown event type "+event.getEventType());
+		}
+	}
+
+	private void writeEventStart(int flags, int ref, long before, long parentStart, CstEvent event) {
+		ensure(1);
+		trees.put((byte) flags);
+		putVarInt(ref);
+		putVarLong(JDynTraceFormat.zigZag(before - parentStart));
+		putVarLong(JDynTraceFormat.zigZag(event.getAfterNanoTime() - before));
+	}
+
+	private void putObject(IdentifiedObject object) {
+		putVarInt(stringRef(className(object.getIdentifiedObjectClass())));
+		putObjectID(object.getUniqueID());
+	}
+
+	private void putObjectID(int id) {
+		putVarLong(JDynTraceFormat.zigZag((long) id - lastObjectID));
+		lastObjectID = id;
+	}
+
+	private void putValues(Object[] values) {
+		putVarInt(values.length);
+		for (Object value : values) {
+			putValue(value);
+		}
+	}
+
+	private void putValue(Object value) {
+		ensure(9);
+		if (value == null) {
+			trees.put((byte) JDynTraceFormat.VALUE_NULL);
+		} else if (value instanceof IdentifiedObject) {
+			trees.put((byte) JDynTraceFormat.VALUE_OBJECT);
+			putObject((IdentifiedObject) value);
+		} else if (value instanceof Boolean) {
+			trees.put((byte) JDynTraceFormat.VALUE_BOOLEAN);
+			trees.put((byte) (((Boolean) value) ? 1 : 0));
+		} else if (value instanceof Byte) {
+			trees.put((byte) JDynTraceFormat.VALUE_BYTE);
+			trees.put((Byte) value);
+		} else if (value instanceof Character) {
+			trees.put((byte) JDynTraceFormat.VALUE_CHAR);
+			putVarInt((Character) value);
+		} else if (value instanceof Short) {
+			trees.put((byte) JDynTraceFormat.VALUE_SHORT);
+			putVarLong(JDynTraceFormat.zigZag((Short) value));
+		} else if (value instanceof Integer) {
+			trees.put((byte) JDynTraceFormat.VALUE_INT);
+			putVarLong(JDynTraceFormat.zigZag((Integer) value));
+		} else if (value instanceof Long) {
+			trees.put((byte) JDynTraceFormat.VALUE_LONG);
+			putVarLong(JDynTraceFormat.zigZag((Long) value));
+		} else if (value instanceof Float) {
+			trees.put((byte) JDynTraceFormat.VALUE_FLOAT);
+			trees.putFloat((Float) value);
+		} else if (value instanceof Double) {
+			trees.put((byte) JDynTraceFormat.VALUE_DOUBLE);
+			trees.putDouble((Double) value);
+		} else if (value instanceof String) {
+			trees.put((byte) JDynTraceFormat.VALUE_STRING);
+			putText((String) value);
+		} else if (value instanceof Enum) {
+			trees.put((byte) JDynTraceFormat.VALUE_ENUM);
+			putVarInt(stringRef(((Enum<?>) value).getDeclaringClass().getName()));
+			putVarInt(stringRef(((Enum<?>) value).name()));
+		} else {
+			trees.put((byte) JDynTraceFormat.VALUE_OTHER);
+			putVarInt(stringRef(value.getClass().getName()));
+		}
+	}
+
+	/**
+	 * Writes text which is not added to the string table, for example
+	 * messages and parameter values. The length is written plus one so
+	 * that 0 stands for null.<br>
+	 */
+	private void putText(String text) {
+		if (text == null) {
+			putVarInt(0);
+			return;
+		}
+		byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+		putVarInt(bytes.length + 1);
+		ensure(bytes.length);
+		trees.put(bytes);
+	}
+
+	private int signatureRef(int methodID) {
+		if (methodID < 0) {
+			return 0;
+		}
+		if (methodID >= signatureRefs.length) {
+			signatureRefs = Arrays.copyOf(signatureRefs, Math.max(methodID + 1, signatureRefs.length * 2));
+		}
+		int ref = signatureRefs[methodID];
+		if (ref == 0) {
+			ref = stringRef(JDynMethodRegistry.getSignature(methodID));
+			signatureRefs[methodID] = ref;
+		}
+		return ref;
+	}
+
+	/**
+	 * Returns the reference to the given string. Strings which were not
+	 * used before are defined in the current chunk.<br>
+	 */
+	private int stringRef(String str) {
+		if (str == null) {
+			return 0;
+		}
+		Integer number = stringNumbers.get(str);
+		if (number == null) {
+			number = stringNumbers.size();
+			stringNumbers.put(str, number);
+			newStrings.add(str);
+		}
+		return number + 1;
+	}
+
+	private static String className(Class<?> clazz) {
+		return clazz == null ? null : clazz.getName();
+	}
+
+	private int estimateStringBytes() {
+		int bytes = 5;
+		for (String str : newStrings) {
+			// At most 3 bytes per UTF-16 char
+			bytes += 5 + str.length() * 3;
+		}
+		return bytes;
+	}
+
+	private void ensure(int bytes) {
+		if (trees.remaining() < bytes) {
+			ByteBuffer bigger = ByteBuffer.allocate(Math.max(trees.capacity() * 2,
+					trees.position() + bytes));
+			trees.flip();
+			bigger.put(trees);
+			trees = bigger;
+		}
+	}
+
+	private void putVarInt(int value) {
+		ensure(5);
+		putVarInt(trees, value);
+	}
+
+	private void putVarLong(long value) {
+		ensure(10);
+		while ((value & ~0x7FL) != 0) {
+			trees.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		trees.put((byte) value);
+	}
+
+	private static void putVarInt(ByteBuffer buffer, int value) {
+		while ((value & ~0x7F) != 0) {
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+}
\ No newline at end of file